@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.kinesis.model.Shard;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.IKinesisProxy;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLease;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.interfaces.ILeaseManager;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
+
+/**
+ * Measures the shard syncs of a worker starting on a stream with a long shard lineage, built by
+ * {@link SyntheticShardGraph}, with and without the shard lineage index and parallel lease writes. The lease table is
+ * kept in memory, and every lease write waits for a fixed latency that stands for the round trip to DynamoDB.
+ *
+ * The startup column is the first sync, from an empty lease table at TRIM_HORIZON, which creates a lease for every
+ * shard. The resync column is the mean of the following syncs, which find no new shard. The last column tells if the
+ * lease table ends up the same as with the legacy sync.
+ *
+ * Usage: ShardSyncerBenchmark [writeLatencyMillis] [maxParallelLeaseWrites] [resyncs] [reshardCounts]
+ *
+ * The reshard counts are separated by commas. Run with the benchmarks profile:
+ *
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec@shard-sync -DshardSync.reshardCounts=1000,10000
+ * </pre>
+ */
+public class ShardSyncerBenchmark {
+
+    private static final long DEFAULT_WRITE_LATENCY_MILLIS = 2L;
+    private static final int DEFAULT_MAX_PARALLEL_LEASE_WRITES = 32;
+    private static final int DEFAULT_RESYNCS = 5;
+    private static final int[] DEFAULT_RESHARD_COUNTS = { 1000, 10000 };
+    private static final int OPEN_SHARD_COUNT = 16;
+    private static final long SEED = 17L;
+
+    // CHECKSTYLE:IGNORE UncommentedMain FOR NEXT 2 LINES
+    public static void main(String[] args) throws Exception {
+        long writeLatencyMillis = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_WRITE_LATENCY_MILLIS;
+        int maxParallelLeaseWrites = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_PARALLEL_LEASE_WRITES;
+        int resyncs = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_RESYNCS;
+        int[] reshardCounts = args.length > 3
+                ? Arrays.stream(args[3].split(",")).mapToInt(Integer::parseInt).toArray()
+                : DEFAULT_RESHARD_COUNTS;
+
+        System.out.println(String.format("%-16s %8s %14s %12s %14s %12s", "mode", "shards", "lease writes",
+                "startup (ms)", "resync (ms)", "same leases"));
+        for (int reshardCount : reshardCounts) {
+            SyntheticShardGraph graph = new SyntheticShardGraph(OPEN_SHARD_COUNT, SEED);
+            graph.reshard(reshardCount);
+            List<Shard> shards = graph.getShards();
+
+            Result legacy = run(shards, writeLatencyMillis, resyncs, null, 1);
+            print("legacy", shards.size(), legacy, legacy);
+            print("index", shards.size(), run(shards, writeLatencyMillis, resyncs, new ShardLineageIndex(), 1),
+                    legacy);
+            print("index+parallel", shards.size(),
+                    run(shards, writeLatencyMillis, resyncs, new ShardLineageIndex(), maxParallelLeaseWrites),
+                    legacy);
+        }
+    }
+
+    private static Result run(List<Shard> shards,
+            long writeLatencyMillis,
+            int resyncs,
+            ShardLineageIndex shardLineageIndex,
+            int maxParallelLeaseWrites) throws Exception {
+        InMemoryLeaseTable leaseTable = new InMemoryLeaseTable(writeLatencyMillis);
+        ILeaseManager<KinesisClientLease> leaseManager = leaseTable.proxy();
+        IKinesisProxy kinesisProxy = (IKinesisProxy) Proxy.newProxyInstance(IKinesisProxy.class.getClassLoader(),
+                new Class<?>[] { IKinesisProxy.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getShardList")) {
+                        return shards;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        double startupMillis = sync(kinesisProxy, leaseManager, shardLineageIndex, maxParallelLeaseWrites);
+        double resyncMillis = 0;
+        for (int i = 0; i < resyncs; i++) {
+            resyncMillis += sync(kinesisProxy, leaseManager, shardLineageIndex, maxParallelLeaseWrites);
+        }
+        return new Result(leaseTable.writes.sum(), startupMillis, resyncs == 0 ? 0 : resyncMillis / resyncs,
+                leaseTable.leases);
+    }
+
+    private static double sync(IKinesisProxy kinesisProxy,
+            ILeaseManager<KinesisClientLease> leaseManager,
+            ShardLineageIndex shardLineageIndex,
+            int maxParallelLeaseWrites) throws Exception {
+        InitialPositionInStreamExtended initialPosition =
+                InitialPositionInStreamExtended.newInitialPosition(InitialPositionInStream.TRIM_HORIZON);
+        long startNanos = System.nanoTime();
+        MetricsHelper.startScope(new NullMetricsFactory());
+        try {
+            if (shardLineageIndex == null) {
+                ShardSyncer.checkAndCreateLeasesForNewShards(kinesisProxy, leaseManager, initialPosition, true, false);
+            } else {
+                ShardSyncer.checkAndCreateLeasesForNewShards(kinesisProxy, leaseManager, initialPosition, true, false,
+                        shardLineageIndex, maxParallelLeaseWrites);
+            }
+        } finally {
+            MetricsHelper.endScope();
+        }
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    private static void print(String mode, int shardCount, Result result, Result legacy) {
+        System.out.println(String.format("%-16s %8d %14d %12.1f %14.1f %12s", mode, shardCount, result.writes,
+                result.startupMillis, result.resyncMillis, result.leases.equals(legacy.leases) ? "yes" : "NO"));
+    }
+
+    private static class Result {
+        private final long writes;
+        private final double startupMillis;
+        private final double resyncMillis;
+        private final Map<String, KinesisClientLease> leases;
+
+        private Result(long writes, double startupMillis, double resyncMillis, Map<String, KinesisClientLease> leases) {
+            this.writes = writes;
+            this.startupMillis = startupMillis;
+            this.resyncMillis = resyncMillis;
+            this.leases = leases;
+        }
+    }
+
+    /**
+     * Lease table backing the lease manager methods used by the shard sync.
+     */
+    private static class InMemoryLeaseTable {
+        private final long writeLatencyMillis;
+        private final Map<String, KinesisClientLease> leases = new ConcurrentHashMap<>();
+        private final LongAdder writes = new LongAdder();
+
+        private InMemoryLeaseTable(long writeLatencyMillis) {
+            this.writeLatencyMillis = writeLatencyMillis;
+        }
+
+        @SuppressWarnings("unchecked")
+        private ILeaseManager<KinesisClientLease> proxy() {
+            return (ILeaseManager<KinesisClientLease>) Proxy.newProxyInstance(ILeaseManager.class.getClassLoader(),
+                    new Class<?>[] { ILeaseManager.class },
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "listLeases":
+                                if (args == null) {
+                                    List<KinesisClientLease> copies = new ArrayList<>(leases.size());
+                                    for (KinesisClientLease lease : leases.values()) {
+                                        copies.add(lease.copy());
+                                    }
+                                    return copies;
+                                }
+                                break;
+                            case "createLeaseIfNotExists":
+                                write();
+                                KinesisClientLease lease = ((KinesisClientLease) args[0]).copy();
+                                lease.setLeaseCounter(0L);
+                                return leases.putIfAbsent(lease.getLeaseKey(), lease) == null;
+                            case "deleteLease":
+                                write();
+                                leases.remove(((KinesisClientLease) args[0]).getLeaseKey());
+                                return null;
+                            default:
+                                break;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        private void write() throws InterruptedException {
+            writes.increment();
+            if (writeLatencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(writeLatencyMillis);
+            }
+        }
+    }
+}
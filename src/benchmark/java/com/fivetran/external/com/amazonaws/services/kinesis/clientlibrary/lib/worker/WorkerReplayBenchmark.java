@@ -0,0 +1,354 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.kinesis.model.DescribeStreamResult;
+import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.InvalidArgumentException;
+import com.amazonaws.services.kinesis.model.PutRecordResult;
+import com.amazonaws.services.kinesis.model.Record;
+import com.amazonaws.services.kinesis.model.ResourceNotFoundException;
+import com.amazonaws.services.kinesis.model.Shard;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.exceptions.KinesisClientLibException;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessor;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessorFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.IKinesisProxy;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.KinesisLocalFileProxy;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.util.KinesisLocalFileDataCreator;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ExtendedSequenceNumber;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.Messages;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLease;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLeaseManager;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
+import com.google.protobuf.ByteString;
+
+/**
+ * Replays a local stream through a real {@link Worker}, reading the records from a {@link KinesisLocalFileProxy} and
+ * keeping its leases and checkpoints in an embedded DynamoDB lease table. The record processor checkpoints after
+ * every batch. Each run starts from a fresh lease table, and the measured runs follow warm up runs of the same size.
+ *
+ * For each measured run it reports the user records processed per second, the allocation rate of the JVM, and the p50
+ * and p99 duration of each {@link PipelineStage}, collected with a {@link PipelineLatencyHistograms} listener. The
+ * allocation rate is the sum of the bytes allocated by the threads alive at the end of the run, so it includes the
+ * embedded DynamoDB, but not the threads that exited during the run.
+ *
+ * Usage: WorkerReplayBenchmark [shardCount] [recordSize] [userRecordsPerAggregate] [recordsPerShard]
+ *
+ * The records are KPL aggregated records holding userRecordsPerAggregate user records of recordSize bytes, or plain
+ * records of recordSize bytes if userRecordsPerAggregate is 0. Run with the benchmarks profile:
+ *
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec@replay -Dreplay.shardCount=16 -Dreplay.userRecordsPerAggregate=0
+ * </pre>
+ */
+public class WorkerReplayBenchmark {
+
+    private static final int DEFAULT_SHARD_COUNT = 8;
+    private static final int DEFAULT_RECORD_SIZE = 1024;
+    private static final int DEFAULT_USER_RECORDS_PER_AGGREGATE = 0;
+    private static final int DEFAULT_RECORDS_PER_SHARD = 20000;
+    private static final int WARMUP_RUNS = 1;
+    private static final int MEASURED_RUNS = 3;
+    private static final int MAX_RECORDS_PER_CALL = 1000;
+    private static final long IDLE_TIME_MILLIS = 200L;
+    private static final long LEASE_DURATION_MILLIS = 60000L;
+    private static final long EPSILON_MILLIS = 1000L;
+    private static final long RUN_TIMEOUT_MINUTES = 10L;
+    private static final byte[] AGGREGATED_RECORD_MAGIC = new byte[] {-13, -119, -102, -62 };
+    private static final double[] PERCENTILES = { 50.0, 99.0 };
+
+    // CHECKSTYLE:IGNORE UncommentedMain FOR NEXT 2 LINES
+    public static void main(String[] args) throws Exception {
+        int shardCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SHARD_COUNT;
+        int recordSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RECORD_SIZE;
+        int userRecordsPerAggregate = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_USER_RECORDS_PER_AGGREGATE;
+        int recordsPerShard = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_RECORDS_PER_SHARD;
+
+        System.out.println(String.format("shards=%d recordSize=%d userRecordsPerAggregate=%d recordsPerShard=%d",
+                shardCount, recordSize, userRecordsPerAggregate, recordsPerShard));
+        List<Shard> shardList = KinesisLocalFileDataCreator.createShardList(shardCount, "replay-", BigInteger.ONE);
+        File file = KinesisLocalFileDataCreator.generateTempDataFile(shardList, recordsPerShard, "replayBench");
+        try {
+            IKinesisProxy proxy = new PayloadReplacingProxy(new KinesisLocalFileProxy(file.getAbsolutePath()),
+                    createPayload(recordSize, userRecordsPerAggregate));
+            int userRecordsPerRecord = Math.max(1, userRecordsPerAggregate);
+            for (int run = 0; run < WARMUP_RUNS; run++) {
+                run("warmup-" + run, proxy, shardList, recordsPerShard * userRecordsPerRecord);
+            }
+            System.out.println(String.format("%-6s %14s %12s %16s", "run", "records/sec", "alloc MB/s",
+                    "alloc B/record"));
+            Result[] results = new Result[MEASURED_RUNS];
+            for (int run = 0; run < MEASURED_RUNS; run++) {
+                results[run] = run("run-" + run, proxy, shardList, recordsPerShard * userRecordsPerRecord);
+                System.out.println(String.format("%-6d %14.1f %12.1f %16.1f", run, results[run].recordsPerSecond,
+                        results[run].allocatedBytesPerSecond / (1024 * 1024),
+                        results[run].allocatedBytesPerRecord));
+            }
+
+            System.out.println();
+            System.out.println(String.format("%-16s %10s %10s %10s", "stage (us)", "run", "p50", "p99"));
+            for (PipelineStage stage : PipelineStage.values()) {
+                for (int run = 0; run < MEASURED_RUNS; run++) {
+                    PipelineLatencyHistograms histograms = results[run].histograms;
+                    System.out.println(String.format("%-16s %10d %10d %10d", stage, run,
+                            histograms.getValueAtPercentile(stage, PERCENTILES[0]),
+                            histograms.getValueAtPercentile(stage, PERCENTILES[1])));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static Result run(String runName, IKinesisProxy proxy, List<Shard> shardList, int userRecordsPerShard)
+            throws Exception {
+        AmazonDynamoDB ddbClient = DynamoDBEmbedded.create().amazonDynamoDB();
+        KinesisClientLeaseManager leaseManager = new KinesisClientLeaseManager("replay-" + runName, ddbClient);
+        leaseManager.createLeaseTableIfNotExists(1L, 1L);
+        for (Shard shard : shardList) {
+            KinesisClientLease lease = ShardSyncer.newKCLLease(shard);
+            lease.setCheckpoint(ExtendedSequenceNumber.TRIM_HORIZON);
+            leaseManager.createLeaseIfNotExists(lease);
+        }
+
+        PipelineLatencyHistograms histograms = new PipelineLatencyHistograms();
+        NullMetricsFactory metricsFactory = new NullMetricsFactory();
+        KinesisClientLibConfiguration config = new KinesisClientLibConfiguration("replay", null, null,
+                "replay-worker")
+                .withDataFetchingStrategy(DataFetchingStrategy.PREFETCH_CACHED.name())
+                .withMaxRecords(MAX_RECORDS_PER_CALL)
+                .withIdleMillisBetweenCalls(IDLE_TIME_MILLIS)
+                .withPipelineListener(histograms);
+        KinesisClientLibLeaseCoordinator leaseCoordinator = new KinesisClientLibLeaseCoordinator(leaseManager,
+                "replay-worker", LEASE_DURATION_MILLIS, EPSILON_MILLIS, Integer.MAX_VALUE, shardList.size(),
+                KinesisClientLibConfiguration.DEFAULT_MAX_LEASE_RENEWAL_THREADS, metricsFactory);
+        StreamConfig streamConfig = new StreamConfig(proxy, MAX_RECORDS_PER_CALL, IDLE_TIME_MILLIS, false, false,
+                InitialPositionInStreamExtended.newInitialPosition(InitialPositionInStream.TRIM_HORIZON));
+
+        int totalUserRecords = shardList.size() * userRecordsPerShard;
+        Semaphore processedRecords = new Semaphore(0);
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        Worker worker = new Worker("replay",
+                new CheckpointingProcessorFactory(processedRecords),
+                config,
+                streamConfig,
+                streamConfig.getInitialPositionInStream(),
+                IDLE_TIME_MILLIS,
+                KinesisClientLibConfiguration.DEFAULT_SHARD_SYNC_INTERVAL_MILLIS,
+                false,
+                leaseCoordinator,
+                leaseCoordinator,
+                executorService,
+                metricsFactory,
+                KinesisClientLibConfiguration.DEFAULT_TASK_BACKOFF_TIME_MILLIS,
+                LEASE_DURATION_MILLIS,
+                true,
+                new NoOpShardPrioritization());
+
+        Thread workerThread = new Thread(worker);
+        final long startAllocatedBytes = allocatedBytes();
+        final long startNanos = System.nanoTime();
+        workerThread.start();
+        try {
+            if (!processedRecords.tryAcquire(totalUserRecords, RUN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Timed out waiting for " + runName + " to process all records");
+            }
+            final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            final long allocatedBytes = allocatedBytes() - startAllocatedBytes;
+            return new Result(totalUserRecords / elapsedSeconds, allocatedBytes / elapsedSeconds,
+                    (double) allocatedBytes / totalUserRecords, histograms);
+        } finally {
+            worker.shutdown();
+            workerThread.join(TimeUnit.MINUTES.toMillis(1));
+            executorService.shutdownNow();
+            ddbClient.shutdown();
+        }
+    }
+
+    /**
+     * @return Bytes allocated so far by the live threads of the JVM
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0L;
+        for (long allocated : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            // -1 for the threads that exited since their ids were read.
+            total += Math.max(allocated, 0L);
+        }
+        return total;
+    }
+
+    /**
+     * @return Data of the records of the stream: a KPL aggregated record holding userRecordsPerAggregate user records
+     *         of recordSize bytes, or recordSize random bytes if userRecordsPerAggregate is 0
+     */
+    private static ByteBuffer createPayload(int recordSize, int userRecordsPerAggregate) throws Exception {
+        Random random = new Random(17);
+        byte[] data = new byte[recordSize];
+        if (userRecordsPerAggregate == 0) {
+            random.nextBytes(data);
+            return ByteBuffer.wrap(data);
+        }
+        Messages.AggregatedRecord.Builder builder = Messages.AggregatedRecord.newBuilder()
+                .addPartitionKeyTable("partitionKey");
+        for (int i = 0; i < userRecordsPerAggregate; i++) {
+            random.nextBytes(data);
+            builder.addRecords(Messages.Record.newBuilder()
+                    .setPartitionKeyIndex(0)
+                    .setData(ByteString.copyFrom(data)));
+        }
+        byte[] message = builder.build().toByteArray();
+        ByteBuffer aggregated = ByteBuffer.allocate(AGGREGATED_RECORD_MAGIC.length + message.length + 16);
+        aggregated.put(AGGREGATED_RECORD_MAGIC).put(message).put(MessageDigest.getInstance("MD5").digest(message));
+        aggregated.flip();
+        return aggregated;
+    }
+
+    private static class Result {
+        private final double recordsPerSecond;
+        private final double allocatedBytesPerSecond;
+        private final double allocatedBytesPerRecord;
+        private final PipelineLatencyHistograms histograms;
+
+        private Result(double recordsPerSecond, double allocatedBytesPerSecond, double allocatedBytesPerRecord,
+                PipelineLatencyHistograms histograms) {
+            this.recordsPerSecond = recordsPerSecond;
+            this.allocatedBytesPerSecond = allocatedBytesPerSecond;
+            this.allocatedBytesPerRecord = allocatedBytesPerRecord;
+            this.histograms = histograms;
+        }
+    }
+
+    /**
+     * Returns copies of the records of the local file with the benchmark payload as data, since the local file only
+     * holds short text records. Like the records unmarshalled from a GetRecords response, each call returns new
+     * records.
+     */
+    private static class PayloadReplacingProxy implements IKinesisProxy {
+        private final IKinesisProxy delegate;
+        private final ByteBuffer payload;
+
+        private PayloadReplacingProxy(IKinesisProxy delegate, ByteBuffer payload) {
+            this.delegate = delegate;
+            this.payload = payload;
+        }
+
+        @Override
+        public GetRecordsResult get(String shardIterator, int maxRecords)
+                throws ResourceNotFoundException, InvalidArgumentException {
+            GetRecordsResult result = delegate.get(shardIterator, maxRecords);
+            List<Record> records = result.getRecords();
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                records.set(i, new Record()
+                        .withSequenceNumber(record.getSequenceNumber())
+                        .withPartitionKey(record.getPartitionKey())
+                        .withApproximateArrivalTimestamp(record.getApproximateArrivalTimestamp())
+                        .withData(payload.duplicate()));
+            }
+            return result;
+        }
+
+        @Override
+        public DescribeStreamResult getStreamInfo(String startShardId) throws ResourceNotFoundException {
+            return delegate.getStreamInfo(startShardId);
+        }
+
+        @Override
+        public Set<String> getAllShardIds() throws ResourceNotFoundException {
+            return delegate.getAllShardIds();
+        }
+
+        @Override
+        public List<Shard> getShardList() throws ResourceNotFoundException {
+            return delegate.getShardList();
+        }
+
+        @Override
+        public String getIterator(String shardId, String iteratorEnum, String sequenceNumber)
+                throws ResourceNotFoundException, InvalidArgumentException {
+            return delegate.getIterator(shardId, iteratorEnum, sequenceNumber);
+        }
+
+        @Override
+        public String getIterator(String shardId, String iteratorEnum)
+                throws ResourceNotFoundException, InvalidArgumentException {
+            return delegate.getIterator(shardId, iteratorEnum);
+        }
+
+        @Override
+        public String getIterator(String shardId, Date timestamp)
+                throws ResourceNotFoundException, InvalidArgumentException {
+            return delegate.getIterator(shardId, timestamp);
+        }
+
+        @Override
+        public PutRecordResult put(String sequenceNumberForOrdering, String explicitHashKey, String partitionKey,
+                ByteBuffer data) throws ResourceNotFoundException, InvalidArgumentException {
+            return delegate.put(sequenceNumberForOrdering, explicitHashKey, partitionKey, data);
+        }
+    }
+
+    private static class CheckpointingProcessorFactory implements IRecordProcessorFactory {
+        private final Semaphore processedRecords;
+
+        private CheckpointingProcessorFactory(Semaphore processedRecords) {
+            this.processedRecords = processedRecords;
+        }
+
+        @Override
+        public IRecordProcessor createProcessor() {
+            return new IRecordProcessor() {
+                @Override
+                public void initialize(InitializationInput initializationInput) {
+                }
+
+                @Override
+                public void processRecords(ProcessRecordsInput processRecordsInput) {
+                    try {
+                        processRecordsInput.getCheckpointer().checkpoint();
+                    } catch (KinesisClientLibException e) {
+                        throw new IllegalStateException("Unable to checkpoint", e);
+                    }
+                    processedRecords.release(processRecordsInput.getRecords().size());
+                }
+
+                @Override
+                public void shutdown(ShutdownInput shutdownInput) {
+                }
+            };
+        }
+    }
+}
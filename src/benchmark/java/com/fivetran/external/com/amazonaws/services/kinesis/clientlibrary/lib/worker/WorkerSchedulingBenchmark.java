@@ -0,0 +1,281 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.kinesis.model.DescribeStreamResult;
+import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.InvalidArgumentException;
+import com.amazonaws.services.kinesis.model.PutRecordResult;
+import com.amazonaws.services.kinesis.model.Record;
+import com.amazonaws.services.kinesis.model.ResourceNotFoundException;
+import com.amazonaws.services.kinesis.model.Shard;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessor;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessorFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.IKinesisProxy;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.KinesisLocalFileProxy;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.util.KinesisLocalFileDataCreator;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ExtendedSequenceNumber;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLease;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLeaseManager;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
+
+/**
+ * Compares the {@link ShardConsumerSchedulingStrategy#POLLING} and {@link ShardConsumerSchedulingStrategy#EVENT_DRIVEN}
+ * worker loops by running a real {@link Worker} against a {@link KinesisLocalFileProxy} and an embedded DynamoDB
+ * lease table. For each shard count it reports the records processed per second, and the p99 latency between the
+ * GetRecords call that returned a record and the record processor receiving it.
+ *
+ * Usage: WorkerSchedulingBenchmark [recordsPerShard] [shardCounts]
+ *
+ * The shard counts are separated by commas. Run with the benchmarks profile:
+ *
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec@scheduling -Dscheduling.shardCounts=10,100
+ * </pre>
+ */
+public class WorkerSchedulingBenchmark {
+
+    private static final int DEFAULT_RECORDS_PER_SHARD = 100;
+    private static final int[] DEFAULT_SHARD_COUNTS = { 10, 100, 1000 };
+    private static final int MAX_RECORDS_PER_CALL = 10;
+    private static final long IDLE_TIME_MILLIS = 200L;
+    private static final long LEASE_DURATION_MILLIS = 60000L;
+    private static final long EPSILON_MILLIS = 1000L;
+    private static final long RUN_TIMEOUT_MINUTES = 10L;
+
+    // CHECKSTYLE:IGNORE UncommentedMain FOR NEXT 2 LINES
+    public static void main(String[] args) throws Exception {
+        int recordsPerShard = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS_PER_SHARD;
+        int[] shardCounts = args.length > 1
+                ? Arrays.stream(args[1].split(",")).mapToInt(Integer::parseInt).toArray()
+                : DEFAULT_SHARD_COUNTS;
+
+        System.out.println(String.format("%-14s %8s %14s %18s", "mode", "shards", "records/sec", "p99 latency (ms)"));
+        for (int shardCount : shardCounts) {
+            for (ShardConsumerSchedulingStrategy strategy : ShardConsumerSchedulingStrategy.values()) {
+                Result result = run(strategy, shardCount, recordsPerShard);
+                System.out.println(String.format("%-14s %8d %14.1f %18.2f", strategy, shardCount,
+                        result.recordsPerSecond, result.p99LatencyMillis));
+            }
+        }
+    }
+
+    private static Result run(ShardConsumerSchedulingStrategy strategy, int shardCount, int recordsPerShard)
+            throws Exception {
+        List<Shard> shardList = KinesisLocalFileDataCreator.createShardList(shardCount, "bench-", BigInteger.ONE);
+        File file = KinesisLocalFileDataCreator.generateTempDataFile(shardList, recordsPerShard, "schedulingBench");
+        FetchTimeRecordingProxy proxy = new FetchTimeRecordingProxy(new KinesisLocalFileProxy(file.getAbsolutePath()));
+
+        AmazonDynamoDB ddbClient = DynamoDBEmbedded.create().amazonDynamoDB();
+        KinesisClientLeaseManager leaseManager = new KinesisClientLeaseManager("bench-" + strategy, ddbClient);
+        leaseManager.createLeaseTableIfNotExists(1L, 1L);
+        for (Shard shard : shardList) {
+            KinesisClientLease lease = ShardSyncer.newKCLLease(shard);
+            lease.setCheckpoint(ExtendedSequenceNumber.TRIM_HORIZON);
+            leaseManager.createLeaseIfNotExists(lease);
+        }
+
+        NullMetricsFactory metricsFactory = new NullMetricsFactory();
+        KinesisClientLibConfiguration config = new KinesisClientLibConfiguration("bench", null, null, "bench-worker")
+                .withDataFetchingStrategy(DataFetchingStrategy.PREFETCH_CACHED.name())
+                .withIdleMillisBetweenCalls(IDLE_TIME_MILLIS)
+                .withShardConsumerSchedulingStrategy(strategy);
+        KinesisClientLibLeaseCoordinator leaseCoordinator = new KinesisClientLibLeaseCoordinator(leaseManager,
+                "bench-worker", LEASE_DURATION_MILLIS, EPSILON_MILLIS, Integer.MAX_VALUE, shardCount,
+                KinesisClientLibConfiguration.DEFAULT_MAX_LEASE_RENEWAL_THREADS, metricsFactory);
+        StreamConfig streamConfig = new StreamConfig(proxy, MAX_RECORDS_PER_CALL, IDLE_TIME_MILLIS, false, false,
+                InitialPositionInStreamExtended.newInitialPosition(InitialPositionInStream.TRIM_HORIZON));
+
+        Semaphore processedRecords = new Semaphore(0);
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        Worker worker = new Worker("bench",
+                new LatencyRecordingProcessorFactory(proxy, processedRecords, latencies),
+                config,
+                streamConfig,
+                streamConfig.getInitialPositionInStream(),
+                IDLE_TIME_MILLIS,
+                KinesisClientLibConfiguration.DEFAULT_SHARD_SYNC_INTERVAL_MILLIS,
+                false,
+                leaseCoordinator,
+                leaseCoordinator,
+                executorService,
+                metricsFactory,
+                KinesisClientLibConfiguration.DEFAULT_TASK_BACKOFF_TIME_MILLIS,
+                LEASE_DURATION_MILLIS,
+                true,
+                new NoOpShardPrioritization());
+
+        Thread workerThread = new Thread(worker);
+        final long startNanos = System.nanoTime();
+        workerThread.start();
+        try {
+            if (!processedRecords.tryAcquire(shardCount * recordsPerShard, RUN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Timed out waiting for " + strategy + " run with " + shardCount
+                        + " shards to process all records");
+            }
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            return new Result(shardCount * recordsPerShard / (elapsedNanos / 1e9), percentile(latencies, 0.99));
+        } finally {
+            worker.shutdown();
+            workerThread.join(TimeUnit.MINUTES.toMillis(1));
+            executorService.shutdownNow();
+            ddbClient.shutdown();
+            file.delete();
+        }
+    }
+
+    private static double percentile(ConcurrentLinkedQueue<Long> latencyNanos, double percentile) {
+        long[] sorted = latencyNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private static class Result {
+        private final double recordsPerSecond;
+        private final double p99LatencyMillis;
+
+        private Result(double recordsPerSecond, double p99LatencyMillis) {
+            this.recordsPerSecond = recordsPerSecond;
+            this.p99LatencyMillis = p99LatencyMillis;
+        }
+    }
+
+    /**
+     * Remembers when each record was first returned by a GetRecords call.
+     */
+    private static class FetchTimeRecordingProxy implements IKinesisProxy {
+        private final IKinesisProxy delegate;
+        private final ConcurrentHashMap<String, Long> fetchTimes = new ConcurrentHashMap<>();
+
+        private FetchTimeRecordingProxy(IKinesisProxy delegate) {
+            this.delegate = delegate;
+        }
+
+        private Long getFetchTime(Record record) {
+            return fetchTimes.get(record.getPartitionKey() + record.getSequenceNumber());
+        }
+
+        @Override
+        public GetRecordsResult get(String shardIterator, int maxRecords)
+                throws ResourceNotFoundException, InvalidArgumentException {
+            GetRecordsResult result = delegate.get(shardIterator, maxRecords);
+            final long now = System.nanoTime();
+            for (Record record : result.getRecords()) {
+                fetchTimes.putIfAbsent(record.getPartitionKey() + record.getSequenceNumber(), now);
+            }
+            return result;
+        }
+
+        @Override
+        public DescribeStreamResult getStreamInfo(String startShardId) throws ResourceNotFoundException {
+            return delegate.getStreamInfo(startShardId);
+        }
+
+        @Override
+        public Set<String> getAllShardIds() throws ResourceNotFoundException {
+            return delegate.getAllShardIds();
+        }
+
+        @Override
+        public List<Shard> getShardList() throws ResourceNotFoundException {
+            return delegate.getShardList();
+        }
+
+        @Override
+        public String getIterator(String shardId, String iteratorEnum, String sequenceNumber)
+                throws ResourceNotFoundException, InvalidArgumentException {
+            return delegate.getIterator(shardId, iteratorEnum, sequenceNumber);
+        }
+
+        @Override
+        public String getIterator(String shardId, String iteratorEnum)
+                throws ResourceNotFoundException, InvalidArgumentException {
+            return delegate.getIterator(shardId, iteratorEnum);
+        }
+
+        @Override
+        public String getIterator(String shardId, Date timestamp)
+                throws ResourceNotFoundException, InvalidArgumentException {
+            return delegate.getIterator(shardId, timestamp);
+        }
+
+        @Override
+        public PutRecordResult put(String sequenceNumberForOrdering, String explicitHashKey, String partitionKey,
+                ByteBuffer data) throws ResourceNotFoundException, InvalidArgumentException {
+            return delegate.put(sequenceNumberForOrdering, explicitHashKey, partitionKey, data);
+        }
+    }
+
+    private static class LatencyRecordingProcessorFactory implements IRecordProcessorFactory {
+        private final FetchTimeRecordingProxy proxy;
+        private final Semaphore processedRecords;
+        private final ConcurrentLinkedQueue<Long> latencies;
+
+        private LatencyRecordingProcessorFactory(FetchTimeRecordingProxy proxy, Semaphore processedRecords,
+                ConcurrentLinkedQueue<Long> latencies) {
+            this.proxy = proxy;
+            this.processedRecords = processedRecords;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public IRecordProcessor createProcessor() {
+            return new IRecordProcessor() {
+                @Override
+                public void initialize(InitializationInput initializationInput) {
+                }
+
+                @Override
+                public void processRecords(ProcessRecordsInput processRecordsInput) {
+                    final long now = System.nanoTime();
+                    for (Record record : processRecordsInput.getRecords()) {
+                        Long fetchTime = proxy.getFetchTime(record);
+                        if (fetchTime != null) {
+                            latencies.add(now - fetchTime);
+                        }
+                    }
+                    processedRecords.release(processRecordsInput.getRecords().size());
+                }
+
+                @Override
+                public void shutdown(ShutdownInput shutdownInput) {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.google.protobuf.ByteString;
+
+/**
+ * Compares {@link UserRecord#deaggregate(List, BigInteger, BigInteger)} with
+ * {@link UserRecord#deaggregateLazily(Iterable, BigInteger, BigInteger)} on a batch of KPL aggregated records.
+ *
+ * Run with the benchmarks profile, using the gc profiler to report bytes allocated per operation
+ * (gc.alloc.rate.norm):
+ *
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec -Dbenchmark=UserRecordDeaggregationBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserRecordDeaggregationBenchmark {
+
+    private static final byte[] AGGREGATED_RECORD_MAGIC = new byte[] {-13, -119, -102, -62 };
+    private static final BigInteger SMALLEST_HASH_KEY = BigInteger.ZERO;
+    private static final BigInteger LARGEST_HASH_KEY = new BigInteger(StringUtils.repeat("FF", 16), 16);
+
+    @Param({ "10", "1000" })
+    public int userRecordsPerAggregate;
+
+    @Param({ "100" })
+    public int userRecordSize;
+
+    @Param({ "1", "64" })
+    public int distinctPartitionKeys;
+
+    @Param({ "10" })
+    public int aggregatesPerBatch;
+
+    private List<Record> batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(17);
+        batch = new ArrayList<>(aggregatesPerBatch);
+        for (int i = 0; i < aggregatesPerBatch; i++) {
+            Messages.AggregatedRecord.Builder builder = Messages.AggregatedRecord.newBuilder();
+            for (int k = 0; k < distinctPartitionKeys; k++) {
+                builder.addPartitionKeyTable("partitionKey-" + k);
+            }
+            byte[] data = new byte[userRecordSize];
+            for (int j = 0; j < userRecordsPerAggregate; j++) {
+                random.nextBytes(data);
+                builder.addRecords(Messages.Record.newBuilder()
+                        .setPartitionKeyIndex(j % distinctPartitionKeys)
+                        .setData(ByteString.copyFrom(data)));
+            }
+            byte[] message = builder.build().toByteArray();
+            ByteBuffer aggregated = ByteBuffer.allocate(AGGREGATED_RECORD_MAGIC.length + message.length + 16);
+            aggregated.put(AGGREGATED_RECORD_MAGIC).put(message).put(MessageDigest.getInstance("MD5").digest(message));
+            aggregated.flip();
+            batch.add(new Record()
+                    .withSequenceNumber(Integer.toString(i))
+                    .withPartitionKey("-")
+                    .withApproximateArrivalTimestamp(new Date())
+                    .withData(aggregated));
+        }
+    }
+
+    @Benchmark
+    public void deaggregate(Blackhole blackhole) {
+        for (UserRecord userRecord : UserRecord.deaggregate(freshBatch(), SMALLEST_HASH_KEY, LARGEST_HASH_KEY)) {
+            blackhole.consume(userRecord);
+        }
+    }
+
+    @Benchmark
+    public void deaggregateLazily(Blackhole blackhole) {
+        for (UserRecord userRecord : UserRecord.deaggregateLazily(freshBatch(), SMALLEST_HASH_KEY,
+                LARGEST_HASH_KEY)) {
+            blackhole.consume(userRecord);
+        }
+    }
+
+    /**
+     * deaggregate consumes the data buffers of the records, so each invocation gets its own view of them.
+     */
+    private List<Record> freshBatch() {
+        List<Record> records = new ArrayList<>(batch.size());
+        for (Record record : batch) {
+            records.add(new Record()
+                    .withSequenceNumber(record.getSequenceNumber())
+                    .withPartitionKey(record.getPartitionKey())
+                    .withApproximateArrivalTimestamp(record.getApproximateArrivalTimestamp())
+                    .withData(record.getData().duplicate()));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.leases.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ExtendedSequenceNumber;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.interfaces.ILeaseManager;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
+
+/**
+ * Compares the read units consumed and the latency of LeaseTaker cycles that scan the whole lease table with the ones
+ * of LeaseTaker cycles backed by a {@link CachingLeaseManager}, against an embedded DynamoDB lease table. The leases
+ * are spread evenly across workers that never expire, so the taker doesn't take or steal any lease and every cycle
+ * only reads the table.
+ *
+ * The read units are the ones reported by DynamoDB for the Scan calls, along with the number of items they read. The
+ * startup column is the first cycle, which reads the whole table in both modes.
+ *
+ * Usage: LeaseTakerBenchmark [cycles] [scanSegments] [leaseCounts]
+ *
+ * The lease counts are separated by commas. Run with the benchmarks profile:
+ *
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec@lease-taker -DleaseTaker.leaseCounts=1000,10000
+ * </pre>
+ */
+public class LeaseTakerBenchmark {
+
+    private static final int DEFAULT_CYCLES = 10;
+    private static final int DEFAULT_SCAN_SEGMENTS = 10;
+    private static final int[] DEFAULT_LEASE_COUNTS = { 1000, 10000, 50000 };
+    private static final int WORKER_COUNT = 10;
+    private static final int BATCH_WRITE_SIZE = 25;
+    private static final long LEASE_DURATION_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // CHECKSTYLE:IGNORE UncommentedMain FOR NEXT 2 LINES
+    public static void main(String[] args) throws Exception {
+        int cycles = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CYCLES;
+        int scanSegments = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SCAN_SEGMENTS;
+        int[] leaseCounts = args.length > 2
+                ? Arrays.stream(args[2].split(",")).mapToInt(Integer::parseInt).toArray()
+                : DEFAULT_LEASE_COUNTS;
+
+        System.out.println(String.format("%-10s %8s %14s %12s %14s %18s %18s", "mode", "leases", "startup RCU",
+                "RCU/cycle", "items/cycle", "p50 latency (ms)", "max latency (ms)"));
+        for (int leaseCount : leaseCounts) {
+            AmazonDynamoDB ddbClient = DynamoDBEmbedded.create().amazonDynamoDB();
+            try {
+                ScanCountingClient countingClient = new ScanCountingClient(ddbClient);
+                KinesisClientLeaseManager leaseManager =
+                        new KinesisClientLeaseManager("bench-" + leaseCount, countingClient.proxy());
+                leaseManager.createLeaseTableIfNotExists(1L, 1L);
+                createLeases(ddbClient, "bench-" + leaseCount, leaseCount);
+
+                print("full-scan", leaseCount, run(leaseManager, countingClient, cycles));
+                print("cached", leaseCount,
+                        run(new CachingLeaseManager<>(leaseManager, scanSegments, MAX_AGE_MILLIS), countingClient,
+                                cycles));
+            } finally {
+                ddbClient.shutdown();
+            }
+        }
+    }
+
+    private static Result run(ILeaseManager<KinesisClientLease> leaseManager,
+            ScanCountingClient countingClient,
+            int cycles) throws Exception {
+        LeaseTaker<KinesisClientLease> taker = new LeaseTaker<>(leaseManager, workerId(0), LEASE_DURATION_MILLIS);
+        double startupReadUnits = 0;
+        double steadyReadUnits = 0;
+        long steadyScannedItems = 0;
+        long[] latencyNanos = new long[cycles];
+
+        for (int cycle = 0; cycle <= cycles; cycle++) {
+            countingClient.reset();
+            long startNanos = System.nanoTime();
+            MetricsHelper.startScope(new NullMetricsFactory());
+            try {
+                Map<String, KinesisClientLease> takenLeases = taker.takeLeases();
+                if (!takenLeases.isEmpty()) {
+                    throw new IllegalStateException("Taker unexpectedly took " + takenLeases.size() + " leases");
+                }
+            } finally {
+                MetricsHelper.endScope();
+            }
+            if (cycle == 0) {
+                startupReadUnits = countingClient.readUnits.sum();
+            } else {
+                latencyNanos[cycle - 1] = System.nanoTime() - startNanos;
+                steadyReadUnits += countingClient.readUnits.sum();
+                steadyScannedItems += countingClient.scannedItems.sum();
+            }
+        }
+
+        Arrays.sort(latencyNanos);
+        return new Result(startupReadUnits, steadyReadUnits / cycles, (double) steadyScannedItems / cycles,
+                latencyNanos[cycles / 2] / 1e6, latencyNanos[cycles - 1] / 1e6);
+    }
+
+    private static void print(String mode, int leaseCount, Result result) {
+        System.out.println(String.format("%-10s %8d %14.1f %12.1f %14.1f %18.2f %18.2f", mode, leaseCount,
+                result.startupReadUnits, result.readUnitsPerCycle, result.itemsPerCycle, result.p50LatencyMillis,
+                result.maxLatencyMillis));
+    }
+
+    private static void createLeases(AmazonDynamoDB ddbClient, String table, int leaseCount) {
+        KinesisClientLeaseSerializer serializer = new KinesisClientLeaseSerializer();
+        List<WriteRequest> batch = new ArrayList<>();
+        for (int i = 0; i < leaseCount; i++) {
+            KinesisClientLease lease = new KinesisClientLeaseBuilder()
+                    .withLeaseKey(String.format("shardId-%012d", i))
+                    .withLeaseOwner(workerId(i % WORKER_COUNT))
+                    .withCheckpoint(ExtendedSequenceNumber.TRIM_HORIZON)
+                    .build();
+            Map<String, AttributeValue> item = serializer.toDynamoRecord(lease);
+            batch.add(new WriteRequest().withPutRequest(new PutRequest().withItem(item)));
+            if (batch.size() == BATCH_WRITE_SIZE || i == leaseCount - 1) {
+                Map<String, List<WriteRequest>> unprocessed =
+                        ddbClient.batchWriteItem(new BatchWriteItemRequest().addRequestItemsEntry(table, batch))
+                                .getUnprocessedItems();
+                while (unprocessed != null && !unprocessed.isEmpty()) {
+                    unprocessed = ddbClient.batchWriteItem(new BatchWriteItemRequest().withRequestItems(unprocessed))
+                            .getUnprocessedItems();
+                }
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    private static String workerId(int i) {
+        return "worker-" + i;
+    }
+
+    private static class Result {
+        private final double startupReadUnits;
+        private final double readUnitsPerCycle;
+        private final double itemsPerCycle;
+        private final double p50LatencyMillis;
+        private final double maxLatencyMillis;
+
+        private Result(double startupReadUnits,
+                double readUnitsPerCycle,
+                double itemsPerCycle,
+                double p50LatencyMillis,
+                double maxLatencyMillis) {
+            this.startupReadUnits = startupReadUnits;
+            this.readUnitsPerCycle = readUnitsPerCycle;
+            this.itemsPerCycle = itemsPerCycle;
+            this.p50LatencyMillis = p50LatencyMillis;
+            this.maxLatencyMillis = maxLatencyMillis;
+        }
+    }
+
+    /**
+     * Asks DynamoDB for the capacity consumed by every Scan call, and sums it.
+     */
+    private static class ScanCountingClient {
+        private final AmazonDynamoDB delegate;
+        private final DoubleAdder readUnits = new DoubleAdder();
+        private final LongAdder scannedItems = new LongAdder();
+
+        private ScanCountingClient(AmazonDynamoDB delegate) {
+            this.delegate = delegate;
+        }
+
+        private void reset() {
+            readUnits.reset();
+            scannedItems.reset();
+        }
+
+        private AmazonDynamoDB proxy() {
+            return (AmazonDynamoDB) Proxy.newProxyInstance(AmazonDynamoDB.class.getClassLoader(),
+                    new Class<?>[] { AmazonDynamoDB.class },
+                    (proxy, method, args) -> {
+                        if (args != null && args.length == 1 && args[0] instanceof ScanRequest) {
+                            ScanRequest request = (ScanRequest) args[0];
+                            request.setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+                            ScanResult result = delegate.scan(request);
+                            if (result.getConsumedCapacity() != null) {
+                                readUnits.add(result.getConsumedCapacity().getCapacityUnits());
+                            }
+                            scannedItems.add(result.getScannedCount());
+                            return result;
+                        }
+                        try {
+                            return method.invoke(delegate, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+}
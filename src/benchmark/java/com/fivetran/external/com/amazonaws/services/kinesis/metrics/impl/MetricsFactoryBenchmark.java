@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Compares the scopes of {@link CWMetricsFactory}, which queue their data for the publication thread, with the ones of
+ * {@link StripedMetricsFactory}, when many threads end scopes shaped like the ones of the shard consumer tasks: a shard
+ * dimension, a few counts and a latency. The metrics are published to a publisher that drops them.
+ *
+ * Run with the benchmarks profile, using the gc profiler to report bytes allocated per operation
+ * (gc.alloc.rate.norm), and -t to change the number of threads:
+ *
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec -Dbenchmark=MetricsFactoryBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class MetricsFactoryBenchmark {
+
+    private static final long BUFFER_TIME_MILLIS = 1000L;
+    private static final int MAX_QUEUE_SIZE = 10000;
+    private static final int FLUSH_SIZE = 200;
+    private static final Set<String> ENABLED_DIMENSIONS = ImmutableSet.of(MetricsHelper.OPERATION_DIMENSION_NAME,
+            MetricsHelper.SHARD_ID_DIMENSION_NAME);
+
+    @Param({ "queue", "striped" })
+    public String factoryType;
+
+    @Param({ "DETAILED", "SUMMARY" })
+    public String metricsLevel;
+
+    @Param({ "64" })
+    public int shardCount;
+
+    private IMetricsFactory factory;
+    private CWPublisherRunnable<CWMetricKey> runnable;
+    private Thread publicationThread;
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    /**
+     * The shard a benchmark thread is processing.
+     */
+    @State(Scope.Thread)
+    public static class ShardState {
+        private String shardId;
+        private long latency;
+
+        @Setup
+        public void setUp(MetricsFactoryBenchmark benchmark) {
+            shardId = String.format("shardId-%012d", benchmark.nextShard.getAndIncrement() % benchmark.shardCount);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ICWMetricsPublisher<CWMetricKey> publisher = dataToPublish -> { };
+        MetricsLevel level = MetricsLevel.fromName(metricsLevel);
+        if (factoryType.equals("queue")) {
+            runnable = new CWPublisherRunnable<CWMetricKey>(publisher, BUFFER_TIME_MILLIS, MAX_QUEUE_SIZE, FLUSH_SIZE);
+            publicationThread = new Thread(runnable);
+            publicationThread.start();
+            factory = () -> new CWMetricsScope(runnable, level, ENABLED_DIMENSIONS);
+        } else {
+            factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, level, ENABLED_DIMENSIONS, true);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (runnable != null) {
+            runnable.shutdown();
+            publicationThread.join();
+        } else {
+            ((StripedMetricsFactory) factory).shutdown();
+        }
+    }
+
+    @Benchmark
+    public void processTaskScope(ShardState shard) {
+        IMetricsScope scope = factory.createMetrics();
+        scope.addDimension(MetricsHelper.OPERATION_DIMENSION_NAME, "ProcessTask");
+        scope.addDimension(MetricsHelper.SHARD_ID_DIMENSION_NAME, shard.shardId);
+        scope.addData("RecordsProcessed", 100, StandardUnit.Count, MetricsLevel.SUMMARY);
+        scope.addData("DataBytesProcessed", 100000, StandardUnit.Bytes, MetricsLevel.SUMMARY);
+        scope.addData("RecordProcessor.processRecords.Time", shard.latency++ & 127, StandardUnit.Milliseconds,
+                MetricsLevel.SUMMARY);
+        scope.addData("ProcessTask.Success", 1, StandardUnit.Count, MetricsLevel.DETAILED);
+        scope.addData("ProcessTask.Time", 2, StandardUnit.Milliseconds, MetricsLevel.DETAILED);
+        scope.end();
+    }
+}
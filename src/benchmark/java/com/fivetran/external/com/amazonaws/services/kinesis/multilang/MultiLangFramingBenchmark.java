@@ -0,0 +1,357 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.multilang;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker.KinesisClientLibConfiguration;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages.InitializeMessage;
+import com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages.Message;
+import com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages.ProcessRecordsMessage;
+import com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages.ShutdownMessage;
+import com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages.StatusMessage;
+
+/**
+ * Compares the throughput of a {@link MultiLangRecordProcessor} sending records to its child process with the json
+ * framing and with the binary framing. The child process is simulated in the JVM: it is connected to the record
+ * processor through pipes and decodes every message, including the record data, before answering with a status
+ * message, like a child process that does nothing with the records would. The throughput is thus bounded by the
+ * encoding, the pipe and the decoding of the messages.
+ *
+ * The MB/s column counts the record data only.
+ *
+ * Usage: MultiLangFramingBenchmark [batches] [recordsPerBatch] [recordSizes]
+ *
+ * The record sizes are separated by commas. Run with the benchmarks profile:
+ *
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec@framing -Dframing.recordSizes=100,1024
+ * </pre>
+ */
+public class MultiLangFramingBenchmark {
+
+    private static final int DEFAULT_BATCHES = 200;
+    private static final int DEFAULT_RECORDS_PER_BATCH = 500;
+    private static final int[] DEFAULT_RECORD_SIZES = { 100, 1024, 10 * 1024, 100 * 1024 };
+    private static final int WARMUP_BATCHES = 50;
+    private static final long MAX_BYTES_PER_BATCH = 10L * 1024 * 1024;
+    private static final String SHARD_ID = "shardId-000000000000";
+
+    // CHECKSTYLE:IGNORE UncommentedMain FOR NEXT 2 LINES
+    public static void main(String[] args) throws Exception {
+        int batches = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BATCHES;
+        int recordsPerBatch = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RECORDS_PER_BATCH;
+        int[] recordSizes = args.length > 2
+                ? Arrays.stream(args[2].split(",")).mapToInt(Integer::parseInt).toArray()
+                : DEFAULT_RECORD_SIZES;
+        Logger.getRootLogger().setLevel(Level.WARN);
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            System.out.println(String.format("%-8s %12s %10s %14s %10s %10s", "framing", "record size", "records",
+                    "records/s", "MB/s", "speedup"));
+            for (int recordSize : recordSizes) {
+                int records = (int) Math.max(1, Math.min(recordsPerBatch, MAX_BYTES_PER_BATCH / recordSize));
+                List<Record> batch = createBatch(records, recordSize);
+                run(MessageFraming.JSON, executorService, batch, WARMUP_BATCHES);
+                run(MessageFraming.BINARY, executorService, batch, WARMUP_BATCHES);
+
+                double jsonRecordsPerSecond = run(MessageFraming.JSON, executorService, batch, batches);
+                double binaryRecordsPerSecond = run(MessageFraming.BINARY, executorService, batch, batches);
+                print(MessageFraming.JSON, recordSize, records, jsonRecordsPerSecond, 1.0);
+                print(MessageFraming.BINARY, recordSize, records, binaryRecordsPerSecond,
+                        binaryRecordsPerSecond / jsonRecordsPerSecond);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The number of records processed per second.
+     */
+    private static double run(MessageFraming messageFraming,
+            ExecutorService executorService,
+            List<Record> batch,
+            int batches) {
+        FakeChildProcess child = new FakeChildProcess();
+        MultiLangRecordProcessor processor = new MultiLangRecordProcessor(new ProcessBuilder(), executorService,
+                new ObjectMapper(), new KinesisClientLibConfiguration("bench", "bench", null, "bench-worker"),
+                messageFraming) {
+            @Override
+            Process startProcess() {
+                return child.start();
+            }
+
+            @Override
+            void exit() {
+                throw new IllegalStateException("Child process failed", child.failure);
+            }
+        };
+
+        processor.initialize(new InitializationInput().withShardId(SHARD_ID));
+        if (child.framing != messageFraming) {
+            throw new IllegalStateException("Child process uses " + child.framing + " framing");
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < batches; i++) {
+            processor.processRecords(new ProcessRecordsInput().withRecords(batch).withMillisBehindLatest(0L));
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        processor.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.TERMINATE));
+
+        long expectedRecords = (long) batch.size() * batches;
+        if (child.receivedRecords != expectedRecords) {
+            throw new IllegalStateException("Child process received " + child.receivedRecords + " records instead of "
+                    + expectedRecords);
+        }
+        return expectedRecords * 1e9 / elapsedNanos;
+    }
+
+    private static void print(MessageFraming messageFraming,
+            int recordSize,
+            int records,
+            double recordsPerSecond,
+            double speedup) {
+        System.out.println(String.format("%-8s %12d %10d %14.0f %10.1f %9.2fx", messageFraming.getName(), recordSize,
+                records, recordsPerSecond, recordsPerSecond * recordSize / (1024 * 1024), speedup));
+    }
+
+    private static List<Record> createBatch(int records, int recordSize) {
+        Random random = new Random(records);
+        List<Record> batch = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            byte[] data = new byte[recordSize];
+            random.nextBytes(data);
+            batch.add(new Record().withData(ByteBuffer.wrap(data))
+                    .withPartitionKey("partitionKey-" + i)
+                    .withSequenceNumber(String.format("49590338271490256608559692538361571095921575989136588%03d", i))
+                    .withApproximateArrivalTimestamp(new Date()));
+        }
+        return batch;
+    }
+
+    /**
+     * A child process running in a thread of the JVM, which accepts the binary framing whenever it is offered.
+     */
+    private static class FakeChildProcess extends Process {
+        private final ObjectMapper objectMapper =
+                new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        private final Thread thread;
+        private final DataInputStream input;
+        private final OutputStream output;
+        private final OutputStream stdin;
+        private final InputStream stdout;
+        private volatile MessageFraming framing = MessageFraming.JSON;
+        private volatile long receivedRecords;
+        private volatile IOException failure;
+
+        private FakeChildProcess() {
+            try {
+                Pipe stdinPipe = Pipe.open();
+                Pipe stdoutPipe = Pipe.open();
+                stdin = Channels.newOutputStream(stdinPipe.sink());
+                stdout = Channels.newInputStream(stdoutPipe.source());
+                input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(stdinPipe.source()),
+                        64 * 1024));
+                output = Channels.newOutputStream(stdoutPipe.sink());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            thread = new Thread(this::run, "fake-child-process");
+            thread.setDaemon(true);
+        }
+
+        private FakeChildProcess start() {
+            thread.start();
+            return this;
+        }
+
+        private void run() {
+            try {
+                InitializeMessage initializeMessage = (InitializeMessage) objectMapper.readValue(readLine(),
+                        Message.class);
+                StatusMessage status = new StatusMessage(InitializeMessage.ACTION);
+                if (MessageFraming.BINARY.getName().equals(initializeMessage.getFraming())) {
+                    status.setFraming(MessageFraming.BINARY.getName());
+                    framing = MessageFraming.BINARY;
+                }
+                writeStatus(status);
+
+                if (framing == MessageFraming.BINARY) {
+                    while (true) {
+                        writeStatus(new StatusMessage(readFrames()));
+                    }
+                }
+                BufferedReader lines = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                while (true) {
+                    writeStatus(new StatusMessage(readJsonLine(lines)));
+                }
+            } catch (EOFException e) {
+                // The record processor closed our STDIN
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        private String readJsonLine(BufferedReader lines) throws IOException {
+            String line = lines.readLine();
+            if (line == null) {
+                throw new EOFException();
+            }
+            Message message = objectMapper.readValue(line, Message.class);
+            if (message instanceof ProcessRecordsMessage) {
+                receivedRecords += ((ProcessRecordsMessage) message).getRecords().size();
+                return ProcessRecordsMessage.ACTION;
+            }
+            return getControlAction(message);
+        }
+
+        private String getControlAction(Message message) throws IOException {
+            if (message instanceof ShutdownMessage) {
+                return ShutdownMessage.ACTION;
+            }
+            throw new IOException("Unexpected message " + message);
+        }
+
+        private String readFrames() throws IOException {
+            int length = input.readInt();
+            byte type = input.readByte();
+            if (type == BinaryFrameWriter.JSON_FRAME) {
+                return getControlAction(objectMapper.readValue(readBytes(length - 1), Message.class));
+            }
+            if (type != BinaryFrameWriter.PROCESS_RECORDS_FRAME) {
+                throw new IOException("Unexpected frame " + (char) type);
+            }
+            input.readLong();
+            int records = input.readInt();
+            for (int i = 0; i < records; i++) {
+                int recordLength = input.readInt();
+                if (input.readByte() != BinaryFrameWriter.RECORD_FRAME) {
+                    throw new IOException("Expected a record frame");
+                }
+                int partitionKeyLength = input.readUnsignedShort();
+                new String(readBytes(partitionKeyLength), StandardCharsets.UTF_8);
+                int sequenceNumberLength = input.readUnsignedShort();
+                new String(readBytes(sequenceNumberLength), StandardCharsets.UTF_8);
+                input.readLong();
+                input.readLong();
+                readBytes(recordLength - (1 + 2 + partitionKeyLength + 2 + sequenceNumberLength + 8 + 8));
+            }
+            receivedRecords += records;
+            return ProcessRecordsMessage.ACTION;
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return bytes;
+        }
+
+        /**
+         * Reads the initialize line byte by byte, as the frames that may follow it are read from the same stream.
+         */
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                line.write(b);
+            }
+            return new String(line.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        private void writeStatus(StatusMessage status) throws IOException {
+            output.write(objectMapper.writeValueAsBytes(status));
+            output.write('\n');
+            output.flush();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return stdin;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return stdout;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            thread.join();
+            if (failure != null) {
+                throw new IllegalStateException("Child process failed", failure);
+            }
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            if (thread.isAlive()) {
+                throw new IllegalThreadStateException();
+            }
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Adapts the get records calls of a prefetch cache to the traffic of its shard:
+ * <ul>
+ * <li>a shard that is behind the tip of the stream, or that filled the last call, is called again as soon as the
+ * {@link ShardThroughputBudget} allows it, with calls sized to use the bytes allowed per call,</li>
+ * <li>a shard that returned no records and is caught up is called less and less often, up to the max idle time,</li>
+ * <li>a throttled call doubles the time until the next call and halves the size of the calls.</li>
+ * </ul>
+ * Otherwise calls are made every idleMillisBetweenCalls, like without adaptive polling.
+ *
+ * Used by the single fetching thread or task of a cache at a time.
+ */
+class AdaptivePollingController {
+
+    static final int MIN_RECORDS_PER_CALL = 100;
+    private static final double RECORD_SIZE_WEIGHT = 0.25;
+
+    private final String shardId;
+    private final ShardThroughputBudget budget;
+    private final int maxRecordsLimit;
+    private final long idleMillisBetweenCalls;
+    private final long maxIdleMillisBetweenCalls;
+    private final LongSupplier nanoClock;
+
+    private int maxRecords;
+    private long delayNanos = 0L;
+    private long lastCallNanos;
+    private boolean called = false;
+    private double averageRecordBytes = 0.0;
+
+    /**
+     * @param shardId Shard the cache reads
+     * @param budget Budget of the calls to the shard, may be shared with the caches of other workers
+     * @param maxRecordsLimit Max number of records returned by a call
+     * @param idleMillisBetweenCalls Time between calls when the shard is neither hot nor idle
+     * @param maxIdleMillisBetweenCalls Max time between calls when the shard is idle
+     */
+    AdaptivePollingController(final String shardId,
+                              final ShardThroughputBudget budget,
+                              final int maxRecordsLimit,
+                              final long idleMillisBetweenCalls,
+                              final long maxIdleMillisBetweenCalls) {
+        this(shardId, budget, maxRecordsLimit, idleMillisBetweenCalls, maxIdleMillisBetweenCalls, System::nanoTime);
+    }
+
+    AdaptivePollingController(final String shardId,
+                              final ShardThroughputBudget budget,
+                              final int maxRecordsLimit,
+                              final long idleMillisBetweenCalls,
+                              final long maxIdleMillisBetweenCalls,
+                              final LongSupplier nanoClock) {
+        Validate.isTrue(maxRecordsLimit > 0, "maxRecordsLimit must be positive");
+        Validate.isTrue(maxIdleMillisBetweenCalls >= idleMillisBetweenCalls,
+                "maxIdleMillisBetweenCalls must not be less than idleMillisBetweenCalls");
+        this.shardId = shardId;
+        this.budget = budget;
+        this.maxRecordsLimit = maxRecordsLimit;
+        this.idleMillisBetweenCalls = idleMillisBetweenCalls;
+        this.maxIdleMillisBetweenCalls = maxIdleMillisBetweenCalls;
+        this.nanoClock = nanoClock;
+        this.maxRecords = maxRecordsLimit;
+    }
+
+    void start() {
+        budget.register(shardId);
+    }
+
+    void shutdown() {
+        budget.deregister(shardId);
+    }
+
+    /**
+     * @return Max number of records to get with the next call
+     */
+    int getMaxRecords() {
+        return maxRecords;
+    }
+
+    /**
+     * Returns the time until the next call may be made. Once it returns 0, the call has been taken from the budget of
+     * the shard and must be made.
+     *
+     * @return Milliseconds until the next call, rounded up
+     */
+    long millisUntilNextCall() {
+        long now = nanoClock.getAsLong();
+        long waitNanos = called ? delayNanos - (now - lastCallNanos) : 0L;
+        if (waitNanos <= 0) {
+            waitNanos = budget.tryAcquireCall(shardId);
+        }
+        if (waitNanos > 0) {
+            return Math.max(1L, TimeUnit.NANOSECONDS.toMillis(waitNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+        }
+        called = true;
+        lastCallNanos = now;
+        return 0L;
+    }
+
+    /**
+     * Takes an additional call from the budget of the shard, for a retry of a call that is taking too long.
+     *
+     * @return true if the retry may be made now
+     */
+    boolean tryAcquireRetryCall() {
+        return budget.tryAcquireCall(shardId) == 0;
+    }
+
+    /**
+     * Adapts the next call to the result of the last one.
+     *
+     * @param recordCount Number of records returned
+     * @param bytes Number of bytes returned
+     * @param millisBehindLatest How far behind the tip of the stream the shard is, may be null
+     */
+    void onResult(final int recordCount, final long bytes, final Long millisBehindLatest) {
+        budget.recordBytes(shardId, bytes);
+        budget.succeeded(shardId);
+        boolean behind = millisBehindLatest != null && millisBehindLatest > 0;
+        if (recordCount > 0) {
+            double recordBytes = (double) bytes / recordCount;
+            averageRecordBytes = averageRecordBytes == 0.0 ? recordBytes
+                    : averageRecordBytes + RECORD_SIZE_WEIGHT * (recordBytes - averageRecordBytes);
+        }
+        if (behind || recordCount >= maxRecords) {
+            // Hot shard, the budget paces the calls.
+            delayNanos = 0L;
+        } else if (recordCount == 0) {
+            long idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillisBetweenCalls);
+            delayNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(maxIdleMillisBetweenCalls),
+                    Math.max(idleNanos, delayNanos * 2));
+        } else {
+            delayNanos = TimeUnit.MILLISECONDS.toNanos(idleMillisBetweenCalls);
+        }
+        if (averageRecordBytes > 0) {
+            long recordsPerCall = (long) (budget.getBytesPerCall() / averageRecordBytes);
+            maxRecords = (int) Math.max(Math.min(MIN_RECORDS_PER_CALL, maxRecordsLimit),
+                    Math.min(recordsPerCall, maxRecordsLimit));
+        }
+    }
+
+    /**
+     * Backs off after a throttled call.
+     */
+    void onThrottled() {
+        long idleNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(idleMillisBetweenCalls),
+                TimeUnit.SECONDS.toNanos(1) / ShardThroughputBudget.SHARD_CALLS_PER_SECOND);
+        delayNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(maxIdleMillisBetweenCalls),
+                Math.max(idleNanos, delayNanos * 2));
+        maxRecords = Math.max(Math.min(MIN_RECORDS_PER_CALL, maxRecordsLimit), maxRecords / 2);
+        budget.throttled(shardId, delayNanos);
+    }
+}
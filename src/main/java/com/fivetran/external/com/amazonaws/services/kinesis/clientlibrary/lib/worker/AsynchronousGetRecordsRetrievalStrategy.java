@@ -27,12 +27,14 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.ThreadSafeMetricsDelegatingScope;
 import com.amazonaws.services.kinesis.model.ExpiredIteratorException;
 import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.ProvisionedThroughputExceededException;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.logging.impl.SimpleLog;
 
@@ -49,6 +51,7 @@ public class AsynchronousGetRecordsRetrievalStrategy implements GetRecordsRetrie
     private final int retryGetRecordsInSeconds;
     private final String shardId;
     final Supplier<CompletionService<DataFetcherResult>> completionServiceSupplier;
+    private volatile BooleanSupplier retryPermit = () -> true;
 
     public AsynchronousGetRecordsRetrievalStrategy(final KinesisDataFetcher dataFetcher,
             final int retryGetRecordsInSeconds, final int maxGetRecordsThreadPool, String shardId) {
@@ -83,10 +86,12 @@ public class AsynchronousGetRecordsRetrievalStrategy implements GetRecordsRetrie
         Callable<DataFetcherResult> retrieverCall = createRetrieverCallable(maxRecords);
         try {
             while (true) {
-                try {
-                    futures.add(completionService.submit(retrieverCall));
-                } catch (RejectedExecutionException e) {
-                    log.warn("Out of resources, unable to start additional requests.");
+                if (futures.isEmpty() || retryPermit.getAsBoolean()) {
+                    try {
+                        futures.add(completionService.submit(retrieverCall));
+                    } catch (RejectedExecutionException e) {
+                        log.warn("Out of resources, unable to start additional requests.");
+                    }
                 }
 
                 try {
@@ -105,6 +110,12 @@ public class AsynchronousGetRecordsRetrievalStrategy implements GetRecordsRetrie
                     if (e.getCause() instanceof ExpiredIteratorException) {
                         throw (ExpiredIteratorException) e.getCause();
                     }
+                    if (e.getCause() instanceof ProvisionedThroughputExceededException) {
+                        //
+                        // Let the caller back off instead of retrying right away.
+                        //
+                        throw (ProvisionedThroughputExceededException) e.getCause();
+                    }
                     log.error("ExecutionException thrown while trying to get records", e);
                 } catch (InterruptedException e) {
                     log.error("Thread was interrupted", e);
@@ -117,6 +128,14 @@ public class AsynchronousGetRecordsRetrievalStrategy implements GetRecordsRetrie
         return result;
     }
 
+    /**
+     * Sets the check made before starting an additional request for a call that is taking too long, for instance to
+     * keep the requests to the shard within its {@link ShardThroughputBudget}.
+     */
+    void setRetryPermit(final BooleanSupplier retryPermit) {
+        this.retryPermit = retryPermit;
+    }
+
     private Callable<DataFetcherResult> createRetrieverCallable(int maxRecords) {
         ThreadSafeMetricsDelegatingScope metricsScope = new ThreadSafeMetricsDelegatingScope(MetricsHelper.getMetricsScope());
         return () -> {
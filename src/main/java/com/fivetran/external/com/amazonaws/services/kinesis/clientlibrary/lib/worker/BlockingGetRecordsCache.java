@@ -44,10 +44,12 @@ public class BlockingGetRecordsCache implements GetRecordsCache {
 
     @Override
     public ProcessRecordsInput getNextResult() {
+        long getRecordsStartNanos = System.nanoTime();
         GetRecordsResult getRecordsResult = getRecordsRetrievalStrategy.getRecords(maxRecordsPerCall);
         return new ProcessRecordsInput()
                 .withRecords(getRecordsResult.getRecords())
-                .withMillisBehindLatest(getRecordsResult.getMillisBehindLatest());
+                .withMillisBehindLatest(getRecordsResult.getMillisBehindLatest())
+                .withGetRecordsTimeNanos(getRecordsStartNanos, System.nanoTime());
     }
     
     @Override
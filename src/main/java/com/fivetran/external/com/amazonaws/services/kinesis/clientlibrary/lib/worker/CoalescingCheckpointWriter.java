@@ -0,0 +1,399 @@
+/*
+ * Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.exceptions.KinesisClientLibDependencyException;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.exceptions.KinesisClientLibException;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.exceptions.ThrottlingException;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.interfaces.ICheckpoint;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.checkpoint.Checkpoint;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ExtendedSequenceNumber;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An {@link ICheckpoint} that keeps only the latest checkpoint requested for each shard in memory, and writes them to
+ * the underlying checkpoint (normally the lease table) every flush interval, or as soon as the configured number of
+ * checkpoints has been requested since the last flush.
+ *
+ * Writes go through the wrapped {@link ICheckpoint}, so the concurrency token checks are the same as for synchronous
+ * checkpointing. A write that fails because of throttling or a dependency failure is retried on the next flush, unless
+ * a newer checkpoint for the shard has been requested in the meantime. Any other failure is handed back to the record
+ * processor on its next checkpoint for that shard, and to the future returned by
+ * {@link #setCheckpointAsync(String, ExtendedSequenceNumber, String)}.
+ *
+ * Checkpoints at {@link ExtendedSequenceNumber#SHARD_END} are always written synchronously, since child shards can only
+ * be processed once their parent's checkpoint is durable. Synchronous writes are never retried later: any failure is
+ * thrown to the caller.
+ */
+class CoalescingCheckpointWriter implements ICheckpoint {
+
+    private static final Log LOG = LogFactory.getLog(CoalescingCheckpointWriter.class);
+
+    static final String CHECKPOINT_FLUSH_OPERATION = "CheckpointFlush";
+    static final String CHECKPOINTS_REQUESTED_METRIC = "CheckpointsRequested";
+    static final String CHECKPOINTS_WRITTEN_METRIC = "CheckpointsWritten";
+
+    private static final ThreadFactory CHECKPOINT_WRITER_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("CheckpointWriter-%04d").setDaemon(true).build();
+
+    private final ICheckpoint checkpoint;
+    private final long flushIntervalMillis;
+    private final int flushCheckpointCount;
+    private final IMetricsFactory metricsFactory;
+    private final ScheduledExecutorService flushExecutor;
+
+    private final ConcurrentMap<String, PendingCheckpoint> pendingCheckpoints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Exception> failedCheckpoints = new ConcurrentHashMap<>();
+    private final AtomicInteger requestsSinceFlush = new AtomicInteger();
+    private final AtomicLong unreportedRequests = new AtomicLong();
+    // Serializes writes, so an older checkpoint for a shard can never be written after a newer one.
+    private final Object flushLock = new Object();
+
+    private volatile boolean running = false;
+
+    /**
+     * @param checkpoint The checkpoint implementation that checkpoints are eventually written to
+     * @param flushIntervalMillis Time between flushes of the pending checkpoints
+     * @param flushCheckpointCount Number of checkpoint requests that triggers a flush ahead of the flush interval
+     * @param metricsFactory Used to emit metrics about the flushes
+     */
+    CoalescingCheckpointWriter(ICheckpoint checkpoint,
+            long flushIntervalMillis,
+            int flushCheckpointCount,
+            IMetricsFactory metricsFactory) {
+        this.checkpoint = checkpoint;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushCheckpointCount = flushCheckpointCount;
+        this.metricsFactory = metricsFactory;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(CHECKPOINT_WRITER_THREAD_FACTORY);
+    }
+
+    /**
+     * Start flushing pending checkpoints in the background. Until this is called, and after {@link #stop()} has been
+     * called, checkpoints are written synchronously.
+     */
+    void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        flushExecutor.scheduleWithFixedDelay(this::flushAll, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        LOG.info("Started coalescing checkpoint writer with a flush interval of " + flushIntervalMillis
+                + " ms, or every " + flushCheckpointCount + " checkpoints");
+    }
+
+    /**
+     * Stops background flushing, and writes all pending checkpoints before returning.
+     */
+    void stop() {
+        running = false;
+        flushExecutor.shutdown();
+        flushAll();
+        LOG.info("Stopped coalescing checkpoint writer");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCheckpoint(String shardId, ExtendedSequenceNumber checkpointValue, String concurrencyToken)
+        throws KinesisClientLibException {
+        Exception failure = failedCheckpoints.remove(shardId);
+        if (failure != null) {
+            throwFailure(failure);
+        }
+        CompletableFuture<Void> future = setCheckpointAsync(shardId, checkpointValue, concurrencyToken);
+        if (!running || ExtendedSequenceNumber.SHARD_END.equals(checkpointValue)) {
+            flushSynchronously(shardId);
+            if (future.isCompletedExceptionally()) {
+                // A background flush may have failed the checkpoint first. The failure is reported here, so it must
+                // not be reported again on the next checkpoint.
+                failedCheckpoints.remove(shardId);
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    throwFailure(e.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a checkpoint for the shard, to be written on the next flush.
+     *
+     * @param shardId Checkpoint is specified for this shard.
+     * @param checkpointValue Value of the checkpoint
+     * @param concurrencyToken Used with conditional writes to prevent stale updates
+     * @return A future that completes once this checkpoint, or a newer checkpoint for the same shard, has been written.
+     *         It completes exceptionally if the write failed.
+     */
+    CompletableFuture<Void> setCheckpointAsync(String shardId, ExtendedSequenceNumber checkpointValue,
+            String concurrencyToken) {
+        PendingCheckpoint pending = new PendingCheckpoint(checkpointValue, concurrencyToken);
+        PendingCheckpoint superseded = pendingCheckpoints.put(shardId, pending);
+        if (superseded != null) {
+            completeWith(superseded, pending);
+        }
+        unreportedRequests.incrementAndGet();
+        if (running && requestsSinceFlush.incrementAndGet() == flushCheckpointCount) {
+            try {
+                flushExecutor.execute(this::flushAll);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Checkpoint writer is stopping, leaving checkpoint for shard " + shardId + " pending", e);
+            }
+        }
+        return pending.future;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExtendedSequenceNumber getCheckpoint(String shardId) throws KinesisClientLibException {
+        flush(shardId);
+        return checkpoint.getCheckpoint(shardId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Checkpoint getCheckpointObject(String shardId) throws KinesisClientLibException {
+        flush(shardId);
+        return checkpoint.getCheckpointObject(shardId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void prepareCheckpoint(String shardId, ExtendedSequenceNumber pendingCheckpoint, String concurrencyToken)
+        throws KinesisClientLibException {
+        // The prepared checkpoint must not be overwritten by a checkpoint requested before it.
+        flush(shardId);
+        checkpoint.prepareCheckpoint(shardId, pendingCheckpoint, concurrencyToken);
+    }
+
+    /**
+     * Synchronously writes the pending checkpoint for the given shard, if there is one.
+     *
+     * @param shardId The shard to flush
+     */
+    void flush(String shardId) {
+        synchronized (flushLock) {
+            PendingCheckpoint pending = pendingCheckpoints.remove(shardId);
+            if (pending == null) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            int written = 0;
+            try {
+                written = write(shardId, pending, false) ? 1 : 0;
+            } catch (KinesisClientLibException e) {
+                // Only synchronous writes throw.
+            }
+            emitMetrics(startTime, written);
+        }
+    }
+
+    /**
+     * Synchronously writes the pending checkpoint for the given shard, if there is one, without retrying it on a later
+     * flush if it fails.
+     *
+     * @param shardId The shard to flush
+     * @throws KinesisClientLibException Thrown if the pending checkpoint could not be written
+     */
+    private void flushSynchronously(String shardId) throws KinesisClientLibException {
+        synchronized (flushLock) {
+            PendingCheckpoint pending = pendingCheckpoints.remove(shardId);
+            if (pending == null) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            boolean written = false;
+            try {
+                written = write(shardId, pending, true);
+            } finally {
+                emitMetrics(startTime, written ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending checkpoint for the given shard before the record processor for it is shut down or loses its
+     * lease, and discards any failure the record processor hasn't been told about yet.
+     *
+     * @param shardId The shard to flush
+     * @throws KinesisClientLibException Thrown if the pending checkpoint, or an earlier one, could not be written
+     */
+    void flushOnShutdown(String shardId) throws KinesisClientLibException {
+        flushSynchronously(shardId);
+        Exception failure = failedCheckpoints.remove(shardId);
+        if (failure != null) {
+            throwFailure(failure);
+        }
+    }
+
+    /**
+     * Synchronously writes all pending checkpoints.
+     */
+    void flushAll() {
+        synchronized (flushLock) {
+            requestsSinceFlush.set(0);
+            if (pendingCheckpoints.isEmpty()) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            int written = 0;
+            List<String> shardIds = new ArrayList<>(pendingCheckpoints.keySet());
+            for (String shardId : shardIds) {
+                PendingCheckpoint pending = pendingCheckpoints.remove(shardId);
+                try {
+                    if (pending != null && write(shardId, pending, false)) {
+                        written++;
+                    }
+                } catch (KinesisClientLibException e) {
+                    // Only synchronous writes throw.
+                }
+            }
+            emitMetrics(startTime, written);
+        }
+    }
+
+    /**
+     * @return the number of shards with a checkpoint that hasn't been written yet
+     */
+    @VisibleForTesting
+    int getPendingCheckpointCount() {
+        return pendingCheckpoints.size();
+    }
+
+    /**
+     * Writes a pending checkpoint. When the write is synchronous, a failure is thrown to the caller. Otherwise a write
+     * failing because of throttling or a dependency failure is retried on the next flush, and any other failure is
+     * reported on the next checkpoint for the shard.
+     *
+     * @return true if the checkpoint was written
+     */
+    private boolean write(String shardId, PendingCheckpoint pending, boolean synchronous)
+        throws KinesisClientLibException {
+        try {
+            checkpoint.setCheckpoint(shardId, pending.checkpointValue, pending.concurrencyToken);
+            pending.future.complete(null);
+            return true;
+        } catch (ThrottlingException | KinesisClientLibDependencyException e) {
+            if (running && !synchronous) {
+                PendingCheckpoint newer = pendingCheckpoints.putIfAbsent(shardId, pending);
+                if (newer == null) {
+                    LOG.warn("Unable to write checkpoint for shard " + shardId + ", will retry on the next flush", e);
+                } else {
+                    LOG.warn("Unable to write checkpoint for shard " + shardId + ", a newer checkpoint is pending", e);
+                    completeWith(pending, newer);
+                }
+                return false;
+            }
+            fail(shardId, pending, e, synchronous);
+        } catch (KinesisClientLibException e) {
+            fail(shardId, pending, e, synchronous);
+        } catch (RuntimeException e) {
+            fail(shardId, pending,
+                    new KinesisClientLibDependencyException("Caught exception while writing checkpoint", e),
+                    synchronous);
+        }
+        return false;
+    }
+
+    private void fail(String shardId, PendingCheckpoint pending, Exception e, boolean synchronous)
+        throws KinesisClientLibException {
+        LOG.warn("Failed to write checkpoint " + pending.checkpointValue + " for shard " + shardId, e);
+        pending.future.completeExceptionally(e);
+        if (synchronous) {
+            throwFailure(e);
+        }
+        failedCheckpoints.put(shardId, e);
+    }
+
+    /**
+     * Throttling and dependency failures are unchecked, the other checkpoint failures are checked.
+     */
+    private static void throwFailure(Throwable failure) throws KinesisClientLibException {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw (KinesisClientLibException) failure;
+    }
+
+    /**
+     * Completes a superseded checkpoint once the newer checkpoint replacing it has been written, or has failed.
+     */
+    private static void completeWith(PendingCheckpoint superseded, PendingCheckpoint newer) {
+        newer.future.whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                superseded.future.complete(null);
+            } else {
+                superseded.future.completeExceptionally(throwable);
+            }
+        });
+    }
+
+    private void emitMetrics(long startTime, int written) {
+        IMetricsScope scope = metricsFactory.createMetrics();
+        scope.addDimension(MetricsHelper.OPERATION_DIMENSION_NAME, CHECKPOINT_FLUSH_OPERATION);
+        scope.addData(CHECKPOINTS_REQUESTED_METRIC, unreportedRequests.getAndSet(0), StandardUnit.Count,
+                MetricsLevel.SUMMARY);
+        scope.addData(CHECKPOINTS_WRITTEN_METRIC, written, StandardUnit.Count, MetricsLevel.SUMMARY);
+        scope.addData(MetricsHelper.TIME, System.currentTimeMillis() - startTime, StandardUnit.Milliseconds,
+                MetricsLevel.SUMMARY);
+        scope.end();
+    }
+
+    /**
+     * Latest checkpoint requested for a shard that has not been written yet.
+     */
+    private static class PendingCheckpoint {
+        private final ExtendedSequenceNumber checkpointValue;
+        private final String concurrencyToken;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingCheckpoint(ExtendedSequenceNumber checkpointValue, String concurrencyToken) {
+            this.checkpointValue = checkpointValue;
+            this.concurrencyToken = concurrencyToken;
+        }
+    }
+}
@@ -319,7 +319,8 @@ class ConsumerStates {
                     consumer.getDataFetcher(),
                     consumer.getTaskBackoffTimeMillis(),
                     consumer.isSkipShardSyncAtWorkerInitializationIfLeasesExist(),
-                    consumer.getGetRecordsCache());
+                    consumer.getGetRecordsCache(),
+                    consumer.getPipelineTraceSampler());
         }
 
         @Override
@@ -530,7 +531,9 @@ class ConsumerStates {
                     consumer.isIgnoreUnexpectedChildShards(),
                     consumer.getLeaseManager(),
                     consumer.getTaskBackoffTimeMillis(),
-                    consumer.getGetRecordsCache());
+                    consumer.getGetRecordsCache(),
+                    consumer.getShardLineageIndex(),
+                    consumer.getShardSyncMaxParallelLeaseWrites());
         }
 
         @Override
@@ -36,6 +36,18 @@ public interface GetRecordsCache {
     
     GetRecordsRetrievalStrategy getGetRecordsRetrievalStrategy();
 
+    /**
+     * Registers a callback that is invoked whenever new records have been made available by the cache. Caches that
+     * retrieve records on demand never invoke the callback.
+     *
+     * @param dataArrivalListener callback to invoke when a new set of records is ready to be consumed
+     */
+    default void setDataArrivalListener(Runnable dataArrivalListener) {
+        //
+        // Nothing to do for caches that don't prefetch
+        //
+    }
+
     /**
      * This method calls the shutdown behavior on the cache, if available.
      */
@@ -189,6 +189,57 @@ public class KinesisClientLibConfiguration {
      */
     public static final int DEFAULT_MAX_LIST_SHARDS_RETRY_ATTEMPTS = 50;
 
+    /**
+     * The Worker drives every shard consumer once per pass of its loop, and sleeps for the idle time between passes.
+     */
+    public static final ShardConsumerSchedulingStrategy DEFAULT_SHARD_CONSUMER_SCHEDULING_STRATEGY =
+            ShardConsumerSchedulingStrategy.POLLING;
+
+    /**
+     * Checkpoints are written to the lease table synchronously, as soon as the record processor checkpoints.
+     */
+    public static final long DEFAULT_CHECKPOINT_FLUSH_INTERVAL_MILLIS = 0L;
+
+    /**
+     * When checkpoints are written asynchronously, flush them early once this many checkpoints have been requested.
+     */
+    public static final int DEFAULT_CHECKPOINT_FLUSH_COUNT = 1000;
+
+    /**
+     * Leases are not cached: the lease taker, the lease renewer and the shard sync scan the whole lease table.
+     */
+    public static final int DEFAULT_LEASE_CACHE_SCAN_SEGMENTS = 0;
+
+    /**
+     * When leases are cached, full listings of the lease table may be served from a cache read within the last minute.
+     */
+    public static final long DEFAULT_LEASE_CACHE_MAX_AGE_MILLIS = 60000L;
+
+    /**
+     * The shard sync creates and deletes leases one at a time.
+     */
+    public static final int DEFAULT_SHARD_SYNC_MAX_PARALLEL_LEASE_WRITES = 1;
+
+    /**
+     * Metrics data points are queued one by one and merged by the CloudWatch publication thread.
+     */
+    public static final boolean DEFAULT_METRICS_STRIPED_AGGREGATION = false;
+
+    /**
+     * Metrics in milliseconds are published as statistic sets, like the other metrics.
+     */
+    public static final boolean DEFAULT_METRICS_LATENCY_HISTOGRAMS = false;
+
+    /**
+     * The stage timings of every batch of records are passed to the pipeline listener, when there is one.
+     */
+    public static final int DEFAULT_PIPELINE_LISTENER_SAMPLE_INTERVAL = 1;
+
+    /**
+     * The data of every deaggregated KPL user record is copied into its own array.
+     */
+    public static final boolean DEFAULT_LAZY_DEAGGREGATION = false;
+
     private String applicationName;
     private String tableName;
     private String streamName;
@@ -237,6 +288,18 @@ public class KinesisClientLibConfiguration {
     private Optional<Long> logWarningForTaskAfterMillis = Optional.empty();
     private long listShardsBackoffTimeInMillis = DEFAULT_LIST_SHARDS_BACKOFF_TIME_IN_MILLIS;
     private int maxListShardsRetryAttempts = DEFAULT_MAX_LIST_SHARDS_RETRY_ATTEMPTS;
+    private ShardConsumerSchedulingStrategy shardConsumerSchedulingStrategy =
+            DEFAULT_SHARD_CONSUMER_SCHEDULING_STRATEGY;
+    private long checkpointFlushIntervalMillis = DEFAULT_CHECKPOINT_FLUSH_INTERVAL_MILLIS;
+    private int checkpointFlushCount = DEFAULT_CHECKPOINT_FLUSH_COUNT;
+    private int leaseCacheScanSegments = DEFAULT_LEASE_CACHE_SCAN_SEGMENTS;
+    private long leaseCacheMaxAgeMillis = DEFAULT_LEASE_CACHE_MAX_AGE_MILLIS;
+    private int shardSyncMaxParallelLeaseWrites = DEFAULT_SHARD_SYNC_MAX_PARALLEL_LEASE_WRITES;
+    private boolean metricsStripedAggregation = DEFAULT_METRICS_STRIPED_AGGREGATION;
+    private boolean metricsLatencyHistograms = DEFAULT_METRICS_LATENCY_HISTOGRAMS;
+    private PipelineListener pipelineListener;
+    private int pipelineListenerSampleInterval = DEFAULT_PIPELINE_LISTENER_SAMPLE_INTERVAL;
+    private boolean lazyDeaggregation = DEFAULT_LAZY_DEAGGREGATION;
 
     /**
      * Constructor.
@@ -1321,6 +1384,67 @@ public class KinesisClientLibConfiguration {
         return this;
     }
 
+    /**
+     * @param maxWorkerCacheByteSize Max byte size across the caches of all the shards processed by the worker. The
+     *                               budget is shared fairly between shards, and a shard that crosses its share is
+     *                               blocked until the budget has more space available.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withMaxWorkerCacheByteSize(final long maxWorkerCacheByteSize) {
+        checkIsValuePositive("maxWorkerCacheByteSize", maxWorkerCacheByteSize);
+        this.recordsFetcherFactory.setMaxWorkerByteSize(maxWorkerCacheByteSize);
+        return this;
+    }
+
+    /**
+     * @param prefetchThreadPoolSize Number of threads retrieving records for the caches of all the shards processed
+     *                               by the worker. When not set, each shard's cache uses a thread of its own.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withPrefetchThreadPoolSize(final int prefetchThreadPoolSize) {
+        checkIsValuePositive("prefetchThreadPoolSize", prefetchThreadPoolSize);
+        this.recordsFetcherFactory.setFetcherThreadPoolSize(prefetchThreadPoolSize);
+        return this;
+    }
+
+    /**
+     * With adaptive polling, the prefetch caches call hot shards, which are behind the tip of the stream or filled
+     * their last call, as often as the {@link ShardThroughputBudget} of the shard allows, with calls sized to use its
+     * bytes per second. Idle shards are called less and less often, up to the max idle millis between calls, and
+     * throttled calls back off.
+     *
+     * @param adaptivePolling Whether the prefetch caches adapt their calls to the traffic of their shard.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withAdaptivePolling(final boolean adaptivePolling) {
+        this.recordsFetcherFactory.setAdaptivePolling(adaptivePolling);
+        return this;
+    }
+
+    /**
+     * @param maxIdleMillisBetweenCalls Max idle time between 2 get calls on an idle shard with adaptive polling.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withMaxIdleMillisBetweenCalls(final long maxIdleMillisBetweenCalls) {
+        checkIsValuePositive("MaxIdleMillisBetweenCalls", maxIdleMillisBetweenCalls);
+        this.recordsFetcherFactory.setMaxIdleMillisBetweenCalls(maxIdleMillisBetweenCalls);
+        return this;
+    }
+
+    /**
+     * When several applications read the same stream, each one should get a budget with its share of the limits of
+     * the shards. Workers of the same process may be given the same budget.
+     *
+     * @param shardThroughputBudget Budget of the calls to each shard with adaptive polling. Defaults to the full limits
+     *                              of the shards.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withShardThroughputBudget(final ShardThroughputBudget shardThroughputBudget) {
+        this.recordsFetcherFactory.setShardThroughputBudget(
+                Validate.notNull(shardThroughputBudget, "shardThroughputBudget cannot be null"));
+        return this;
+    }
+
     /**
      * @param dataFetchingStrategy The strategy for fetching data from kinesis.
      * @return KinesisClientLibConfiguration
@@ -1400,6 +1524,167 @@ public class KinesisClientLibConfiguration {
         return this;
     }
 
+    /**
+     * With EVENT_DRIVEN scheduling a shard consumer is driven as soon as its previous task completes, or its records
+     * cache has data ready, instead of waiting for the next pass of the worker loop. The worker loop still runs every
+     * {@link #getIdleTimeBetweenReadsInMillis()} to pick up lease assignment changes.
+     *
+     * @param shardConsumerSchedulingStrategy The strategy used by the Worker to drive its shard consumers.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withShardConsumerSchedulingStrategy(
+            ShardConsumerSchedulingStrategy shardConsumerSchedulingStrategy) {
+        this.shardConsumerSchedulingStrategy = shardConsumerSchedulingStrategy == null
+                ? DEFAULT_SHARD_CONSUMER_SCHEDULING_STRATEGY : shardConsumerSchedulingStrategy;
+        return this;
+    }
+
+    /**
+     * Sets the strategy used by the Worker to drive its shard consumers. Possible values are:
+     * POLLING
+     * EVENT_DRIVEN
+     *
+     * @param shardConsumerSchedulingStrategy The strategy used by the Worker to drive its shard consumers.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withShardConsumerSchedulingStrategy(String shardConsumerSchedulingStrategy) {
+        return withShardConsumerSchedulingStrategy(ShardConsumerSchedulingStrategy.valueOf(
+                shardConsumerSchedulingStrategy.toUpperCase()));
+    }
+
+    /**
+     * Setting a flush interval makes checkpoints asynchronous: only the latest checkpoint of each shard is kept in
+     * memory, and written to the lease table every flush interval. Pending checkpoints are always written before a
+     * record processor is shut down, and checkpoints at the end of a shard are always written synchronously. Failures
+     * are reported to the record processor on its next checkpoint.
+     *
+     * @param checkpointFlushIntervalMillis Time between writes of the pending checkpoints to the lease table.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withCheckpointFlushIntervalMillis(long checkpointFlushIntervalMillis) {
+        checkIsValuePositive("CheckpointFlushIntervalMillis", checkpointFlushIntervalMillis);
+        this.checkpointFlushIntervalMillis = checkpointFlushIntervalMillis;
+        return this;
+    }
+
+    /**
+     * @param checkpointFlushCount Number of checkpoints requested that triggers a write of the pending checkpoints
+     *                             ahead of the flush interval. Only used along with
+     *                             {@link #withCheckpointFlushIntervalMillis(long)}.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withCheckpointFlushCount(int checkpointFlushCount) {
+        checkIsValuePositive("CheckpointFlushCount", checkpointFlushCount);
+        this.checkpointFlushCount = checkpointFlushCount;
+        return this;
+    }
+
+    /**
+     * Setting a number of scan segments makes the worker keep a copy of the lease table in memory. The whole table is
+     * read at startup, then the lease taker reads a single segment of the table per cycle instead of the whole table,
+     * so every lease is read again once every leaseCacheScanSegments cycles. Expired leases are detected up to that
+     * many cycles later than without the cache.
+     *
+     * @param leaseCacheScanSegments Number of segments the lease table is divided into.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withLeaseCacheScanSegments(int leaseCacheScanSegments) {
+        checkIsValuePositive("LeaseCacheScanSegments", leaseCacheScanSegments);
+        this.leaseCacheScanSegments = leaseCacheScanSegments;
+        return this;
+    }
+
+    /**
+     * @param leaseCacheMaxAgeMillis Max time since every segment of the lease table was read for full listings of
+     *                               the table, like the ones of the shard sync, to be served from the lease cache.
+     *                               Only used along with {@link #withLeaseCacheScanSegments(int)}.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withLeaseCacheMaxAgeMillis(long leaseCacheMaxAgeMillis) {
+        checkIsValuePositive("LeaseCacheMaxAgeMillis", leaseCacheMaxAgeMillis);
+        this.leaseCacheMaxAgeMillis = leaseCacheMaxAgeMillis;
+        return this;
+    }
+
+    /**
+     * Lets the shard sync create and delete up to this many leases at once. Leases are created generation by
+     * generation, so the lease of a parent shard always exists before the leases of its children. Each write is a
+     * separate conditional write to the lease table, so the table needs the write capacity to absorb them.
+     *
+     * @param shardSyncMaxParallelLeaseWrites Max number of concurrent lease writes of a shard sync.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withShardSyncMaxParallelLeaseWrites(int shardSyncMaxParallelLeaseWrites) {
+        checkIsValuePositive("ShardSyncMaxParallelLeaseWrites", shardSyncMaxParallelLeaseWrites);
+        this.shardSyncMaxParallelLeaseWrites = shardSyncMaxParallelLeaseWrites;
+        return this;
+    }
+
+    /**
+     * Makes the worker accumulate metrics data points in per thread stripes, which are only merged when the metrics
+     * are published to CloudWatch, instead of queueing every data point for the publication thread. See
+     * StripedMetricsFactory. Only used when the worker creates its own metrics factory.
+     *
+     * @param metricsStripedAggregation Whether to accumulate metrics in per thread stripes.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withMetricsStripedAggregation(boolean metricsStripedAggregation) {
+        this.metricsStripedAggregation = metricsStripedAggregation;
+        return this;
+    }
+
+    /**
+     * Makes the worker publish metrics in milliseconds, like the latencies of its operations, as histograms, so
+     * CloudWatch can compute their percentiles. Values are rounded to within 1/8 of their magnitude. Only used along
+     * with {@link #withMetricsStripedAggregation(boolean)}.
+     *
+     * @param metricsLatencyHistograms Whether to publish metrics in milliseconds as histograms.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withMetricsLatencyHistograms(boolean metricsLatencyHistograms) {
+        this.metricsLatencyHistograms = metricsLatencyHistograms;
+        return this;
+    }
+
+    /**
+     * Passes the time the batches of records spent in each stage of the shard consumers, from the GetRecords call to
+     * the return of the record processor, to the given listener. See {@link PipelineStage} and
+     * {@link PipelineLatencyHistograms}.
+     *
+     * @param pipelineListener Listener of the stage timings of the batches, or null to not time the stages.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withPipelineListener(PipelineListener pipelineListener) {
+        this.pipelineListener = pipelineListener;
+        return this;
+    }
+
+    /**
+     * Only passes one in every pipelineListenerSampleInterval batches of each shard to the pipeline listener.
+     *
+     * @param pipelineListenerSampleInterval Number of batches of a shard per batch passed to the pipeline listener.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withPipelineListenerSampleInterval(int pipelineListenerSampleInterval) {
+        checkIsValuePositive("PipelineListenerSampleInterval", pipelineListenerSampleInterval);
+        this.pipelineListenerSampleInterval = pipelineListenerSampleInterval;
+        return this;
+    }
+
+    /**
+     * Makes the shard consumers deaggregate KPL records with {@link
+     * com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.UserRecord#deaggregateLazily(Iterable)},
+     * which doesn't copy the data of the user records. The data of each user record is then a read-only slice of the
+     * data of its aggregated record, so record processors must not call {@code getData().array()}.
+     *
+     * @param lazyDeaggregation Whether the data of the user records is a read-only slice of the aggregated record.
+     * @return KinesisClientLibConfiguration
+     */
+    public KinesisClientLibConfiguration withLazyDeaggregation(boolean lazyDeaggregation) {
+        this.lazyDeaggregation = lazyDeaggregation;
+        return this;
+    }
+
     public Optional<Integer> getTimeoutInSeconds() {
         return timeoutInSeconds;
     }
@@ -1431,4 +1716,57 @@ public class KinesisClientLibConfiguration {
     public int getMaxListShardsRetryAttempts() {
         return maxListShardsRetryAttempts;
     }
+
+    public ShardConsumerSchedulingStrategy getShardConsumerSchedulingStrategy() {
+        return shardConsumerSchedulingStrategy;
+    }
+
+    /**
+     * @return Time between asynchronous checkpoint flushes, or 0 if checkpoints are written synchronously
+     */
+    public long getCheckpointFlushIntervalMillis() {
+        return checkpointFlushIntervalMillis;
+    }
+
+    public int getCheckpointFlushCount() {
+        return checkpointFlushCount;
+    }
+
+    /**
+     * @return Number of segments of the lease table read by each lease taker cycle, or 0 if leases are not cached
+     */
+    public int getLeaseCacheScanSegments() {
+        return leaseCacheScanSegments;
+    }
+
+    public long getLeaseCacheMaxAgeMillis() {
+        return leaseCacheMaxAgeMillis;
+    }
+
+    public int getShardSyncMaxParallelLeaseWrites() {
+        return shardSyncMaxParallelLeaseWrites;
+    }
+
+    public boolean shouldUseMetricsStripedAggregation() {
+        return metricsStripedAggregation;
+    }
+
+    public boolean shouldPublishMetricsLatencyHistograms() {
+        return metricsLatencyHistograms;
+    }
+
+    /**
+     * @return Listener of the stage timings of the batches of records, or null if the stages are not timed
+     */
+    public PipelineListener getPipelineListener() {
+        return pipelineListener;
+    }
+
+    public int getPipelineListenerSampleInterval() {
+        return pipelineListenerSampleInterval;
+    }
+
+    public boolean shouldDeaggregateLazily() {
+        return lazyDeaggregation;
+    }
 }
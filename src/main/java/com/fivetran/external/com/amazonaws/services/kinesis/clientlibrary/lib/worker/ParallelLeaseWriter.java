@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.DependencyException;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.InvalidStateException;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.ProvisionedThroughputException;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLease;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the lease writes of a shard sync, up to maxParallelWrites at once. With a single write at once, the leases are
+ * written one after the other on the calling thread, and the first failure stops the writes. Otherwise the threads
+ * are started by the first batch of writes, and stopped by {@link #close()}.
+ *
+ * The metrics scope of the shard sync is bound to its thread, so the latency and success of the writes are recorded
+ * from the calling thread once a batch completes.
+ */
+class ParallelLeaseWriter implements AutoCloseable {
+
+    /**
+     * A write of a lease to the lease table.
+     */
+    interface LeaseWrite {
+        void write(KinesisClientLease lease)
+            throws DependencyException, InvalidStateException, ProvisionedThroughputException;
+    }
+
+    private final int maxParallelWrites;
+    private ExecutorService executorService;
+
+    /**
+     * @param maxParallelWrites Max number of concurrent writes. Values below 1 are treated as 1.
+     */
+    ParallelLeaseWriter(int maxParallelWrites) {
+        this.maxParallelWrites = Math.max(1, maxParallelWrites);
+    }
+
+    boolean isParallel() {
+        return maxParallelWrites > 1;
+    }
+
+    /**
+     * Writes all the leases, and waits for the writes to complete.
+     *
+     * @param leases Leases to write, in the order they are written when the writes aren't parallel
+     * @param leaseWrite Write to run for each lease
+     * @param metricName Name of the success and latency metrics of the writes, or null to not record any
+     * @throws DependencyException Thrown by the first failed write, or if interrupted while waiting for the writes
+     * @throws InvalidStateException Thrown by the first failed write
+     * @throws ProvisionedThroughputException Thrown by the first failed write
+     */
+    void writeAll(List<KinesisClientLease> leases, LeaseWrite leaseWrite, String metricName)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        if (!isParallel() || (leases.size() <= 1)) {
+            for (KinesisClientLease lease : leases) {
+                long startTimeMillis = System.currentTimeMillis();
+                boolean success = false;
+                try {
+                    leaseWrite.write(lease);
+                    success = true;
+                } finally {
+                    if (metricName != null) {
+                        MetricsHelper.addSuccessAndLatency(metricName, startTimeMillis, success, MetricsLevel.DETAILED);
+                    }
+                }
+            }
+            return;
+        }
+
+        List<Future<WriteResult>> futures = new ArrayList<>(leases.size());
+        for (KinesisClientLease lease : leases) {
+            futures.add(getExecutorService().submit(() -> {
+                long startTimeMillis = System.currentTimeMillis();
+                try {
+                    leaseWrite.write(lease);
+                    return new WriteResult(System.currentTimeMillis() - startTimeMillis, null);
+                } catch (Exception e) {
+                    return new WriteResult(System.currentTimeMillis() - startTimeMillis, e);
+                }
+            }));
+        }
+
+        Exception failure = null;
+        for (Future<WriteResult> future : futures) {
+            WriteResult result;
+            try {
+                result = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<WriteResult> pending : futures) {
+                    pending.cancel(true);
+                }
+                throw new DependencyException("Interrupted while waiting for lease writes", e);
+            } catch (ExecutionException e) {
+                result = new WriteResult(0L, e);
+            }
+            if (metricName != null) {
+                MetricsHelper.addSuccessAndLatency(metricName, System.currentTimeMillis() - result.latencyMillis,
+                        result.failure == null, MetricsLevel.DETAILED);
+            }
+            if ((failure == null) && (result.failure != null)) {
+                failure = result.failure;
+            }
+        }
+
+        if (failure instanceof DependencyException) {
+            throw (DependencyException) failure;
+        } else if (failure instanceof InvalidStateException) {
+            throw (InvalidStateException) failure;
+        } else if (failure instanceof ProvisionedThroughputException) {
+            throw (ProvisionedThroughputException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new DependencyException(failure);
+        }
+    }
+
+    private ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(maxParallelWrites,
+                    new ThreadFactoryBuilder().setNameFormat("shard-sync-lease-writer-%d").setDaemon(true).build());
+        }
+        return executorService;
+    }
+
+    @Override
+    public void close() {
+        if (executorService != null) {
+            executorService.shutdown();
+            executorService = null;
+        }
+    }
+
+    private static class WriteResult {
+        private final long latencyMillis;
+        private final Exception failure;
+
+        private WriteResult(long latencyMillis, Exception failure) {
+            this.latencyMillis = latencyMillis;
+            this.failure = failure;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.util.concurrent.TimeUnit;
+
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.LatencyHistogram;
+
+/**
+ * {@link PipelineListener} keeping a latency histogram per {@link PipelineStage}, across the shards of the worker.
+ * Durations are recorded in microseconds, within 1/8 of their value (see {@link LatencyHistogram}). Stages that were
+ * not measured for a batch are not recorded.
+ *
+ * Thread safe.
+ */
+public class PipelineLatencyHistograms implements PipelineListener {
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PipelineStage.values().length];
+    private long batchCount;
+    private long recordCount;
+
+    public PipelineLatencyHistograms() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public synchronized void batchProcessed(PipelineTrace trace) {
+        batchCount++;
+        recordCount += trace.getRecordCount();
+        for (PipelineStage stage : PipelineStage.values()) {
+            long nanos = trace.getDurationNanos(stage);
+            if (nanos != PipelineTrace.UNKNOWN) {
+                histograms[stage.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+            }
+        }
+    }
+
+    /**
+     * @param stage pipeline stage
+     * @param percentile percentile, between 0 and 100
+     * @return Duration of the stage at the given percentile in microseconds, or 0 if the stage was never measured
+     */
+    public synchronized long getValueAtPercentile(PipelineStage stage, double percentile) {
+        return histograms[stage.ordinal()].getValueAtPercentile(percentile);
+    }
+
+    /**
+     * @param stage pipeline stage
+     * @return Number of batches the duration of the stage was recorded for
+     */
+    public synchronized long getCount(PipelineStage stage) {
+        return histograms[stage.ordinal()].getTotalCount();
+    }
+
+    /**
+     * @return Number of batches received by this listener
+     */
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return Number of records of the batches received by this listener
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Forgets the batches received so far, for instance at the end of the warm up of a benchmark.
+     */
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        batchCount = 0L;
+        recordCount = 0L;
+    }
+}
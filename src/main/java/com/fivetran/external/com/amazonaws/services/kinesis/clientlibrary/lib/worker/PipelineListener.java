@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+/**
+ * Receives the stage timings of the batches of records processed by the shard consumers of a worker. See
+ * {@link KinesisClientLibConfiguration#withPipelineListener(PipelineListener)}.
+ *
+ * The listener is called by the threads processing the shards, right after the record processor returned, so it must
+ * be thread safe and should return quickly.
+ */
+public interface PipelineListener {
+
+    /**
+     * Called after a batch of records was processed.
+     *
+     * @param trace stage timings of the batch
+     */
+    void batchProcessed(PipelineTrace trace);
+}
@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+/**
+ * Stages a batch of records goes through, from the GetRecords call that fetched it to the return of the record
+ * processor. See {@link PipelineTrace}.
+ */
+public enum PipelineStage {
+    /**
+     * GetRecords call of the data fetcher, including the retries of the retrieval strategy.
+     */
+    GET_RECORDS,
+    /**
+     * Time between the return of the GetRecords call and the start of the process task that consumed the batch. With
+     * prefetching, this is the time the batch waited in the prefetch queue.
+     */
+    PREFETCH_QUEUE,
+    /**
+     * Deaggregation of KPL aggregated records into user records.
+     */
+    DEAGGREGATION,
+    /**
+     * Removal of the records up to the last checkpoint, and search of the largest sequence number of the batch.
+     */
+    FILTER,
+    /**
+     * Call to the record processor, excluding the time spent writing checkpoints.
+     */
+    PROCESS_RECORDS,
+    /**
+     * Checkpoints written by the record processor while processing the batch.
+     */
+    CHECKPOINT,
+    /**
+     * From the start of the GetRecords call to the return of the record processor.
+     */
+    END_TO_END
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.util.Arrays;
+
+/**
+ * Time a batch of records of a shard spent in each {@link PipelineStage}.
+ */
+public class PipelineTrace {
+
+    /**
+     * Duration of the stages that were not measured, like the GetRecords call of a cache that doesn't record it.
+     */
+    public static final long UNKNOWN = -1L;
+
+    private final String shardId;
+    private final int recordCount;
+    private final long[] durationNanos = new long[PipelineStage.values().length];
+
+    PipelineTrace(String shardId, int recordCount) {
+        this.shardId = shardId;
+        this.recordCount = recordCount;
+        Arrays.fill(durationNanos, UNKNOWN);
+    }
+
+    void setDurationNanos(PipelineStage stage, long nanos) {
+        durationNanos[stage.ordinal()] = Math.max(nanos, 0L);
+    }
+
+    public String getShardId() {
+        return shardId;
+    }
+
+    /**
+     * @return Number of records passed to the record processor, after deaggregation and filtering
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @param stage pipeline stage
+     * @return Time spent in the stage in nanoseconds, or {@link #UNKNOWN} if it was not measured
+     */
+    public long getDurationNanos(PipelineStage stage) {
+        return durationNanos[stage.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PipelineTrace(shardId=").append(shardId)
+                .append(", recordCount=").append(recordCount);
+        for (PipelineStage stage : PipelineStage.values()) {
+            builder.append(", ").append(stage).append('=').append(getDurationNanos(stage));
+        }
+        return builder.append(')').toString();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Passes one in every sampleInterval batches of records of a shard to the {@link PipelineListener}. A shard consumer
+ * only runs one task at a time, so the sampler of a shard is not shared between threads.
+ */
+class PipelineTraceSampler {
+
+    private static final Log LOG = LogFactory.getLog(PipelineTraceSampler.class);
+
+    private final PipelineListener listener;
+    private final int sampleInterval;
+    private int batchesUntilSample;
+
+    PipelineTraceSampler(PipelineListener listener, int sampleInterval) {
+        this.listener = listener;
+        this.sampleInterval = sampleInterval;
+        this.batchesUntilSample = 1;
+    }
+
+    /**
+     * Counts a batch of records.
+     *
+     * @return true if the stage timings of the batch should be passed to {@link #publish(PipelineTrace)}
+     */
+    boolean sample() {
+        if (--batchesUntilSample > 0) {
+            return false;
+        }
+        batchesUntilSample = sampleInterval;
+        return true;
+    }
+
+    void publish(PipelineTrace trace) {
+        try {
+            listener.batchProcessed(trace);
+        } catch (RuntimeException e) {
+            LOG.warn("Pipeline listener threw an exception for " + trace, e);
+        }
+    }
+}
@@ -20,6 +20,10 @@ import java.time.Instant;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang3.Validate;
 
@@ -29,9 +33,11 @@ import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.ThreadSafeMetricsDelegatingFactory;
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
 import com.amazonaws.services.kinesis.model.ExpiredIteratorException;
 import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.ProvisionedThroughputExceededException;
 import org.apache.commons.logging.impl.SimpleLog;
 
 /**
@@ -41,10 +47,25 @@ import org.apache.commons.logging.impl.SimpleLog;
  * i.e. the byte size of the records stored in the cache and maxRecordsCount i.e. the max number of records that should
  * be present in the cache across multiple GetRecordsResult object. If no data is available in the cache, the call from
  * the record processor is blocked till records are retrieved from Kinesis.
+ *
+ * The bytes held by the cache are also accounted against a {@link PrefetchMemoryBudget}, which may be shared by all the
+ * caches of a worker to bound the memory used by prefetching across shards. When the cache is full, the prefetching is
+ * paused until the consumer takes records from the cache, or another cache sharing the budget releases bytes.
+ *
+ * Instead of a dedicated thread, the cache can run on a pool of fetcher threads shared by several caches. In that case
+ * every get records call is a separate task on the pool, and a paused cache doesn't hold on to a thread.
+ *
+ * With an {@link AdaptivePollingController}, the time between calls and the number of records per call follow the
+ * traffic of the shard, within the {@link ShardThroughputBudget} of the shard, instead of being fixed.
  */
 public class PrefetchGetRecordsCache implements GetRecordsCache {
     private static final org.apache.commons.logging.Log log = org.apache.commons.logging.LogFactory.getLog(SimpleLog.class);
     private static final String EXPIRED_ITERATOR_METRIC = "ExpiredIterator";
+    static final String BUFFERED_BYTES_METRIC = "PrefetchBufferedBytes";
+    static final String GLOBAL_BUFFERED_BYTES_METRIC = "PrefetchGlobalBufferedBytes";
+    private static final long STOP_FETCHING = -1L;
+    private static final long PAUSE_FETCHING = -2L;
+    private static final int MAX_CONSECUTIVE_THROTTLES = 5;
 
     LinkedBlockingQueue<ProcessRecordsInput> getRecordsResultQueue;
     private int maxPendingProcessRecordsInput;
@@ -53,6 +74,10 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
     private final int maxRecordsPerCall;
     private final GetRecordsRetrievalStrategy getRecordsRetrievalStrategy;
     private final ExecutorService executorService;
+    private final ScheduledExecutorService fetcherPool;
+    private final PrefetchMemoryBudget memoryBudget;
+    private final AdaptivePollingController pollingController;
+    private final ThrottlingReporter throttlingReporter;
     private final IMetricsFactory metricsFactory;
     private final long idleMillisBetweenCalls;
     private Instant lastSuccessfulCall;
@@ -62,6 +87,7 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
     private final String operation;
     private final KinesisDataFetcher dataFetcher;
     private final String shardId;
+    private volatile Runnable dataArrivalListener;
 
     /**
      * Constructor for the PrefetchGetRecordsCache. This cache prefetches records from Kinesis and stores them in a
@@ -88,6 +114,74 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
                                    final IMetricsFactory metricsFactory,
                                    final String operation,
                                    final String shardId) {
+        this(maxPendingProcessRecordsInput, maxByteSize, maxRecordsCount, maxRecordsPerCall,
+                getRecordsRetrievalStrategy, executorService, PrefetchMemoryBudget.unbounded(), null,
+                idleMillisBetweenCalls, metricsFactory, operation, shardId);
+    }
+
+    /**
+     * Constructor for a PrefetchGetRecordsCache running on a dedicated thread, and sharing a memory budget with other
+     * caches.
+     *
+     * @param executorService Executor service for the cache, shut down with the cache
+     * @param memoryBudget Budget accounting the bytes held by the cache
+     * @param pollingController Controller adapting the calls to the traffic of the shard, or null for fixed calls
+     */
+    PrefetchGetRecordsCache(final int maxPendingProcessRecordsInput,
+                            final int maxByteSize,
+                            final int maxRecordsCount,
+                            final int maxRecordsPerCall,
+                            final GetRecordsRetrievalStrategy getRecordsRetrievalStrategy,
+                            final ExecutorService executorService,
+                            final PrefetchMemoryBudget memoryBudget,
+                            final AdaptivePollingController pollingController,
+                            final long idleMillisBetweenCalls,
+                            final IMetricsFactory metricsFactory,
+                            final String operation,
+                            final String shardId) {
+        this(maxPendingProcessRecordsInput, maxByteSize, maxRecordsCount, maxRecordsPerCall,
+                getRecordsRetrievalStrategy, Objects.requireNonNull(executorService), null, memoryBudget,
+                pollingController, idleMillisBetweenCalls, metricsFactory, operation, shardId);
+    }
+
+    /**
+     * Constructor for a PrefetchGetRecordsCache running on a pool of fetcher threads shared with other caches, and
+     * sharing a memory budget with them. The pool isn't shut down with the cache.
+     *
+     * @param fetcherPool Pool the get records calls of the cache are scheduled on
+     * @param memoryBudget Budget accounting the bytes held by the cache
+     * @param pollingController Controller adapting the calls to the traffic of the shard, or null for fixed calls
+     */
+    PrefetchGetRecordsCache(final int maxPendingProcessRecordsInput,
+                            final int maxByteSize,
+                            final int maxRecordsCount,
+                            final int maxRecordsPerCall,
+                            final GetRecordsRetrievalStrategy getRecordsRetrievalStrategy,
+                            final ScheduledExecutorService fetcherPool,
+                            final PrefetchMemoryBudget memoryBudget,
+                            final AdaptivePollingController pollingController,
+                            final long idleMillisBetweenCalls,
+                            final IMetricsFactory metricsFactory,
+                            final String operation,
+                            final String shardId) {
+        this(maxPendingProcessRecordsInput, maxByteSize, maxRecordsCount, maxRecordsPerCall,
+                getRecordsRetrievalStrategy, null, Objects.requireNonNull(fetcherPool), memoryBudget,
+                pollingController, idleMillisBetweenCalls, metricsFactory, operation, shardId);
+    }
+
+    private PrefetchGetRecordsCache(final int maxPendingProcessRecordsInput,
+                                    final int maxByteSize,
+                                    final int maxRecordsCount,
+                                    final int maxRecordsPerCall,
+                                    final GetRecordsRetrievalStrategy getRecordsRetrievalStrategy,
+                                    final ExecutorService executorService,
+                                    final ScheduledExecutorService fetcherPool,
+                                    final PrefetchMemoryBudget memoryBudget,
+                                    final AdaptivePollingController pollingController,
+                                    final long idleMillisBetweenCalls,
+                                    final IMetricsFactory metricsFactory,
+                                    final String operation,
+                                    final String shardId) {
         this.getRecordsRetrievalStrategy = getRecordsRetrievalStrategy;
         this.maxRecordsPerCall = maxRecordsPerCall;
         this.maxPendingProcessRecordsInput = maxPendingProcessRecordsInput;
@@ -96,6 +190,10 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
         this.getRecordsResultQueue = new LinkedBlockingQueue<>(this.maxPendingProcessRecordsInput);
         this.prefetchCounters = new PrefetchCounters();
         this.executorService = executorService;
+        this.fetcherPool = fetcherPool;
+        this.memoryBudget = memoryBudget;
+        this.pollingController = pollingController;
+        this.throttlingReporter = new ThrottlingReporter(MAX_CONSECUTIVE_THROTTLES, shardId);
         this.metricsFactory = new ThreadSafeMetricsDelegatingFactory(metricsFactory);
         this.idleMillisBetweenCalls = idleMillisBetweenCalls;
         this.defaultGetRecordsCacheDaemon = new DefaultGetRecordsCacheDaemon();
@@ -104,28 +202,44 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
         this.dataFetcher = this.getRecordsRetrievalStrategy.getDataFetcher();
         this.shardId = shardId;
         Objects.requireNonNull(getRecordsRetrievalStrategy);
-        Objects.requireNonNull(executorService);
+        Objects.requireNonNull(memoryBudget);
         Objects.requireNonNull(metricsFactory);
         Objects.requireNonNull(operation);
         Objects.requireNonNull(shardId);
+        if (pollingController != null
+                && getRecordsRetrievalStrategy instanceof AsynchronousGetRecordsRetrievalStrategy) {
+            //
+            // Retries of slow calls count against the budget of the shard too.
+            //
+            ((AsynchronousGetRecordsRetrievalStrategy) getRecordsRetrievalStrategy)
+                    .setRetryPermit(pollingController::tryAcquireRetryCall);
+        }
     }
 
     @Override
     public void start() {
-        if (executorService.isShutdown()) {
+        if (isShutdown()) {
             throw new IllegalStateException("ExecutorService has been shutdown.");
         }
         
         if (!started) {
             log.info("Starting prefetching thread.");
-            executorService.execute(defaultGetRecordsCacheDaemon);
+            memoryBudget.register();
+            if (pollingController != null) {
+                pollingController.start();
+            }
+            if (fetcherPool != null) {
+                fetcherPool.execute(defaultGetRecordsCacheDaemon);
+            } else {
+                executorService.execute(defaultGetRecordsCacheDaemon);
+            }
         }
         started = true;
     }
 
     @Override
     public ProcessRecordsInput getNextResult() {
-        if (executorService.isShutdown()) {
+        if (isShutdown()) {
             throw new IllegalStateException("Shutdown has been called on the cache, can't accept new requests.");
         }
         
@@ -136,6 +250,7 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
         try {
             result = getRecordsResultQueue.take().withCacheExitTime(Instant.now());
             prefetchCounters.removed(result);
+            defaultGetRecordsCacheDaemon.resume();
         } catch (InterruptedException e) {
             log.error("Interrupted while getting records from the cache", e);
         }
@@ -147,54 +262,60 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
         return getRecordsRetrievalStrategy;
     }
 
+    @Override
+    public void setDataArrivalListener(Runnable dataArrivalListener) {
+        this.dataArrivalListener = dataArrivalListener;
+    }
+
     @Override
     public void shutdown() {
         defaultGetRecordsCacheDaemon.isShutdown = true;
-        executorService.shutdownNow();
+        if (fetcherPool != null) {
+            defaultGetRecordsCacheDaemon.shutdownStrategyIfIdle();
+        } else {
+            executorService.shutdownNow();
+        }
+        if (started) {
+            memoryBudget.cancel(defaultGetRecordsCacheDaemon.budgetWaiter);
+            prefetchCounters.close();
+            memoryBudget.deregister();
+            if (pollingController != null) {
+                pollingController.shutdown();
+            }
+        }
         started = false;
     }
 
+    private boolean isShutdown() {
+        if (fetcherPool != null) {
+            return defaultGetRecordsCacheDaemon.isShutdown || fetcherPool.isShutdown();
+        }
+        return executorService.isShutdown();
+    }
+
     private class DefaultGetRecordsCacheDaemon implements Runnable {
         volatile boolean isShutdown = false;
-        
+        private volatile boolean fetching = false;
+        private final AtomicBoolean paused = new AtomicBoolean(false);
+        private final Runnable budgetWaiter = this::resume;
+
         @Override
         public void run() {
+            if (fetcherPool != null) {
+                runOnFetcherPool();
+                return;
+            }
             while (!isShutdown) {
                 if (Thread.currentThread().isInterrupted()) {
                     log.warn("Prefetch thread was interrupted.");
                     break;
                 }
-                MetricsHelper.startScope(metricsFactory, operation);
                 if (prefetchCounters.shouldGetNewRecords()) {
                     try {
                         sleepBeforeNextCall();
-                        GetRecordsResult getRecordsResult = getRecordsRetrievalStrategy.getRecords(maxRecordsPerCall);
-                        lastSuccessfulCall = Instant.now();
-                        ProcessRecordsInput processRecordsInput = new ProcessRecordsInput()
-                                .withRecords(getRecordsResult.getRecords())
-                                .withMillisBehindLatest(getRecordsResult.getMillisBehindLatest())
-                                .withCacheEntryTime(lastSuccessfulCall);
-                        getRecordsResultQueue.put(processRecordsInput);
-                        prefetchCounters.added(processRecordsInput);
+                        fetchRecords();
                     } catch (InterruptedException e) {
                         log.info("Thread was interrupted, indicating shutdown was called on the cache.");
-                    } catch (ExpiredIteratorException e) {
-                        log.info(String.format("ShardId %s: getRecords threw ExpiredIteratorException - restarting"
-                                + " after greatest seqNum passed to customer", shardId), e);
-                        
-                        MetricsHelper.getMetricsScope().addData(EXPIRED_ITERATOR_METRIC, 1, StandardUnit.Count,
-                                MetricsLevel.SUMMARY);
-                        
-                        dataFetcher.restartIterator();
-                    } catch (SdkClientException e) {
-                        log.error("Exception thrown while fetching records from Kinesis", e);
-                    } catch (Throwable e) {
-                        log.error("Unexpected exception was thrown. This could probably be an issue or a bug." +
-                                " Please search for the exception/error online to check what is going on. If the " +
-                                "issue persists or is a recurring problem, feel free to open an issue on, " +
-                                "https://github.com/awslabs/amazon-kinesis-client.", e);
-                    } finally {
-                        MetricsHelper.endScope();
                     }
                 } else {
                     //
@@ -210,6 +331,138 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
             }
             callShutdownOnStrategy();
         }
+
+        /**
+         * Makes at most one get records call, then schedules the next one on the pool, unless the cache is full in
+         * which case the daemon is paused until {@link #resume()} is called.
+         */
+        private void runOnFetcherPool() {
+            long nextCallDelayMillis = STOP_FETCHING;
+            fetching = true;
+            try {
+                if (!isShutdown) {
+                    if (prefetchCounters.shouldGetNewRecords()) {
+                        nextCallDelayMillis = millisUntilNextCall();
+                        if (nextCallDelayMillis == 0) {
+                            fetchRecords();
+                        }
+                    } else {
+                        nextCallDelayMillis = PAUSE_FETCHING;
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.info("Prefetch task was interrupted, the fetcher pool is probably shutting down.");
+                nextCallDelayMillis = STOP_FETCHING;
+            } finally {
+                fetching = false;
+                if (isShutdown) {
+                    callShutdownOnStrategy();
+                }
+            }
+            if (nextCallDelayMillis == PAUSE_FETCHING) {
+                pause();
+            } else if (nextCallDelayMillis >= 0) {
+                schedule(nextCallDelayMillis);
+            }
+        }
+
+        private void fetchRecords() throws InterruptedException {
+            MetricsHelper.startScope(metricsFactory, operation);
+            try {
+                long getRecordsStartNanos = System.nanoTime();
+                int maxRecords = pollingController != null ? pollingController.getMaxRecords() : maxRecordsPerCall;
+                GetRecordsResult getRecordsResult = getRecordsRetrievalStrategy.getRecords(maxRecords);
+                long getRecordsEndNanos = System.nanoTime();
+                lastSuccessfulCall = Instant.now();
+                throttlingReporter.success();
+                ProcessRecordsInput processRecordsInput = new ProcessRecordsInput()
+                        .withRecords(getRecordsResult.getRecords())
+                        .withMillisBehindLatest(getRecordsResult.getMillisBehindLatest())
+                        .withCacheEntryTime(lastSuccessfulCall)
+                        .withGetRecordsTimeNanos(getRecordsStartNanos, getRecordsEndNanos);
+                if (pollingController != null) {
+                    pollingController.onResult(processRecordsInput.getRecords().size(),
+                            prefetchCounters.getByteSize(processRecordsInput),
+                            getRecordsResult.getMillisBehindLatest());
+                }
+                getRecordsResultQueue.put(processRecordsInput);
+                prefetchCounters.added(processRecordsInput);
+                publishBufferedBytes();
+                notifyDataArrival();
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (ExpiredIteratorException e) {
+                log.info(String.format("ShardId %s: getRecords threw ExpiredIteratorException - restarting"
+                        + " after greatest seqNum passed to customer", shardId), e);
+
+                MetricsHelper.getMetricsScope().addData(EXPIRED_ITERATOR_METRIC, 1, StandardUnit.Count,
+                        MetricsLevel.SUMMARY);
+
+                dataFetcher.restartIterator();
+            } catch (ProvisionedThroughputExceededException e) {
+                throttlingReporter.throttled();
+                if (pollingController != null) {
+                    pollingController.onThrottled();
+                }
+            } catch (SdkClientException e) {
+                log.error("Exception thrown while fetching records from Kinesis", e);
+            } catch (Throwable e) {
+                log.error("Unexpected exception was thrown. This could probably be an issue or a bug." +
+                        " Please search for the exception/error online to check what is going on. If the " +
+                        "issue persists or is a recurring problem, feel free to open an issue on, " +
+                        "https://github.com/awslabs/amazon-kinesis-client.", e);
+            } finally {
+                MetricsHelper.endScope();
+            }
+        }
+
+        private void pause() {
+            paused.set(true);
+            memoryBudget.awaitRelease(budgetWaiter);
+            //
+            // The consumer, or another cache sharing the budget, may have released records before the waiter was
+            // registered.
+            //
+            if (prefetchCounters.shouldGetNewRecords()) {
+                resume();
+            }
+        }
+
+        /**
+         * Wakes the daemon up after records have been released, either by the consumer of this cache or by another
+         * cache sharing the memory budget.
+         */
+        void resume() {
+            if (fetcherPool == null) {
+                prefetchCounters.wakeUp();
+            } else if (paused.compareAndSet(true, false)) {
+                schedule(0);
+            }
+        }
+
+        void shutdownStrategyIfIdle() {
+            //
+            // Otherwise the task currently fetching shuts the strategy down once it's done.
+            //
+            if (!fetching) {
+                callShutdownOnStrategy();
+            }
+        }
+
+        private void schedule(final long delayMillis) {
+            if (isShutdown) {
+                return;
+            }
+            try {
+                if (delayMillis > 0) {
+                    fetcherPool.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    fetcherPool.execute(this);
+                }
+            } catch (RejectedExecutionException e) {
+                log.info("Fetcher pool has been shutdown, stopping prefetching for shard " + shardId);
+            }
+        }
         
         private void callShutdownOnStrategy() {
             if (!getRecordsRetrievalStrategy.isShutdown()) {
@@ -217,13 +470,40 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
             }
         }
         
-        private void sleepBeforeNextCall() throws InterruptedException {
+        private void notifyDataArrival() {
+            Runnable listener = dataArrivalListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+
+        private void publishBufferedBytes() {
+            MetricsHelper.getMetricsScope().addData(GLOBAL_BUFFERED_BYTES_METRIC, memoryBudget.getBufferedBytes(),
+                    StandardUnit.Bytes, MetricsLevel.SUMMARY);
+
+            IMetricsScope shardScope = metricsFactory.createMetrics();
+            shardScope.addDimension(MetricsHelper.OPERATION_DIMENSION_NAME, operation);
+            shardScope.addDimension(MetricsHelper.SHARD_ID_DIMENSION_NAME, shardId);
+            shardScope.addData(BUFFERED_BYTES_METRIC, prefetchCounters.getByteSize(), StandardUnit.Bytes,
+                    MetricsLevel.SUMMARY);
+            shardScope.end();
+        }
+
+        private long millisUntilNextCall() {
+            if (pollingController != null) {
+                return pollingController.millisUntilNextCall();
+            }
             if (lastSuccessfulCall == null) {
-                return;
+                return 0;
             }
             long timeSinceLastCall = Duration.between(lastSuccessfulCall, Instant.now()).abs().toMillis();
-            if (timeSinceLastCall < idleMillisBetweenCalls) {
-                Thread.sleep(idleMillisBetweenCalls - timeSinceLastCall);
+            return Math.max(0, idleMillisBetweenCalls - timeSinceLastCall);
+        }
+
+        private void sleepBeforeNextCall() throws InterruptedException {
+            long millisUntilNextCall;
+            while ((millisUntilNextCall = millisUntilNextCall()) > 0) {
+                Thread.sleep(millisUntilNextCall);
             }
         }
     }
@@ -231,44 +511,102 @@ public class PrefetchGetRecordsCache implements GetRecordsCache {
     private class PrefetchCounters {
         private long size = 0;
         private long byteSize = 0;
+        private boolean closed = false;
 
         public synchronized void added(final ProcessRecordsInput result) {
+            long resultByteSize = getByteSize(result);
             size += getSize(result);
-            byteSize += getByteSize(result);
+            byteSize += resultByteSize;
+            if (!closed) {
+                memoryBudget.reserve(resultByteSize);
+            }
         }
 
-        public synchronized void removed(final ProcessRecordsInput result) {
-            size -= getSize(result);
-            byteSize -= getByteSize(result);
-            this.notifyAll();
+        public void removed(final ProcessRecordsInput result) {
+            long resultByteSize = getByteSize(result);
+            boolean release;
+            synchronized (this) {
+                size -= getSize(result);
+                byteSize -= resultByteSize;
+                release = !closed;
+            }
+            //
+            // Releasing bytes wakes up the other caches sharing the budget, so it's done without holding the lock.
+            //
+            if (release) {
+                memoryBudget.release(resultByteSize);
+            }
+        }
+
+        /**
+         * Returns the bytes still held by the cache to the budget, the cache no longer accounts against it.
+         */
+        public void close() {
+            long unreleasedByteSize;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                unreleasedByteSize = byteSize;
+            }
+            memoryBudget.release(unreleasedByteSize);
         }
 
         private long getSize(final ProcessRecordsInput result) {
             return result.getRecords().size();
         }
 
-        private long getByteSize(final ProcessRecordsInput result) {
-            return result.getRecords().stream().mapToLong(record -> record.getData().array().length).sum();
+        long getByteSize(final ProcessRecordsInput result) {
+            return result.getRecords().stream().mapToLong(record -> record.getData().capacity()).sum();
+        }
+
+        public synchronized long getByteSize() {
+            return byteSize;
         }
 
         public synchronized void waitForConsumer() throws InterruptedException {
-            if (!shouldGetNewRecords()) {
-                log.debug("Queue is full waiting for consumer for " + idleMillisBetweenCalls + " ms");
-                this.wait(idleMillisBetweenCalls);
+            //
+            // The waiter is registered before checking the budget, so records released in between by the consumer, or
+            // by another cache sharing the budget, still wake this thread up. The waiter needs this lock to notify, so
+            // it can't run before this thread waits.
+            //
+            final Runnable budgetWaiter = defaultGetRecordsCacheDaemon.budgetWaiter;
+            try {
+                memoryBudget.awaitRelease(budgetWaiter);
+                while (!defaultGetRecordsCacheDaemon.isShutdown && !shouldGetNewRecords()) {
+                    log.debug("Cache is full, waiting for the consumer to release records");
+                    this.wait();
+                    memoryBudget.awaitRelease(budgetWaiter);
+                }
+            } finally {
+                memoryBudget.cancel(budgetWaiter);
             }
         }
+
+        public synchronized void wakeUp() {
+            this.notifyAll();
+        }
         
         public synchronized boolean shouldGetNewRecords() {
             if (log.isDebugEnabled()) {
                 log.debug("Current Prefetch Counter States: " + this.toString());
             }
-            return size < maxRecordsCount && byteSize < maxByteSize;
+            return size < maxRecordsCount && byteSize < maxByteSize && hasQueueCapacity()
+                    && memoryBudget.canFetch(byteSize);
+        }
+
+        private boolean hasQueueCapacity() {
+            //
+            // A dedicated thread can block on a full queue, tasks on the shared pool must not.
+            //
+            return fetcherPool == null || getRecordsResultQueue.remainingCapacity() > 0;
         }
 
         @Override
         public String toString() {
-            return String.format("{ Requests: %d, Records: %d, Bytes: %d }", getRecordsResultQueue.size(), size,
-                    byteSize);
+            return String.format("{ Requests: %d, Records: %d, Bytes: %d, Buffered bytes across caches: %d }",
+                    getRecordsResultQueue.size(), size, byteSize, memoryBudget.getBufferedBytes());
         }
     }
 
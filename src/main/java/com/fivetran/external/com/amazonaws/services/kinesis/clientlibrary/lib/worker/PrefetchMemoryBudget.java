@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Byte budget shared by all the {@link PrefetchGetRecordsCache} instances created by a {@link RecordsFetcherFactory}.
+ * It bounds the total size of the records buffered by the prefetch caches of a worker, on top of the per shard limits
+ * of every cache.
+ *
+ * The budget is divided fairly between the caches that are registered with it: as long as the budget isn't exhausted,
+ * a cache may fetch while it holds nothing or less than its fair share (maxByteSize / number of caches), while a cache
+ * that already holds its fair share may only fetch as long as that leaves a full fair share of headroom for the
+ * others. Since the size of a batch is only known once it has been fetched, the budget can be exceeded by the batches
+ * that are being fetched concurrently.
+ *
+ * Accounting is lock free. Caches that can't fetch register a callback with {@link #awaitRelease(Runnable)}, which is
+ * invoked the next time bytes are released or a cache is deregistered.
+ */
+class PrefetchMemoryBudget {
+    private final long maxByteSize;
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicInteger registeredCaches = new AtomicInteger();
+    private final Set<Runnable> waiters = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param maxByteSize Max number of bytes buffered across all the caches sharing this budget
+     */
+    PrefetchMemoryBudget(final long maxByteSize) {
+        Validate.isTrue(maxByteSize > 0, "maxByteSize must be positive");
+        this.maxByteSize = maxByteSize;
+    }
+
+    /**
+     * Creates a budget that never prevents a cache from fetching, but still accounts the buffered bytes.
+     */
+    static PrefetchMemoryBudget unbounded() {
+        return new PrefetchMemoryBudget(Long.MAX_VALUE);
+    }
+
+    void register() {
+        registeredCaches.incrementAndGet();
+    }
+
+    /**
+     * Removes a cache from the fair share computation. The shares of the remaining caches grow, so the caches waiting
+     * for the budget are woken up.
+     */
+    void deregister() {
+        registeredCaches.decrementAndGet();
+        wakeWaiters();
+    }
+
+    /**
+     * @param shardByteSize Number of bytes currently buffered by the cache asking to fetch
+     * @return true if the cache may fetch another batch of records
+     */
+    boolean canFetch(final long shardByteSize) {
+        long global = bufferedBytes.get();
+        if (global >= maxByteSize) {
+            return false;
+        }
+        long fairShare = getFairShare();
+        return shardByteSize <= 0 || shardByteSize < fairShare || global < maxByteSize - fairShare;
+    }
+
+    void reserve(final long bytes) {
+        bufferedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Returns bytes to the budget and wakes up the caches waiting for it. The waiters are woken up even when no bytes
+     * are returned, since removing an empty batch from a cache still frees a slot of its queue. Must not be called
+     * while holding a lock that a waiter callback may acquire.
+     */
+    void release(final long bytes) {
+        if (bytes != 0) {
+            bufferedBytes.addAndGet(-bytes);
+        }
+        wakeWaiters();
+    }
+
+    /**
+     * Registers a callback that is invoked once, the next time bytes are released. Callers must check
+     * {@link #canFetch(long)} again after registering, as the budget may have been released in between.
+     *
+     * @param waiter callback to invoke
+     */
+    void awaitRelease(final Runnable waiter) {
+        waiters.add(waiter);
+    }
+
+    /**
+     * Removes a callback registered with {@link #awaitRelease(Runnable)}, if it hasn't been invoked yet.
+     */
+    void cancel(final Runnable waiter) {
+        waiters.remove(waiter);
+    }
+
+    long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    private long getFairShare() {
+        return maxByteSize / Math.max(1, registeredCaches.get());
+    }
+
+    private void wakeWaiters() {
+        for (Runnable waiter : waiters) {
+            if (waiters.remove(waiter)) {
+                waiter.run();
+            }
+        }
+    }
+}
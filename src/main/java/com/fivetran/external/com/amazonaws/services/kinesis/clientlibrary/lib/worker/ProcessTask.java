@@ -15,6 +15,7 @@
 package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -61,6 +62,7 @@ class ProcessTask implements ITask {
     private final ThrottlingReporter throttlingReporter;
 
     private final GetRecordsCache getRecordsCache;
+    private final PipelineTraceSampler pipelineTraceSampler;
 
     /**
      * @param shardInfo
@@ -82,10 +84,36 @@ class ProcessTask implements ITask {
                        RecordProcessorCheckpointer recordProcessorCheckpointer, KinesisDataFetcher dataFetcher,
                        long backoffTimeMillis, boolean skipShardSyncAtWorkerInitializationIfLeasesExist,
                        GetRecordsCache getRecordsCache) {
+        this(shardInfo, streamConfig, recordProcessor, recordProcessorCheckpointer, dataFetcher, backoffTimeMillis,
+                skipShardSyncAtWorkerInitializationIfLeasesExist, getRecordsCache, null);
+    }
+
+    /**
+     * @param shardInfo
+     *            contains information about the shard
+     * @param streamConfig
+     *            Stream configuration
+     * @param recordProcessor
+     *            Record processor used to process the data records for the shard
+     * @param recordProcessorCheckpointer
+     *            Passed to the RecordProcessor so it can checkpoint progress
+     * @param dataFetcher
+     *            Kinesis data fetcher (used to fetch records from Kinesis)
+     * @param backoffTimeMillis
+     *            backoff time when catching exceptions
+     * @param getRecordsCache
+     *            The retrieval strategy for fetching records from kinesis
+     * @param pipelineTraceSampler
+     *            Passes the stage timings of the batches to the pipeline listener, or null if there's no listener
+     */
+    ProcessTask(ShardInfo shardInfo, StreamConfig streamConfig, IRecordProcessor recordProcessor,
+                RecordProcessorCheckpointer recordProcessorCheckpointer, KinesisDataFetcher dataFetcher,
+                long backoffTimeMillis, boolean skipShardSyncAtWorkerInitializationIfLeasesExist,
+                GetRecordsCache getRecordsCache, PipelineTraceSampler pipelineTraceSampler) {
         this(shardInfo, streamConfig, recordProcessor, recordProcessorCheckpointer, dataFetcher, backoffTimeMillis,
                 skipShardSyncAtWorkerInitializationIfLeasesExist,
                 new ThrottlingReporter(MAX_CONSECUTIVE_THROTTLES, shardInfo.getShardId()),
-                getRecordsCache);
+                getRecordsCache, pipelineTraceSampler);
     }
 
     /**
@@ -108,6 +136,15 @@ class ProcessTask implements ITask {
                        RecordProcessorCheckpointer recordProcessorCheckpointer, KinesisDataFetcher dataFetcher,
                        long backoffTimeMillis, boolean skipShardSyncAtWorkerInitializationIfLeasesExist,
                        ThrottlingReporter throttlingReporter, GetRecordsCache getRecordsCache) {
+        this(shardInfo, streamConfig, recordProcessor, recordProcessorCheckpointer, dataFetcher, backoffTimeMillis,
+                skipShardSyncAtWorkerInitializationIfLeasesExist, throttlingReporter, getRecordsCache, null);
+    }
+
+    private ProcessTask(ShardInfo shardInfo, StreamConfig streamConfig, IRecordProcessor recordProcessor,
+                        RecordProcessorCheckpointer recordProcessorCheckpointer, KinesisDataFetcher dataFetcher,
+                        long backoffTimeMillis, boolean skipShardSyncAtWorkerInitializationIfLeasesExist,
+                        ThrottlingReporter throttlingReporter, GetRecordsCache getRecordsCache,
+                        PipelineTraceSampler pipelineTraceSampler) {
         super();
         this.shardInfo = shardInfo;
         this.recordProcessor = recordProcessor;
@@ -118,6 +155,7 @@ class ProcessTask implements ITask {
         this.throttlingReporter = throttlingReporter;
         IKinesisProxy kinesisProxy = this.streamConfig.getStreamProxy();
         this.getRecordsCache = getRecordsCache;
+        this.pipelineTraceSampler = pipelineTraceSampler;
         // If skipShardSyncAtWorkerInitializationIfLeasesExist is set, we will not get the shard for
         // this ProcessTask. In this case, duplicate KPL user records in the event of resharding will
         // not be dropped during deaggregation of Amazon Kinesis records. This is only applicable if
@@ -155,23 +193,39 @@ class ProcessTask implements ITask {
             }
 
             final ProcessRecordsInput processRecordsInput = getRecordsResult();
+            final long receivedNanos = System.nanoTime();
             throttlingReporter.success();
             List<Record> records = processRecordsInput.getRecords();
 
+            // Empty batches are not traced, since their timings would include the idle time sleep.
+            final boolean traced;
             if (!records.isEmpty()) {
                 scope.addData(RECORDS_PROCESSED_METRIC, records.size(), StandardUnit.Count, MetricsLevel.SUMMARY);
+                traced = pipelineTraceSampler != null && pipelineTraceSampler.sample();
             } else {
                 handleNoRecords(startTimeMillis);
+                traced = false;
             }
+            final long deaggregationStartNanos = System.nanoTime();
             records = deaggregateRecords(records);
 
+            final long filterStartNanos = System.nanoTime();
             recordProcessorCheckpointer.setLargestPermittedCheckpointValue(
                     filterAndGetMaxExtendedSequenceNumber(scope, records,
                             recordProcessorCheckpointer.getLastCheckpointValue(),
                             recordProcessorCheckpointer.getLargestPermittedCheckpointValue()));
 
             if (shouldCallProcessRecords(records)) {
+                if (traced) {
+                    // Forget the checkpoints written outside of this batch, like the ones of a previous shutdown.
+                    recordProcessorCheckpointer.takeCheckpointNanos();
+                }
+                final long processRecordsStartNanos = System.nanoTime();
                 callProcessRecords(processRecordsInput, records);
+                if (traced) {
+                    publishTrace(processRecordsInput, records.size(), receivedNanos, deaggregationStartNanos,
+                            filterStartNanos, processRecordsStartNanos);
+                }
             }
         } catch (ProvisionedThroughputExceededException pte) {
             throttlingReporter.throttled();
@@ -213,7 +267,10 @@ class ProcessTask implements ITask {
         final ProcessRecordsInput processRecordsInput = new ProcessRecordsInput().withRecords(records)
                 .withCheckpointer(recordProcessorCheckpointer)
                 .withShardId(shardInfo.getShardId())
-                .withMillisBehindLatest(input.getMillisBehindLatest());
+                .withMillisBehindLatest(input.getMillisBehindLatest())
+                .withCacheEntryTime(input.getCacheEntryTime())
+                .withCacheExitTime(input.getCacheExitTime())
+                .withGetRecordsTimeNanos(input.getGetRecordsStartNanos(), input.getGetRecordsEndNanos());
 
         final long recordProcessorStartTimeMillis = System.currentTimeMillis();
         try {
@@ -228,6 +285,40 @@ class ProcessTask implements ITask {
         }
     }
 
+    /**
+     * Passes the stage timings of a batch that was just processed to the pipeline listener.
+     *
+     * @param input
+     *            the result of the last call to Kinesis
+     * @param recordCount
+     *            number of records passed to the record processor
+     * @param receivedNanos
+     *            time the batch was received by this task
+     * @param deaggregationStartNanos
+     *            time the deaggregation of the batch started
+     * @param filterStartNanos
+     *            time the filtering of the batch started
+     * @param processRecordsStartNanos
+     *            time the record processor was called
+     */
+    private void publishTrace(ProcessRecordsInput input, int recordCount, long receivedNanos,
+                              long deaggregationStartNanos, long filterStartNanos, long processRecordsStartNanos) {
+        final long endNanos = System.nanoTime();
+        final long checkpointNanos = recordProcessorCheckpointer.takeCheckpointNanos();
+        PipelineTrace trace = new PipelineTrace(shardInfo.getShardId(), recordCount);
+        if (input.getGetRecordsStartNanos() != null && input.getGetRecordsEndNanos() != null) {
+            trace.setDurationNanos(PipelineStage.GET_RECORDS,
+                    input.getGetRecordsEndNanos() - input.getGetRecordsStartNanos());
+            trace.setDurationNanos(PipelineStage.PREFETCH_QUEUE, receivedNanos - input.getGetRecordsEndNanos());
+            trace.setDurationNanos(PipelineStage.END_TO_END, endNanos - input.getGetRecordsStartNanos());
+        }
+        trace.setDurationNanos(PipelineStage.DEAGGREGATION, filterStartNanos - deaggregationStartNanos);
+        trace.setDurationNanos(PipelineStage.FILTER, processRecordsStartNanos - filterStartNanos);
+        trace.setDurationNanos(PipelineStage.PROCESS_RECORDS, endNanos - processRecordsStartNanos - checkpointNanos);
+        trace.setDurationNanos(PipelineStage.CHECKPOINT, checkpointNanos);
+        pipelineTraceSampler.publish(trace);
+    }
+
     /**
      * Whether we should call process records or not
      *
@@ -251,6 +342,9 @@ class ProcessTask implements ITask {
         // We deaggregate if and only if we got actual Kinesis records, i.e.
         // not instances of some subclass thereof.
         if (!records.isEmpty() && records.get(0).getClass().equals(Record.class)) {
+            if (streamConfig.shouldDeaggregateLazily()) {
+                return deaggregateRecordsLazily(records);
+            }
             if (this.shard != null) {
                 return (List<Record>) (List<?>) UserRecord.deaggregate(records,
                         new BigInteger(this.shard.getHashKeyRange().getStartingHashKey()),
@@ -262,6 +356,30 @@ class ProcessTask implements ITask {
         return records;
     }
 
+    /**
+     * Deaggregates the given records without copying the data of the user records, which are read-only slices of
+     * the data of the aggregated records.
+     *
+     * @param records
+     *            the Kinesis records to deaggregate
+     * @return returns the deaggregated records
+     */
+    private List<Record> deaggregateRecordsLazily(List<Record> records) {
+        Iterable<UserRecord> userRecords;
+        if (this.shard != null) {
+            userRecords = UserRecord.deaggregateLazily(records,
+                    new BigInteger(this.shard.getHashKeyRange().getStartingHashKey()),
+                    new BigInteger(this.shard.getHashKeyRange().getEndingHashKey()));
+        } else {
+            userRecords = UserRecord.deaggregateLazily(records);
+        }
+        List<Record> result = new ArrayList<>(records.size());
+        for (UserRecord userRecord : userRecords) {
+            result.add(userRecord);
+        }
+        return result;
+    }
+
     /**
      * Emits metrics, and sleeps if there are no records available
      *
@@ -56,6 +56,9 @@ class RecordProcessorCheckpointer implements IRecordProcessorCheckpointer {
     
     private IMetricsFactory metricsFactory;
 
+    // Time spent writing checkpoints since the last call to takeCheckpointNanos()
+    private long checkpointNanos;
+
     /**
      * Only has package level access, since only the Amazon Kinesis Client Library should be creating these.
      *
@@ -235,6 +238,21 @@ class RecordProcessorCheckpointer implements IRecordProcessorCheckpointer {
         return lastCheckpointValue;
     }
 
+    /**
+     * Writes out the latest checkpoint of this shard when checkpoints are written asynchronously. This is used before
+     * the lease for the shard is given up, since the checkpoint can't be written once the lease is gone. Throttling and
+     * dependency failures are thrown, so the shutdown is retried instead of going on without the checkpoint.
+     */
+    void flushPendingCheckpoint() {
+        if (checkpoint instanceof CoalescingCheckpointWriter) {
+            try {
+                ((CoalescingCheckpointWriter) checkpoint).flushOnShutdown(shardInfo.getShardId());
+            } catch (KinesisClientLibException e) {
+                LOG.warn("Unable to write pending checkpoint for shard " + shardInfo.getShardId(), e);
+            }
+        }
+    }
+
     synchronized void setInitialCheckpointValue(ExtendedSequenceNumber initialCheckpoint) {
         lastCheckpointValue = initialCheckpoint;
     }
@@ -255,6 +273,18 @@ class RecordProcessorCheckpointer implements IRecordProcessorCheckpointer {
         this.largestPermittedCheckpointValue = largestPermittedCheckpointValue;
     }
 
+    /**
+     * Used by the process task to exclude the checkpoints written by the record processor from the time spent
+     * processing the records.
+     *
+     * @return the time spent writing checkpoints in nanoseconds since the last call to this method
+     */
+    synchronized long takeCheckpointNanos() {
+        long nanos = checkpointNanos;
+        checkpointNanos = 0L;
+        return nanos;
+    }
+
     /**
      * Used to remember the last extended sequence number before SHARD_END to allow us to prevent the checkpointer
      * from checkpointing at the end of the shard twice (i.e. at the last extended sequence number and then again
@@ -304,7 +334,13 @@ class RecordProcessorCheckpointer implements IRecordProcessorCheckpointer {
                         LOG.debug("Setting " + shardInfo.getShardId() + ", token " + shardInfo.getConcurrencyToken()
                                 + " checkpoint to " + checkpointToRecord);
                     }
-                    checkpoint.setCheckpoint(shardInfo.getShardId(), checkpointToRecord, shardInfo.getConcurrencyToken());
+                    long startNanos = System.nanoTime();
+                    try {
+                        checkpoint.setCheckpoint(shardInfo.getShardId(), checkpointToRecord,
+                                shardInfo.getConcurrencyToken());
+                    } finally {
+                        checkpointNanos += System.nanoTime() - startNanos;
+                    }
                     lastCheckpointValue = checkpointToRecord;
                 } catch (ThrottlingException | ShutdownException | InvalidStateException
                         | KinesisClientLibDependencyException e) {
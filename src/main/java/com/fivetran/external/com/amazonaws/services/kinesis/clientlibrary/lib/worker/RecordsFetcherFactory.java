@@ -73,4 +73,63 @@ public interface RecordsFetcherFactory {
      */
     void setIdleMillisBetweenCalls(long idleMillisBetweenCalls);
 
+    /**
+     * Sets the max byte size across all the GetRecordsCache instances created by this factory, before further requests
+     * are blocked. The budget is shared fairly between the caches, on top of the max byte size of each cache.
+     *
+     * @param maxWorkerByteSize The maximum byte size across all the caches before blocking.
+     */
+    default void setMaxWorkerByteSize(long maxWorkerByteSize) {
+        //
+        // Factories that don't share memory between caches ignore this
+        //
+    }
+
+    /**
+     * Sets the number of threads shared by the GetRecordsCache instances created by this factory to retrieve records.
+     * When not set, each cache uses a thread of its own.
+     *
+     * @param fetcherThreadPoolSize The number of threads retrieving records for all the caches.
+     */
+    default void setFetcherThreadPoolSize(int fetcherThreadPoolSize) {
+        //
+        // Factories that don't share threads between caches ignore this
+        //
+    }
+
+    /**
+     * Sets whether the GetRecordsCache instances adapt the time between calls and the number of records per call to
+     * the traffic of their shard, within the {@link ShardThroughputBudget} of the shard.
+     *
+     * @param adaptivePolling Whether the calls adapt to the traffic of the shards.
+     */
+    default void setAdaptivePolling(boolean adaptivePolling) {
+        //
+        // Factories that don't adapt their calls ignore this
+        //
+    }
+
+    /**
+     * Sets the max time between two get calls on an idle shard when polling adaptively.
+     *
+     * @param maxIdleMillisBetweenCalls Max sleep millis between calls on an idle shard.
+     */
+    default void setMaxIdleMillisBetweenCalls(long maxIdleMillisBetweenCalls) {
+        //
+        // Factories that don't adapt their calls ignore this
+        //
+    }
+
+    /**
+     * Sets the budget of the calls to each shard when polling adaptively. The budget may be shared with the factories
+     * of other workers reading the same stream.
+     *
+     * @param shardThroughputBudget Budget of the calls to each shard.
+     */
+    default void setShardThroughputBudget(ShardThroughputBudget shardThroughputBudget) {
+        //
+        // Factories that don't adapt their calls ignore this
+        //
+    }
+
 }
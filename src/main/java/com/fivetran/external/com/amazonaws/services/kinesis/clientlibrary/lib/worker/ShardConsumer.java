@@ -18,6 +18,7 @@ package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.w
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.RejectedExecutionException;
 
 import com.amazonaws.services.dynamodbv2.model.AmazonDynamoDBException;
@@ -62,6 +63,12 @@ class ShardConsumer {
     private Future<TaskResult> future;
     
     private final GetRecordsCache getRecordsCache;
+    // Only set when the configuration has a pipeline listener
+    private final PipelineTraceSampler pipelineTraceSampler;
+    // Only set when the worker drives this consumer with ShardConsumerSchedulingStrategy.EVENT_DRIVEN
+    private volatile ShardConsumerWakeupQueue wakeupQueue;
+    // Only set when the worker shares the lineage of the shards of the stream with the shard syncs of its consumers
+    private volatile ShardLineageIndex shardLineageIndex;
 
     private static final GetRecordsRetrievalStrategy makeStrategy(KinesisDataFetcher dataFetcher,
                                                                   Optional<Integer> retryGetRecordsInSeconds,
@@ -235,6 +242,8 @@ class ShardConsumer {
         this.getRecordsCache = config.getRecordsFetcherFactory().createRecordsFetcher(
                 makeStrategy(this.dataFetcher, retryGetRecordsInSeconds, maxGetRecordsThreadPool, this.shardInfo),
                 this.getShardInfo().getShardId(), this.metricsFactory, this.config.getMaxRecords());
+        this.pipelineTraceSampler = config.getPipelineListener() == null ? null
+                : new PipelineTraceSampler(config.getPipelineListener(), config.getPipelineListenerSampleInterval());
     }
 
     /**
@@ -247,6 +256,27 @@ class ShardConsumer {
         return checkAndSubmitNextTask();
     }
 
+    /**
+     * Asks this ShardConsumer to put itself on the given queue whenever its current task completes, or its records
+     * cache has new data available, so the worker can call {@link #consumeShard()} without waiting for the next pass
+     * of its loop.
+     *
+     * @param wakeupQueue queue the worker takes ready shard consumers from
+     */
+    void enableWakeups(ShardConsumerWakeupQueue wakeupQueue) {
+        this.wakeupQueue = wakeupQueue;
+        getRecordsCache.setDataArrivalListener(() -> wakeupQueue.wakeup(this));
+    }
+
+    /**
+     * Makes the shard sync run when this shard is completely processed use the lineage index of the worker.
+     *
+     * @param shardLineageIndex lineage of the shards of the stream shared by the shard syncs of the worker
+     */
+    void setShardLineageIndex(ShardLineageIndex shardLineageIndex) {
+        this.shardLineageIndex = shardLineageIndex;
+    }
+
     private boolean readyForNextTask() {
         return future == null || future.isCancelled() || future.isDone();
     }
@@ -264,7 +294,7 @@ class ShardConsumer {
             if (nextTask != null) {
                 currentTask = nextTask;
                 try {
-                    future = executorService.submit(currentTask);
+                    future = submitTask(currentTask);
                     currentTaskSubmitTime = System.currentTimeMillis();
                     submittedNewTask = true;
                     LOG.debug("Submitted new " + currentTask.getTaskType()
@@ -298,6 +328,23 @@ class ShardConsumer {
         return submittedNewTask;
     }
 
+    private Future<TaskResult> submitTask(ITask task) {
+        final ShardConsumerWakeupQueue queue = wakeupQueue;
+        if (queue == null) {
+            return executorService.submit(task);
+        }
+        // done() runs after the future has completed, so the worker is guaranteed to see the outcome when it
+        // takes this consumer off the queue.
+        FutureTask<TaskResult> futureTask = new FutureTask<TaskResult>(task) {
+            @Override
+            protected void done() {
+                queue.wakeup(ShardConsumer.this);
+            }
+        };
+        executorService.execute(futureTask);
+        return futureTask;
+    }
+
     public boolean isSkipShardSyncAtWorkerInitializationIfLeasesExist() {
         return skipShardSyncAtWorkerInitializationIfLeasesExist;
     }
@@ -306,6 +353,10 @@ class ShardConsumer {
         return getRecordsCache;
     }
 
+    PipelineTraceSampler getPipelineTraceSampler() {
+        return pipelineTraceSampler;
+    }
+
     private enum TaskOutcome {
         SUCCESSFUL, END_OF_SHARD, NOT_COMPLETE, FAILURE
     }
@@ -492,6 +543,14 @@ class ShardConsumer {
         return config.shouldIgnoreUnexpectedChildShards();
     }
 
+    ShardLineageIndex getShardLineageIndex() {
+        return shardLineageIndex;
+    }
+
+    int getShardSyncMaxParallelLeaseWrites() {
+        return config.getShardSyncMaxParallelLeaseWrites();
+    }
+
     long getTaskBackoffTimeMillis() {
         return taskBackoffTimeMillis;
     }
@@ -0,0 +1,28 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+/**
+ * Determines how the {@link Worker} decides when to drive its {@link ShardConsumer}s.
+ * <ul>
+ * <li>POLLING: every shard consumer is checked once per pass of the worker loop, and the worker sleeps for the idle
+ * time between passes.</li>
+ * <li>EVENT_DRIVEN: shard consumers are driven as soon as their previous task completes or their records cache has
+ * data ready. The worker loop still runs once per idle time to pick up lease assignment changes.</li>
+ * </ul>
+ */
+public enum ShardConsumerSchedulingStrategy {
+    POLLING, EVENT_DRIVEN;
+}
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the shard consumers that have something to do, in the order they asked to be woken up. Used by the
+ * {@link Worker} when running with {@link ShardConsumerSchedulingStrategy#EVENT_DRIVEN}.
+ *
+ * A shard consumer is queued at most once until it has been taken from the queue, so a burst of notifications for
+ * the same shard results in a single call to {@link ShardConsumer#consumeShard()}.
+ */
+class ShardConsumerWakeupQueue {
+
+    private final LinkedBlockingQueue<ShardConsumer> readyConsumers = new LinkedBlockingQueue<>();
+    private final Set<ShardConsumer> pendingConsumers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Marks the shard consumer as ready to be driven. Safe to call from any thread.
+     *
+     * @param consumer the shard consumer that should be woken up
+     */
+    void wakeup(ShardConsumer consumer) {
+        if (pendingConsumers.add(consumer)) {
+            readyConsumers.offer(consumer);
+        }
+    }
+
+    /**
+     * Waits up to the given time for a shard consumer to become ready.
+     *
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return the next ready shard consumer, or null if none became ready in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    ShardConsumer poll(long timeout, TimeUnit unit) throws InterruptedException {
+        ShardConsumer consumer = readyConsumers.poll(timeout, unit);
+        if (consumer != null) {
+            pendingConsumers.remove(consumer);
+        }
+        return consumer;
+    }
+
+    /**
+     * @return number of shard consumers waiting to be driven
+     */
+    int size() {
+        return readyConsumers.size();
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.services.kinesis.model.Shard;
+
+/**
+ * The shards of a stream and their lineage, kept up to date from one shard list to the next, so shard syncs don't
+ * rebuild them from the whole shard list every time. Only the shards that were added, changed or removed since the
+ * previous list are processed by {@link #update(List)}.
+ *
+ * The maps of the index hold the same entries as {@link ShardSyncer#constructShardIdToShardMap(List)} and
+ * {@link ShardSyncer#constructShardIdToChildShardIdsMap(Map)} for the last shard list. The starting sequence number
+ * and the hash key range of a shard are parsed once, and the generation of a shard in its lineage is memoized.
+ *
+ * Not thread safe: it is only used under the lock of {@link ShardSyncer}.
+ */
+class ShardLineageIndex {
+
+    private static final int UNKNOWN_GENERATION = -1;
+    private static final int GENERATION_IN_PROGRESS = -2;
+
+    private final Map<String, ShardNode> nodes = new HashMap<>();
+    private final Map<String, Shard> shardIdToShardMap = new HashMap<>();
+    /*
+     * Children of every parent shard id declared by the shards of the index, whether that parent is in the index or
+     * not. The entries of the parents in the index are also in shardIdToChildShardIdsMap, which shares the sets.
+     */
+    private final Map<String, Set<String>> declaredParentShardIdToChildShardIds = new HashMap<>();
+    private final Map<String, Set<String>> shardIdToChildShardIdsMap = new HashMap<>();
+    private final Map<String, Shard> shardIdToShardMapView = Collections.unmodifiableMap(shardIdToShardMap);
+    private final Map<String, Set<String>> shardIdToChildShardIdsMapView =
+            Collections.unmodifiableMap(shardIdToChildShardIdsMap);
+    private List<Shard> shards = Collections.emptyList();
+
+    /**
+     * Brings the index up to date with a new shard list. When the list holds a shard id more than once, the last
+     * shard with that id is kept.
+     *
+     * @param shards List of all shards of the stream
+     * @return this index
+     */
+    ShardLineageIndex update(List<Shard> shards) {
+        Set<String> listedShardIds = new HashSet<>();
+        for (Shard shard : shards) {
+            String shardId = shard.getShardId();
+            listedShardIds.add(shardId);
+            ShardNode node = nodes.get(shardId);
+            if (node == null) {
+                add(shard);
+            } else if (!node.shard.equals(shard)) {
+                // e.g. the shard was closed since the previous list
+                remove(shardId);
+                add(shard);
+            }
+        }
+
+        if (nodes.size() > listedShardIds.size()) {
+            List<String> expiredShardIds = new ArrayList<>();
+            for (String shardId : nodes.keySet()) {
+                if (!listedShardIds.contains(shardId)) {
+                    expiredShardIds.add(shardId);
+                }
+            }
+            for (String shardId : expiredShardIds) {
+                remove(shardId);
+            }
+        }
+
+        this.shards = shards;
+        return this;
+    }
+
+    private void add(Shard shard) {
+        String shardId = shard.getShardId();
+        nodes.put(shardId, new ShardNode(shard));
+        shardIdToShardMap.put(shardId, shard);
+
+        for (String parentShardId : declaredParentShardIds(shard)) {
+            Set<String> childShardIds = declaredParentShardIdToChildShardIds.get(parentShardId);
+            if (childShardIds == null) {
+                childShardIds = new HashSet<>();
+                declaredParentShardIdToChildShardIds.put(parentShardId, childShardIds);
+            }
+            childShardIds.add(shardId);
+            if (nodes.containsKey(parentShardId)) {
+                shardIdToChildShardIdsMap.put(parentShardId, childShardIds);
+            }
+        }
+
+        Set<String> childShardIds = declaredParentShardIdToChildShardIds.get(shardId);
+        if (childShardIds != null) {
+            // The children were listed before their parent: their generations have to take it into account.
+            shardIdToChildShardIdsMap.put(shardId, childShardIds);
+            forgetGenerationsOfDescendants(childShardIds);
+        }
+    }
+
+    private void remove(String shardId) {
+        ShardNode node = nodes.remove(shardId);
+        shardIdToShardMap.remove(shardId);
+        shardIdToChildShardIdsMap.remove(shardId);
+
+        for (String parentShardId : declaredParentShardIds(node.shard)) {
+            Set<String> childShardIds = declaredParentShardIdToChildShardIds.get(parentShardId);
+            if (childShardIds != null) {
+                childShardIds.remove(shardId);
+                if (childShardIds.isEmpty()) {
+                    declaredParentShardIdToChildShardIds.remove(parentShardId);
+                    shardIdToChildShardIdsMap.remove(parentShardId);
+                }
+            }
+        }
+        // The generations of the descendants stay larger than the ones of their remaining ancestors.
+    }
+
+    /**
+     * The generations of the shards whose generation is known are only computed after the ones of their ancestors,
+     * so the descendants of a shard with an unknown generation don't need to be visited.
+     */
+    private void forgetGenerationsOfDescendants(Set<String> childShardIds) {
+        Deque<String> pending = new ArrayDeque<>(childShardIds);
+        while (!pending.isEmpty()) {
+            ShardNode node = nodes.get(pending.pop());
+            if ((node != null) && (node.generation != UNKNOWN_GENERATION)) {
+                node.generation = UNKNOWN_GENERATION;
+                Set<String> grandChildShardIds = declaredParentShardIdToChildShardIds.get(node.shard.getShardId());
+                if (grandChildShardIds != null) {
+                    pending.addAll(grandChildShardIds);
+                }
+            }
+        }
+    }
+
+    private static List<String> declaredParentShardIds(Shard shard) {
+        List<String> parentShardIds = new ArrayList<>(2);
+        if (shard.getParentShardId() != null) {
+            parentShardIds.add(shard.getParentShardId());
+        }
+        if ((shard.getAdjacentParentShardId() != null)
+                && !shard.getAdjacentParentShardId().equals(shard.getParentShardId())) {
+            parentShardIds.add(shard.getAdjacentParentShardId());
+        }
+        return parentShardIds;
+    }
+
+    /**
+     * @return The last shard list given to {@link #update(List)}
+     */
+    List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * @return Read only ShardId->Shard map of the shards of the index
+     */
+    Map<String, Shard> getShardIdToShardMap() {
+        return shardIdToShardMapView;
+    }
+
+    /**
+     * @return Read only ShardId->ChildShardIds map of the shards of the index. Only the parents and the children that
+     *         are in the index are included.
+     */
+    Map<String, Set<String>> getShardIdToChildShardIdsMap() {
+        return shardIdToChildShardIdsMapView;
+    }
+
+    /**
+     * @param shardId Shard id
+     * @return Starting sequence number of the shard, or null if the shard isn't in the index
+     */
+    BigInteger getStartingSequenceNumber(String shardId) {
+        ShardNode node = nodes.get(shardId);
+        return node == null ? null : node.getStartingSequenceNumber();
+    }
+
+    /**
+     * @param shardId Shard id of a shard in the index
+     * @return Starting hash key of the shard
+     */
+    BigInteger getStartingHashKey(String shardId) {
+        return nodes.get(shardId).getStartingHashKey();
+    }
+
+    /**
+     * @param shardId Shard id of a shard in the index
+     * @return Ending hash key of the shard
+     */
+    BigInteger getEndingHashKey(String shardId) {
+        return nodes.get(shardId).getEndingHashKey();
+    }
+
+    /**
+     * The generation of a shard is 0 when none of its parents are in the index, and one more than the largest
+     * generation of its parents otherwise. A shard always has a larger generation than its ancestors in the index.
+     *
+     * @param shardId Shard id of a shard in the index
+     * @return Generation of the shard in its lineage
+     */
+    int getGeneration(String shardId) {
+        ShardNode node = nodes.get(shardId);
+        if (node.generation >= 0) {
+            return node.generation;
+        }
+
+        // Lineages can be thousands of generations deep, so they aren't walked recursively.
+        Deque<ShardNode> pending = new ArrayDeque<>();
+        node.generation = GENERATION_IN_PROGRESS;
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            ShardNode current = pending.peek();
+            int generation = 0;
+            boolean parentsDone = true;
+            for (String parentShardId : declaredParentShardIds(current.shard)) {
+                ShardNode parent = nodes.get(parentShardId);
+                if ((parent == null) || (parent.generation == GENERATION_IN_PROGRESS)) {
+                    continue;
+                }
+                if (parent.generation == UNKNOWN_GENERATION) {
+                    parent.generation = GENERATION_IN_PROGRESS;
+                    pending.push(parent);
+                    parentsDone = false;
+                } else {
+                    generation = Math.max(generation, parent.generation + 1);
+                }
+            }
+            if (parentsDone) {
+                current.generation = generation;
+                pending.pop();
+            }
+        }
+        return node.generation;
+    }
+
+    /**
+     * A shard of the index, along with the values derived from it.
+     */
+    private static class ShardNode {
+        private final Shard shard;
+        private int generation = UNKNOWN_GENERATION;
+        private BigInteger startingSequenceNumber;
+        private BigInteger startingHashKey;
+        private BigInteger endingHashKey;
+
+        private ShardNode(Shard shard) {
+            this.shard = shard;
+        }
+
+        private BigInteger getStartingSequenceNumber() {
+            if (startingSequenceNumber == null) {
+                startingSequenceNumber = new BigInteger(shard.getSequenceNumberRange().getStartingSequenceNumber());
+            }
+            return startingSequenceNumber;
+        }
+
+        private BigInteger getStartingHashKey() {
+            if (startingHashKey == null) {
+                startingHashKey = new BigInteger(shard.getHashKeyRange().getStartingHashKey());
+            }
+            return startingHashKey;
+        }
+
+        private BigInteger getEndingHashKey() {
+            if (endingHashKey == null) {
+                endingHashKey = new BigInteger(shard.getHashKeyRange().getEndingHashKey());
+            }
+            return endingHashKey;
+        }
+    }
+}
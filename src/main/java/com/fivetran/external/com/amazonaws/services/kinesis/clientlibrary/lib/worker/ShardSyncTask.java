@@ -37,6 +37,8 @@ class ShardSyncTask implements ITask {
     private final boolean cleanupLeasesUponShardCompletion;
     private final boolean ignoreUnexpectedChildShards;
     private final long shardSyncTaskIdleTimeMillis;
+    private final ShardLineageIndex shardLineageIndex;
+    private final int maxParallelLeaseWrites;
     private final TaskType taskType = TaskType.SHARDSYNC;
 
     /**
@@ -52,12 +54,36 @@ class ShardSyncTask implements ITask {
             boolean cleanupLeasesUponShardCompletion,
             boolean ignoreUnexpectedChildShards,
             long shardSyncTaskIdleTimeMillis) {
+        this(kinesisProxy, leaseManager, initialPositionInStream, cleanupLeasesUponShardCompletion,
+                ignoreUnexpectedChildShards, shardSyncTaskIdleTimeMillis, null, 1);
+    }
+
+    /**
+     * @param kinesisProxy Used to fetch information about the stream (e.g. shard list)
+     * @param leaseManager Used to fetch and create leases
+     * @param initialPositionInStream One of LATEST, TRIM_HORIZON or AT_TIMESTAMP. Amazon Kinesis Client Library will
+     *        start processing records from this point in the stream (when an application starts up for the first time)
+     *        except for shards that already have a checkpoint (and their descendant shards).
+     * @param shardLineageIndex Lineage of the shards of the stream kept from one sync to the next, or null to build it
+     *        from the shard list
+     * @param maxParallelLeaseWrites Max number of leases created or deleted at once
+     */
+    ShardSyncTask(IKinesisProxy kinesisProxy,
+            ILeaseManager<KinesisClientLease> leaseManager,
+            InitialPositionInStreamExtended initialPositionInStream,
+            boolean cleanupLeasesUponShardCompletion,
+            boolean ignoreUnexpectedChildShards,
+            long shardSyncTaskIdleTimeMillis,
+            ShardLineageIndex shardLineageIndex,
+            int maxParallelLeaseWrites) {
         this.kinesisProxy = kinesisProxy;
         this.leaseManager = leaseManager;
         this.initialPosition = initialPositionInStream;
         this.cleanupLeasesUponShardCompletion = cleanupLeasesUponShardCompletion;
         this.ignoreUnexpectedChildShards = ignoreUnexpectedChildShards;
         this.shardSyncTaskIdleTimeMillis = shardSyncTaskIdleTimeMillis;
+        this.shardLineageIndex = shardLineageIndex;
+        this.maxParallelLeaseWrites = maxParallelLeaseWrites;
     }
 
     /* (non-Javadoc)
@@ -72,7 +98,9 @@ class ShardSyncTask implements ITask {
                     leaseManager,
                     initialPosition,
                     cleanupLeasesUponShardCompletion,
-                    ignoreUnexpectedChildShards);
+                    ignoreUnexpectedChildShards,
+                    shardLineageIndex,
+                    maxParallelLeaseWrites);
             if (shardSyncTaskIdleTimeMillis > 0) {
                 Thread.sleep(shardSyncTaskIdleTimeMillis);
             }
@@ -46,6 +46,8 @@ class ShardSyncTaskManager {
     private boolean cleanupLeasesUponShardCompletion;
     private boolean ignoreUnexpectedChildShards;
     private final long shardSyncIdleTimeMillis;
+    private final ShardLineageIndex shardLineageIndex;
+    private final int maxParallelLeaseWrites;
 
 
     /**
@@ -69,6 +71,36 @@ class ShardSyncTaskManager {
             final long shardSyncIdleTimeMillis,
             final IMetricsFactory metricsFactory,
             ExecutorService executorService) {
+        this(kinesisProxy, leaseManager, initialPositionInStream, cleanupLeasesUponShardCompletion,
+                ignoreUnexpectedChildShards, shardSyncIdleTimeMillis, metricsFactory, executorService, null, 1);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param kinesisProxy Proxy used to fetch streamInfo (shards)
+     * @param leaseManager Lease manager (used to list and create leases for shards)
+     * @param initialPositionInStream Initial position in stream
+     * @param cleanupLeasesUponShardCompletion Clean up leases for shards that we've finished processing (don't wait
+     *        until they expire)
+     * @param ignoreUnexpectedChildShards Ignore child shards with open parents
+     * @param shardSyncIdleTimeMillis Time between tasks to sync leases and Kinesis shards
+     * @param metricsFactory Metrics factory
+     * @param executorService ExecutorService to execute the shard sync tasks
+     * @param shardLineageIndex Lineage of the shards of the stream kept from one sync to the next, or null to build it
+     *        from the shard list on every sync
+     * @param maxParallelLeaseWrites Max number of leases created or deleted at once by a sync
+     */
+    ShardSyncTaskManager(final IKinesisProxy kinesisProxy,
+            final ILeaseManager<KinesisClientLease> leaseManager,
+            final InitialPositionInStreamExtended initialPositionInStream,
+            final boolean cleanupLeasesUponShardCompletion,
+            final boolean ignoreUnexpectedChildShards,
+            final long shardSyncIdleTimeMillis,
+            final IMetricsFactory metricsFactory,
+            ExecutorService executorService,
+            final ShardLineageIndex shardLineageIndex,
+            final int maxParallelLeaseWrites) {
         this.kinesisProxy = kinesisProxy;
         this.leaseManager = leaseManager;
         this.metricsFactory = metricsFactory;
@@ -77,6 +109,8 @@ class ShardSyncTaskManager {
         this.shardSyncIdleTimeMillis = shardSyncIdleTimeMillis;
         this.executorService = executorService;
         this.initialPositionInStream = initialPositionInStream;
+        this.shardLineageIndex = shardLineageIndex;
+        this.maxParallelLeaseWrites = maxParallelLeaseWrites;
     }
 
     synchronized boolean syncShardAndLeaseInfo(Set<String> closedShardIds) {
@@ -104,7 +138,9 @@ class ShardSyncTaskManager {
                             initialPositionInStream,
                             cleanupLeasesUponShardCompletion,
                             ignoreUnexpectedChildShards,
-                            shardSyncIdleTimeMillis), metricsFactory);
+                            shardSyncIdleTimeMillis,
+                            shardLineageIndex,
+                            maxParallelLeaseWrites), metricsFactory);
             future = executorService.submit(currentTask);
             submittedNewTask = true;
             if (LOG.isDebugEnabled()) {
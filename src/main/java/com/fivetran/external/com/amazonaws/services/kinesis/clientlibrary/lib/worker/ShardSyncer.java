@@ -25,6 +25,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,8 +41,6 @@ import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.In
 import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.ProvisionedThroughputException;
 import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLease;
 import com.fivetran.external.com.amazonaws.services.kinesis.leases.interfaces.ILeaseManager;
-import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
-import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
 import com.amazonaws.services.kinesis.model.Shard;
 
 /**
@@ -66,7 +66,7 @@ class ShardSyncer {
             boolean ignoreUnexpectedChildShards)
         throws DependencyException, InvalidStateException, ProvisionedThroughputException, KinesisClientLibIOException {
         syncShardLeases(kinesisProxy, leaseManager, initialPositionInStream, cleanupLeasesOfCompletedShards,
-                        ignoreUnexpectedChildShards);
+                        ignoreUnexpectedChildShards, null, 1);
     }
 
     /**
@@ -88,7 +88,39 @@ class ShardSyncer {
             boolean cleanupLeasesOfCompletedShards,
             boolean ignoreUnexpectedChildShards)
         throws DependencyException, InvalidStateException, ProvisionedThroughputException, KinesisClientLibIOException {
-        syncShardLeases(kinesisProxy, leaseManager, initialPositionInStream, cleanupLeasesOfCompletedShards, ignoreUnexpectedChildShards);
+        syncShardLeases(kinesisProxy, leaseManager, initialPositionInStream, cleanupLeasesOfCompletedShards, ignoreUnexpectedChildShards,
+                null, 1);
+    }
+
+    /**
+     * Check and create leases for any new shards (e.g. following a reshard operation), using the lineage of the
+     * shards kept by the index since the previous sync instead of building it again from the shard list. The leases
+     * created and deleted are the same as the ones of
+     * {@link #checkAndCreateLeasesForNewShards(IKinesisProxy, ILeaseManager, InitialPositionInStreamExtended,
+     * boolean, boolean)}.
+     * 
+     * @param kinesisProxy
+     * @param leaseManager
+     * @param initialPositionInStream
+     * @param cleanupLeasesOfCompletedShards
+     * @param ignoreUnexpectedChildShards
+     * @param shardLineageIndex Lineage of the shards of the stream, updated by this sync
+     * @param maxParallelLeaseWrites Max number of leases created or deleted at once
+     * @throws DependencyException
+     * @throws InvalidStateException
+     * @throws ProvisionedThroughputException
+     * @throws KinesisClientLibIOException
+     */
+    static synchronized void checkAndCreateLeasesForNewShards(IKinesisProxy kinesisProxy,
+            ILeaseManager<KinesisClientLease> leaseManager,
+            InitialPositionInStreamExtended initialPositionInStream,
+            boolean cleanupLeasesOfCompletedShards,
+            boolean ignoreUnexpectedChildShards,
+            ShardLineageIndex shardLineageIndex,
+            int maxParallelLeaseWrites)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException, KinesisClientLibIOException {
+        syncShardLeases(kinesisProxy, leaseManager, initialPositionInStream, cleanupLeasesOfCompletedShards,
+                ignoreUnexpectedChildShards, shardLineageIndex, maxParallelLeaseWrites);
     }
 
     static synchronized void checkAndCreateLeasesForNewShards(IKinesisProxy kinesisProxy,
@@ -107,6 +139,8 @@ class ShardSyncer {
      * @param initialPosition
      * @param cleanupLeasesOfCompletedShards
      * @param ignoreUnexpectedChildShards
+     * @param shardLineageIndex Lineage of the shards of the stream, or null to build it from the shard list
+     * @param maxParallelLeaseWrites Max number of leases created or deleted at once
      * @throws DependencyException
      * @throws InvalidStateException
      * @throws ProvisionedThroughputException
@@ -117,13 +151,23 @@ class ShardSyncer {
             ILeaseManager<KinesisClientLease> leaseManager,
             InitialPositionInStreamExtended initialPosition,
             boolean cleanupLeasesOfCompletedShards,
-            boolean ignoreUnexpectedChildShards)
+            boolean ignoreUnexpectedChildShards,
+            ShardLineageIndex shardLineageIndex,
+            int maxParallelLeaseWrites)
         throws DependencyException, InvalidStateException, ProvisionedThroughputException, KinesisClientLibIOException {
         List<Shard> shards = getShardList(kinesisProxy);
         LOG.debug("Num shards: " + shards.size());
 
-        Map<String, Shard> shardIdToShardMap = constructShardIdToShardMap(shards);
-        Map<String, Set<String>> shardIdToChildShardIdsMap = constructShardIdToChildShardIdsMap(shardIdToShardMap);
+        Map<String, Shard> shardIdToShardMap;
+        Map<String, Set<String>> shardIdToChildShardIdsMap;
+        if (shardLineageIndex == null) {
+            shardIdToShardMap = constructShardIdToShardMap(shards);
+            shardIdToChildShardIdsMap = constructShardIdToChildShardIdsMap(shardIdToShardMap);
+        } else {
+            shardLineageIndex.update(shards);
+            shardIdToShardMap = shardLineageIndex.getShardIdToShardMap();
+            shardIdToChildShardIdsMap = shardLineageIndex.getShardIdToChildShardIdsMap();
+        }
         Set<String> inconsistentShardIds = findInconsistentShardIds(shardIdToChildShardIdsMap, shardIdToShardMap);
         if (!ignoreUnexpectedChildShards) {
             assertAllParentShardsAreClosed(inconsistentShardIds);
@@ -131,35 +175,61 @@ class ShardSyncer {
 
         List<KinesisClientLease> currentLeases = leaseManager.listLeases();
 
-        List<KinesisClientLease> newLeasesToCreate = determineNewLeasesToCreate(shards, currentLeases, initialPosition,
-                                                                                inconsistentShardIds);
+        List<KinesisClientLease> newLeasesToCreate = shardLineageIndex == null
+                ? determineNewLeasesToCreate(shards, currentLeases, initialPosition, inconsistentShardIds)
+                : determineNewLeasesToCreate(shardLineageIndex, currentLeases, initialPosition, inconsistentShardIds);
         LOG.debug("Num new leases to create: " + newLeasesToCreate.size());
+        try (ParallelLeaseWriter leaseWriter = new ParallelLeaseWriter(maxParallelLeaseWrites)) {
+            createLeases(newLeasesToCreate, shardLineageIndex, leaseManager, leaseWriter);
+
+            List<KinesisClientLease> trackedLeases = new ArrayList<>();
+            if (currentLeases != null) {
+                trackedLeases.addAll(currentLeases);
+            }
+            trackedLeases.addAll(newLeasesToCreate);
+            cleanupGarbageLeases(shards, trackedLeases, kinesisProxy, leaseManager, leaseWriter);
+            if (cleanupLeasesOfCompletedShards) {
+                cleanupLeasesOfFinishedShards(currentLeases,
+                        shardIdToShardMap,
+                        shardIdToChildShardIdsMap,
+                        trackedLeases,
+                        leaseManager,
+                        shardLineageIndex,
+                        leaseWriter);
+            }
+        }
+    }
+    // CHECKSTYLE:ON CyclomaticComplexity
+
+    /**
+     * Creates the new leases. Parallel writes create the leases of one generation of shards at a time, so the leases
+     * of the parents of a shard always exist before its own lease, like when the leases are created one at a time by
+     * starting sequence number.
+     */
+    private static void createLeases(List<KinesisClientLease> newLeasesToCreate,
+            ShardLineageIndex shardLineageIndex,
+            ILeaseManager<KinesisClientLease> leaseManager,
+            ParallelLeaseWriter leaseWriter)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        if ((shardLineageIndex == null) || !leaseWriter.isParallel()) {
+            leaseWriter.writeAll(newLeasesToCreate, leaseManager::createLeaseIfNotExists, "CreateLease");
+            return;
+        }
+
+        SortedMap<Integer, List<KinesisClientLease>> newLeasesByGeneration = new TreeMap<>();
         for (KinesisClientLease lease : newLeasesToCreate) {
-            long startTimeMillis = System.currentTimeMillis();
-            boolean success = false;
-            try {
-                leaseManager.createLeaseIfNotExists(lease);
-                success = true;
-            } finally {
-                MetricsHelper.addSuccessAndLatency("CreateLease", startTimeMillis, success, MetricsLevel.DETAILED);
+            int generation = shardLineageIndex.getGeneration(lease.getLeaseKey());
+            List<KinesisClientLease> leases = newLeasesByGeneration.get(generation);
+            if (leases == null) {
+                leases = new ArrayList<>();
+                newLeasesByGeneration.put(generation, leases);
             }
+            leases.add(lease);
         }
-        
-        List<KinesisClientLease> trackedLeases = new ArrayList<>();
-        if (currentLeases != null) {
-            trackedLeases.addAll(currentLeases);            
-        }
-        trackedLeases.addAll(newLeasesToCreate);
-        cleanupGarbageLeases(shards, trackedLeases, kinesisProxy, leaseManager);
-        if (cleanupLeasesOfCompletedShards) {
-            cleanupLeasesOfFinishedShards(currentLeases,
-                    shardIdToShardMap,
-                    shardIdToChildShardIdsMap,
-                    trackedLeases,
-                    leaseManager);
+        for (List<KinesisClientLease> leases : newLeasesByGeneration.values()) {
+            leaseWriter.writeAll(leases, leaseManager::createLeaseIfNotExists, "CreateLease");
         }
     }
-    // CHECKSTYLE:ON CyclomaticComplexity
 
     /** Helper method to detect a race condition between fetching the shards via paginated DescribeStream calls
      * and a reshard operation.
@@ -222,7 +292,15 @@ class ShardSyncer {
      */
     static synchronized void assertClosedShardsAreCoveredOrAbsent(Map<String, Shard> shardIdToShardMap,
             Map<String, Set<String>> shardIdToChildShardIdsMap,
-            Set<String> shardIdsOfClosedShards) throws KinesisClientLibIOException {        
+            Set<String> shardIdsOfClosedShards) throws KinesisClientLibIOException {
+        assertClosedShardsAreCoveredOrAbsent(shardIdToShardMap, shardIdToChildShardIdsMap, shardIdsOfClosedShards,
+                null);
+    }
+
+    private static synchronized void assertClosedShardsAreCoveredOrAbsent(Map<String, Shard> shardIdToShardMap,
+            Map<String, Set<String>> shardIdToChildShardIdsMap,
+            Set<String> shardIdsOfClosedShards,
+            ShardLineageIndex shardLineageIndex) throws KinesisClientLibIOException {
         String exceptionMessageSuffix = "This can happen if we constructed the list of shards "
                         + " while a reshard operation was in progress.";
         
@@ -245,27 +323,31 @@ class ShardSyncer {
                         + " has no children." + exceptionMessageSuffix);
             }
 
-            assertHashRangeOfClosedShardIsCovered(shard, shardIdToShardMap, childShardIds);
+            assertHashRangeOfClosedShardIsCovered(shard, shardIdToShardMap, childShardIds, shardLineageIndex);
         }
     }
 
+    /**
+     * @param shardLineageIndex Index holding the parsed hash keys of the shards, or null to parse them here
+     */
     private static synchronized void assertHashRangeOfClosedShardIsCovered(Shard closedShard,
             Map<String, Shard> shardIdToShardMap,
-            Set<String> childShardIds) throws KinesisClientLibIOException {
+            Set<String> childShardIds,
+            ShardLineageIndex shardLineageIndex) throws KinesisClientLibIOException {
         
-        BigInteger startingHashKeyOfClosedShard = new BigInteger(closedShard.getHashKeyRange().getStartingHashKey());
-        BigInteger endingHashKeyOfClosedShard = new BigInteger(closedShard.getHashKeyRange().getEndingHashKey());
+        BigInteger startingHashKeyOfClosedShard = startingHashKey(closedShard, shardLineageIndex);
+        BigInteger endingHashKeyOfClosedShard = endingHashKey(closedShard, shardLineageIndex);
         BigInteger minStartingHashKeyOfChildren = null;
         BigInteger maxEndingHashKeyOfChildren = null;
 
         for (String childShardId : childShardIds) {
             Shard childShard = shardIdToShardMap.get(childShardId);
-            BigInteger startingHashKey = new BigInteger(childShard.getHashKeyRange().getStartingHashKey());
+            BigInteger startingHashKey = startingHashKey(childShard, shardLineageIndex);
             if ((minStartingHashKeyOfChildren == null)
                     || (startingHashKey.compareTo(minStartingHashKeyOfChildren) < 0)) {
                 minStartingHashKeyOfChildren = startingHashKey;
             }
-            BigInteger endingHashKey = new BigInteger(childShard.getHashKeyRange().getEndingHashKey());
+            BigInteger endingHashKey = endingHashKey(childShard, shardLineageIndex);
             if ((maxEndingHashKeyOfChildren == null)
                     || (endingHashKey.compareTo(maxEndingHashKeyOfChildren) > 0)) {
                 maxEndingHashKeyOfChildren = endingHashKey;
@@ -280,6 +362,16 @@ class ShardSyncer {
         }
         
     }
+
+    private static BigInteger startingHashKey(Shard shard, ShardLineageIndex shardLineageIndex) {
+        return shardLineageIndex == null ? new BigInteger(shard.getHashKeyRange().getStartingHashKey())
+                : shardLineageIndex.getStartingHashKey(shard.getShardId());
+    }
+
+    private static BigInteger endingHashKey(Shard shard, ShardLineageIndex shardLineageIndex) {
+        return shardLineageIndex == null ? new BigInteger(shard.getHashKeyRange().getEndingHashKey())
+                : shardLineageIndex.getEndingHashKey(shard.getShardId());
+    }
     
     /**
      * Helper method to construct shardId->setOfChildShardIds map.
@@ -376,13 +468,42 @@ class ShardSyncer {
             List<KinesisClientLease> currentLeases,
             InitialPositionInStreamExtended initialPosition,
             Set<String> inconsistentShardIds) {
-        Map<String, KinesisClientLease> shardIdToNewLeaseMap = new HashMap<String, KinesisClientLease>();
         Map<String, Shard> shardIdToShardMapOfAllKinesisShards = constructShardIdToShardMap(shards);
+        return determineNewLeasesToCreate(shards, currentLeases, initialPosition, inconsistentShardIds,
+                shardIdToShardMapOfAllKinesisShards,
+                new StartingSequenceNumberAndShardIdBasedComparator(shardIdToShardMapOfAllKinesisShards, null));
+    }
+
+    /**
+     * Determine new leases to create and their initial checkpoint, from the shards of a lineage index. The leases are
+     * the same as the ones determined from the shard list of the index.
+     * Note: Package level access only for testing purposes.
+     */
+    static List<KinesisClientLease> determineNewLeasesToCreate(ShardLineageIndex shardLineageIndex,
+            List<KinesisClientLease> currentLeases,
+            InitialPositionInStreamExtended initialPosition,
+            Set<String> inconsistentShardIds) {
+        return determineNewLeasesToCreate(shardLineageIndex.getShards(), currentLeases, initialPosition,
+                inconsistentShardIds, shardLineageIndex.getShardIdToShardMap(),
+                new StartingSequenceNumberAndShardIdBasedComparator(shardLineageIndex.getShardIdToShardMap(),
+                        shardLineageIndex));
+    }
+
+    private static List<KinesisClientLease> determineNewLeasesToCreate(List<Shard> shards,
+            List<KinesisClientLease> currentLeases,
+            InitialPositionInStreamExtended initialPosition,
+            Set<String> inconsistentShardIds,
+            Map<String, Shard> shardIdToShardMapOfAllKinesisShards,
+            Comparator<? super KinesisClientLease> startingSequenceNumberComparator) {
+        Map<String, KinesisClientLease> shardIdToNewLeaseMap = new HashMap<String, KinesisClientLease>();
+        boolean debugEnabled = LOG.isDebugEnabled();
 
         Set<String> shardIdsOfCurrentLeases = new HashSet<String>();
         for (KinesisClientLease lease : currentLeases) {
             shardIdsOfCurrentLeases.add(lease.getLeaseKey());
-            LOG.debug("Existing lease: " + lease);
+            if (debugEnabled) {
+                LOG.debug("Existing lease: " + lease);
+            }
         }
 
         List<Shard> openShards = getOpenShards(shards);
@@ -391,13 +512,19 @@ class ShardSyncer {
         // Iterate over the open shards and find those that don't have any lease entries.
         for (Shard shard : openShards) {
             String shardId = shard.getShardId();
-            LOG.debug("Evaluating leases for open shard " + shardId + " and its ancestors.");
+            if (debugEnabled) {
+                LOG.debug("Evaluating leases for open shard " + shardId + " and its ancestors.");
+            }
             if (shardIdsOfCurrentLeases.contains(shardId)) {
-                LOG.debug("Lease for shardId " + shardId + " already exists. Not creating a lease");
+                if (debugEnabled) {
+                    LOG.debug("Lease for shardId " + shardId + " already exists. Not creating a lease");
+                }
             } else if (inconsistentShardIds.contains(shardId)) {
                 LOG.info("shardId " + shardId + " is an inconsistent child.  Not creating a lease");
             } else {
-                LOG.debug("Need to create a lease for shardId " + shardId);
+                if (debugEnabled) {
+                    LOG.debug("Need to create a lease for shardId " + shardId);
+                }
                 KinesisClientLease newLease = newKCLLease(shard);
                 boolean isDescendant =
                         checkIfDescendantAndAddNewLeasesForAncestors(shardId,
@@ -436,15 +563,15 @@ class ShardSyncer {
                 } else {
                     newLease.setCheckpoint(convertToCheckpoint(initialPosition));
                 }
-                LOG.debug("Set checkpoint of " + newLease.getLeaseKey() + " to " + newLease.getCheckpoint());
+                if (debugEnabled) {
+                    LOG.debug("Set checkpoint of " + newLease.getLeaseKey() + " to " + newLease.getCheckpoint());
+                }
                 shardIdToNewLeaseMap.put(shardId, newLease);
             }
         }
 
         List<KinesisClientLease> newLeasesToCreate = new ArrayList<KinesisClientLease>();
         newLeasesToCreate.addAll(shardIdToNewLeaseMap.values());
-        Comparator<? super KinesisClientLease> startingSequenceNumberComparator =
-                new StartingSequenceNumberAndShardIdBasedComparator(shardIdToShardMapOfAllKinesisShards);
         Collections.sort(newLeasesToCreate, startingSequenceNumberComparator);
         return newLeasesToCreate;
     }
@@ -512,8 +639,10 @@ class ShardSyncer {
                             memoizationContext)) {
                         isDescendant = true;
                         descendantParentShardIds.add(parentShardId);
-                        LOG.debug("Parent shard " + parentShardId + " is a descendant.");
-                    } else {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Parent shard " + parentShardId + " is a descendant.");
+                        }
+                    } else if (LOG.isDebugEnabled()) {
                         LOG.debug("Parent shard " + parentShardId + " is NOT a descendant.");
                     }
                 }
@@ -522,7 +651,9 @@ class ShardSyncer {
                 if (isDescendant) {
                     for (String parentShardId : parentShardIds) {
                         if (!shardIdsOfCurrentLeases.contains(parentShardId)) {
-                            LOG.debug("Need to create a lease for shardId " + parentShardId);
+                            if (LOG.isDebugEnabled()) {
+                                LOG.debug("Need to create a lease for shardId " + parentShardId);
+                            }
                             KinesisClientLease lease = shardIdToLeaseMapOfNewShards.get(parentShardId);
                             if (lease == null) {
                                 lease = newKCLLease(shardIdToShardMapOfAllKinesisShards.get(parentShardId));
@@ -589,6 +720,7 @@ class ShardSyncer {
      * @param trackedLeases List of 
      * @param kinesisProxy Kinesis proxy (used to get shard list)
      * @param leaseManager 
+     * @param leaseWriter Deletes the garbage leases
      * @throws KinesisClientLibIOException Thrown if we couldn't get a fresh shard list from Kinesis.
      * @throws ProvisionedThroughputException 
      * @throws InvalidStateException 
@@ -597,7 +729,8 @@ class ShardSyncer {
     private static void cleanupGarbageLeases(List<Shard> shards,
             List<KinesisClientLease> trackedLeases,
             IKinesisProxy kinesisProxy,
-            ILeaseManager<KinesisClientLease> leaseManager)
+            ILeaseManager<KinesisClientLease> leaseManager,
+            ParallelLeaseWriter leaseWriter)
         throws KinesisClientLibIOException, DependencyException, InvalidStateException, ProvisionedThroughputException {
         Set<String> kinesisShards = new HashSet<>();
         for (Shard shard : shards) {
@@ -623,17 +756,19 @@ class ShardSyncer {
                 currentKinesisShardIds.add(shard.getShardId());
             }
 
+            List<KinesisClientLease> leasesToDelete = new ArrayList<>();
             for (KinesisClientLease lease : garbageLeases) {
                 if (isCandidateForCleanup(lease, currentKinesisShardIds)) {
                     if (lease.isComplete()) {
                         LOG.info("Deleting lease for a complete shard " + lease.getLeaseKey()
                                 + " as it is not present in Kinesis stream.");
-                        leaseManager.deleteLease(lease);
+                        leasesToDelete.add(lease);
                     } else {
                         unfinishedAndMissing.add(lease.getLeaseKey());
                     }
                 }
             }
+            leaseWriter.writeAll(leasesToDelete, leaseManager::deleteLease, null);
 
             if (!unfinishedAndMissing.isEmpty()) throw new MissingIncompleteLeasesException(unfinishedAndMissing);
         }
@@ -688,6 +823,8 @@ class ShardSyncer {
      * @param shardIdToChildShardIdsMap Map of shardId->childShardIds (assumed to include all Kinesis shards)
      * @param trackedLeases List of all leases we are tracking.
      * @param leaseManager Lease manager (will be used to delete leases)
+     * @param shardLineageIndex Index of the shards of shardIdToShardMap, or null
+     * @param leaseWriter Deletes the leases
      * @throws DependencyException
      * @throws InvalidStateException
      * @throws ProvisionedThroughputException
@@ -697,7 +834,9 @@ class ShardSyncer {
             Map<String, Shard> shardIdToShardMap,
             Map<String, Set<String>> shardIdToChildShardIdsMap,
             List<KinesisClientLease> trackedLeases,
-            ILeaseManager<KinesisClientLease> leaseManager)
+            ILeaseManager<KinesisClientLease> leaseManager,
+            ShardLineageIndex shardLineageIndex,
+            ParallelLeaseWriter leaseWriter)
         throws DependencyException, InvalidStateException, ProvisionedThroughputException, KinesisClientLibIOException {
         Set<String> shardIdsOfClosedShards = new HashSet<>();
         List<KinesisClientLease> leasesOfClosedShards = new ArrayList<>();
@@ -711,19 +850,26 @@ class ShardSyncer {
         if (!leasesOfClosedShards.isEmpty()) {
             assertClosedShardsAreCoveredOrAbsent(shardIdToShardMap,
                     shardIdToChildShardIdsMap,
-                    shardIdsOfClosedShards);
+                    shardIdsOfClosedShards,
+                    shardLineageIndex);
             Comparator<? super KinesisClientLease> startingSequenceNumberComparator =
-                    new StartingSequenceNumberAndShardIdBasedComparator(shardIdToShardMap);
+                    new StartingSequenceNumberAndShardIdBasedComparator(shardIdToShardMap, shardLineageIndex);
             Collections.sort(leasesOfClosedShards, startingSequenceNumberComparator);
             Map<String, KinesisClientLease> trackedLeaseMap = constructShardIdToKCLLeaseMap(trackedLeases);
 
+            List<KinesisClientLease> leasesToDelete = new ArrayList<>();
             for (KinesisClientLease leaseOfClosedShard : leasesOfClosedShards) {
                 String closedShardId = leaseOfClosedShard.getLeaseKey();
                 Set<String> childShardIds = shardIdToChildShardIdsMap.get(closedShardId);
                 if ((closedShardId != null) && (childShardIds != null) && (!childShardIds.isEmpty())) {
-                    cleanupLeaseForClosedShard(closedShardId, childShardIds, trackedLeaseMap, leaseManager);
+                    KinesisClientLease leaseToDelete =
+                            getLeaseToDeleteForClosedShard(closedShardId, childShardIds, trackedLeaseMap);
+                    if (leaseToDelete != null) {
+                        leasesToDelete.add(leaseToDelete);
+                    }
                 }
             }
+            leaseWriter.writeAll(leasesToDelete, leaseManager::deleteLease, null);
         }        
     }
 
@@ -746,6 +892,20 @@ class ShardSyncer {
             Map<String, KinesisClientLease> trackedLeases,
             ILeaseManager<KinesisClientLease> leaseManager)
         throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        KinesisClientLease leaseToDelete = getLeaseToDeleteForClosedShard(closedShardId, childShardIds, trackedLeases);
+        if (leaseToDelete != null) {
+            leaseManager.deleteLease(leaseToDelete);
+        }
+    }
+
+    /**
+     * Applies the rules of {@link #cleanupLeaseForClosedShard(String, Set, Map, ILeaseManager)}.
+     * 
+     * @return The lease of the closed shard if it can be deleted, null otherwise
+     */
+    private static KinesisClientLease getLeaseToDeleteForClosedShard(String closedShardId,
+            Set<String> childShardIds,
+            Map<String, KinesisClientLease> trackedLeases) {
         KinesisClientLease leaseForClosedShard = trackedLeases.get(closedShardId);
         List<KinesisClientLease> childShardLeases = new ArrayList<>();
         
@@ -770,9 +930,10 @@ class ShardSyncer {
             if (okayToDelete) {
                 LOG.info("Deleting lease for shard " + leaseForClosedShard.getLeaseKey()
                         + " as it has been completely processed and processing of child shards has begun.");
-                leaseManager.deleteLease(leaseForClosedShard);
+                return leaseForClosedShard;
             }
         }
+        return null;
     }
 
     /**
@@ -825,7 +986,9 @@ class ShardSyncer {
             String endingSequenceNumber = shard.getSequenceNumberRange().getEndingSequenceNumber();
             if (endingSequenceNumber == null) {
                 openShards.add(shard);
-                LOG.debug("Found open shard: " + shard.getShardId());
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Found open shard: " + shard.getShardId());
+                }
             }
         }
         return openShards;
@@ -854,12 +1017,17 @@ class ShardSyncer {
         private static final long serialVersionUID = 1L;
 
         private final Map<String, Shard> shardIdToShardMap;
+        private final transient ShardLineageIndex shardLineageIndex;
         
         /**
          * @param shardIdToShardMapOfAllKinesisShards
+         * @param shardLineageIndex Index of the shards of the map, holding their parsed starting sequence numbers, or
+         *        null to parse them on every comparison
          */
-        public StartingSequenceNumberAndShardIdBasedComparator(Map<String, Shard> shardIdToShardMapOfAllKinesisShards) {
-            shardIdToShardMap = shardIdToShardMapOfAllKinesisShards;
+        public StartingSequenceNumberAndShardIdBasedComparator(Map<String, Shard> shardIdToShardMapOfAllKinesisShards,
+                ShardLineageIndex shardLineageIndex) {
+            this.shardIdToShardMap = shardIdToShardMapOfAllKinesisShards;
+            this.shardLineageIndex = shardLineageIndex;
         }
 
         /**
@@ -881,10 +1049,8 @@ class ShardSyncer {
             
             // If we found shards for the two leases, use comparison of the starting sequence numbers
             if ((shard1 != null) && (shard2 != null)) {
-                BigInteger sequenceNumber1 =
-                        new BigInteger(shard1.getSequenceNumberRange().getStartingSequenceNumber());
-                BigInteger sequenceNumber2 =
-                        new BigInteger(shard2.getSequenceNumberRange().getStartingSequenceNumber());
+                BigInteger sequenceNumber1 = startingSequenceNumber(shard1);
+                BigInteger sequenceNumber2 = startingSequenceNumber(shard2);
                 result = sequenceNumber1.compareTo(sequenceNumber2);                
             }
             
@@ -894,6 +1060,12 @@ class ShardSyncer {
             
             return result;
         }
+
+        private BigInteger startingSequenceNumber(Shard shard) {
+            return shardLineageIndex == null
+                    ? new BigInteger(shard.getSequenceNumberRange().getStartingSequenceNumber())
+                    : shardLineageIndex.getStartingSequenceNumber(shard.getShardId());
+        }
                 
     }
 
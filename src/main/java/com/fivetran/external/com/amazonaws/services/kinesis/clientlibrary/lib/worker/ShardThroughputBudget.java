@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Share of the read limits of each shard of a stream (5 GetRecords calls and 2 MB per second) that the adaptive
+ * prefetch caches using this budget may consume.
+ * See {@link KinesisClientLibConfiguration#withAdaptivePolling(boolean)}.
+ *
+ * When several consumer applications read the same stream, each one should only use its share of the limits, or their
+ * calls get throttled. Applications running in different processes each get a budget with their share of the limits,
+ * for instance 0.5 for two applications. Workers running in the same process may instead be given the same budget, in
+ * which case their calls to a shard are paced together.
+ *
+ * Calls are paced with a token bucket per shard holding a single call, so calls are spread evenly instead of bursting.
+ * Bytes may be borrowed like Kinesis does: a large response puts the shard in debt, and no call is made until the debt
+ * is repaid. When a call is throttled anyway, because of another reader of the shard, the rate of the shard is halved,
+ * then grows back with every successful call.
+ *
+ * Thread safe.
+ */
+public class ShardThroughputBudget {
+
+    /**
+     * Max number of GetRecords calls per second on a shard.
+     */
+    public static final int SHARD_CALLS_PER_SECOND = 5;
+
+    /**
+     * Max number of bytes read per second from a shard.
+     */
+    public static final long SHARD_BYTES_PER_SECOND = 2L * 1024 * 1024;
+
+    private static final double MIN_RATE_FACTOR = 0.125;
+    private static final double RATE_FACTOR_INCREMENT = 0.05;
+
+    private final double callsPerSecond;
+    private final double bytesPerSecond;
+    private final LongSupplier nanoClock;
+    private final ConcurrentHashMap<String, ShardBucket> shards = new ConcurrentHashMap<>();
+
+    /**
+     * @param shareOfShardLimits Share of the read limits of every shard available to the workers using this budget,
+     *                           between 0 exclusive and 1
+     */
+    public ShardThroughputBudget(double shareOfShardLimits) {
+        this(shareOfShardLimits, System::nanoTime);
+    }
+
+    ShardThroughputBudget(double shareOfShardLimits, LongSupplier nanoClock) {
+        Validate.isTrue(shareOfShardLimits > 0 && shareOfShardLimits <= 1,
+                "shareOfShardLimits must be in (0, 1]");
+        this.callsPerSecond = SHARD_CALLS_PER_SECOND * shareOfShardLimits;
+        this.bytesPerSecond = SHARD_BYTES_PER_SECOND * shareOfShardLimits;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return Number of bytes a call may return, for calls to use the bytes allowed per second in full
+     */
+    long getBytesPerCall() {
+        return (long) (bytesPerSecond / callsPerSecond);
+    }
+
+    /**
+     * Takes a call from the budget of the shard if one is available. Calls to a shard that isn't registered, for
+     * instance during the shutdown of its cache, aren't limited.
+     *
+     * @param shardId shard to call
+     * @return 0 if the call was taken from the budget, or the number of nanoseconds until it could be
+     */
+    long tryAcquireCall(String shardId) {
+        ShardBucket bucket = shards.get(shardId);
+        return bucket == null ? 0L : bucket.tryAcquireCall(nanoClock.getAsLong());
+    }
+
+    /**
+     * Accounts the bytes returned by a call. Once a call returned more bytes than allowed, no call is made until the
+     * debt is repaid.
+     */
+    void recordBytes(String shardId, long bytes) {
+        ShardBucket bucket = shards.get(shardId);
+        if (bucket != null) {
+            bucket.recordBytes(bytes, nanoClock.getAsLong());
+        }
+    }
+
+    /**
+     * Slows the shard down after a call was throttled, and holds its calls for the given backoff.
+     */
+    void throttled(String shardId, long backoffNanos) {
+        ShardBucket bucket = shards.get(shardId);
+        if (bucket != null) {
+            bucket.throttled(backoffNanos, nanoClock.getAsLong());
+        }
+    }
+
+    /**
+     * Lets the rate of the shard grow back after a call succeeded.
+     */
+    void succeeded(String shardId) {
+        ShardBucket bucket = shards.get(shardId);
+        if (bucket != null) {
+            bucket.succeeded();
+        }
+    }
+
+    /**
+     * Registers a cache reading the shard.
+     */
+    void register(String shardId) {
+        shards.compute(shardId, (id, bucket) -> {
+            ShardBucket result = bucket == null ? new ShardBucket(nanoClock.getAsLong()) : bucket;
+            result.readers++;
+            return result;
+        });
+    }
+
+    /**
+     * Deregisters a cache reading the shard, forgetting the shard once no cache reads it anymore.
+     */
+    void deregister(String shardId) {
+        shards.computeIfPresent(shardId, (id, bucket) -> --bucket.readers > 0 ? bucket : null);
+    }
+
+    /**
+     * @return Number of shards read by caches using this budget
+     */
+    int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Budget of a single shard.
+     */
+    private class ShardBucket {
+        private double callTokens = 1.0;
+        private double byteBalance = bytesPerSecond;
+        private double rateFactor = 1.0;
+        private long lastRefillNanos;
+        private long blockedUntilNanos;
+        private int readers;
+
+        private ShardBucket(long nowNanos) {
+            this.lastRefillNanos = nowNanos;
+            this.blockedUntilNanos = nowNanos;
+        }
+
+        synchronized long tryAcquireCall(long nowNanos) {
+            refill(nowNanos);
+            long waitNanos = Math.max(0L, blockedUntilNanos - nowNanos);
+            if (callTokens < 1.0) {
+                waitNanos = Math.max(waitNanos, toNanos((1.0 - callTokens) / (callsPerSecond * rateFactor)));
+            }
+            if (byteBalance < 0) {
+                waitNanos = Math.max(waitNanos, toNanos(-byteBalance / (bytesPerSecond * rateFactor)));
+            }
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            callTokens -= 1.0;
+            return 0L;
+        }
+
+        synchronized void recordBytes(long bytes, long nowNanos) {
+            refill(nowNanos);
+            byteBalance -= bytes;
+        }
+
+        synchronized void throttled(long backoffNanos, long nowNanos) {
+            refill(nowNanos);
+            rateFactor = Math.max(MIN_RATE_FACTOR, rateFactor / 2);
+            blockedUntilNanos = Math.max(blockedUntilNanos, nowNanos + backoffNanos);
+        }
+
+        synchronized void succeeded() {
+            rateFactor = Math.min(1.0, rateFactor + RATE_FACTOR_INCREMENT);
+        }
+
+        private void refill(long nowNanos) {
+            double elapsedSeconds = (nowNanos - lastRefillNanos) / 1e9;
+            if (elapsedSeconds <= 0) {
+                return;
+            }
+            lastRefillNanos = nowNanos;
+            callTokens = Math.min(1.0, callTokens + elapsedSeconds * callsPerSecond * rateFactor);
+            byteBalance = Math.min(bytesPerSecond, byteBalance + elapsedSeconds * bytesPerSecond * rateFactor);
+        }
+
+        private long toNanos(double seconds) {
+            return (long) Math.ceil(seconds * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+}
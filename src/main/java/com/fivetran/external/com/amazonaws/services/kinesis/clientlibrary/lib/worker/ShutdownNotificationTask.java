@@ -48,6 +48,9 @@ class ShutdownNotificationTask implements ITask {
             }
             return new TaskResult(null);
         } finally {
+            if (recordProcessorCheckpointer instanceof RecordProcessorCheckpointer) {
+                ((RecordProcessorCheckpointer) recordProcessorCheckpointer).flushPendingCheckpoint();
+            }
             shutdownNotification.shutdownNotificationComplete();
         }
     }
@@ -48,6 +48,8 @@ class ShutdownTask implements ITask {
     private final TaskType taskType = TaskType.SHUTDOWN;
     private final long backoffTimeMillis;
     private final GetRecordsCache getRecordsCache;
+    private final ShardLineageIndex shardLineageIndex;
+    private final int maxParallelLeaseWrites;
 
     /**
      * Constructor.
@@ -64,6 +66,28 @@ class ShutdownTask implements ITask {
                  ILeaseManager<KinesisClientLease> leaseManager,
                  long backoffTimeMillis, 
                  GetRecordsCache getRecordsCache) {
+        this(shardInfo, recordProcessor, recordProcessorCheckpointer, reason, kinesisProxy, initialPositionInStream,
+                cleanupLeasesOfCompletedShards, ignoreUnexpectedChildShards, leaseManager, backoffTimeMillis,
+                getRecordsCache, null, 1);
+    }
+
+    /**
+     * Constructor.
+     */
+    // CHECKSTYLE:IGNORE ParameterNumber FOR NEXT 10 LINES
+    ShutdownTask(ShardInfo shardInfo,
+                 IRecordProcessor recordProcessor,
+                 RecordProcessorCheckpointer recordProcessorCheckpointer,
+                 ShutdownReason reason,
+                 IKinesisProxy kinesisProxy,
+                 InitialPositionInStreamExtended initialPositionInStream,
+                 boolean cleanupLeasesOfCompletedShards,
+                 boolean ignoreUnexpectedChildShards,
+                 ILeaseManager<KinesisClientLease> leaseManager,
+                 long backoffTimeMillis,
+                 GetRecordsCache getRecordsCache,
+                 ShardLineageIndex shardLineageIndex,
+                 int maxParallelLeaseWrites) {
         this.shardInfo = shardInfo;
         this.recordProcessor = recordProcessor;
         this.recordProcessorCheckpointer = recordProcessorCheckpointer;
@@ -75,6 +99,8 @@ class ShutdownTask implements ITask {
         this.leaseManager = leaseManager;
         this.backoffTimeMillis = backoffTimeMillis;
         this.getRecordsCache = getRecordsCache;
+        this.shardLineageIndex = shardLineageIndex;
+        this.maxParallelLeaseWrites = maxParallelLeaseWrites;
     }
 
     /*
@@ -104,6 +130,7 @@ class ShutdownTask implements ITask {
             final long recordProcessorStartTimeMillis = System.currentTimeMillis();
             try {
                 recordProcessor.shutdown(shutdownInput);
+                recordProcessorCheckpointer.flushPendingCheckpoint();
                 ExtendedSequenceNumber lastCheckpointValue = recordProcessorCheckpointer.getLastCheckpointValue();
 
                 if (reason == ShutdownReason.TERMINATE) {
@@ -131,7 +158,9 @@ class ShutdownTask implements ITask {
                         leaseManager,
                         initialPositionInStream,
                         cleanupLeasesOfCompletedShards,
-                        ignoreUnexpectedChildShards);
+                        ignoreUnexpectedChildShards,
+                        shardLineageIndex,
+                        maxParallelLeaseWrites);
                 LOG.debug("Finished checking for child shards of shard " + shardInfo.getShardId());
             }
 
@@ -15,6 +15,9 @@
 package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
 
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -22,18 +25,35 @@ import org.apache.commons.logging.impl.SimpleLog;
 
 public class SimpleRecordsFetcherFactory implements RecordsFetcherFactory {
     private static final org.apache.commons.logging.Log log = org.apache.commons.logging.LogFactory.getLog(SimpleLog.class);
+    private static final long FETCHER_THREAD_KEEP_ALIVE_SECONDS = 60L;
 
     private int maxPendingProcessRecordsInput = 3;
     private int maxByteSize = 8 * 1024 * 1024;
     private int maxRecordsCount = 30000;
     private long idleMillisBetweenCalls = 1500L;
     private DataFetchingStrategy dataFetchingStrategy = DataFetchingStrategy.DEFAULT;
+    private PrefetchMemoryBudget memoryBudget = PrefetchMemoryBudget.unbounded();
+    private int fetcherThreadPoolSize = 0;
+    private ScheduledExecutorService fetcherPool;
+    private boolean adaptivePolling = false;
+    private long maxIdleMillisBetweenCalls = 10000L;
+    private ShardThroughputBudget shardThroughputBudget;
 
     @Override
     public GetRecordsCache createRecordsFetcher(GetRecordsRetrievalStrategy getRecordsRetrievalStrategy, String shardId,
                                                 IMetricsFactory metricsFactory, int maxRecords) {
         if(dataFetchingStrategy.equals(DataFetchingStrategy.DEFAULT)) {
             return new BlockingGetRecordsCache(maxRecords, getRecordsRetrievalStrategy);
+        } else if (fetcherThreadPoolSize > 0) {
+            return new PrefetchGetRecordsCache(maxPendingProcessRecordsInput, maxByteSize, maxRecordsCount, maxRecords,
+                    getRecordsRetrievalStrategy,
+                    getFetcherPool(),
+                    memoryBudget,
+                    createPollingController(shardId, maxRecords),
+                    idleMillisBetweenCalls,
+                    metricsFactory,
+                    "ProcessTask",
+                    shardId);
         } else {
             return new PrefetchGetRecordsCache(maxPendingProcessRecordsInput, maxByteSize, maxRecordsCount, maxRecords,
                     getRecordsRetrievalStrategy,
@@ -41,13 +61,43 @@ public class SimpleRecordsFetcherFactory implements RecordsFetcherFactory {
                             .setDaemon(true)
                             .setNameFormat("prefetch-cache-" + shardId + "-%04d")
                             .build()),
-                            idleMillisBetweenCalls,
+                    memoryBudget,
+                    createPollingController(shardId, maxRecords),
+                    idleMillisBetweenCalls,
                     metricsFactory,
                     "ProcessTask",
                     shardId);
         }
     }
 
+    private synchronized AdaptivePollingController createPollingController(String shardId, int maxRecords) {
+        if (!adaptivePolling) {
+            return null;
+        }
+        if (shardThroughputBudget == null) {
+            shardThroughputBudget = new ShardThroughputBudget(1.0);
+        }
+        return new AdaptivePollingController(shardId, shardThroughputBudget, maxRecords, idleMillisBetweenCalls,
+                Math.max(idleMillisBetweenCalls, maxIdleMillisBetweenCalls));
+    }
+
+    /**
+     * The fetcher pool is shared by all the caches created by this factory. Its threads time out when idle, so it
+     * doesn't need to be shut down when the worker stops.
+     */
+    private synchronized ScheduledExecutorService getFetcherPool() {
+        if (fetcherPool == null || fetcherPool.isShutdown()) {
+            log.info("Creating a pool of " + fetcherThreadPoolSize + " prefetch fetcher threads");
+            ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(fetcherThreadPoolSize,
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prefetch-fetcher-%04d").build());
+            pool.setKeepAliveTime(FETCHER_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            pool.allowCoreThreadTimeOut(true);
+            pool.setRemoveOnCancelPolicy(true);
+            fetcherPool = pool;
+        }
+        return fetcherPool;
+    }
+
     @Override
     public void setMaxPendingProcessRecordsInput(int maxPendingProcessRecordsInput){
         this.maxPendingProcessRecordsInput = maxPendingProcessRecordsInput;
@@ -71,4 +121,30 @@ public class SimpleRecordsFetcherFactory implements RecordsFetcherFactory {
     public void setIdleMillisBetweenCalls(final long idleMillisBetweenCalls) {
         this.idleMillisBetweenCalls = idleMillisBetweenCalls;
     }
+
+    @Override
+    public void setMaxWorkerByteSize(final long maxWorkerByteSize) {
+        this.memoryBudget = new PrefetchMemoryBudget(maxWorkerByteSize);
+    }
+
+    @Override
+    public synchronized void setFetcherThreadPoolSize(final int fetcherThreadPoolSize) {
+        this.fetcherThreadPoolSize = fetcherThreadPoolSize;
+        this.fetcherPool = null;
+    }
+
+    @Override
+    public void setAdaptivePolling(final boolean adaptivePolling) {
+        this.adaptivePolling = adaptivePolling;
+    }
+
+    @Override
+    public void setMaxIdleMillisBetweenCalls(final long maxIdleMillisBetweenCalls) {
+        this.maxIdleMillisBetweenCalls = maxIdleMillisBetweenCalls;
+    }
+
+    @Override
+    public synchronized void setShardThroughputBudget(final ShardThroughputBudget shardThroughputBudget) {
+        this.shardThroughputBudget = shardThroughputBudget;
+    }
 }
@@ -27,6 +27,7 @@ class StreamConfig {
     private final boolean callProcessRecordsEvenForEmptyRecordList;
     private InitialPositionInStreamExtended initialPositionInStream;
     private final boolean validateSequenceNumberBeforeCheckpointing;
+    private final boolean lazyDeaggregation;
 
     /**
      * @param proxy Used to fetch records and information about the stream
@@ -43,12 +44,34 @@ class StreamConfig {
             boolean callProcessRecordsEvenForEmptyRecordList,
             boolean validateSequenceNumberBeforeCheckpointing,
             InitialPositionInStreamExtended initialPositionInStream) {
+        this(proxy, maxRecords, idleTimeInMilliseconds, callProcessRecordsEvenForEmptyRecordList,
+                validateSequenceNumberBeforeCheckpointing, initialPositionInStream, false);
+    }
+
+    /**
+     * @param proxy Used to fetch records and information about the stream
+     * @param maxRecords Max records to be fetched in a call
+     * @param idleTimeInMilliseconds Idle time between get calls to the stream
+     * @param callProcessRecordsEvenForEmptyRecordList Call the IRecordProcessor::processRecords() API even if
+     *        GetRecords returned an empty record list.
+     * @param validateSequenceNumberBeforeCheckpointing Whether to call Amazon Kinesis to validate sequence numbers
+     * @param initialPositionInStream Initial position in stream
+     * @param lazyDeaggregation Whether to deaggregate KPL records without copying the data of the user records
+     */
+    StreamConfig(IKinesisProxy proxy,
+            int maxRecords,
+            long idleTimeInMilliseconds,
+            boolean callProcessRecordsEvenForEmptyRecordList,
+            boolean validateSequenceNumberBeforeCheckpointing,
+            InitialPositionInStreamExtended initialPositionInStream,
+            boolean lazyDeaggregation) {
         this.streamProxy = proxy;
         this.maxRecords = maxRecords;
         this.idleTimeInMilliseconds = idleTimeInMilliseconds;
         this.callProcessRecordsEvenForEmptyRecordList = callProcessRecordsEvenForEmptyRecordList;
         this.validateSequenceNumberBeforeCheckpointing = validateSequenceNumberBeforeCheckpointing;
         this.initialPositionInStream = initialPositionInStream;
+        this.lazyDeaggregation = lazyDeaggregation;
     }
 
     /**
@@ -92,4 +115,11 @@ class StreamConfig {
     boolean shouldValidateSequenceNumberBeforeCheckpointing() {
         return validateSequenceNumberBeforeCheckpointing;
     }
+
+    /**
+     * @return lazyDeaggregation
+     */
+    boolean shouldDeaggregateLazily() {
+        return lazyDeaggregation;
+    }
 }
@@ -58,11 +58,13 @@ import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.interf
 import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.IKinesisProxy;
 import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.KinesisProxy;
 import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.LeasingException;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.CachingLeaseManager;
 import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLease;
 import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLeaseManager;
 import com.fivetran.external.com.amazonaws.services.kinesis.leases.interfaces.ILeaseManager;
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.CWMetricsFactory;
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.StripedMetricsFactory;
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
 import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
 import com.google.common.annotations.VisibleForTesting;
@@ -90,6 +92,8 @@ public class Worker implements Runnable {
     private final StreamConfig streamConfig;
     private final InitialPositionInStreamExtended initialPosition;
     private final ICheckpoint checkpointTracker;
+    // Only set when checkpoints are written asynchronously
+    private final CoalescingCheckpointWriter checkpointWriter;
     private final long idleTimeInMilliseconds;
     // Backoff time when polling to check if application has finished processing
     // parent shards
@@ -105,8 +109,12 @@ public class Worker implements Runnable {
 
     private final KinesisClientLibLeaseCoordinator leaseCoordinator;
     private final ShardSyncTaskManager controlServer;
+    // Lineage of the shards of the stream, shared by all the shard syncs of this worker
+    private final ShardLineageIndex shardLineageIndex = new ShardLineageIndex();
 
     private final ShardPrioritization shardPrioritization;
+    // Only set when shard consumers are scheduled with ShardConsumerSchedulingStrategy.EVENT_DRIVEN
+    private final ShardConsumerWakeupQueue shardConsumerWakeupQueue;
 
     private volatile boolean shutdown;
     private volatile long shutdownStartTimeMillis;
@@ -330,11 +338,12 @@ public class Worker implements Runnable {
                         config.getMaxRecords(), config.getIdleTimeBetweenReadsInMillis(),
                         config.shouldCallProcessRecordsEvenForEmptyRecordList(),
                         config.shouldValidateSequenceNumberBeforeCheckpointing(),
-                        config.getInitialPositionInStreamExtended()),
+                        config.getInitialPositionInStreamExtended(),
+                        config.shouldDeaggregateLazily()),
                 config.getInitialPositionInStreamExtended(), config.getParentShardPollIntervalMillis(),
                 config.getShardSyncIntervalMillis(), config.shouldCleanupLeasesUponShardCompletion(), null,
                 new KinesisClientLibLeaseCoordinator(
-                        new KinesisClientLeaseManager(config.getTableName(), dynamoDBClient),
+                        getLeaseManager(new KinesisClientLeaseManager(config.getTableName(), dynamoDBClient), config),
                         config.getWorkerIdentifier(),
                         config.getFailoverTimeMillis(),
                         config.getEpsilonMillis(),
@@ -441,14 +450,23 @@ public class Worker implements Runnable {
         this.initialPosition = initialPositionInStream;
         this.parentShardPollIntervalMillis = parentShardPollIntervalMillis;
         this.cleanupLeasesUponShardCompletion = cleanupLeasesUponShardCompletion;
-        this.checkpointTracker = checkpoint != null ? checkpoint : leaseCoordinator;
+        ICheckpoint checkpointer = checkpoint != null ? checkpoint : leaseCoordinator;
+        if (config.getCheckpointFlushIntervalMillis() > 0) {
+            this.checkpointWriter = new CoalescingCheckpointWriter(checkpointer,
+                    config.getCheckpointFlushIntervalMillis(), config.getCheckpointFlushCount(), metricsFactory);
+            checkpointer = checkpointWriter;
+        } else {
+            this.checkpointWriter = null;
+        }
+        this.checkpointTracker = checkpointer;
         this.idleTimeInMilliseconds = streamConfig.getIdleTimeInMilliseconds();
         this.executorService = execService;
         this.leaseCoordinator = leaseCoordinator;
         this.metricsFactory = metricsFactory;
         this.controlServer = new ShardSyncTaskManager(streamConfig.getStreamProxy(), leaseCoordinator.getLeaseManager(),
                 initialPositionInStream, cleanupLeasesUponShardCompletion, config.shouldIgnoreUnexpectedChildShards(),
-                shardSyncIdleTimeMillis, metricsFactory, executorService);
+                shardSyncIdleTimeMillis, metricsFactory, executorService, shardLineageIndex,
+                config.getShardSyncMaxParallelLeaseWrites());
         this.taskBackoffTimeMillis = taskBackoffTimeMillis;
         this.failoverTimeMillis = failoverTimeMillis;
         this.skipShardSyncAtWorkerInitializationIfLeasesExist = skipShardSyncAtWorkerInitializationIfLeasesExist;
@@ -457,6 +475,9 @@ public class Worker implements Runnable {
         this.maxGetRecordsThreadPool = maxGetRecordsThreadPool;
         this.workerStateChangeListener = workerStateChangeListener;
         this.exitOnFailure = exitOnFailure;
+        this.shardConsumerWakeupQueue =
+                config.getShardConsumerSchedulingStrategy() == ShardConsumerSchedulingStrategy.EVENT_DRIVEN
+                        ? new ShardConsumerWakeupQueue() : null;
         workerStateChangeListener.onWorkerStateChange(WorkerStateChangeListener.WorkerState.CREATED);
     }
 
@@ -527,8 +548,13 @@ public class Worker implements Runnable {
             // clean up shard consumers for unassigned shards
             cleanupShardConsumers(assignedShards);
 
-            wlog.info("Sleeping ...");
-            Thread.sleep(idleTimeInMilliseconds);
+            if (shardConsumerWakeupQueue == null) {
+                wlog.info("Sleeping ...");
+                Thread.sleep(idleTimeInMilliseconds);
+            } else {
+                wlog.info("Consuming shards as they become ready ...");
+                consumeReadyShards(idleTimeInMilliseconds);
+            }
         } catch (AmazonDynamoDBException e) {
             throw e;
         } catch (Exception e) {
@@ -554,6 +580,30 @@ public class Worker implements Runnable {
         wlog.resetInfoLogging();
     }
 
+    /**
+     * Drives shard consumers as they report that their last task completed or that they have data ready, until the
+     * given time has elapsed and the next pass of the worker loop is due.
+     *
+     * @param waitMillis time until the next pass of the worker loop
+     * @throws InterruptedException if interrupted while waiting for a shard consumer to become ready
+     */
+    private void consumeReadyShards(long waitMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + waitMillis;
+        long remainingMillis = waitMillis;
+        while (remainingMillis > 0 && !shutdown) {
+            ShardConsumer consumer = shardConsumerWakeupQueue.poll(remainingMillis, TimeUnit.MILLISECONDS);
+            if (consumer == null) {
+                break;
+            }
+            // Skip consumers that were replaced or shutdown since they asked to be woken up, the next pass of the
+            // worker loop will take care of them.
+            if (shardInfoShardConsumerMap.get(consumer.getShardInfo()) == consumer && !consumer.isShutdown()) {
+                consumer.consumeShard();
+            }
+            remainingMillis = deadline - System.currentTimeMillis();
+        }
+    }
+
     private boolean causedByStreamRecordProcessingError(Throwable t) {
         if (t.getCause() == null) return false;
         if (t.getCause().getClass().equals(StreamRecordProcessingError.class)) return true;
@@ -600,7 +650,8 @@ public class Worker implements Runnable {
                     LOG.info("Syncing Kinesis shard info");
                     ShardSyncTask shardSyncTask = new ShardSyncTask(streamConfig.getStreamProxy(),
                             leaseCoordinator.getLeaseManager(), initialPosition, cleanupLeasesUponShardCompletion,
-                            config.shouldIgnoreUnexpectedChildShards(), 0L);
+                            config.shouldIgnoreUnexpectedChildShards(), 0L, shardLineageIndex,
+                            config.getShardSyncMaxParallelLeaseWrites());
                     result = new MetricsCollectingTaskDecorator(shardSyncTask, metricsFactory).call();
                 } else {
                     LOG.info("Skipping shard sync per config setting (and lease table is not empty)");
@@ -613,6 +664,9 @@ public class Worker implements Runnable {
                     } else {
                         LOG.info("LeaseCoordinator is already running. No need to start it.");
                     }
+                    if (checkpointWriter != null) {
+                        checkpointWriter.start();
+                    }
                     isDone = true;
                 } else {
                     lastException = result.getException();
@@ -878,6 +932,11 @@ public class Worker implements Runnable {
         shutdown = true;
         shutdownStartTimeMillis = System.currentTimeMillis();
 
+        // Write out pending checkpoints while the leases are still held.
+        if (checkpointWriter != null) {
+            checkpointWriter.stop();
+        }
+
         // Stop lease coordinator, so leases are not renewed or stolen from other workers.
         // Lost leases will force Worker to begin shutdown process for all shard consumers in
         // Worker.run().
@@ -898,6 +957,8 @@ public class Worker implements Runnable {
         }
         if (metricsFactory instanceof WorkerCWMetricsFactory) {
             ((CWMetricsFactory) metricsFactory).shutdown();
+        } else if (metricsFactory instanceof WorkerStripedMetricsFactory) {
+            ((StripedMetricsFactory) metricsFactory).shutdown();
         }
         shutdownComplete = true;
     }
@@ -944,6 +1005,10 @@ public class Worker implements Runnable {
         if ((consumer == null)
                 || (consumer.isShutdown() && consumer.getShutdownReason().equals(ShutdownReason.ZOMBIE))) {
             consumer = buildConsumer(shardInfo, processorFactory);
+            if (shardConsumerWakeupQueue != null) {
+                consumer.enableWakeups(shardConsumerWakeupQueue);
+            }
+            consumer.setShardLineageIndex(shardLineageIndex);
             shardInfoShardConsumerMap.put(shardInfo, consumer);
             wlog.infoForce("Created new shardConsumer for : " + shardInfo);
         }
@@ -1048,13 +1113,36 @@ public class Worker implements Runnable {
             if (config.getRegionName() != null) {
                 setField(cloudWatchClient, "region", cloudWatchClient::setRegion, RegionUtils.getRegion(config.getRegionName()));
             }
-            metricsFactory = new WorkerCWMetricsFactory(cloudWatchClient, config.getApplicationName(),
-                    config.getMetricsBufferTimeMillis(), config.getMetricsMaxQueueSize(), config.getMetricsLevel(),
-                    config.getMetricsEnabledDimensions());
+            if (config.shouldUseMetricsStripedAggregation()) {
+                metricsFactory = new WorkerStripedMetricsFactory(cloudWatchClient, config.getApplicationName(),
+                        config.getMetricsBufferTimeMillis(), config.getMetricsLevel(),
+                        config.getMetricsEnabledDimensions(), config.shouldPublishMetricsLatencyHistograms());
+            } else {
+                metricsFactory = new WorkerCWMetricsFactory(cloudWatchClient, config.getApplicationName(),
+                        config.getMetricsBufferTimeMillis(), config.getMetricsMaxQueueSize(),
+                        config.getMetricsLevel(), config.getMetricsEnabledDimensions());
+            }
         }
         return metricsFactory;
     }
 
+    /**
+     * Given configuration, wraps the lease manager in a {@link CachingLeaseManager} if the lease cache is enabled.
+     *
+     * @param leaseManager Lease manager used by the worker
+     * @param config       KinesisClientLibConfiguration
+     * @return Returns the lease manager to use based on the config.
+     */
+    private static ILeaseManager<KinesisClientLease> getLeaseManager(ILeaseManager<KinesisClientLease> leaseManager,
+                                                                     KinesisClientLibConfiguration config) {
+        if (config.getLeaseCacheScanSegments() > 0) {
+            return new CachingLeaseManager<>(leaseManager,
+                    config.getLeaseCacheScanSegments(),
+                    config.getLeaseCacheMaxAgeMillis());
+        }
+        return leaseManager;
+    }
+
     /**
      * Returns default executor service that should be used by the worker.
      *
@@ -1086,6 +1174,18 @@ public class Worker implements Runnable {
         }
     }
 
+    /**
+     * Extension to StripedMetricsFactory, so worker can identify whether it owns the metrics factory instance or not.
+     */
+    static class WorkerStripedMetricsFactory extends StripedMetricsFactory {
+
+        WorkerStripedMetricsFactory(AmazonCloudWatch cloudWatchClient, String namespace, long bufferTimeMillis,
+                MetricsLevel metricsLevel, Set<String> metricsEnabledDimensions, boolean latencyHistograms) {
+            super(cloudWatchClient, namespace, bufferTimeMillis, metricsLevel, metricsEnabledDimensions,
+                    latencyHistograms);
+        }
+    }
+
     /**
      * Extension to ThreadPoolExecutor, so worker can identify whether it owns the executor service instance or not.
      * Visible and non-final only for testing.
@@ -1221,6 +1321,7 @@ public class Worker implements Runnable {
             if (leaseManager == null) {
                 leaseManager = new KinesisClientLeaseManager(config.getTableName(), dynamoDBClient);
             }
+            leaseManager = getLeaseManager(leaseManager, config);
             if (shardPrioritization == null) {
                 shardPrioritization = new ParentsFirstShardPrioritization(1);
             }
@@ -1240,7 +1341,8 @@ public class Worker implements Runnable {
                             config.getIdleTimeBetweenReadsInMillis(),
                             config.shouldCallProcessRecordsEvenForEmptyRecordList(),
                             config.shouldValidateSequenceNumberBeforeCheckpointing(),
-                            config.getInitialPositionInStreamExtended()),
+                            config.getInitialPositionInStreamExtended(),
+                            config.shouldDeaggregateLazily()),
                     config.getInitialPositionInStreamExtended(),
                     config.getParentShardPollIntervalMillis(),
                     config.getShardSyncIntervalMillis(),
@@ -33,6 +33,8 @@ public class ProcessRecordsInput {
     private IRecordProcessorCheckpointer checkpointer;
     private Long millisBehindLatest;
     private String shardId;
+    private Long getRecordsStartNanos;
+    private Long getRecordsEndNanos;
 
     /**
      * Default constructor.
@@ -135,4 +137,33 @@ public class ProcessRecordsInput {
     public Instant getCacheExitTime() {
         return cacheExitTime;
     }
+
+    /**
+     * Set the bounds of the GetRecords call that fetched the records.
+     *
+     * @param getRecordsStartNanos Value of {@link System#nanoTime()} before the call
+     * @param getRecordsEndNanos Value of {@link System#nanoTime()} after the call
+     * @return A reference to this updated object so that method calls can be chained together.
+     */
+    public ProcessRecordsInput withGetRecordsTimeNanos(Long getRecordsStartNanos, Long getRecordsEndNanos) {
+        this.getRecordsStartNanos = getRecordsStartNanos;
+        this.getRecordsEndNanos = getRecordsEndNanos;
+        return this;
+    }
+
+    /**
+     * @return Value of {@link System#nanoTime()} before the GetRecords call that fetched the records, or null if the
+     *         call was not timed
+     */
+    public Long getGetRecordsStartNanos() {
+        return getRecordsStartNanos;
+    }
+
+    /**
+     * @return Value of {@link System#nanoTime()} after the GetRecords call that fetched the records, or null if the
+     *         call was not timed
+     */
+    public Long getGetRecordsEndNanos() {
+        return getRecordsEndNanos;
+    }
 }
@@ -79,6 +79,28 @@ public class UserRecord extends Record {
         this.setApproximateArrivalTimestamp(record.getApproximateArrivalTimestamp());
     }
 
+    /**
+     * Create an aggregated User Record without an intermediate Kinesis record.
+     *
+     * @param sequenceNumber sequence number of the aggregated Kinesis record
+     * @param data data of the user record
+     * @param partitionKey partition key of the user record
+     * @param approximateArrivalTimestamp approximate arrival timestamp of the aggregated Kinesis record
+     * @param subSequenceNumber subsequence number
+     * @param explicitHashKey explicit hash key
+     */
+    UserRecord(String sequenceNumber, ByteBuffer data, String partitionKey, Date approximateArrivalTimestamp,
+            long subSequenceNumber, String explicitHashKey) {
+        this.aggregated = true;
+        this.subSequenceNumber = subSequenceNumber;
+        this.explicitHashKey = explicitHashKey;
+
+        this.setSequenceNumber(sequenceNumber);
+        this.setData(data);
+        this.setPartitionKey(partitionKey);
+        this.setApproximateArrivalTimestamp(approximateArrivalTimestamp);
+    }
+
     /**
      * @return subSequenceNumber of this UserRecord.
      */
@@ -302,4 +324,45 @@ public class UserRecord extends Record {
         return result;
     }
     // CHECKSTYLE:ON NPathComplexity
+
+    /**
+     * Lazily deaggregates the given Amazon Kinesis records into KPL user records, in the same way as
+     * {@link #deaggregate(List)}. Aggregated records are deaggregated one at a time as the result is iterated.
+     *
+     * Unlike {@link #deaggregate(List)}, the data of each user record is a read-only slice of the data of the
+     * aggregated record it came from, so it doesn't have an accessible backing array.
+     *
+     * @param records
+     *            Amazon Kinesis records, each possibly aggregated.
+     * @return The KPL user records, deaggregated as they are iterated.
+     */
+    public static Iterable<UserRecord> deaggregateLazily(Iterable<Record> records) {
+        return deaggregateLazily(records, SMALLEST_HASH_KEY, LARGEST_HASH_KEY);
+    }
+
+    /**
+     * Lazily deaggregates the given Amazon Kinesis records into KPL user records, in the same way as
+     * {@link #deaggregate(List, BigInteger, BigInteger)}. Aggregated records are deaggregated one at a time as the
+     * result is iterated.
+     *
+     * Unlike {@link #deaggregate(List, BigInteger, BigInteger)}, the data of each user record is a read-only slice of
+     * the data of the aggregated record it came from, so it doesn't have an accessible backing array.
+     *
+     * @param records
+     *            Amazon Kinesis records, each possibly aggregated.
+     * @param startingHashKey
+     *            A BigInteger representing the starting hash key that the
+     *            explicit hash keys or partition keys of retained resulting KPL
+     *            user records must be greater than or equal to.
+     * @param endingHashKey
+     *            A BigInteger representing the ending hash key that the the
+     *            explicit hash keys or partition keys of retained resulting KPL
+     *            user records must be smaller than or equal to.
+     * @return The KPL user records whose explicit hash keys or partition keys fall within the range of the
+     *         startingHashKey and the endingHashKey, deaggregated as they are iterated.
+     */
+    public static Iterable<UserRecord> deaggregateLazily(Iterable<Record> records, BigInteger startingHashKey,
+            BigInteger endingHashKey) {
+        return () -> new UserRecordIterator(records, startingHashKey, endingHashKey);
+    }
 }
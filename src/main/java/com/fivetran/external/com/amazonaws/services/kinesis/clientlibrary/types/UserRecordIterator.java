@@ -0,0 +1,494 @@
+/*
+ * Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Deaggregates Amazon Kinesis records into KPL user records one aggregated record at a time, producing the same user
+ * records as {@link UserRecord#deaggregate(List, BigInteger, BigInteger)} while avoiding most of its allocations:
+ * <ul>
+ * <li>The aggregated record is parsed straight from the Kinesis record's data, without copying it.</li>
+ * <li>The data of each user record is a read-only slice of the Kinesis record's data.</li>
+ * <li>MD5 digests are reused per thread.</li>
+ * <li>Hash keys are compared as pairs of longs, and only once per entry of the partition key and explicit hash key
+ * tables of each aggregated record.</li>
+ * </ul>
+ */
+final class UserRecordIterator implements Iterator<UserRecord> {
+    private static final Log LOG = LogFactory.getLog(UserRecordIterator.class);
+
+    private static final byte[] AGGREGATED_RECORD_MAGIC = new byte[] {-13, -119, -102, -62 };
+    private static final int DIGEST_SIZE = 16;
+
+    // Wire format tags of the AggregatedRecord, Record and Tag messages
+    private static final int PARTITION_KEY_TABLE_TAG = 10;
+    private static final int EXPLICIT_HASH_KEY_TABLE_TAG = 18;
+    private static final int RECORDS_TAG = 26;
+    private static final int PARTITION_KEY_INDEX_TAG = 8;
+    private static final int EXPLICIT_HASH_KEY_INDEX_TAG = 16;
+    private static final int DATA_TAG = 26;
+    private static final int TAGS_TAG = 34;
+    private static final int TAG_KEY_TAG = 10;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte IN_RANGE = 1;
+    private static final byte OUT_OF_RANGE = 2;
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+    private static final ThreadLocal<byte[]> DIGEST_BUFFER = ThreadLocal.withInitial(() -> new byte[DIGEST_SIZE]);
+
+    private final Iterator<Record> records;
+    private final HashKeyRange hashKeyRange;
+
+    // State of the aggregated record being deaggregated, reused across aggregated records
+    private Record aggregate;
+    private ByteBuffer aggregateData;
+    private List<String> partitionKeys;
+    private List<String> explicitHashKeys;
+    private byte[] partitionKeyStates = new byte[16];
+    private byte[] explicitHashKeyStates = new byte[16];
+    private long[] partitionKeyIndexes = new long[16];
+    private long[] explicitHashKeyIndexes = new long[16];
+    private boolean[] hasExplicitHashKeyIndexes = new boolean[16];
+    private int[] dataOffsets = new int[16];
+    private int[] dataLengths = new int[16];
+    private int userRecordCount;
+    private int nextUserRecord;
+
+    private UserRecord next;
+
+    /**
+     * @param records The Amazon Kinesis records to deaggregate
+     * @param startingHashKey User records with a hash key smaller than this are discarded, along with every other
+     *            user record of the same aggregated record
+     * @param endingHashKey User records with a hash key larger than this are discarded, along with every other user
+     *            record of the same aggregated record
+     */
+    UserRecordIterator(Iterable<Record> records, BigInteger startingHashKey, BigInteger endingHashKey) {
+        this.records = records.iterator();
+        this.hashKeyRange = new HashKeyRange(startingHashKey, endingHashKey);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (nextUserRecord < userRecordCount) {
+                next = buildUserRecord(nextUserRecord++);
+            } else if (records.hasNext()) {
+                load(records.next());
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public UserRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        UserRecord result = next;
+        next = null;
+        return result;
+    }
+
+    private void load(Record record) {
+        aggregate = record;
+        userRecordCount = 0;
+        nextUserRecord = 0;
+
+        ByteBuffer recordData = record.getData();
+        ByteBuffer data = recordData.asReadOnlyBuffer();
+        int start = data.position();
+        int messageStart = start + AGGREGATED_RECORD_MAGIC.length;
+        int messageEnd = data.limit() - DIGEST_SIZE;
+        if (messageEnd <= messageStart || !hasMagic(data, start)
+                || !hasValidDigest(recordData, messageStart, messageEnd)) {
+            next = new UserRecord(record);
+            return;
+        }
+
+        byte[] array;
+        int arrayOffset;
+        if (recordData.hasArray()) {
+            array = recordData.array();
+            arrayOffset = recordData.arrayOffset();
+        } else {
+            // Direct buffers are copied once, so that the user records can still be slices of a single buffer.
+            array = new byte[data.limit()];
+            ByteBuffer copy = data.duplicate();
+            copy.position(0);
+            copy.get(array);
+            arrayOffset = 0;
+            data = ByteBuffer.wrap(array).asReadOnlyBuffer();
+        }
+        aggregateData = data;
+
+        try {
+            parseAggregatedRecord(
+                    CodedInputStream.newInstance(array, arrayOffset + messageStart, messageEnd - messageStart),
+                    messageStart);
+        } catch (IOException e) {
+            // Same as a failure to parse with Messages.AggregatedRecord.parseFrom: not an aggregated record after all
+            userRecordCount = 0;
+            next = new UserRecord(record);
+            return;
+        }
+        userRecordCount = countUserRecordsInRange();
+    }
+
+    private static boolean hasMagic(ByteBuffer data, int start) {
+        for (int i = 0; i < AGGREGATED_RECORD_MAGIC.length; i++) {
+            if (data.get(start + i) != AGGREGATED_RECORD_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasValidDigest(ByteBuffer data, int messageStart, int messageEnd) {
+        ByteBuffer message = data.duplicate();
+        message.limit(messageEnd).position(messageStart);
+        MessageDigest md5 = MD5.get();
+        byte[] digest = DIGEST_BUFFER.get();
+        md5.reset();
+        md5.update(message);
+        try {
+            md5.digest(digest, 0, DIGEST_SIZE);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < DIGEST_SIZE; i++) {
+            if (data.get(messageEnd + i) != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the key tables, and the position of each user record, in the same way as
+     * {@link Messages.AggregatedRecord#parseFrom(byte[])} would, including the required field checks.
+     *
+     * @param input Positioned at the start of the AggregatedRecord message
+     * @param messageStart Position of the start of the message in the aggregated record's data
+     */
+    private void parseAggregatedRecord(CodedInputStream input, int messageStart) throws IOException {
+        partitionKeys = new ArrayList<>();
+        explicitHashKeys = new ArrayList<>();
+        boolean done = false;
+        while (!done) {
+            int tag = input.readTag();
+            switch (tag) {
+                case 0:
+                    done = true;
+                    break;
+                case PARTITION_KEY_TABLE_TAG:
+                    partitionKeys.add(input.readString());
+                    break;
+                case EXPLICIT_HASH_KEY_TABLE_TAG:
+                    explicitHashKeys.add(input.readString());
+                    break;
+                case RECORDS_TAG:
+                    parseRecord(input, messageStart);
+                    break;
+                default:
+                    done = !input.skipField(tag);
+                    break;
+            }
+        }
+        input.checkLastTagWas(0);
+    }
+
+    private void parseRecord(CodedInputStream input, int messageStart) throws IOException {
+        int oldLimit = input.pushLimit(input.readRawVarint32());
+        boolean hasPartitionKeyIndex = false;
+        boolean hasData = false;
+        long partitionKeyIndex = 0;
+        long explicitHashKeyIndex = 0;
+        boolean hasExplicitHashKeyIndex = false;
+        int dataOffset = 0;
+        int dataLength = 0;
+
+        boolean done = false;
+        while (!done) {
+            int tag = input.readTag();
+            switch (tag) {
+                case 0:
+                    done = true;
+                    break;
+                case PARTITION_KEY_INDEX_TAG:
+                    partitionKeyIndex = input.readUInt64();
+                    hasPartitionKeyIndex = true;
+                    break;
+                case EXPLICIT_HASH_KEY_INDEX_TAG:
+                    explicitHashKeyIndex = input.readUInt64();
+                    hasExplicitHashKeyIndex = true;
+                    break;
+                case DATA_TAG:
+                    dataLength = input.readRawVarint32();
+                    dataOffset = messageStart + input.getTotalBytesRead();
+                    input.skipRawBytes(dataLength);
+                    hasData = true;
+                    break;
+                case TAGS_TAG:
+                    checkTag(input);
+                    break;
+                default:
+                    done = !input.skipField(tag);
+                    break;
+            }
+        }
+        input.checkLastTagWas(0);
+        input.popLimit(oldLimit);
+        if (!hasPartitionKeyIndex || !hasData) {
+            throw new InvalidProtocolBufferException("Message missing required fields");
+        }
+
+        int index = userRecordCount++;
+        ensureUserRecordCapacity(userRecordCount);
+        partitionKeyIndexes[index] = partitionKeyIndex;
+        explicitHashKeyIndexes[index] = explicitHashKeyIndex;
+        hasExplicitHashKeyIndexes[index] = hasExplicitHashKeyIndex;
+        dataOffsets[index] = dataOffset;
+        dataLengths[index] = dataLength;
+    }
+
+    private static void checkTag(CodedInputStream input) throws IOException {
+        int oldLimit = input.pushLimit(input.readRawVarint32());
+        boolean hasKey = false;
+        int tag;
+        do {
+            tag = input.readTag();
+            hasKey |= tag == TAG_KEY_TAG;
+        } while (tag != 0 && input.skipField(tag));
+        input.checkLastTagWas(0);
+        input.popLimit(oldLimit);
+        if (!hasKey) {
+            throw new InvalidProtocolBufferException("Message missing required fields");
+        }
+    }
+
+    /**
+     * Matches the filtering of {@link UserRecord#deaggregate(List, BigInteger, BigInteger)}: if any user record falls
+     * outside of the hash key range, none of the user records of the aggregated record are kept. If a user record
+     * can't be read, only the user records before it are kept.
+     *
+     * @return the number of user records to return for the current aggregated record
+     */
+    private int countUserRecordsInRange() {
+        if (partitionKeyStates.length < partitionKeys.size()) {
+            partitionKeyStates = new byte[partitionKeys.size()];
+        } else {
+            Arrays.fill(partitionKeyStates, 0, partitionKeys.size(), UNKNOWN);
+        }
+        if (explicitHashKeyStates.length < explicitHashKeys.size()) {
+            explicitHashKeyStates = new byte[explicitHashKeys.size()];
+        } else {
+            Arrays.fill(explicitHashKeyStates, 0, explicitHashKeys.size(), UNKNOWN);
+        }
+
+        for (int i = 0; i < userRecordCount; i++) {
+            byte state;
+            try {
+                int partitionKeyIndex = (int) partitionKeyIndexes[i];
+                String partitionKey = partitionKeys.get(partitionKeyIndex);
+                if (hasExplicitHashKeyIndexes[i]) {
+                    int explicitHashKeyIndex = (int) explicitHashKeyIndexes[i];
+                    String explicitHashKey = explicitHashKeys.get(explicitHashKeyIndex);
+                    state = explicitHashKeyStates[explicitHashKeyIndex];
+                    if (state == UNKNOWN) {
+                        state = hashKeyRange.containsExplicitHashKey(explicitHashKey) ? IN_RANGE : OUT_OF_RANGE;
+                        explicitHashKeyStates[explicitHashKeyIndex] = state;
+                    }
+                } else {
+                    state = partitionKeyStates[partitionKeyIndex];
+                    if (state == UNKNOWN) {
+                        state = hashKeyRange.containsPartitionKey(partitionKey) ? IN_RANGE : OUT_OF_RANGE;
+                        partitionKeyStates[partitionKeyIndex] = state;
+                    }
+                }
+            } catch (Exception e) {
+                logDeaggregationFailure(e);
+                return i;
+            }
+            if (state == OUT_OF_RANGE) {
+                return 0;
+            }
+        }
+        return userRecordCount;
+    }
+
+    private UserRecord buildUserRecord(int index) {
+        String partitionKey = partitionKeys.get((int) partitionKeyIndexes[index]);
+        String explicitHashKey = hasExplicitHashKeyIndexes[index]
+                ? explicitHashKeys.get((int) explicitHashKeyIndexes[index]) : null;
+
+        ByteBuffer data = aggregateData.duplicate();
+        data.limit(dataOffsets[index] + dataLengths[index]).position(dataOffsets[index]);
+
+        Date arrivalTimestamp = aggregate.getApproximateArrivalTimestamp();
+        return new UserRecord(aggregate.getSequenceNumber(), data.slice(), partitionKey,
+                arrivalTimestamp == null ? null : new Date(arrivalTimestamp.getTime()), index, explicitHashKey);
+    }
+
+    private void ensureUserRecordCapacity(int capacity) {
+        if (capacity <= dataOffsets.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, dataOffsets.length * 2);
+        partitionKeyIndexes = Arrays.copyOf(partitionKeyIndexes, newCapacity);
+        explicitHashKeyIndexes = Arrays.copyOf(explicitHashKeyIndexes, newCapacity);
+        hasExplicitHashKeyIndexes = Arrays.copyOf(hasExplicitHashKeyIndexes, newCapacity);
+        dataOffsets = Arrays.copyOf(dataOffsets, newCapacity);
+        dataLengths = Arrays.copyOf(dataLengths, newCapacity);
+    }
+
+    private void logDeaggregationFailure(Exception e) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Unexpected exception during deaggregation, record was:\n");
+        sb.append("PKS:\n");
+        for (String s : partitionKeys) {
+            sb.append(s).append("\n");
+        }
+        sb.append("EHKS: \n");
+        for (String s : explicitHashKeys) {
+            sb.append(s).append("\n");
+        }
+        for (int i = 0; i < userRecordCount; i++) {
+            sb.append("Record: [hasEhk=").append(hasExplicitHashKeyIndexes[i]).append(", ")
+                .append("ehkIdx=").append(explicitHashKeyIndexes[i]).append(", ")
+                .append("pkIdx=").append(partitionKeyIndexes[i]).append(", ")
+                .append("dataLen=").append(dataLengths[i]).append("]\n");
+        }
+        sb.append("Sequence number: ").append(aggregate.getSequenceNumber()).append("\n");
+        LOG.error(sb.toString(), e);
+    }
+
+    /**
+     * An inclusive range of 128 bit hash keys, held as the high and low 64 bits of each end. Hash keys outside of
+     * [0, 2^128 - 1], which only a malformed explicit hash key or range can produce, are compared as BigIntegers.
+     */
+    private static final class HashKeyRange {
+        // 2^128 - 1, the largest hash key
+        private static final String LARGEST_HASH_KEY = "340282366920938463463374607431768211455";
+        private static final BigInteger LARGEST_HASH_KEY_VALUE = new BigInteger(LARGEST_HASH_KEY);
+
+        private final BigInteger startingHashKey;
+        private final BigInteger endingHashKey;
+        private final boolean fitsInLongs;
+        private final long startHigh;
+        private final long startLow;
+        private final long endHigh;
+        private final long endLow;
+
+        HashKeyRange(BigInteger startingHashKey, BigInteger endingHashKey) {
+            this.startingHashKey = startingHashKey;
+            this.endingHashKey = endingHashKey;
+            this.fitsInLongs = isHashKey(startingHashKey) && isHashKey(endingHashKey);
+            this.startHigh = startingHashKey.shiftRight(Long.SIZE).longValue();
+            this.startLow = startingHashKey.longValue();
+            this.endHigh = endingHashKey.shiftRight(Long.SIZE).longValue();
+            this.endLow = endingHashKey.longValue();
+        }
+
+        private static boolean isHashKey(BigInteger value) {
+            return value.signum() >= 0 && value.compareTo(LARGEST_HASH_KEY_VALUE) <= 0;
+        }
+
+        boolean containsPartitionKey(String partitionKey) {
+            MessageDigest md5 = MD5.get();
+            md5.reset();
+            byte[] digest = md5.digest(partitionKey.getBytes(StandardCharsets.UTF_8));
+            long high = 0;
+            long low = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                high = (high << Byte.SIZE) | (digest[i] & 0xFF);
+                low = (low << Byte.SIZE) | (digest[i + Long.BYTES] & 0xFF);
+            }
+            return contains(high, low, digest);
+        }
+
+        boolean containsExplicitHashKey(String explicitHashKey) {
+            int length = explicitHashKey.length();
+            boolean plainDecimal = length > 0 && (length < LARGEST_HASH_KEY.length()
+                    || (length == LARGEST_HASH_KEY.length() && explicitHashKey.compareTo(LARGEST_HASH_KEY) <= 0));
+            long high = 0;
+            long low = 0;
+            for (int i = 0; plainDecimal && i < length; i++) {
+                int digit = explicitHashKey.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    plainDecimal = false;
+                    break;
+                }
+                // (high, low) = (high, low) * 10 + digit, which can't overflow for values up to 2^128 - 1
+                long lowTimes8 = low << 3;
+                long lowTimes2 = low << 1;
+                long newLow = lowTimes8 + lowTimes2;
+                long carry = Long.compareUnsigned(newLow, lowTimes8) < 0 ? 1 : 0;
+                high = ((high << 3) | (low >>> 61)) + ((high << 1) | (low >>> 63)) + carry;
+                low = newLow + digit;
+                if (Long.compareUnsigned(low, newLow) < 0) {
+                    high++;
+                }
+            }
+            if (!plainDecimal || !fitsInLongs) {
+                BigInteger value = new BigInteger(explicitHashKey);
+                return value.compareTo(startingHashKey) >= 0 && value.compareTo(endingHashKey) <= 0;
+            }
+            return compare(high, low, startHigh, startLow) >= 0 && compare(high, low, endHigh, endLow) <= 0;
+        }
+
+        private boolean contains(long high, long low, byte[] digest) {
+            if (!fitsInLongs) {
+                BigInteger value = new BigInteger(1, digest);
+                return value.compareTo(startingHashKey) >= 0 && value.compareTo(endingHashKey) <= 0;
+            }
+            return compare(high, low, startHigh, startLow) >= 0 && compare(high, low, endHigh, endLow) <= 0;
+        }
+
+        private static int compare(long high, long low, long otherHigh, long otherLow) {
+            int result = Long.compareUnsigned(high, otherHigh);
+            return result != 0 ? result : Long.compareUnsigned(low, otherLow);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.leases.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.DependencyException;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.InvalidStateException;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.ProvisionedThroughputException;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.interfaces.ILeaseManager;
+
+/**
+ * A decoration of ILeaseManager that keeps an in-memory copy of the lease table, so that the LeaseTaker, the
+ * LeaseRenewer and the shard sync of a worker don't each scan the whole table.
+ *
+ * The table is divided into totalSegments segments of a parallel scan. The whole table is read the first time the
+ * cache is used, then the LeaseTaker refreshes a single segment per cycle (see {@link #refreshNextSegment()}), so that
+ * every lease is read again once every totalSegments cycles. Leases that are missing from a segment are dropped from
+ * the cache. Writes made through this lease manager are applied to the cache as soon as they succeed, so the leases of
+ * this worker are always up to date.
+ *
+ * {@link #listLeases()} is served from the cache as long as every segment was read within maxAgeMillis, and reads the
+ * whole table otherwise. Reads of single leases and of explicit segments are never cached.
+ *
+ * Like the LeaseTaker, the cache tracks the time at which it last saw the leaseCounter of every lease change. The
+ * leases it returns have their lastCounterIncrementNanos set accordingly.
+ *
+ * @param <T> Lease subclass, possibly Lease itself.
+ */
+public class CachingLeaseManager<T extends Lease> implements ILeaseManager<T> {
+
+    private static final Log LOG = LogFactory.getLog(CachingLeaseManager.class);
+
+    private static final int UNKNOWN_SEGMENT = -1;
+
+    private static final Callable<Long> SYSTEM_CLOCK_CALLABLE = new Callable<Long>() {
+
+        @Override
+        public Long call() {
+            return System.nanoTime();
+        }
+    };
+
+    private final ILeaseManager<T> leaseManager;
+    private final int totalSegments;
+    private final long maxAgeNanos;
+    private final Callable<Long> timeProvider;
+    private final ConcurrentMap<String, CachedLease<T>> cachedLeases = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private final long[] segmentScanStartNanos;
+    private int nextSegment = 0;
+    private boolean initialized = false;
+
+    /**
+     * Constructor.
+     *
+     * @param leaseManager lease manager reading and writing the lease table
+     * @param totalSegments number of segments the table is divided into. Each LeaseTaker cycle reads one segment.
+     * @param maxAgeMillis max time since every segment was read for {@link #listLeases()} to be served from the cache
+     */
+    public CachingLeaseManager(ILeaseManager<T> leaseManager, int totalSegments, long maxAgeMillis) {
+        this(leaseManager, totalSegments, maxAgeMillis, SYSTEM_CLOCK_CALLABLE);
+    }
+
+    /**
+     * Constructor for test cases - allows control of the time.
+     *
+     * @param leaseManager lease manager reading and writing the lease table
+     * @param totalSegments number of segments the table is divided into
+     * @param maxAgeMillis max time since every segment was read for {@link #listLeases()} to be served from the cache
+     * @param timeProvider callable that supplies the current time in nanoseconds
+     */
+    CachingLeaseManager(ILeaseManager<T> leaseManager,
+            int totalSegments,
+            long maxAgeMillis,
+            Callable<Long> timeProvider) {
+        if (leaseManager == null) {
+            throw new IllegalArgumentException("leaseManager cannot be null");
+        }
+        if (totalSegments <= 0) {
+            throw new IllegalArgumentException("totalSegments should be >= 1");
+        }
+        if (maxAgeMillis < 0) {
+            throw new IllegalArgumentException("maxAgeMillis should be >= 0");
+        }
+        this.leaseManager = leaseManager;
+        this.totalSegments = totalSegments;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.timeProvider = timeProvider;
+        this.segmentScanStartNanos = new long[totalSegments];
+    }
+
+    /**
+     * Reads the next segment of the lease table into the cache, or the whole table if it was never read.
+     *
+     * @throws DependencyException if DynamoDB scan fails in an unexpected way
+     * @throws InvalidStateException if lease table does not exist
+     * @throws ProvisionedThroughputException if DynamoDB scan fails due to lack of capacity
+     */
+    synchronized void refreshNextSegment()
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        if (!initialized) {
+            refreshAll();
+            return;
+        }
+        refreshSegment(nextSegment);
+        nextSegment = (nextSegment + 1) % totalSegments;
+    }
+
+    /**
+     * @return the leases in the cache, along with the time at which they were observed
+     */
+    Collection<CachedLease<T>> getCachedLeases() {
+        return cachedLeases.values();
+    }
+
+    private synchronized List<T> listCachedLeases()
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        long now = now();
+        if (!initialized || now - Arrays.stream(segmentScanStartNanos).min().getAsLong() > maxAgeNanos) {
+            refreshAll();
+        }
+
+        List<T> leases = new ArrayList<>(cachedLeases.size());
+        for (CachedLease<T> cachedLease : cachedLeases.values()) {
+            leases.add(cachedLease.copyLease());
+        }
+        return leases;
+    }
+
+    private void refreshAll() throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        for (int segment = 0; segment < totalSegments; segment++) {
+            refreshSegment(segment);
+        }
+        initialized = true;
+        nextSegment = 0;
+    }
+
+    private void refreshSegment(final int segment)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        long scanStartNanos = now();
+        List<T> freshList = leaseManager.listLeases(segment, totalSegments);
+        long observedNanos = now();
+
+        Set<String> seen = new HashSet<>();
+        for (T lease : freshList) {
+            seen.add(lease.getLeaseKey());
+            cachedLeases.compute(lease.getLeaseKey(), (leaseKey, cachedLease) -> {
+                if (cachedLease != null && cachedLease.observedNanos > scanStartNanos) {
+                    // The lease was written through this lease manager while we were scanning, keep the newer version
+                    return new CachedLease<>(cachedLease.lease, cachedLease.observedNanos, segment);
+                }
+                return observe(cachedLease, lease, observedNanos, segment);
+            });
+        }
+
+        segmentScanStartNanos[segment] = scanStartNanos;
+        long oldestScanStartNanos = Arrays.stream(segmentScanStartNanos).min().getAsLong();
+
+        // Drop the leases deleted since they were observed. Leases only written through this lease manager don't have a
+        // known segment yet, they are dropped once every segment was read without finding them.
+        for (Map.Entry<String, CachedLease<T>> entry : cachedLeases.entrySet()) {
+            CachedLease<T> cachedLease = entry.getValue();
+            boolean missingFromSegment = cachedLease.segment == segment && !seen.contains(entry.getKey())
+                    && cachedLease.observedNanos < scanStartNanos;
+            boolean missingFromTable = cachedLease.segment == UNKNOWN_SEGMENT && initialized
+                    && cachedLease.observedNanos < oldestScanStartNanos;
+            if ((missingFromSegment || missingFromTable) && cachedLeases.remove(entry.getKey(), cachedLease)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Removed lease with key " + entry.getKey() + " from the cache because it was deleted.");
+                }
+            }
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("Read %d leases from segment %d of %d, cache holds %d leases",
+                    freshList.size(),
+                    segment,
+                    totalSegments,
+                    cachedLeases.size()));
+        }
+    }
+
+    private void writeThrough(T lease) throws DependencyException {
+        final T copy = lease.copy();
+        final long observedNanos = now();
+        cachedLeases.compute(copy.getLeaseKey(), (leaseKey, cachedLease) -> observe(cachedLease,
+                copy,
+                observedNanos,
+                cachedLease == null ? UNKNOWN_SEGMENT : cachedLease.segment));
+    }
+
+    private CachedLease<T> observe(CachedLease<T> cachedLease, T lease, long observedNanos, int segment) {
+        if (cachedLease == null) {
+            // Like the LeaseTaker, treat a new lease as never renewed if it is unowned, and as renewed now otherwise.
+            lease.setLastCounterIncrementNanos(lease.getLeaseOwner() == null ? 0L : observedNanos);
+        } else if (cachedLease.lease.getLeaseCounter().equals(lease.getLeaseCounter())) {
+            lease.setLastCounterIncrementNanos(cachedLease.lease.getLastCounterIncrementNanos());
+        } else {
+            lease.setLastCounterIncrementNanos(observedNanos);
+        }
+        return new CachedLease<>(lease, observedNanos, segment);
+    }
+
+    private long now() throws DependencyException {
+        try {
+            return timeProvider.call();
+        } catch (Exception e) {
+            throw new DependencyException("Exception caught from timeProvider", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean createLeaseTableIfNotExists(Long readCapacity, Long writeCapacity)
+        throws ProvisionedThroughputException, DependencyException {
+        return leaseManager.createLeaseTableIfNotExists(readCapacity, writeCapacity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean leaseTableExists() throws DependencyException {
+        return leaseManager.leaseTableExists();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean waitUntilLeaseTableExists(long secondsBetweenPolls, long timeoutSeconds)
+        throws DependencyException {
+        return leaseManager.waitUntilLeaseTableExists(secondsBetweenPolls, timeoutSeconds);
+    }
+
+    /**
+     * Lists the leases from the cache, after reading the whole table if a segment wasn't read within maxAgeMillis.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> listLeases() throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        return listCachedLeases();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> listLeases(int segment, int totalSegments)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        return leaseManager.listLeases(segment, totalSegments);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean createLeaseIfNotExists(T lease)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        boolean created = leaseManager.createLeaseIfNotExists(lease);
+        if (created) {
+            writeThrough(lease);
+        }
+        return created;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T getLease(String shardId)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        return leaseManager.getLease(shardId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean renewLease(T lease)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        boolean renewed = leaseManager.renewLease(lease);
+        if (renewed) {
+            writeThrough(lease);
+        }
+        return renewed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean takeLease(T lease, String owner)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        boolean taken = leaseManager.takeLease(lease, owner);
+        if (taken) {
+            writeThrough(lease);
+        }
+        return taken;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean evictLease(T lease)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        boolean evicted = leaseManager.evictLease(lease);
+        if (evicted) {
+            writeThrough(lease);
+        }
+        return evicted;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteLease(T lease) throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        leaseManager.deleteLease(lease);
+        cachedLeases.remove(lease.getLeaseKey());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteAll() throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        leaseManager.deleteAll();
+        cachedLeases.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean updateLease(T lease)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        boolean updated = leaseManager.updateLease(lease);
+        if (updated) {
+            writeThrough(lease);
+        }
+        return updated;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLeaseTableEmpty() throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        return leaseManager.isLeaseTableEmpty();
+    }
+
+    /**
+     * A lease in the cache. Immutable, the lease it holds is never modified once cached.
+     *
+     * @param <T> Lease subclass, possibly Lease itself.
+     */
+    static class CachedLease<T extends Lease> {
+        private final T lease;
+        private final long observedNanos;
+        private final int segment;
+
+        private CachedLease(T lease, long observedNanos, int segment) {
+            this.lease = lease;
+            this.observedNanos = observedNanos;
+            this.segment = segment;
+        }
+
+        /**
+         * @return a copy of the lease, safe to modify
+         */
+        T copyLease() {
+            return lease.copy();
+        }
+
+        /**
+         * @return time at which the lease was last read from, or written to, the lease table
+         */
+        long getObservedNanos() {
+            return observedNanos;
+        }
+    }
+}
@@ -214,6 +214,19 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
         return list(null);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> listLeases(int segment, int totalSegments)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        verifySegment(segment, totalSegments);
+        if (totalSegments == 1) {
+            return list(null);
+        }
+        return list(null, segment, totalSegments);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -232,8 +245,29 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
      * @throws ProvisionedThroughputException if DynamoDB scan fail due to exceeded capacity
      */
     List<T> list(Integer limit) throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        return list(limit, null, null);
+    }
+
+    /**
+     * List the leases of one segment of a parallel scan, with the given page size. Package access for integration
+     * testing.
+     *
+     * @param limit number of items to consider at a time - used by integration tests to force paging.
+     * @param segment segment to scan, or null to scan the whole table
+     * @param totalSegments number of segments the table is divided into, or null to scan the whole table
+     * @return list of leases
+     * @throws InvalidStateException if table does not exist
+     * @throws DependencyException if DynamoDB scan fail in an unexpected way
+     * @throws ProvisionedThroughputException if DynamoDB scan fail due to exceeded capacity
+     */
+    List<T> list(Integer limit, Integer segment, Integer totalSegments)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Listing leases from table " + table);
+            if (segment == null) {
+                LOG.debug("Listing leases from table " + table);
+            } else {
+                LOG.debug("Listing leases from segment " + segment + " of " + totalSegments + " of table " + table);
+            }
         }
 
         ScanRequest scanRequest = new ScanRequest();
@@ -241,6 +275,10 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
         if (limit != null) {
             scanRequest.setLimit(limit);
         }
+        if (segment != null) {
+            scanRequest.setSegment(segment);
+            scanRequest.setTotalSegments(totalSegments);
+        }
 
         try {
             ScanResult scanResult = dynamoDBClient.scan(scanRequest);
@@ -597,4 +635,13 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
         }
     }
 
+    private void verifySegment(int segment, int totalSegments) {
+        if (totalSegments <= 0) {
+            throw new IllegalArgumentException("totalSegments must be positive");
+        }
+        if (segment < 0 || segment >= totalSegments) {
+            throw new IllegalArgumentException("segment must be between 0 and totalSegments - 1");
+        }
+    }
+
 }
@@ -59,8 +59,11 @@ public class LeaseTaker<T extends Lease> implements ILeaseTaker<T> {
     };
 
     private final ILeaseManager<T> leaseManager;
+    private final CachingLeaseManager<T> leaseCache;
     private final String workerIdentifier;
     private final Map<String, T> allLeases = new HashMap<String, T>();
+    // Key is leaseKey, value is the time at which the lease cache last observed the lease
+    private final Map<String, Long> observedNanos = new HashMap<String, Long>();
     private final long leaseDurationNanos;
     private int maxLeasesForWorker = Integer.MAX_VALUE;
     private int maxLeasesToStealAtOneTime = 1;
@@ -69,6 +72,7 @@ public class LeaseTaker<T extends Lease> implements ILeaseTaker<T> {
 
     public LeaseTaker(ILeaseManager<T> leaseManager, String workerIdentifier, long leaseDurationMillis) {
         this.leaseManager = leaseManager;
+        this.leaseCache = leaseManager instanceof CachingLeaseManager ? (CachingLeaseManager<T>) leaseManager : null;
         this.workerIdentifier = workerIdentifier;
         this.leaseDurationNanos = TimeUnit.MILLISECONDS.toNanos(leaseDurationMillis);
     }
@@ -143,7 +147,11 @@ public class LeaseTaker<T extends Lease> implements ILeaseTaker<T> {
         try {
             for (int i = 1; i <= SCAN_RETRIES; i++) {
                 try {
-                    updateAllLeases(timeProvider);
+                    if (leaseCache == null) {
+                        updateAllLeases(timeProvider);
+                    } else {
+                        updateAllLeasesFromCache();
+                    }
                     success = true;
                 } catch (ProvisionedThroughputException e) {
                     LOG.info(String.format("Worker %s could not find expired leases on try %d out of %d",
@@ -306,13 +314,37 @@ public class LeaseTaker<T extends Lease> implements ILeaseTaker<T> {
     }
 
     /**
-     * @return list of leases that were expired as of our last scan.
+     * Refresh one segment of the lease cache, then replace allLeases with the content of the cache. The cache tracks
+     * the counter increments of the leases the same way updateAllLeases does, but each lease may have been observed at
+     * a different time.
+     * 
+     * @throws ProvisionedThroughputException if the refresh fails due to lack of provisioned throughput
+     * @throws InvalidStateException if the lease table does not exist
+     * @throws DependencyException if the refresh fails in an unexpected way
+     */
+    private void updateAllLeasesFromCache()
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        leaseCache.refreshNextSegment();
+
+        allLeases.clear();
+        observedNanos.clear();
+        for (CachingLeaseManager.CachedLease<T> cachedLease : leaseCache.getCachedLeases()) {
+            T lease = cachedLease.copyLease();
+            allLeases.put(lease.getLeaseKey(), lease);
+            observedNanos.put(lease.getLeaseKey(), cachedLease.getObservedNanos());
+        }
+    }
+
+    /**
+     * @return list of leases that were expired as of our last scan, or as of the last time the lease cache observed
+     *         them.
      */
     private List<T> getExpiredLeases() {
         List<T> expiredLeases = new ArrayList<T>();
 
         for (T lease : allLeases.values()) {
-            if (lease.isExpired(leaseDurationNanos, lastScanTimeNanos)) {
+            long asOfNanos = leaseCache == null ? lastScanTimeNanos : observedNanos.get(lease.getLeaseKey());
+            if (lease.isExpired(leaseDurationNanos, asOfNanos)) {
                 expiredLeases.add(lease);
             }
         }
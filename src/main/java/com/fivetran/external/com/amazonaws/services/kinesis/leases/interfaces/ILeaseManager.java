@@ -14,6 +14,7 @@
  */
 package com.fivetran.external.com.amazonaws.services.kinesis.leases.interfaces;
 
+import java.util.Collections;
 import java.util.List;
 
 import com.fivetran.external.com.amazonaws.services.kinesis.leases.exceptions.DependencyException;
@@ -73,6 +74,28 @@ public interface ILeaseManager<T extends Lease> {
      */
     public List<T> listLeases() throws DependencyException, InvalidStateException, ProvisionedThroughputException;
 
+    /**
+     * List the objects of one segment of the table synchronously. The table is divided into totalSegments disjoint
+     * segments, and a given object always belongs to the same segment for a given totalSegments, so listing every
+     * segment lists the whole table. Implementations that can't divide the table only support a single segment.
+     * 
+     * @param segment segment to list, between 0 and totalSegments - 1
+     * @param totalSegments number of segments the table is divided into
+     * 
+     * @throws DependencyException if DynamoDB scan fails in an unexpected way
+     * @throws InvalidStateException if lease table does not exist
+     * @throws ProvisionedThroughputException if DynamoDB scan fails due to lack of capacity
+     * 
+     * @return list of leases in the segment
+     */
+    public default List<T> listLeases(int segment, int totalSegments)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        if (segment != 0) {
+            return Collections.emptyList();
+        }
+        return listLeases();
+    }
+
     /**
      * Create a new lease. Conditional on a lease not already existing with this shardId.
      * 
@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative long values, with buckets laid out like the ones of HdrHistogram: values below 8 have
+ * their own bucket, and every power of two above is split into 8 buckets of equal width, so a value is off by at most
+ * 1/8 of its bucket's lower bound. The counts are kept in a long array that only grows up to the bucket of the largest
+ * recorded value, so recording a value doesn't allocate once the histogram has seen values of that magnitude.
+ *
+ * Not thread safe.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int INITIAL_BUCKET_COUNT = 8 * SUB_BUCKET_COUNT;
+
+    private long[] counts = new long[INITIAL_BUCKET_COUNT];
+    private int maxBucketIndex = -1;
+    private long totalCount;
+
+    /**
+     * @param value Value to record. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        int index = bucketIndex(Math.max(0L, value));
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+        counts[index]++;
+        totalCount++;
+        if (index > maxBucketIndex) {
+            maxBucketIndex = index;
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other Histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        if (other.maxBucketIndex >= counts.length) {
+            counts = Arrays.copyOf(counts, other.maxBucketIndex + 1);
+        }
+        for (int i = 0; i <= other.maxBucketIndex; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        maxBucketIndex = Math.max(maxBucketIndex, other.maxBucketIndex);
+    }
+
+    /**
+     * Clears the counts, and keeps the buckets allocated so far.
+     */
+    public void reset() {
+        if (maxBucketIndex >= 0) {
+            Arrays.fill(counts, 0, maxBucketIndex + 1, 0L);
+        }
+        maxBucketIndex = -1;
+        totalCount = 0L;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return Number of buckets, from the first one to the one of the largest value recorded since the last reset
+     */
+    public int getBucketCount() {
+        return maxBucketIndex + 1;
+    }
+
+    /**
+     * @param index Index of a bucket, below {@link #getBucketCount()}
+     * @return Number of values recorded in the bucket
+     */
+    public long getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @param index Index of a bucket
+     * @return Smallest value of the bucket
+     */
+    public static long getLowestValue(int index) {
+        int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        return ((long) (index - (shift << SUB_BUCKET_BITS))) << shift;
+    }
+
+    /**
+     * @param index Index of a bucket
+     * @return Largest value of the bucket
+     */
+    public static long getHighestValue(int index) {
+        int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        return getLowestValue(index) + (1L << shift) - 1L;
+    }
+
+    /**
+     * @param index Index of a bucket
+     * @return Value standing for all the values of the bucket
+     */
+    public static double getMedianValue(int index) {
+        return (getLowestValue(index) + getHighestValue(index)) / 2.0;
+    }
+
+    /**
+     * @param percentile Percentile, between 0 and 100
+     * @return Highest value of the bucket holding the percentile, or 0 if no value was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0L) {
+            return 0L;
+        }
+        long countAtPercentile = Math.max(1L, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * totalCount));
+        long count = 0L;
+        for (int i = 0; i <= maxBucketIndex; i++) {
+            count += counts[i];
+            if (count >= countAtPercentile) {
+                return getHighestValue(i);
+            }
+        }
+        return getHighestValue(maxBucketIndex);
+    }
+
+    static int bucketIndex(long value) {
+        int shift = Math.max(0, (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+/**
+ * A metric registered with a {@link StripedMetricsFactory}. The index of the handle is the position of the metric in
+ * the accumulator arrays of the factory, so data added through a handle is accumulated without looking the metric up.
+ */
+public final class MetricHandle {
+
+    private final String name;
+    private final StandardUnit unit;
+    private final int index;
+
+    MetricHandle(String name, StandardUnit unit, int index) {
+        this.name = name;
+        this.unit = unit;
+        this.index = index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public StandardUnit getUnit() {
+        return unit;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + unit + ")";
+    }
+}
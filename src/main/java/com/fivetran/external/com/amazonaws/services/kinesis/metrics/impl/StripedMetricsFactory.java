@@ -0,0 +1,534 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Metrics factory that accumulates data points in place instead of queueing a MetricDatum per data point like
+ * {@link CWMetricsFactory} does. Every metric name gets a {@link MetricHandle} the first time it is used, or up front
+ * through {@link #registerMetric(String, StandardUnit)}. Ended scopes add their data points to the sum, minimum,
+ * maximum and count of the metric for their dimensions, in one of a fixed number of stripes picked by thread, so
+ * threads don't contend with each other and no object is created per data point. The stripes are only merged into
+ * MetricDatums when they are published, every bufferTimeMillis.
+ *
+ * Optionally, the values of the metrics in milliseconds are also counted in a {@link LatencyHistogram}, and published
+ * as the values and counts of their MetricDatum instead of a statistic set, so CloudWatch can compute percentiles.
+ */
+public class StripedMetricsFactory implements IMetricsFactory {
+
+    private static final Log LOG = LogFactory.getLog(StripedMetricsFactory.class);
+
+    /**
+     * CloudWatch accepts at most this many distinct values in a MetricDatum.
+     */
+    private static final int MAX_HISTOGRAM_VALUES = 150;
+
+    /**
+     * Accumulators of dimensions that got no data for this many publications are dropped, e.g. the ones of the shards
+     * the worker no longer processes.
+     */
+    private static final int MAX_IDLE_PUBLICATIONS = 6;
+
+    private final ICWMetricsPublisher<CWMetricKey> metricsPublisher;
+    private final long bufferTimeMillis;
+    private final MetricsLevel metricsLevel;
+    private final Set<String> metricsEnabledDimensions;
+    private final boolean metricsEnabledDimensionsAll;
+    private final boolean latencyHistograms;
+
+    private final Map<String, MetricHandle> metrics = new ConcurrentHashMap<>();
+    private volatile MetricHandle[] metricsByIndex = new MetricHandle[0];
+    private final Map<DimensionKey, DimensionSet> dimensionSets = new ConcurrentHashMap<>();
+    private final Stripe[] stripes;
+
+    private final CountDownLatch shutdownLatch = new CountDownLatch(1);
+    private final Thread publicationThread;
+
+    /**
+     * Constructor.
+     *
+     * @param cloudWatchClient Client used to make CloudWatch requests
+     * @param namespace the namespace under which the metrics will appear in the CloudWatch console
+     * @param bufferTimeMillis time to accumulate metrics before publishing to CloudWatch
+     * @param metricsLevel metrics level to enable
+     * @param metricsEnabledDimensions metrics dimensions to allow
+     * @param latencyHistograms whether to publish the metrics in milliseconds as histograms
+     */
+    public StripedMetricsFactory(AmazonCloudWatch cloudWatchClient,
+            String namespace,
+            long bufferTimeMillis,
+            MetricsLevel metricsLevel,
+            Set<String> metricsEnabledDimensions,
+            boolean latencyHistograms) {
+        this(new DefaultCWMetricsPublisher(cloudWatchClient, namespace), bufferTimeMillis, metricsLevel,
+                metricsEnabledDimensions, latencyHistograms);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param metricsPublisher publishes the accumulated metrics
+     * @param bufferTimeMillis time to accumulate metrics before publishing them
+     * @param metricsLevel metrics level to enable
+     * @param metricsEnabledDimensions metrics dimensions to allow
+     * @param latencyHistograms whether to publish the metrics in milliseconds as histograms
+     */
+    public StripedMetricsFactory(ICWMetricsPublisher<CWMetricKey> metricsPublisher,
+            long bufferTimeMillis,
+            MetricsLevel metricsLevel,
+            Set<String> metricsEnabledDimensions,
+            boolean latencyHistograms) {
+        this.metricsPublisher = metricsPublisher;
+        this.bufferTimeMillis = bufferTimeMillis;
+        this.metricsLevel = (metricsLevel == null ? CWMetricsFactory.DEFAULT_METRICS_LEVEL : metricsLevel);
+        this.metricsEnabledDimensions = (metricsEnabledDimensions == null
+                ? ImmutableSet.<String>of() : ImmutableSet.copyOf(metricsEnabledDimensions));
+        this.metricsEnabledDimensionsAll = this.metricsEnabledDimensions.contains(
+                IMetricsScope.METRICS_DIMENSIONS_ALL);
+        this.latencyHistograms = latencyHistograms;
+
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(i);
+        }
+
+        publicationThread = new Thread(this::runPublication);
+        publicationThread.setName("striped-metrics-publisher");
+        publicationThread.start();
+    }
+
+    @Override
+    public IMetricsScope createMetrics() {
+        return new StripedMetricsScope(this);
+    }
+
+    /**
+     * Registers a metric, so data points can be added to it through
+     * {@link StripedMetricsScope#addData(MetricHandle, double, MetricsLevel)}.
+     *
+     * @param name name of the metric
+     * @param unit unit of the metric
+     * @return handle of the metric, the same for every registration of the name
+     * @throws IllegalArgumentException if the metric was already registered with a different unit
+     */
+    public MetricHandle registerMetric(String name, StandardUnit unit) {
+        MetricHandle handle = metrics.get(name);
+        if (handle == null) {
+            synchronized (metrics) {
+                handle = metrics.get(name);
+                if (handle == null) {
+                    MetricHandle[] updatedMetricsByIndex = Arrays.copyOf(metricsByIndex, metricsByIndex.length + 1);
+                    handle = new MetricHandle(name, unit, metricsByIndex.length);
+                    updatedMetricsByIndex[handle.getIndex()] = handle;
+                    metricsByIndex = updatedMetricsByIndex;
+                    metrics.put(name, handle);
+                }
+            }
+        }
+        if (handle.getUnit() != unit) {
+            throw new IllegalArgumentException("Cannot add to existing metric with different unit");
+        }
+        return handle;
+    }
+
+    MetricHandle getMetric(String name, StandardUnit unit) {
+        MetricHandle handle = metrics.get(name);
+        if ((handle == null) || (handle.getUnit() != unit)) {
+            return registerMetric(name, unit);
+        }
+        return handle;
+    }
+
+    MetricsLevel getMetricsLevel() {
+        return metricsLevel;
+    }
+
+    boolean isDimensionEnabled(String name) {
+        return metricsEnabledDimensionsAll || metricsEnabledDimensions.contains(name);
+    }
+
+    /**
+     * Adds the data points of an ended scope to the accumulators of the stripe of the current thread.
+     */
+    void accumulate(MetricHandle[] handles,
+            double[] values,
+            int size,
+            String[] dimensionNames,
+            String[] dimensionValues,
+            int dimensionCount) {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        synchronized (stripe) {
+            stripe.probe.set(dimensionNames, dimensionValues, dimensionCount);
+            DimensionSet dimensionSet = stripe.dimensionSets.get(stripe.probe);
+            if (dimensionSet == null) {
+                dimensionSet = dimensionSets.computeIfAbsent(stripe.probe.copy(), DimensionSet::new);
+                stripe.dimensionSets.put(dimensionSet.key, dimensionSet);
+            }
+            for (int i = 0; i < size; i++) {
+                dimensionSet.getCell(stripe.index, handles[i]).record(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Merges the stripes and publishes the metrics that got data since the last publication. Exposed for testing
+     * purposes.
+     */
+    public synchronized void publish() {
+        List<MetricDatumWithKey<CWMetricKey>> dataToPublish = new ArrayList<>();
+        Iterator<DimensionSet> iterator = dimensionSets.values().iterator();
+        while (iterator.hasNext()) {
+            DimensionSet dimensionSet = iterator.next();
+            boolean hasData = false;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    hasData |= dimensionSet.drainStripe(stripe.index);
+                }
+            }
+            if (hasData) {
+                dimensionSet.idlePublications = 0;
+            } else if (++dimensionSet.idlePublications >= MAX_IDLE_PUBLICATIONS) {
+                iterator.remove();
+                for (Stripe stripe : stripes) {
+                    synchronized (stripe) {
+                        stripe.dimensionSets.remove(dimensionSet.key, dimensionSet);
+                        // Picks up the data added since the stripe was drained above.
+                        dimensionSet.drainStripe(stripe.index);
+                    }
+                }
+            }
+            dimensionSet.drainTotals(dataToPublish);
+        }
+
+        if (!dataToPublish.isEmpty()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("Publishing %d datums", dataToPublish.size()));
+            }
+            try {
+                metricsPublisher.publishMetrics(dataToPublish);
+            } catch (Throwable t) {
+                LOG.error("Caught exception thrown by metrics Publisher in StripedMetricsFactory", t);
+            }
+        }
+    }
+
+    private void runPublication() {
+        try {
+            while (!shutdownLatch.await(bufferTimeMillis, TimeUnit.MILLISECONDS)) {
+                try {
+                    publish();
+                } catch (Throwable t) {
+                    LOG.error("Encountered throwable in StripedMetricsFactory publication", t);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting to publish metrics, publishing them now.");
+        }
+        publish();
+        LOG.info("Striped metrics publication thread finished.");
+    }
+
+    /**
+     * Publishes the metrics accumulated so far, and stops publishing.
+     */
+    public void shutdown() {
+        LOG.info("Shutting down striped metrics publication thread.");
+        shutdownLatch.countDown();
+        try {
+            publicationThread.join();
+        } catch (InterruptedException e) {
+            throw new AbortedException(e.getMessage(), e);
+        }
+    }
+
+    private Cell newCell(MetricHandle handle) {
+        return new Cell(latencyHistograms && (handle.getUnit() == StandardUnit.Milliseconds));
+    }
+
+    private static MetricDatum toMetricDatum(MetricHandle handle, List<Dimension> dimensions, Cell cell) {
+        MetricDatum datum = new MetricDatum().withMetricName(handle.getName())
+                .withUnit(handle.getUnit())
+                .withDimensions(dimensions);
+        if (cell.histogram == null) {
+            return datum.withStatisticValues(new StatisticSet().withMaximum(cell.max)
+                    .withMinimum(cell.min)
+                    .withSampleCount((double) cell.count)
+                    .withSum(cell.sum));
+        }
+
+        // Buckets are merged when there are more of them than CloudWatch accepts.
+        LatencyHistogram histogram = cell.histogram;
+        int nonEmptyBuckets = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            if (histogram.getCount(i) > 0L) {
+                nonEmptyBuckets++;
+            }
+        }
+        int bucketsPerValue = (nonEmptyBuckets + MAX_HISTOGRAM_VALUES - 1) / MAX_HISTOGRAM_VALUES;
+        List<Double> values = new ArrayList<>(Math.min(nonEmptyBuckets, MAX_HISTOGRAM_VALUES));
+        List<Double> counts = new ArrayList<>(Math.min(nonEmptyBuckets, MAX_HISTOGRAM_VALUES));
+        int mergedBuckets = 0;
+        double weightedSum = 0.0;
+        long mergedCount = 0L;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            long count = histogram.getCount(i);
+            if (count == 0L) {
+                continue;
+            }
+            weightedSum += LatencyHistogram.getMedianValue(i) * count;
+            mergedCount += count;
+            if (++mergedBuckets == bucketsPerValue) {
+                values.add(weightedSum / mergedCount);
+                counts.add((double) mergedCount);
+                mergedBuckets = 0;
+                weightedSum = 0.0;
+                mergedCount = 0L;
+            }
+        }
+        if (mergedCount > 0L) {
+            values.add(weightedSum / mergedCount);
+            counts.add((double) mergedCount);
+        }
+        return datum.withValues(values).withCounts(counts);
+    }
+
+    /**
+     * Accumulators of one metric, for one set of dimensions, in one stripe.
+     */
+    private static class Cell {
+        private long count;
+        private double sum;
+        private double min;
+        private double max;
+        private final LatencyHistogram histogram;
+
+        private Cell(boolean histogram) {
+            this.histogram = histogram ? new LatencyHistogram() : null;
+        }
+
+        private void record(double value) {
+            if (count == 0L) {
+                min = value;
+                max = value;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            count++;
+            sum += value;
+            if (histogram != null) {
+                histogram.record(Math.round(value));
+            }
+        }
+
+        private void add(Cell other) {
+            if (count == 0L) {
+                min = other.min;
+                max = other.max;
+            } else {
+                min = Math.min(min, other.min);
+                max = Math.max(max, other.max);
+            }
+            count += other.count;
+            sum += other.sum;
+            if (histogram != null) {
+                histogram.add(other.histogram);
+            }
+        }
+
+        private void reset() {
+            count = 0L;
+            sum = 0.0;
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+    }
+
+    /**
+     * The accumulators of the metrics of the scopes with the same dimensions: one row of cells per stripe, written
+     * under the lock of the stripe, and the totals of the stripes, only used by {@link #publish()}.
+     */
+    private class DimensionSet {
+        private final DimensionKey key;
+        private final List<Dimension> dimensions;
+        private final Cell[][] stripeCells = new Cell[stripes.length][];
+        private Cell[] totals = new Cell[0];
+        private int idlePublications;
+
+        private DimensionSet(DimensionKey key) {
+            this.key = key;
+            List<Dimension> dimensions = new ArrayList<>(key.count);
+            for (int i = 0; i < key.count; i++) {
+                dimensions.add(new Dimension().withName(key.names[i]).withValue(key.values[i]));
+            }
+            this.dimensions = Collections.unmodifiableList(dimensions);
+        }
+
+        private Cell getCell(int stripeIndex, MetricHandle handle) {
+            Cell[] cells = stripeCells[stripeIndex];
+            if (cells == null || cells.length <= handle.getIndex()) {
+                cells = (cells == null) ? new Cell[handle.getIndex() + 1]
+                        : Arrays.copyOf(cells, Math.max(handle.getIndex() + 1, cells.length * 2));
+                stripeCells[stripeIndex] = cells;
+            }
+            Cell cell = cells[handle.getIndex()];
+            if (cell == null) {
+                cell = newCell(handle);
+                cells[handle.getIndex()] = cell;
+            }
+            return cell;
+        }
+
+        /**
+         * Adds the cells of a stripe to the totals and resets them. Must be called under the lock of the stripe.
+         *
+         * @return true if the stripe had data
+         */
+        private boolean drainStripe(int stripeIndex) {
+            Cell[] cells = stripeCells[stripeIndex];
+            if (cells == null) {
+                return false;
+            }
+            boolean hasData = false;
+            for (int i = 0; i < cells.length; i++) {
+                Cell cell = cells[i];
+                if ((cell != null) && (cell.count > 0L)) {
+                    if (totals.length <= i) {
+                        totals = Arrays.copyOf(totals, cells.length);
+                    }
+                    if (totals[i] == null) {
+                        totals[i] = new Cell(cell.histogram != null);
+                    }
+                    totals[i].add(cell);
+                    cell.reset();
+                    hasData = true;
+                }
+            }
+            return hasData;
+        }
+
+        /**
+         * Publishes the totals and resets them. The metrics are read after the stripes were drained, so they include
+         * the metrics registered by the scopes that added the drained data.
+         */
+        private void drainTotals(List<MetricDatumWithKey<CWMetricKey>> dataToPublish) {
+            MetricHandle[] handles = metricsByIndex;
+            for (int i = 0; i < totals.length; i++) {
+                Cell total = totals[i];
+                if ((total != null) && (total.count > 0L)) {
+                    MetricDatum datum = toMetricDatum(handles[i], dimensions, total);
+                    dataToPublish.add(new MetricDatumWithKey<CWMetricKey>(new CWMetricKey(datum), datum));
+                    total.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorted dimension names and values. The key of each stripe is reused to look up the dimensions of the ended
+     * scopes, and only copied the first time the stripe gets data for these dimensions.
+     */
+    private static class DimensionKey {
+        private String[] names;
+        private String[] values;
+        private int count;
+        private int hashCode;
+
+        private void set(String[] names, String[] values, int count) {
+            this.names = names;
+            this.values = values;
+            this.count = count;
+            int hashCode = 1;
+            for (int i = 0; i < count; i++) {
+                hashCode = 31 * (31 * hashCode + names[i].hashCode()) + values[i].hashCode();
+            }
+            this.hashCode = hashCode;
+        }
+
+        private DimensionKey copy() {
+            DimensionKey copy = new DimensionKey();
+            copy.names = (count == 0) ? new String[0] : Arrays.copyOf(names, count);
+            copy.values = (count == 0) ? new String[0] : Arrays.copyOf(values, count);
+            copy.count = count;
+            copy.hashCode = hashCode;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DimensionKey)) {
+                return false;
+            }
+            DimensionKey other = (DimensionKey) obj;
+            if ((other.count != count) || (other.hashCode != hashCode)) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (!names[i].equals(other.names[i]) || !values[i].equals(other.values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A stripe of the accumulators. Its lock guards its cells, and is only contended by {@link #publish()}.
+     */
+    private static class Stripe {
+        private final int index;
+        private final Map<DimensionKey, DimensionSet> dimensionSets = new HashMap<>();
+        private final DimensionKey probe = new DimensionKey();
+
+        private Stripe(int index) {
+            this.index = index;
+        }
+    }
+}
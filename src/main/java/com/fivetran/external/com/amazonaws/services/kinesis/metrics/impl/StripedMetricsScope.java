@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl;
+
+import java.util.Arrays;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
+
+/**
+ * Metrics scope of a {@link StripedMetricsFactory}. Data points are kept as metric handles and primitive values until
+ * {@link #end()}, since dimensions added later on still apply to them, and are then accumulated by the factory. Data
+ * below the enabled metrics level and dimensions that are not enabled are dropped, like {@link FilteringMetricsScope}
+ * does.
+ *
+ * Like the other scopes, it is not thread safe.
+ */
+public class StripedMetricsScope implements IMetricsScope {
+
+    private static final int INITIAL_DATA_CAPACITY = 8;
+    private static final int INITIAL_DIMENSION_CAPACITY = 2;
+
+    private final StripedMetricsFactory factory;
+
+    private MetricHandle[] handles;
+    private double[] values;
+    private int size;
+
+    private String[] dimensionNames;
+    private String[] dimensionValues;
+    private int dimensionCount;
+
+    private boolean ended = false;
+
+    StripedMetricsScope(StripedMetricsFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Adds the data to the metrics scope at lowest metrics level.
+     */
+    @Override
+    public void addData(String name, double value, StandardUnit unit) {
+        addData(name, value, unit, MetricsLevel.DETAILED);
+    }
+
+    @Override
+    public void addData(String name, double value, StandardUnit unit, MetricsLevel level) {
+        checkNotEnded("addData");
+        if (level.getValue() < factory.getMetricsLevel().getValue()) {
+            // Drop the data.
+            return;
+        }
+        add(factory.getMetric(name, unit), value);
+    }
+
+    /**
+     * Adds a data point of a metric registered with {@link StripedMetricsFactory#registerMetric(String, StandardUnit)}
+     * if the given level is enabled, without looking the metric up by name.
+     *
+     * @param handle handle of the metric
+     * @param value data point value
+     * @param level metrics level of this data point
+     */
+    public void addData(MetricHandle handle, double value, MetricsLevel level) {
+        checkNotEnded("addData");
+        if (level.getValue() < factory.getMetricsLevel().getValue()) {
+            // Drop the data.
+            return;
+        }
+        add(handle, value);
+    }
+
+    private void add(MetricHandle handle, double value) {
+        if (handles == null) {
+            handles = new MetricHandle[INITIAL_DATA_CAPACITY];
+            values = new double[INITIAL_DATA_CAPACITY];
+        } else if (size == handles.length) {
+            handles = Arrays.copyOf(handles, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        handles[size] = handle;
+        values[size] = value;
+        size++;
+    }
+
+    @Override
+    public void addDimension(String name, String value) {
+        checkNotEnded("addDimension");
+        if (!factory.isDimensionEnabled(name)) {
+            // Drop dimension.
+            return;
+        }
+        for (int i = 0; i < dimensionCount; i++) {
+            if (dimensionNames[i].equals(name) && dimensionValues[i].equals(value)) {
+                return;
+            }
+        }
+        if (dimensionNames == null) {
+            dimensionNames = new String[INITIAL_DIMENSION_CAPACITY];
+            dimensionValues = new String[INITIAL_DIMENSION_CAPACITY];
+        } else if (dimensionCount == dimensionNames.length) {
+            dimensionNames = Arrays.copyOf(dimensionNames, dimensionCount * 2);
+            dimensionValues = Arrays.copyOf(dimensionValues, dimensionCount * 2);
+        }
+        // Dimensions are kept sorted, so scopes with the same dimensions share their accumulators.
+        int i = dimensionCount;
+        while ((i > 0) && (compare(dimensionNames[i - 1], dimensionValues[i - 1], name, value) > 0)) {
+            dimensionNames[i] = dimensionNames[i - 1];
+            dimensionValues[i] = dimensionValues[i - 1];
+            i--;
+        }
+        dimensionNames[i] = name;
+        dimensionValues[i] = value;
+        dimensionCount++;
+    }
+
+    private static int compare(String name1, String value1, String name2, String value2) {
+        int result = name1.compareTo(name2);
+        return result != 0 ? result : value1.compareTo(value2);
+    }
+
+    @Override
+    public void end() {
+        if (ended) {
+            throw new IllegalArgumentException("Cannot call IMetricsScope.end() more than once on the same instance");
+        }
+        ended = true;
+        if (size > 0) {
+            factory.accumulate(handles, values, size, dimensionNames, dimensionValues, dimensionCount);
+        }
+    }
+
+    private void checkNotEnded(String method) {
+        if (ended) {
+            throw new IllegalArgumentException("Cannot call " + method + " after calling IMetricsScope.end()");
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.multilang;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+
+/**
+ * Writes the {@link MessageFraming#BINARY} frames to the child process's STDIN. Every frame starts with a big endian
+ * int32 holding the number of bytes that follow it, then a one byte frame type:
+ *
+ * <ul>
+ * <li>{@link #JSON_FRAME}: the UTF-8 JSON of a message, as it would have been written on a line in JSON framing.</li>
+ * <li>{@link #PROCESS_RECORDS_FRAME}: int64 millisBehindLatest, int32 number of records. The record frames follow.</li>
+ * <li>{@link #RECORD_FRAME}: uint16 length and UTF-8 bytes of the partition key, uint16 length and UTF-8 bytes of the
+ * sequence number, int64 sub sequence number, int64 approximate arrival timestamp in epoch millis, then the raw data
+ * of the record up to the end of the frame.</li>
+ * </ul>
+ *
+ * Missing numbers are written as {@link #NO_VALUE}. Frames are buffered until {@link #flush()} is called, so the frames
+ * of a whole message reach the child process at once. Not thread safe.
+ */
+class BinaryFrameWriter {
+    static final byte JSON_FRAME = 'J';
+    static final byte PROCESS_RECORDS_FRAME = 'P';
+    static final byte RECORD_FRAME = 'R';
+    static final long NO_VALUE = -1L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final DataOutputStream output;
+    private byte[] copyBuffer;
+    private long bytesWritten;
+
+    /**
+     * @param stream The child process's STDIN.
+     */
+    BinaryFrameWriter(OutputStream stream) {
+        this.output = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+    }
+
+    /**
+     * @param json The UTF-8 JSON of a message.
+     * @throws IOException Thrown when writing to the child process fails.
+     */
+    void writeJsonFrame(byte[] json) throws IOException {
+        writeFrameHeader(1 + json.length, JSON_FRAME);
+        output.write(json);
+    }
+
+    /**
+     * Writes a process records frame followed by one record frame per record. The record data is written straight
+     * from the record buffers.
+     *
+     * @param processRecordsInput The records, and associated metadata, to process.
+     * @throws IOException Thrown when writing to the child process fails.
+     */
+    void writeProcessRecordsFrames(ProcessRecordsInput processRecordsInput) throws IOException {
+        List<Record> records = processRecordsInput.getRecords();
+        Long millisBehindLatest = processRecordsInput.getMillisBehindLatest();
+        writeFrameHeader(1 + 8 + 4, PROCESS_RECORDS_FRAME);
+        output.writeLong(millisBehindLatest == null ? NO_VALUE : millisBehindLatest);
+        output.writeInt(records.size());
+        for (Record record : records) {
+            writeRecordFrame(record);
+        }
+    }
+
+    private void writeRecordFrame(Record record) throws IOException {
+        byte[] partitionKey = toUtf8(record.getPartitionKey());
+        byte[] sequenceNumber = toUtf8(record.getSequenceNumber());
+        ByteBuffer data = record.getData();
+        int dataLength = data == null ? 0 : data.remaining();
+
+        writeFrameHeader(1 + 2 + partitionKey.length + 2 + sequenceNumber.length + 8 + 8 + dataLength, RECORD_FRAME);
+        output.writeShort(partitionKey.length);
+        output.write(partitionKey);
+        output.writeShort(sequenceNumber.length);
+        output.write(sequenceNumber);
+        output.writeLong(record instanceof UserRecord ? ((UserRecord) record).getSubSequenceNumber() : NO_VALUE);
+        output.writeLong(record.getApproximateArrivalTimestamp() == null ? NO_VALUE
+                : record.getApproximateArrivalTimestamp().getTime());
+        if (dataLength > 0) {
+            writeData(data);
+        }
+    }
+
+    private void writeFrameHeader(int length, byte type) throws IOException {
+        output.writeInt(length);
+        output.writeByte(type);
+        bytesWritten += 4 + length;
+    }
+
+    /**
+     * Deaggregated user records share the data of their aggregated record through read-only slices, which don't
+     * expose their array, so their bytes are copied through a reused buffer.
+     */
+    private void writeData(ByteBuffer data) throws IOException {
+        if (data.hasArray()) {
+            output.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+        if (copyBuffer == null) {
+            copyBuffer = new byte[COPY_BUFFER_SIZE];
+        }
+        ByteBuffer source = data.duplicate();
+        while (source.hasRemaining()) {
+            int length = Math.min(copyBuffer.length, source.remaining());
+            source.get(copyBuffer, 0, length);
+            output.write(copyBuffer, 0, length);
+        }
+    }
+
+    private static byte[] toUtf8(String value) {
+        return value == null ? EMPTY : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Number of bytes written so far, including the frames that weren't flushed yet.
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    void flush() throws IOException {
+        output.flush();
+    }
+
+    void close() throws IOException {
+        output.close();
+    }
+}
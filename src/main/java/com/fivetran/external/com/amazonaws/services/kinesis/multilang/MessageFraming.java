@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.multilang;
+
+/**
+ * How the messages sent to the child process's STDIN are framed. The child process always answers with JSON lines on
+ * its STDOUT, whatever the framing of its STDIN.
+ */
+public enum MessageFraming {
+    /**
+     * One JSON message per line, with Base64 encoded record data. This is the default.
+     */
+    JSON("json"),
+    /**
+     * Length prefixed binary frames carrying the raw record data. It is offered to the child process in the initialize
+     * message and only used once the child process accepted it in its status message, see the package documentation.
+     */
+    BINARY("binary");
+
+    private final String name;
+
+    MessageFraming(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The name of this framing, as used in the properties file and in the initialize and status messages.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name The name of a framing, case insensitive.
+     * @return The framing with that name.
+     * @throws IllegalArgumentException If no framing has that name.
+     */
+    public static MessageFraming fromName(String name) {
+        for (MessageFraming framing : values()) {
+            if (framing.name.equalsIgnoreCase(name.trim())) {
+                return framing;
+            }
+        }
+        throw new IllegalArgumentException("Unknown message framing " + name + ", expected json or binary");
+    }
+}
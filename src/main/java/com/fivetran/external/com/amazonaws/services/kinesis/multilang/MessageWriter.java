@@ -47,6 +47,11 @@ class MessageWriter {
 
     private BufferedWriter writer;
 
+    private OutputStream stream;
+
+    /** Set once the child process accepted the binary framing, until then messages are written as JSON lines. */
+    private volatile BinaryFrameWriter binaryFrameWriter;
+
     private volatile boolean open = true;
 
     private String shardId;
@@ -100,7 +105,52 @@ class MessageWriter {
     }
 
     /**
-     * Converts the message to a JSON string and writes it to the subprocess.
+     * Writes frames with the binary frame writer, then flushes them all at once.
+     * 
+     * @param messageName The name of the message the frames belong to.
+     * @param frames Writes the frames of the message.
+     * @return
+     */
+    private Future<Boolean> writeFramesToOutput(final String messageName, final FramesWriter frames) {
+        final BinaryFrameWriter frameWriter = binaryFrameWriter;
+        Callable<Boolean> writeFramesToOutputTask = new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try {
+                    long size;
+                    synchronized (writer) {
+                        long bytesWritten = frameWriter.getBytesWritten();
+                        frames.write(frameWriter);
+                        frameWriter.flush();
+                        size = frameWriter.getBytesWritten() - bytesWritten;
+                    }
+                    LOG.info("Message size == " + size + " bytes for shard " + shardId);
+                } catch (IOException e) {
+                    open = false;
+                }
+                return open;
+            }
+        };
+
+        if (open) {
+            return this.executorService.submit(writeFramesToOutputTask);
+        } else {
+            String errorMessage = "Cannot write message " + messageName + " because writer is closed for shard "
+                    + shardId;
+            LOG.info(errorMessage);
+            throw new IllegalStateException(errorMessage);
+        }
+    }
+
+    /**
+     * Writes the frames of a message.
+     */
+    private interface FramesWriter {
+        void write(BinaryFrameWriter frameWriter) throws IOException;
+    }
+
+    /**
+     * Converts the message to JSON and writes it to the subprocess, as a line or as a JSON frame depending on the
+     * framing in use.
      * 
      * @param message A message to be written to the subprocess.
      * @return
@@ -108,6 +158,11 @@ class MessageWriter {
     private Future<Boolean> writeMessage(Message message) {
         LOG.info("Writing " + message.getClass().getSimpleName() + " to child process for shard " + shardId);
         try {
+            if (binaryFrameWriter != null) {
+                final byte[] json = objectMapper.writeValueAsBytes(message);
+                return writeFramesToOutput(message.getClass().getSimpleName(),
+                        frameWriter -> frameWriter.writeJsonFrame(json));
+            }
             String jsonText = objectMapper.writeValueAsString(message);
             return writeMessageToOutput(jsonText);
         } catch (IOException e) {
@@ -129,13 +184,31 @@ class MessageWriter {
         return writeMessage(new InitializeMessage(initializationInput));
     }
 
+    /**
+     * Writes an {@link InitializeMessage} offering a framing to the subprocess. The message itself is always written
+     * as a JSON line.
+     * 
+     * @param initializationInput
+     *            contains information about the shard being initialized
+     * @param messageFraming
+     *            the framing offered to the subprocess
+     */
+    Future<Boolean> writeInitializeMessage(InitializationInput initializationInput, MessageFraming messageFraming) {
+        return writeMessage(new InitializeMessage(initializationInput).withFraming(messageFraming.getName()));
+    }
+
     /**
      * Writes a {@link ProcessRecordsMessage} message to the subprocess.
      * 
      * @param processRecordsInput
      *            the records, and associated metadata to be processed.
      */
-    Future<Boolean> writeProcessRecordsMessage(ProcessRecordsInput processRecordsInput) {
+    Future<Boolean> writeProcessRecordsMessage(final ProcessRecordsInput processRecordsInput) {
+        if (binaryFrameWriter != null) {
+            LOG.info("Writing ProcessRecordsMessage frames to child process for shard " + shardId);
+            return writeFramesToOutput(ProcessRecordsMessage.class.getSimpleName(),
+                    frameWriter -> frameWriter.writeProcessRecordsFrames(processRecordsInput));
+        }
         return writeMessage(new ProcessRecordsMessage(processRecordsInput));
     }
 
@@ -177,7 +250,28 @@ class MessageWriter {
      */
     void close() throws IOException {
         open = false;
-        this.writer.close();
+        if (binaryFrameWriter != null) {
+            binaryFrameWriter.close();
+        } else {
+            this.writer.close();
+        }
+    }
+
+    /**
+     * Switches to the {@link MessageFraming#BINARY} framing: the messages written after this call are written as
+     * binary frames. Must only be called once the child process accepted the binary framing, while no other message is
+     * being written.
+     * 
+     * @throws IllegalStateException If this writer wasn't initialized with an output stream.
+     */
+    void useBinaryFraming() {
+        if (stream == null) {
+            throw new IllegalStateException("Binary framing requires the output stream of the child process for shard "
+                    + shardId);
+        }
+        synchronized (writer) {
+            binaryFrameWriter = new BinaryFrameWriter(stream);
+        }
     }
 
     boolean isOpen() {
@@ -201,8 +295,9 @@ class MessageWriter {
             String shardId,
             ObjectMapper objectMapper,
             ExecutorService executorService) {
-        return this.initialize(new BufferedWriter(new OutputStreamWriter(stream)), shardId, objectMapper,
-                executorService);
+        this.initialize(new BufferedWriter(new OutputStreamWriter(stream)), shardId, objectMapper, executorService);
+        this.stream = stream;
+        return this;
     }
 
     /**
@@ -216,6 +311,8 @@ class MessageWriter {
             ObjectMapper objectMapper,
             ExecutorService executorService) {
         this.writer = writer;
+        this.stream = null;
+        this.binaryFrameWriter = null;
         this.shardId = shardId;
         this.objectMapper = objectMapper;
         this.executorService = executorService;
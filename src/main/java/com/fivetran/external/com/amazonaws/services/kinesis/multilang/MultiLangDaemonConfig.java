@@ -17,6 +17,7 @@ package com.fivetran.external.com.amazonaws.services.kinesis.multilang;
 import com.amazonaws.ClientConfiguration;
 import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.config.KinesisClientLibConfigurator;
 import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker.KinesisClientLibConfiguration;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
@@ -49,6 +50,7 @@ public class MultiLangDaemonConfig {
     private static final String PROP_EXECUTABLE_NAME = "executableName";
     private static final String PROP_PROCESSING_LANGUAGE = "processingLanguage";
     private static final String PROP_MAX_ACTIVE_THREADS = "maxActiveThreads";
+    private static final String PROP_MESSAGE_FRAMING = "messageFraming";
 
     public static final String PROXY_HOST_PROP = "http.proxyHost";
     public static final String PROXY_PORT_PROP = "http.proxyPort";
@@ -108,7 +110,7 @@ public class MultiLangDaemonConfig {
 
         executorService = buildExecutorService(properties);
         recordProcessorFactory = new MultiLangRecordProcessorFactory(executableName, executorService,
-                kinesisClientLibConfig);
+                new ObjectMapper(), kinesisClientLibConfig, getMessageFraming(properties));
 
         LOG.info("Running " + kinesisClientLibConfig.getApplicationName() + " to process stream "
                 + kinesisClientLibConfig.getStreamName() + " with executable " + executableName);
@@ -216,6 +218,10 @@ public class MultiLangDaemonConfig {
         return Integer.parseInt(properties.getProperty(PROP_MAX_ACTIVE_THREADS, "0"));
     }
 
+    private static MessageFraming getMessageFraming(Properties properties) {
+        return MessageFraming.fromName(properties.getProperty(PROP_MESSAGE_FRAMING, MessageFraming.JSON.getName()));
+    }
+
     private static ExecutorService buildExecutorService(Properties properties) {
         int maxActiveThreads = getMaxActiveThreads(properties);
         ThreadFactoryBuilder builder = new ThreadFactoryBuilder().setNameFormat("multi-lang-daemon-%04d");
@@ -45,6 +45,7 @@ class MultiLangProtocol {
     private MessageWriter messageWriter;
     private final InitializationInput initializationInput;
     private KinesisClientLibConfiguration configuration;
+    private final MessageFraming messageFraming;
 
     /**
      * Constructor.
@@ -58,15 +59,36 @@ class MultiLangProtocol {
      */
     MultiLangProtocol(MessageReader messageReader, MessageWriter messageWriter,
             InitializationInput initializationInput, KinesisClientLibConfiguration configuration) {
+        this(messageReader, messageWriter, initializationInput, configuration, MessageFraming.JSON);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param messageReader
+     *            A message reader.
+     * @param messageWriter
+     *            A message writer.
+     * @param initializationInput
+     *            information about the shard this processor is starting to process
+     * @param messageFraming
+     *            the framing to offer to the child process when initializing it
+     */
+    MultiLangProtocol(MessageReader messageReader, MessageWriter messageWriter,
+            InitializationInput initializationInput, KinesisClientLibConfiguration configuration,
+            MessageFraming messageFraming) {
         this.messageReader = messageReader;
         this.messageWriter = messageWriter;
         this.initializationInput = initializationInput;
         this.configuration = configuration;
+        this.messageFraming = messageFraming;
     }
 
     /**
      * Writes an {@link InitializeMessage} to the child process's STDIN and waits for the child process to respond with
-     * a {@link StatusMessage} on its STDOUT.
+     * a {@link StatusMessage} on its STDOUT. If a framing other than JSON lines is configured, it is offered in the
+     * initialize message, and the following messages are written with it if the child process accepts it in its status
+     * message. Otherwise they are written as JSON lines.
      *
      * @return Whether or not this operation succeeded.
      */
@@ -74,9 +96,25 @@ class MultiLangProtocol {
         /*
          * Call and response to child process.
          */
-        Future<Boolean> writeFuture = messageWriter.writeInitializeMessage(initializationInput);
-        return waitForStatusMessage(InitializeMessage.ACTION, null, writeFuture);
+        if (messageFraming == MessageFraming.JSON) {
+            Future<Boolean> writeFuture = messageWriter.writeInitializeMessage(initializationInput);
+            return waitForStatusMessage(InitializeMessage.ACTION, null, writeFuture);
+        }
 
+        Future<Boolean> writeFuture = messageWriter.writeInitializeMessage(initializationInput, messageFraming);
+        Optional<StatusMessage> statusMessage = waitForValidStatusMessage(InitializeMessage.ACTION, null);
+        if (!writeSucceeded(InitializeMessage.ACTION, writeFuture) || !statusMessage.isPresent()) {
+            return false;
+        }
+        if (messageFraming.getName().equals(statusMessage.get().getFraming())) {
+            log.info(String.format("Child process accepted %s framing for shard %s", messageFraming.getName(),
+                    initializationInput.getShardId()));
+            messageWriter.useBinaryFraming();
+        } else {
+            log.info(String.format("Child process declined %s framing for shard %s, using json framing",
+                    messageFraming.getName(), initializationInput.getShardId()));
+        }
+        return true;
     }
 
     /**
@@ -136,11 +174,22 @@ class MultiLangProtocol {
     private boolean waitForStatusMessage(String action, IRecordProcessorCheckpointer checkpointer,
             Future<Boolean> writeFuture) {
         boolean statusWasCorrect = waitForStatusMessage(action, checkpointer);
+        boolean writerIsStillOpen = writeSucceeded(action, writeFuture);
+        return statusWasCorrect && writerIsStillOpen;
+    }
 
-        // Examine whether or not we failed somewhere along the line.
+    /**
+     * Examines whether or not writing a message failed.
+     *
+     * @param action
+     *            The action that was written.
+     * @param writeFuture
+     *            The writing task.
+     * @return Whether or not the message was written and the writer is still open.
+     */
+    private boolean writeSucceeded(String action, Future<Boolean> writeFuture) {
         try {
-            boolean writerIsStillOpen = writeFuture.get();
-            return statusWasCorrect && writerIsStillOpen;
+            return writeFuture.get();
         } catch (InterruptedException e) {
             log.error(String.format("Interrupted while writing %s message for shard %s", action,
                     initializationInput.getShardId()));
@@ -163,6 +212,20 @@ class MultiLangProtocol {
      * @return Whether or not this operation succeeded.
      */
     boolean waitForStatusMessage(String action, IRecordProcessorCheckpointer checkpointer) {
+        return waitForValidStatusMessage(action, checkpointer).isPresent();
+    }
+
+    /**
+     * Waits for status message and verifies it against the expectation
+     *
+     * @param action
+     *            What action is being waited on.
+     * @param checkpointer
+     *            the original process records request
+     * @return The status message if this operation succeeded, empty otherwise.
+     */
+    private Optional<StatusMessage> waitForValidStatusMessage(String action,
+            IRecordProcessorCheckpointer checkpointer) {
         Optional<StatusMessage> statusMessage = Optional.empty();
         while (!statusMessage.isPresent()) {
             Future<Message> future = this.messageReader.getNextMessageFromSTDOUT();
@@ -171,7 +234,7 @@ class MultiLangProtocol {
             .orElse(futureMethod(future::get, action));
 
             if (!message.isPresent()) {
-                return false;
+                return Optional.empty();
             }
 
             Optional<Boolean> checkpointFailed = message.filter(m -> m instanceof CheckpointMessage )
@@ -180,12 +243,12 @@ class MultiLangProtocol {
             .map(checkpointSuccess -> !checkpointSuccess);
 
             if (checkpointFailed.orElse(false)) {
-                return false;
+                return Optional.empty();
             }
 
             statusMessage = message.filter(m -> m instanceof StatusMessage).map(m -> (StatusMessage) m );
         }
-        return this.validateStatusMessage(statusMessage.get(), action);
+        return statusMessage.filter(m -> this.validateStatusMessage(m, action));
     }
 
     private interface FutureMethod<T> {
@@ -66,6 +66,8 @@ public class MultiLangRecordProcessor implements IRecordProcessor, IShutdownNoti
 
     private KinesisClientLibConfiguration configuration;
 
+    private final MessageFraming messageFraming;
+
     @Override
     public void initialize(InitializationInput initializationInput) {
         try {
@@ -88,7 +90,8 @@ public class MultiLangRecordProcessor implements IRecordProcessor, IShutdownNoti
             // Submit the error reader for execution
             stderrReadTask = executorService.submit(readSTDERRTask);
 
-            protocol = new MultiLangProtocol(messageReader, messageWriter, initializationInput, configuration);
+            protocol = new MultiLangProtocol(messageReader, messageWriter, initializationInput, configuration,
+                    messageFraming);
             if (!protocol.initialize()) {
                 throw new RuntimeException("Failed to initialize child process");
             }
@@ -175,8 +178,25 @@ public class MultiLangRecordProcessor implements IRecordProcessor, IShutdownNoti
      */
     MultiLangRecordProcessor(ProcessBuilder processBuilder, ExecutorService executorService,
             ObjectMapper objectMapper, KinesisClientLibConfiguration configuration) {
+        this(processBuilder, executorService, objectMapper, configuration, MessageFraming.JSON);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param processBuilder
+     *            Provides process builder functionality.
+     * @param executorService
+     *            An executor
+     * @param objectMapper
+     *            An obejct mapper.
+     * @param messageFraming
+     *            The framing to offer to the child process.
+     */
+    MultiLangRecordProcessor(ProcessBuilder processBuilder, ExecutorService executorService,
+            ObjectMapper objectMapper, KinesisClientLibConfiguration configuration, MessageFraming messageFraming) {
         this(processBuilder, executorService, objectMapper, new MessageWriter(), new MessageReader(),
-                new DrainChildSTDERRTask(), configuration);
+                new DrainChildSTDERRTask(), configuration, messageFraming);
     }
 
     /**
@@ -198,6 +218,14 @@ public class MultiLangRecordProcessor implements IRecordProcessor, IShutdownNoti
     MultiLangRecordProcessor(ProcessBuilder processBuilder, ExecutorService executorService, ObjectMapper objectMapper,
                              MessageWriter messageWriter, MessageReader messageReader, DrainChildSTDERRTask readSTDERRTask,
                              KinesisClientLibConfiguration configuration) {
+        this(processBuilder, executorService, objectMapper, messageWriter, messageReader, readSTDERRTask,
+                configuration, MessageFraming.JSON);
+    }
+
+    private MultiLangRecordProcessor(ProcessBuilder processBuilder, ExecutorService executorService,
+            ObjectMapper objectMapper, MessageWriter messageWriter, MessageReader messageReader,
+            DrainChildSTDERRTask readSTDERRTask, KinesisClientLibConfiguration configuration,
+            MessageFraming messageFraming) {
         this.executorService = executorService;
         this.processBuilder = processBuilder;
         this.objectMapper = objectMapper;
@@ -205,6 +233,7 @@ public class MultiLangRecordProcessor implements IRecordProcessor, IShutdownNoti
         this.messageReader = messageReader;
         this.readSTDERRTask = readSTDERRTask;
         this.configuration = configuration;
+        this.messageFraming = messageFraming;
 
 
         this.state = ProcessState.ACTIVE;
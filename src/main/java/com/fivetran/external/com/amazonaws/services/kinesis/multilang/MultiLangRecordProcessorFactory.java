@@ -42,6 +42,8 @@ public class MultiLangRecordProcessorFactory implements IRecordProcessorFactory
 
     private final KinesisClientLibConfiguration configuration;
 
+    private final MessageFraming messageFraming;
+
     /**
      * @param command The command that will do processing for this factory's record processors.
      * @param executorService An executor service to use while processing inputs and outputs of the child process.
@@ -58,11 +60,25 @@ public class MultiLangRecordProcessorFactory implements IRecordProcessorFactory
      */
     public MultiLangRecordProcessorFactory(String command, ExecutorService executorService, ObjectMapper objectMapper,
                                            KinesisClientLibConfiguration configuration) {
+        this(command, executorService, objectMapper, configuration, MessageFraming.JSON);
+    }
+
+    /**
+     * @param command The command that will do processing for this factory's record processors.
+     * @param executorService An executor service to use while processing inputs and outputs of the child process.
+     * @param objectMapper An object mapper used to convert messages to json to be written to the child process
+     * @param messageFraming The framing offered to the child processes, which fall back to json framing if they don't
+     *            accept it.
+     */
+    public MultiLangRecordProcessorFactory(String command, ExecutorService executorService, ObjectMapper objectMapper,
+                                           KinesisClientLibConfiguration configuration,
+                                           MessageFraming messageFraming) {
         this.command = command;
         this.commandArray = command.split(COMMAND_DELIMETER_REGEX);
         this.executorService = executorService;
         this.objectMapper = objectMapper;
         this.configuration = configuration;
+        this.messageFraming = messageFraming;
     }
 
     @Override
@@ -72,7 +88,7 @@ public class MultiLangRecordProcessorFactory implements IRecordProcessorFactory
          * Giving ProcessBuilder the command as an array of Strings allows users to specify command line arguments.
          */
         return new MultiLangRecordProcessor(new ProcessBuilder(commandArray), executorService, this.objectMapper,
-                this.configuration);
+                this.configuration, this.messageFraming);
     }
 
     String[] getCommandArray() {
@@ -14,6 +14,7 @@
  */
 package com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
 
 /**
@@ -31,6 +32,12 @@ public class InitializeMessage extends Message {
     private String shardId;
     private String sequenceNumber;
     private Long subSequenceNumber;
+    /**
+     * The framing offered for the messages sent after this one, only present when a framing other than JSON lines is
+     * offered.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String framing;
 
     /**
      * Default constructor.
@@ -78,4 +85,21 @@ public class InitializeMessage extends Message {
     public void setSubSequenceNumber(Long subSequenceNumber) {
         this.subSequenceNumber = subSequenceNumber;
     }
+
+    public String getFraming() {
+        return framing;
+    }
+
+    public void setFraming(String framing) {
+        this.framing = framing;
+    }
+
+    /**
+     * @param framing The framing offered to the child process.
+     * @return this
+     */
+    public InitializeMessage withFraming(String framing) {
+        this.framing = framing;
+        return this;
+    }
 }
@@ -14,6 +14,7 @@
  */
 package com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages;
 
+import java.nio.ByteBuffer;
 import java.util.Date;
 
 import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
@@ -45,7 +46,7 @@ public class JsonFriendlyRecord {
      * @param record The record that this message will represent.
      */
     public JsonFriendlyRecord(Record record) {
-        this.data = record.getData() == null ? null : record.getData().array();
+        this.data = record.getData() == null ? null : toByteArray(record.getData());
         this.partitionKey = record.getPartitionKey();
         this.sequenceNumber = record.getSequenceNumber();
         this.approximateArrivalTimestamp = record.getApproximateArrivalTimestamp();
@@ -56,6 +57,20 @@ public class JsonFriendlyRecord {
         }
     }
 
+    /**
+     * Deaggregated user records share the data of their aggregated record through a read-only slice, so only the
+     * remaining bytes of the buffer belong to the record.
+     */
+    private static byte[] toByteArray(ByteBuffer data) {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+                && data.remaining() == data.array().length) {
+            return data.array();
+        }
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
     @JsonProperty
     public String getAction() {
         return ACTION;
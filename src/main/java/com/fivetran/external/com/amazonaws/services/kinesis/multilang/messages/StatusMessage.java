@@ -14,6 +14,8 @@
  */
 package com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 /**
  * A message sent by the client's process to indicate to the record processor that it completed a particular action.
  */
@@ -28,6 +30,13 @@ public class StatusMessage extends Message {
      */
     private String responseFor;
 
+    /**
+     * The framing accepted by the child process, only present in the response to an initialize message that offered
+     * a framing.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String framing;
+
     /**
      * Default constructor.
      */
@@ -58,4 +67,20 @@ public class StatusMessage extends Message {
     public void setResponseFor(String responseFor) {
         this.responseFor = responseFor;
     }
+
+    /**
+     * 
+     * @return The framing accepted by the child process.
+     */
+    public String getFraming() {
+        return framing;
+    }
+
+    /**
+     * 
+     * @param framing The framing accepted by the child process.
+     */
+    public void setFraming(String framing) {
+        this.framing = framing;
+    }
 }
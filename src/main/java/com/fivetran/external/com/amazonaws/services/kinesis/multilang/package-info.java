@@ -109,6 +109,37 @@
  * <li>Decide whether to checkpoint again based on whether there is an error or not.</li>
  * </ol>
  *
+ * <h3>Binary Framing</h3>
+ *
+ * When the messageFraming property of the multi-lang daemon is set to binary, the initialize message offers a binary
+ * framing of STDIN to the child process, which is more efficient for large records:
+ *
+ * <pre>
+ * { "action"  : "initialize",
+ *   "shardId" : "string",
+ *   "framing" : "binary"
+ * }
+ * </pre>
+ *
+ * The initialize message itself is always a JSON line. A child process that doesn't know about the binary framing
+ * ignores the field and keeps receiving JSON lines. A child process accepts the binary framing by answering with
+ * <code>{ "action" : "status", "responseFor" : "initialize", "framing" : "binary" }</code>, after which every message
+ * sent to its STDIN is made of one or more frames. The messages it writes on its STDOUT stay JSON lines.
+ *
+ * Every frame starts with a big endian int32 holding the number of bytes that follow it, then a one byte frame type:
+ *
+ * <ul>
+ * <li>'J': the rest of the frame is the UTF-8 JSON of a checkpoint, shutdown or shutdownRequested message.</li>
+ * <li>'P': a processRecords message. int64 millisBehindLatest and int32 number of records, followed by that many 'R'
+ * frames.</li>
+ * <li>'R': a record. uint16 length and UTF-8 bytes of the partition key, uint16 length and UTF-8 bytes of the sequence
+ * number, int64 sub sequence number, int64 approximate arrival timestamp in epoch millis, then the raw record data up
+ * to the end of the frame.</li>
+ * </ul>
+ *
+ * Missing numbers are sent as -1. The record data is sent as is, without base 64 encoding, and all the frames of a
+ * message are flushed to the child process at once.
+ *
  * <h3>Base 64 Encoding</h3>
  *
  * The "data" field of the processRecords action message is an array of arbitrary bytes. To send this in a JSON string
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptivePollingControllerTest {
+    private static final String SHARD_ID = "shardId-000000000000";
+    private static final int MAX_RECORDS_LIMIT = 10000;
+    private static final long IDLE_MILLIS_BETWEEN_CALLS = 500L;
+    private static final long MAX_IDLE_MILLIS_BETWEEN_CALLS = 3000L;
+    private static final long RECORD_BYTES = 1024L;
+
+    private long nanoTime;
+    private ShardThroughputBudget budget;
+    private AdaptivePollingController controller;
+
+    @Before
+    public void setup() {
+        nanoTime = 0L;
+        budget = new ShardThroughputBudget(1.0, () -> nanoTime);
+        controller = new AdaptivePollingController(SHARD_ID, budget, MAX_RECORDS_LIMIT, IDLE_MILLIS_BETWEEN_CALLS,
+                MAX_IDLE_MILLIS_BETWEEN_CALLS, () -> nanoTime);
+        controller.start();
+    }
+
+    @Test
+    public void testHotShardIsCalledAtShardLimit() {
+        assertEquals(MAX_RECORDS_LIMIT, controller.getMaxRecords());
+        assertEquals(0L, controller.millisUntilNextCall());
+        controller.onResult(100, 100 * RECORD_BYTES, 60000L);
+
+        // Calls sized to read the bytes allowed per second in 5 calls.
+        int recordsPerCall = (int) (budget.getBytesPerCall() / RECORD_BYTES);
+        assertEquals(recordsPerCall, controller.getMaxRecords());
+        assertEquals(200L, controller.millisUntilNextCall());
+
+        for (int i = 0; i < 5; i++) {
+            advanceMillis(200L);
+            assertEquals(0L, controller.millisUntilNextCall());
+            controller.onResult(recordsPerCall, recordsPerCall * RECORD_BYTES, 60000L);
+        }
+        assertEquals(200L, controller.millisUntilNextCall());
+    }
+
+    @Test
+    public void testShardFillingItsCallsIsHot() {
+        assertEquals(0L, controller.millisUntilNextCall());
+        controller.onResult(MAX_RECORDS_LIMIT, MAX_RECORDS_LIMIT * 10L, 0L);
+
+        advanceMillis(200L);
+        assertEquals(0L, controller.millisUntilNextCall());
+    }
+
+    @Test
+    public void testIdleShardBacksOff() {
+        long[] expectedDelays = { 500L, 1000L, 2000L, 3000L, 3000L };
+        assertEquals(0L, controller.millisUntilNextCall());
+        for (long expectedDelay : expectedDelays) {
+            controller.onResult(0, 0L, 0L);
+            assertEquals(expectedDelay, controller.millisUntilNextCall());
+            advanceMillis(expectedDelay);
+            assertEquals(0L, controller.millisUntilNextCall());
+        }
+
+        // Records arriving get the shard back to the idle time between calls.
+        controller.onResult(10, 10 * RECORD_BYTES, 0L);
+        assertEquals(IDLE_MILLIS_BETWEEN_CALLS, controller.millisUntilNextCall());
+    }
+
+    @Test
+    public void testThrottledShardBacksOff() {
+        assertEquals(0L, controller.millisUntilNextCall());
+        controller.onResult(100, 100 * RECORD_BYTES, 60000L);
+        int maxRecords = controller.getMaxRecords();
+
+        advanceMillis(200L);
+        assertEquals(0L, controller.millisUntilNextCall());
+        controller.onThrottled();
+        assertEquals(maxRecords / 2, controller.getMaxRecords());
+        assertEquals(IDLE_MILLIS_BETWEEN_CALLS, controller.millisUntilNextCall());
+
+        advanceMillis(IDLE_MILLIS_BETWEEN_CALLS);
+        assertEquals(0L, controller.millisUntilNextCall());
+        controller.onThrottled();
+        assertEquals(2 * IDLE_MILLIS_BETWEEN_CALLS, controller.millisUntilNextCall());
+        assertEquals(maxRecords / 4, controller.getMaxRecords());
+    }
+
+    @Test
+    public void testRetriesTakeCallsFromBudget() {
+        assertEquals(0L, controller.millisUntilNextCall());
+        controller.onResult(100, 100 * RECORD_BYTES, 60000L);
+        advanceMillis(200L);
+        assertTrue(controller.tryAcquireRetryCall());
+        assertEquals(200L, controller.millisUntilNextCall());
+    }
+
+    private void advanceMillis(long millis) {
+        nanoTime += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
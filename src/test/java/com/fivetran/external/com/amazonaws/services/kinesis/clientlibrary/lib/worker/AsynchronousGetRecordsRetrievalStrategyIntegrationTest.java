@@ -39,6 +39,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import com.amazonaws.services.kinesis.model.ExpiredIteratorException;
+import com.amazonaws.services.kinesis.model.ProvisionedThroughputExceededException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -155,6 +156,19 @@ public class AsynchronousGetRecordsRetrievalStrategyIntegrationTest {
         }
     }
 
+    @Test (expected = ProvisionedThroughputExceededException.class)
+    public void testProvisionedThroughputExceededException() {
+        when(dataFetcher.getRecords(eq(numberOfRecords)))
+                .thenThrow(new ProvisionedThroughputExceededException("Rate exceeded"));
+
+        try {
+            getRecordsRetrivalStrategy.getRecords(numberOfRecords);
+        } finally {
+            // Thrown back to the caller without retrying.
+            verify(dataFetcher).getRecords(eq(numberOfRecords));
+        }
+    }
+
     private int getLeastNumberOfCalls() {
         int leastNumberOfCalls = 0;
         for (int i = MAX_POOL_SIZE; i > 0; i--) {
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.exceptions.ThrottlingException;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.interfaces.ICheckpoint;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ExtendedSequenceNumber;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLease;
+import com.fivetran.external.com.amazonaws.services.kinesis.leases.impl.KinesisClientLeaseManager;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
+
+public class CoalescingCheckpointWriterTest {
+
+    private static final String TABLE_NAME = CoalescingCheckpointWriterTest.class.getSimpleName();
+    private static final String WORKER_ID = UUID.randomUUID().toString();
+    private static final String SHARD_ID = "shardId-000000000000";
+    private static final long LONG_FLUSH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final AmazonDynamoDB ddbClient = DynamoDBEmbedded.create().amazonDynamoDB();
+    private final KinesisClientLeaseManager leaseManager = new KinesisClientLeaseManager(TABLE_NAME, ddbClient, true);
+
+    private KinesisClientLibLeaseCoordinator leaseCoordinator;
+    private CoalescingCheckpointWriter writer;
+    private String concurrencyToken;
+
+    @Before
+    public void setUp() throws Exception {
+        leaseManager.createLeaseTableIfNotExists(10L, 10L);
+        leaseManager.deleteAll();
+
+        KinesisClientLease lease = new KinesisClientLease();
+        lease.setLeaseKey(SHARD_ID);
+        lease.setCheckpoint(ExtendedSequenceNumber.TRIM_HORIZON);
+        lease.setOwnerSwitchesSinceCheckpoint(0L);
+        lease.setLeaseCounter(0L);
+        leaseManager.createLeaseIfNotExists(lease);
+
+        leaseCoordinator = new KinesisClientLibLeaseCoordinator(leaseManager, WORKER_ID, 10000L, 50L);
+        leaseCoordinator.runLeaseTaker();
+        leaseCoordinator.runLeaseRenewer();
+        KinesisClientLease heldLease = leaseCoordinator.getCurrentlyHeldLease(SHARD_ID);
+        assertThat(heldLease, notNullValue());
+        concurrencyToken = heldLease.getConcurrencyToken().toString();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (writer != null) {
+            writer.stop();
+        }
+        leaseManager.deleteAll();
+    }
+
+    @Test
+    public void testCheckpointsAreCoalescedUntilFlush() throws Exception {
+        writer = new CoalescingCheckpointWriter(leaseCoordinator, LONG_FLUSH_INTERVAL_MILLIS, 1000,
+                new NullMetricsFactory());
+        writer.start();
+
+        CompletableFuture<Void> first = writer.setCheckpointAsync(SHARD_ID, new ExtendedSequenceNumber("100"),
+                concurrencyToken);
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("200"), concurrencyToken);
+        CompletableFuture<Void> last = writer.setCheckpointAsync(SHARD_ID, new ExtendedSequenceNumber("300"),
+                concurrencyToken);
+
+        assertThat(storedCheckpoint(), equalTo(ExtendedSequenceNumber.TRIM_HORIZON));
+        assertThat(writer.getPendingCheckpointCount(), equalTo(1));
+
+        writer.flushAll();
+
+        assertThat(storedCheckpoint(), equalTo(new ExtendedSequenceNumber("300")));
+        assertThat(writer.getPendingCheckpointCount(), equalTo(0));
+        assertThat(last.isDone() && !last.isCompletedExceptionally(), equalTo(true));
+        assertThat(first.isDone() && !first.isCompletedExceptionally(), equalTo(true));
+    }
+
+    @Test
+    public void testFlushWhenCheckpointCountReached() throws Exception {
+        writer = new CoalescingCheckpointWriter(leaseCoordinator, LONG_FLUSH_INTERVAL_MILLIS, 2,
+                new NullMetricsFactory());
+        writer.start();
+
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("100"), concurrencyToken);
+        CompletableFuture<Void> future = writer.setCheckpointAsync(SHARD_ID, new ExtendedSequenceNumber("200"),
+                concurrencyToken);
+
+        future.get(10, TimeUnit.SECONDS);
+        assertThat(storedCheckpoint(), equalTo(new ExtendedSequenceNumber("200")));
+    }
+
+    @Test
+    public void testFlushAfterInterval() throws Exception {
+        writer = new CoalescingCheckpointWriter(leaseCoordinator, 50L, 1000, new NullMetricsFactory());
+        writer.start();
+
+        writer.setCheckpointAsync(SHARD_ID, new ExtendedSequenceNumber("100"), concurrencyToken)
+                .get(10, TimeUnit.SECONDS);
+        assertThat(storedCheckpoint(), equalTo(new ExtendedSequenceNumber("100")));
+    }
+
+    @Test
+    public void testShardEndIsWrittenSynchronously() throws Exception {
+        writer = new CoalescingCheckpointWriter(leaseCoordinator, LONG_FLUSH_INTERVAL_MILLIS, 1000,
+                new NullMetricsFactory());
+        writer.start();
+
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("100"), concurrencyToken);
+        writer.setCheckpoint(SHARD_ID, ExtendedSequenceNumber.SHARD_END, concurrencyToken);
+
+        assertThat(storedCheckpoint(), equalTo(ExtendedSequenceNumber.SHARD_END));
+    }
+
+    @Test
+    public void testCheckpointsAreWrittenSynchronouslyWhenNotStarted() throws Exception {
+        writer = new CoalescingCheckpointWriter(leaseCoordinator, LONG_FLUSH_INTERVAL_MILLIS, 1000,
+                new NullMetricsFactory());
+
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("100"), concurrencyToken);
+
+        assertThat(storedCheckpoint(), equalTo(new ExtendedSequenceNumber("100")));
+    }
+
+    @Test
+    public void testStopFlushesPendingCheckpoints() throws Exception {
+        writer = new CoalescingCheckpointWriter(leaseCoordinator, LONG_FLUSH_INTERVAL_MILLIS, 1000,
+                new NullMetricsFactory());
+        writer.start();
+
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("100"), concurrencyToken);
+        writer.stop();
+
+        assertThat(storedCheckpoint(), equalTo(new ExtendedSequenceNumber("100")));
+    }
+
+    @Test
+    public void testGetCheckpointFlushesShard() throws Exception {
+        writer = new CoalescingCheckpointWriter(leaseCoordinator, LONG_FLUSH_INTERVAL_MILLIS, 1000,
+                new NullMetricsFactory());
+        writer.start();
+
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("100"), concurrencyToken);
+
+        assertThat(writer.getCheckpoint(SHARD_ID), equalTo(new ExtendedSequenceNumber("100")));
+    }
+
+    @Test
+    public void testFailureIsReportedOnNextCheckpoint() throws Exception {
+        writer = new CoalescingCheckpointWriter(leaseCoordinator, LONG_FLUSH_INTERVAL_MILLIS, 1000,
+                new NullMetricsFactory());
+        writer.start();
+
+        CompletableFuture<Void> future = writer.setCheckpointAsync(SHARD_ID, new ExtendedSequenceNumber("100"),
+                UUID.randomUUID().toString());
+        writer.flushAll();
+
+        try {
+            future.get();
+            fail("Expected the checkpoint with a stale concurrency token to fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ShutdownException.class));
+        }
+        try {
+            writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("200"), concurrencyToken);
+            fail("Expected the earlier failure to be reported");
+        } catch (ShutdownException e) {
+            // Expected
+        }
+        assertThat(storedCheckpoint(), equalTo(ExtendedSequenceNumber.TRIM_HORIZON));
+
+        // The failure is only reported once
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("200"), concurrencyToken);
+        writer.flushAll();
+        assertThat(storedCheckpoint(), equalTo(new ExtendedSequenceNumber("200")));
+    }
+
+    @Test
+    public void testThrottledShardEndIsThrownToCaller() throws Exception {
+        ICheckpoint checkpoint = mock(ICheckpoint.class);
+        doThrow(new ThrottlingException("Throttled")).when(checkpoint)
+                .setCheckpoint(SHARD_ID, ExtendedSequenceNumber.SHARD_END, concurrencyToken);
+        writer = new CoalescingCheckpointWriter(checkpoint, LONG_FLUSH_INTERVAL_MILLIS, 1000,
+                new NullMetricsFactory());
+        writer.start();
+
+        try {
+            writer.setCheckpoint(SHARD_ID, ExtendedSequenceNumber.SHARD_END, concurrencyToken);
+            fail("Expected the throttled SHARD_END checkpoint to be thrown");
+        } catch (ThrottlingException e) {
+            // Expected
+        }
+        // The SHARD_END checkpoint isn't retried in the background.
+        assertThat(writer.getPendingCheckpointCount(), equalTo(0));
+    }
+
+    @Test
+    public void testThrottledCheckpointIsThrownOnShutdownFlush() throws Exception {
+        ICheckpoint checkpoint = mock(ICheckpoint.class);
+        doThrow(new ThrottlingException("Throttled")).when(checkpoint)
+                .setCheckpoint(eq(SHARD_ID), any(ExtendedSequenceNumber.class), anyString());
+        writer = new CoalescingCheckpointWriter(checkpoint, LONG_FLUSH_INTERVAL_MILLIS, 1000,
+                new NullMetricsFactory());
+        writer.start();
+
+        CompletableFuture<Void> future = writer.setCheckpointAsync(SHARD_ID, new ExtendedSequenceNumber("100"),
+                concurrencyToken);
+        try {
+            writer.flushOnShutdown(SHARD_ID);
+            fail("Expected the throttled checkpoint to be thrown");
+        } catch (ThrottlingException e) {
+            // Expected
+        }
+        assertThat(writer.getPendingCheckpointCount(), equalTo(0));
+        assertThat(future.isCompletedExceptionally(), equalTo(true));
+    }
+
+    @Test
+    public void testThrottledCheckpointSupersededByNewerCheckpoint() throws Exception {
+        ICheckpoint checkpoint = mock(ICheckpoint.class);
+        ExtendedSequenceNumber newerCheckpoint = new ExtendedSequenceNumber("200");
+        CompletableFuture<CompletableFuture<Void>> newerFuture = new CompletableFuture<>();
+        doAnswer(invocation -> {
+            // The record processor checkpoints again while the older checkpoint is being written.
+            newerFuture.complete(writer.setCheckpointAsync(SHARD_ID, newerCheckpoint, concurrencyToken));
+            throw new ThrottlingException("Throttled");
+        }).when(checkpoint).setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("100"), concurrencyToken);
+        writer = new CoalescingCheckpointWriter(checkpoint, LONG_FLUSH_INTERVAL_MILLIS, 1000,
+                new NullMetricsFactory());
+        writer.start();
+
+        CompletableFuture<Void> future = writer.setCheckpointAsync(SHARD_ID, new ExtendedSequenceNumber("100"),
+                concurrencyToken);
+        writer.flushAll();
+
+        // The throttled checkpoint completes with the newer one, and its failure isn't reported.
+        assertThat(future.isDone(), equalTo(false));
+        assertThat(writer.getPendingCheckpointCount(), equalTo(1));
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("300"), concurrencyToken);
+        writer.flushAll();
+
+        verify(checkpoint).setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("300"), concurrencyToken);
+        assertThat(future.isDone() && !future.isCompletedExceptionally(), equalTo(true));
+        assertThat(newerFuture.get().isDone() && !newerFuture.get().isCompletedExceptionally(), equalTo(true));
+    }
+
+    @Test
+    public void testFlushMetrics() throws Exception {
+        IMetricsFactory metricsFactory = mock(IMetricsFactory.class);
+        IMetricsScope scope = mock(IMetricsScope.class);
+        when(metricsFactory.createMetrics()).thenReturn(scope);
+        writer = new CoalescingCheckpointWriter(leaseCoordinator, LONG_FLUSH_INTERVAL_MILLIS, 1000, metricsFactory);
+        writer.start();
+
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("100"), concurrencyToken);
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("200"), concurrencyToken);
+        writer.setCheckpoint(SHARD_ID, new ExtendedSequenceNumber("300"), concurrencyToken);
+        writer.flushAll();
+
+        verify(scope).addDimension(MetricsHelper.OPERATION_DIMENSION_NAME,
+                CoalescingCheckpointWriter.CHECKPOINT_FLUSH_OPERATION);
+        verify(scope).addData(CoalescingCheckpointWriter.CHECKPOINTS_REQUESTED_METRIC, 3, StandardUnit.Count,
+                MetricsLevel.SUMMARY);
+        verify(scope).addData(CoalescingCheckpointWriter.CHECKPOINTS_WRITTEN_METRIC, 1, StandardUnit.Count,
+                MetricsLevel.SUMMARY);
+        verify(scope).addData(eq(MetricsHelper.TIME), anyDouble(), eq(StandardUnit.Milliseconds),
+                eq(MetricsLevel.SUMMARY));
+        verify(scope).end();
+    }
+
+    private ExtendedSequenceNumber storedCheckpoint() throws Exception {
+        return leaseManager.getLease(SHARD_ID).getCheckpoint();
+    }
+}
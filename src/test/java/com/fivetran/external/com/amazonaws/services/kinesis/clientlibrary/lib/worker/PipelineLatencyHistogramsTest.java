@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PipelineLatencyHistogramsTest {
+
+    private static PipelineTrace trace(int recordCount, long processRecordsMillis) {
+        PipelineTrace trace = new PipelineTrace("shard-0", recordCount);
+        trace.setDurationNanos(PipelineStage.PROCESS_RECORDS, TimeUnit.MILLISECONDS.toNanos(processRecordsMillis));
+        trace.setDurationNanos(PipelineStage.FILTER, TimeUnit.MICROSECONDS.toNanos(3));
+        return trace;
+    }
+
+    @Test
+    public void testRecordsMeasuredStagesInMicroseconds() {
+        PipelineLatencyHistograms histograms = new PipelineLatencyHistograms();
+        for (int i = 1; i <= 100; i++) {
+            histograms.batchProcessed(trace(10, i == 100 ? 1000 : 1));
+        }
+
+        assertEquals(100, histograms.getBatchCount());
+        assertEquals(1000, histograms.getRecordCount());
+        assertEquals(100, histograms.getCount(PipelineStage.PROCESS_RECORDS));
+        assertEquals(0, histograms.getCount(PipelineStage.GET_RECORDS));
+        assertEquals(0, histograms.getValueAtPercentile(PipelineStage.GET_RECORDS, 50));
+        assertEquals(3, histograms.getValueAtPercentile(PipelineStage.FILTER, 99));
+        // Values are within 1/8 of their magnitude.
+        assertEquals(1000, histograms.getValueAtPercentile(PipelineStage.PROCESS_RECORDS, 50), 1000 / 8);
+        assertEquals(1000000, histograms.getValueAtPercentile(PipelineStage.PROCESS_RECORDS, 100), 1000000 / 8);
+    }
+
+    @Test
+    public void testReset() {
+        PipelineLatencyHistograms histograms = new PipelineLatencyHistograms();
+        histograms.batchProcessed(trace(10, 1));
+        histograms.reset();
+
+        assertEquals(0, histograms.getBatchCount());
+        assertEquals(0, histograms.getRecordCount());
+        assertEquals(0, histograms.getCount(PipelineStage.PROCESS_RECORDS));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ExtendedSequenceNumber;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
+
+/**
+ * Runs prefetch caches against a {@link ThrottlingKinesisProxy} enforcing the read limits of the shards. Since the
+ * caches run on real threads, only lower bounds of the time between calls are checked: a slow machine spreads the calls
+ * more, never less.
+ */
+public class PrefetchGetRecordsCacheAdaptivePollingTest {
+    private static final int MAX_PENDING_PROCESS_RECORDS_INPUT = 3;
+    private static final int MAX_BYTE_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_RECORDS_COUNT = 100_000;
+    private static final int MAX_RECORDS_PER_CALL = 1000;
+    private static final int RECORD_BYTES = 1024;
+    private static final long IDLE_MILLIS_BETWEEN_CALLS = 100L;
+    private static final long MAX_IDLE_MILLIS_BETWEEN_CALLS = 800L;
+    private static final long CALL_INTERVAL_MILLIS = 1000L / ShardThroughputBudget.SHARD_CALLS_PER_SECOND;
+    private static final long TOLERANCE_MILLIS = 50L;
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final int RETRY_GET_RECORDS_IN_SECONDS = 10;
+    private static final String OPERATION = "ProcessTask";
+    private static final String SHARD_ID = "shardId-000000000000";
+
+    private final List<PrefetchGetRecordsCache> caches = new ArrayList<>();
+    private final List<Thread> consumers = new ArrayList<>();
+    private volatile boolean consuming = true;
+
+    @After
+    public void shutdown() throws InterruptedException {
+        consuming = false;
+        for (PrefetchGetRecordsCache cache : caches) {
+            cache.shutdown();
+        }
+        for (Thread consumer : consumers) {
+            consumer.interrupt();
+            consumer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Test
+    public void testHotShardReadByTwoApplicationsStaysWithinLimits() throws InterruptedException {
+        ThrottlingKinesisProxy proxy = new ThrottlingKinesisProxy(RECORD_BYTES, true);
+        ShardThroughputBudget budget = new ShardThroughputBudget(1.0);
+        startCache(proxy, adaptiveController(budget), 0L, false);
+        startCache(proxy, adaptiveController(budget), 0L, false);
+
+        int callCount = 15;
+        awaitUntil(() -> proxy.getCalls() >= callCount);
+        List<ThrottlingKinesisProxy.Call> calls = proxy.getCallLog().subList(0, callCount);
+
+        assertEquals(0, proxy.getThrottledCalls());
+        // Both applications together make at most 5 calls per second.
+        long spanMillis = TimeUnit.NANOSECONDS.toMillis(calls.get(callCount - 1).nanoTime - calls.get(0).nanoTime);
+        assertTrue("Made " + callCount + " calls in " + spanMillis + " ms",
+                spanMillis >= (callCount - 2) * CALL_INTERVAL_MILLIS);
+        // After their first call, both applications size their calls to read 2 MB per second in 5 calls.
+        int recordsPerCall = (int) (budget.getBytesPerCall() / RECORD_BYTES);
+        long unsizedCalls = calls.stream().filter(call -> call.maxRecords != recordsPerCall).count();
+        assertTrue(unsizedCalls + " calls not sized to the shard limits", unsizedCalls <= 2);
+    }
+
+    @Test
+    public void testFixedPollingOfHotShardIsThrottled() throws InterruptedException {
+        ThrottlingKinesisProxy proxy = new ThrottlingKinesisProxy(RECORD_BYTES, true);
+        startCache(proxy, null, 0L, false);
+        startCache(proxy, null, 0L, false);
+
+        awaitUntil(() -> proxy.getThrottledCalls() > 0);
+    }
+
+    @Test
+    public void testIdleShardIsCalledLessOften() throws InterruptedException {
+        ThrottlingKinesisProxy proxy = new ThrottlingKinesisProxy(RECORD_BYTES, false);
+        startCache(proxy, adaptiveController(new ShardThroughputBudget(1.0)), IDLE_MILLIS_BETWEEN_CALLS, false);
+
+        awaitUntil(() -> proxy.getCalls() >= 6);
+
+        assertEquals(0, proxy.getThrottledCalls());
+        assertCallIntervals(proxy.getCallLog(), 100L, 200L, 400L, 800L, 800L);
+    }
+
+    @Test
+    public void testThrottledCallsBackOffWithAsynchronousStrategy() throws InterruptedException {
+        ThrottlingKinesisProxy proxy = new ThrottlingKinesisProxy(RECORD_BYTES, true);
+        proxy.throttleNextCalls(3);
+        AtomicInteger throttles = new AtomicInteger();
+        AdaptivePollingController controller = new AdaptivePollingController(SHARD_ID,
+                new ShardThroughputBudget(1.0), MAX_RECORDS_PER_CALL, IDLE_MILLIS_BETWEEN_CALLS,
+                MAX_IDLE_MILLIS_BETWEEN_CALLS) {
+            @Override
+            void onThrottled() {
+                throttles.incrementAndGet();
+                super.onThrottled();
+            }
+        };
+        startCache(proxy, controller, IDLE_MILLIS_BETWEEN_CALLS, true);
+
+        awaitUntil(() -> proxy.getCalls() >= 5);
+        List<ThrottlingKinesisProxy.Call> calls = proxy.getCallLog();
+
+        assertEquals(3, throttles.get());
+        assertFalse(calls.get(3).throttled);
+        // Throttled calls back off exponentially, from the time between calls allowed by the shard limits.
+        assertCallIntervals(calls, CALL_INTERVAL_MILLIS, 2 * CALL_INTERVAL_MILLIS, 4 * CALL_INTERVAL_MILLIS);
+    }
+
+    private AdaptivePollingController adaptiveController(ShardThroughputBudget budget) {
+        return new AdaptivePollingController(SHARD_ID, budget, MAX_RECORDS_PER_CALL, IDLE_MILLIS_BETWEEN_CALLS,
+                MAX_IDLE_MILLIS_BETWEEN_CALLS);
+    }
+
+    private void startCache(ThrottlingKinesisProxy proxy, AdaptivePollingController pollingController,
+            long idleMillisBetweenCalls, boolean asynchronous) {
+        KinesisDataFetcher dataFetcher = new KinesisDataFetcher(proxy, new ShardInfo(SHARD_ID, null, null, null));
+        dataFetcher.initialize(ExtendedSequenceNumber.TRIM_HORIZON,
+                InitialPositionInStreamExtended.newInitialPosition(InitialPositionInStream.TRIM_HORIZON));
+        GetRecordsRetrievalStrategy strategy = asynchronous
+                ? new AsynchronousGetRecordsRetrievalStrategy(dataFetcher, RETRY_GET_RECORDS_IN_SECONDS, 2, SHARD_ID)
+                : new SynchronousGetRecordsRetrievalStrategy(dataFetcher);
+        PrefetchGetRecordsCache cache = new PrefetchGetRecordsCache(MAX_PENDING_PROCESS_RECORDS_INPUT, MAX_BYTE_SIZE,
+                MAX_RECORDS_COUNT, MAX_RECORDS_PER_CALL, strategy, Executors.newFixedThreadPool(1),
+                PrefetchMemoryBudget.unbounded(), pollingController, idleMillisBetweenCalls, new NullMetricsFactory(),
+                OPERATION, SHARD_ID);
+        caches.add(cache);
+        cache.start();
+
+        Thread consumer = new Thread(() -> {
+            while (consuming) {
+                try {
+                    cache.getNextResult();
+                } catch (IllegalStateException e) {
+                    return;
+                }
+            }
+        });
+        consumer.setDaemon(true);
+        consumers.add(consumer);
+        consumer.start();
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out after " + TIMEOUT_MILLIS + " ms");
+            }
+            Thread.sleep(10L);
+        }
+    }
+
+    private static void assertCallIntervals(List<ThrottlingKinesisProxy.Call> calls, long... minIntervalsMillis) {
+        for (int i = 0; i < minIntervalsMillis.length; i++) {
+            long intervalMillis = TimeUnit.NANOSECONDS.toMillis(calls.get(i + 1).nanoTime - calls.get(i).nanoTime);
+            assertTrue("Call " + (i + 1) + " made " + intervalMillis + " ms after the previous one",
+                    intervalMillis >= minIntervalsMillis[i] - TOLERANCE_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.Record;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
+
+/**
+ * Tests for PrefetchGetRecordsCache instances sharing a memory budget, and optionally a pool of fetcher threads.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class PrefetchGetRecordsCacheMemoryBudgetTest {
+    private static final int RECORD_SIZE = 1024;
+    private static final int MAX_RECORDS_PER_CALL = 10;
+    private static final int BATCH_SIZE = RECORD_SIZE * MAX_RECORDS_PER_CALL;
+    private static final int MAX_PENDING_PROCESS_RECORDS_INPUT = 100;
+    private static final int MAX_BYTE_SIZE = 100 * BATCH_SIZE;
+    private static final int MAX_RECORDS_COUNT = 100000;
+    private static final long MAX_WORKER_BYTE_SIZE = 4 * BATCH_SIZE;
+    private static final long IDLE_MILLIS_BETWEEN_CALLS = 0L;
+    private static final String OPERATION = "ProcessTask";
+
+    @Mock
+    private GetRecordsRetrievalStrategy strategy1;
+    @Mock
+    private GetRecordsRetrievalStrategy strategy2;
+    @Mock
+    private KinesisDataFetcher dataFetcher;
+    @Mock
+    private IMetricsFactory metricsFactory;
+    @Mock
+    private IMetricsScope metricsScope;
+
+    private ScheduledExecutorService fetcherPool;
+    private PrefetchMemoryBudget memoryBudget;
+    private PrefetchGetRecordsCache cache1;
+    private PrefetchGetRecordsCache cache2;
+
+    @Before
+    public void setup() {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < MAX_RECORDS_PER_CALL; i++) {
+            records.add(new Record().withData(ByteBuffer.allocate(RECORD_SIZE)));
+        }
+        GetRecordsResult getRecordsResult = new GetRecordsResult().withRecords(records).withMillisBehindLatest(0L);
+        for (GetRecordsRetrievalStrategy strategy : new GetRecordsRetrievalStrategy[] { strategy1, strategy2 }) {
+            when(strategy.getDataFetcher()).thenReturn(dataFetcher);
+            when(strategy.getRecords(MAX_RECORDS_PER_CALL)).thenReturn(getRecordsResult);
+        }
+        when(metricsFactory.createMetrics()).thenReturn(metricsScope);
+
+        fetcherPool = Executors.newScheduledThreadPool(1);
+        memoryBudget = new PrefetchMemoryBudget(MAX_WORKER_BYTE_SIZE);
+    }
+
+    @After
+    public void shutdown() {
+        if (cache1 != null) {
+            cache1.shutdown();
+        }
+        if (cache2 != null) {
+            cache2.shutdown();
+        }
+        fetcherPool.shutdownNow();
+    }
+
+    @Test
+    public void testSharedPoolCachesShareBudgetFairly() {
+        startSharedPoolCaches(new NullMetricsFactory());
+
+        sleep(1000);
+
+        verify(strategy1, times(2)).getRecords(MAX_RECORDS_PER_CALL);
+        verify(strategy2, times(2)).getRecords(MAX_RECORDS_PER_CALL);
+        assertEquals(MAX_WORKER_BYTE_SIZE, memoryBudget.getBufferedBytes());
+    }
+
+    @Test
+    public void testConsumerResumesPausedCache() {
+        startSharedPoolCaches(new NullMetricsFactory());
+        sleep(1000);
+
+        cache1.getNextResult();
+        sleep(1000);
+
+        verify(strategy1, times(3)).getRecords(MAX_RECORDS_PER_CALL);
+        verify(strategy2, times(2)).getRecords(MAX_RECORDS_PER_CALL);
+        assertEquals(MAX_WORKER_BYTE_SIZE, memoryBudget.getBufferedBytes());
+    }
+
+    @Test
+    public void testPausedCachesDoNotHoldFetcherThreads() throws Exception {
+        startSharedPoolCaches(new NullMetricsFactory());
+        sleep(1000);
+
+        assertTrue(fetcherPool.submit(() -> true).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdownReleasesBudgetToOtherCaches() {
+        startSharedPoolCaches(new NullMetricsFactory());
+        sleep(1000);
+
+        cache1.shutdown();
+        sleep(1000);
+
+        assertFalse(fetcherPool.isShutdown());
+        verify(strategy1).shutdown();
+        verify(strategy2, times(4)).getRecords(MAX_RECORDS_PER_CALL);
+        assertEquals(MAX_WORKER_BYTE_SIZE, memoryBudget.getBufferedBytes());
+    }
+
+    @Test
+    public void testDedicatedThreadCachesShareBudget() {
+        cache1 = new PrefetchGetRecordsCache(MAX_PENDING_PROCESS_RECORDS_INPUT, MAX_BYTE_SIZE, MAX_RECORDS_COUNT,
+                MAX_RECORDS_PER_CALL, strategy1, Executors.newFixedThreadPool(1), memoryBudget,
+                null, IDLE_MILLIS_BETWEEN_CALLS, new NullMetricsFactory(), OPERATION, "shardId-1");
+        cache2 = new PrefetchGetRecordsCache(MAX_PENDING_PROCESS_RECORDS_INPUT, MAX_BYTE_SIZE, MAX_RECORDS_COUNT,
+                MAX_RECORDS_PER_CALL, strategy2, Executors.newFixedThreadPool(1), memoryBudget,
+                null, IDLE_MILLIS_BETWEEN_CALLS, new NullMetricsFactory(), OPERATION, "shardId-2");
+        cache1.start();
+        cache2.start();
+        sleep(1000);
+
+        assertEquals(MAX_WORKER_BYTE_SIZE, memoryBudget.getBufferedBytes());
+
+        //
+        // Depending on which cache started first, either cache refills the budget
+        //
+        cache1.getNextResult();
+        sleep(1000);
+
+        assertEquals(MAX_WORKER_BYTE_SIZE, memoryBudget.getBufferedBytes());
+    }
+
+    @Test
+    public void testDedicatedThreadCacheWokenUpByReleaseDuringBudgetCheck() {
+        //
+        // Another cache holds the whole budget, and releases it while the cache is checking whether it can fetch.
+        //
+        AtomicInteger refusedChecks = new AtomicInteger();
+        memoryBudget = new PrefetchMemoryBudget(MAX_WORKER_BYTE_SIZE) {
+            @Override
+            boolean canFetch(long shardByteSize) {
+                boolean canFetch = super.canFetch(shardByteSize);
+                if (!canFetch && refusedChecks.incrementAndGet() == 2) {
+                    Thread otherCache = new Thread(() -> release(MAX_WORKER_BYTE_SIZE));
+                    otherCache.start();
+                    try {
+                        otherCache.join(500L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return canFetch;
+            }
+        };
+        memoryBudget.register();
+        memoryBudget.reserve(MAX_WORKER_BYTE_SIZE);
+
+        cache1 = new PrefetchGetRecordsCache(MAX_PENDING_PROCESS_RECORDS_INPUT, MAX_BYTE_SIZE, MAX_RECORDS_COUNT,
+                MAX_RECORDS_PER_CALL, strategy1, Executors.newFixedThreadPool(1), memoryBudget,
+                null, IDLE_MILLIS_BETWEEN_CALLS, new NullMetricsFactory(), OPERATION, "shardId-1");
+        cache1.start();
+
+        verify(strategy1, timeout(5000L).atLeastOnce()).getRecords(MAX_RECORDS_PER_CALL);
+        assertTrue(refusedChecks.get() >= 2);
+    }
+
+    @Test
+    public void testBufferedBytesMetrics() {
+        startSharedPoolCaches(metricsFactory);
+        sleep(1000);
+
+        verify(metricsScope, atLeastOnce()).addDimension(MetricsHelper.SHARD_ID_DIMENSION_NAME, "shardId-1");
+        verify(metricsScope, atLeastOnce()).addData(eq(PrefetchGetRecordsCache.BUFFERED_BYTES_METRIC), anyDouble(),
+                eq(StandardUnit.Bytes), eq(MetricsLevel.SUMMARY));
+        verify(metricsScope, atLeastOnce()).addData(eq(PrefetchGetRecordsCache.GLOBAL_BUFFERED_BYTES_METRIC),
+                anyDouble(), eq(StandardUnit.Bytes), eq(MetricsLevel.SUMMARY));
+    }
+
+    private void startSharedPoolCaches(IMetricsFactory metricsFactory) {
+        cache1 = new PrefetchGetRecordsCache(MAX_PENDING_PROCESS_RECORDS_INPUT, MAX_BYTE_SIZE, MAX_RECORDS_COUNT,
+                MAX_RECORDS_PER_CALL, strategy1, fetcherPool, memoryBudget, null, IDLE_MILLIS_BETWEEN_CALLS,
+                metricsFactory, OPERATION, "shardId-1");
+        cache2 = new PrefetchGetRecordsCache(MAX_PENDING_PROCESS_RECORDS_INPUT, MAX_BYTE_SIZE, MAX_RECORDS_COUNT,
+                MAX_RECORDS_PER_CALL, strategy2, fetcherPool, memoryBudget, null, IDLE_MILLIS_BETWEEN_CALLS,
+                metricsFactory, OPERATION, "shardId-2");
+        cache1.start();
+        cache2.start();
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {}
+    }
+}
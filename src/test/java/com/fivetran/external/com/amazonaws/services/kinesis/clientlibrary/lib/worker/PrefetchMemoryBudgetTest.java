@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefetchMemoryBudgetTest {
+    private static final long MAX_BYTE_SIZE = 100L;
+
+    private PrefetchMemoryBudget budget;
+
+    @Before
+    public void setup() {
+        budget = new PrefetchMemoryBudget(MAX_BYTE_SIZE);
+        budget.register();
+        budget.register();
+    }
+
+    @Test
+    public void testCacheBelowFairShareCanFetchUntilBudgetIsExhausted() {
+        budget.reserve(60L);
+        budget.reserve(10L);
+        assertTrue(budget.canFetch(10L));
+
+        budget.reserve(30L);
+        assertFalse(budget.canFetch(40L));
+    }
+
+    @Test
+    public void testCacheAboveFairShareLeavesHeadroomForOthers() {
+        budget.reserve(40L);
+        assertTrue(budget.canFetch(40L));
+
+        budget.reserve(20L);
+        assertFalse(budget.canFetch(60L));
+        assertTrue(budget.canFetch(0L));
+    }
+
+    @Test
+    public void testCacheHoldingNothingCanFetchUntilBudgetIsExhausted() {
+        budget.register();
+        budget.reserve(90L);
+        assertTrue(budget.canFetch(0L));
+        assertFalse(budget.canFetch(40L));
+
+        budget.reserve(10L);
+        assertFalse(budget.canFetch(0L));
+    }
+
+    @Test
+    public void testDeregisterGrowsFairShare() {
+        budget.reserve(70L);
+        assertFalse(budget.canFetch(70L));
+
+        budget.deregister();
+        assertTrue(budget.canFetch(70L));
+    }
+
+    @Test
+    public void testReleaseWakesWaitersOnce() {
+        Runnable waiter = mock(Runnable.class);
+        budget.reserve(MAX_BYTE_SIZE);
+        budget.awaitRelease(waiter);
+
+        budget.release(10L);
+        budget.release(10L);
+
+        verify(waiter, times(1)).run();
+        assertEquals(MAX_BYTE_SIZE - 20L, budget.getBufferedBytes());
+    }
+
+    @Test
+    public void testReleasingNoBytesWakesWaiters() {
+        Runnable waiter = mock(Runnable.class);
+        budget.awaitRelease(waiter);
+
+        budget.release(0L);
+
+        verify(waiter).run();
+        assertEquals(0L, budget.getBufferedBytes());
+    }
+
+    @Test
+    public void testDeregisterWakesWaiters() {
+        Runnable waiter = mock(Runnable.class);
+        budget.awaitRelease(waiter);
+
+        budget.deregister();
+
+        verify(waiter).run();
+    }
+
+    @Test
+    public void testCancelledWaiterIsNotWoken() {
+        Runnable waiter = mock(Runnable.class);
+        budget.reserve(MAX_BYTE_SIZE);
+        budget.awaitRelease(waiter);
+        budget.cancel(waiter);
+
+        budget.release(MAX_BYTE_SIZE);
+
+        verify(waiter, never()).run();
+    }
+}
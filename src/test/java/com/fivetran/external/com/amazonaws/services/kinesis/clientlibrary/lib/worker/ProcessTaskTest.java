@@ -22,6 +22,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -198,6 +199,7 @@ public class ProcessTaskTest {
             assertTrue(pr instanceof UserRecord);
             assertEquals(pk, pr.getPartitionKey());
             assertEquals(ts, pr.getApproximateArrivalTimestamp());
+            assertTrue(pr.getData().hasArray());
             byte[] b = new byte[pr.getData().remaining()];
             pr.getData().get(b);
             assertTrue(Arrays.equals(TEST_DATA, b));
@@ -226,6 +228,38 @@ public class ProcessTaskTest {
         }
     }
 
+    @Test
+    public void testDeaggregatesRecordLazily() {
+        final StreamConfig config =
+                new StreamConfig(null, maxRecords, idleTimeMillis, callProcessRecordsForEmptyRecordList,
+                        skipCheckpointValidationValue, INITIAL_POSITION_LATEST, true);
+        processTask = new ProcessTask(new ShardInfo(shardId, null, null, null), config, mockRecordProcessor,
+                mockCheckpointer, mockDataFetcher, taskBackoffTimeMillis,
+                KinesisClientLibConfiguration.DEFAULT_SKIP_SHARD_SYNC_AT_STARTUP_IF_LEASES_EXIST, throttlingReporter,
+                getRecordsCache);
+        final String sqn = new BigInteger(128, new Random()).toString();
+        final String pk = UUID.randomUUID().toString();
+        final Record r = new Record()
+                .withPartitionKey("-")
+                .withData(generateAggregatedRecord(pk))
+                .withSequenceNumber(sqn);
+
+        testWithRecord(r);
+
+        assertEquals(3, processedRecords.size());
+        for (Record pr : processedRecords) {
+            assertTrue(pr instanceof UserRecord);
+            assertEquals(pk, pr.getPartitionKey());
+            assertTrue(pr.getData().isReadOnly());
+            byte[] b = new byte[pr.getData().remaining()];
+            pr.getData().get(b);
+            assertTrue(Arrays.equals(TEST_DATA, b));
+        }
+
+        assertEquals(sqn, newLargestPermittedCheckpointValue.getSequenceNumber());
+        assertEquals(processedRecords.size() - 1, newLargestPermittedCheckpointValue.getSubSequenceNumber());
+    }
+
     @Test
     public void testLargestPermittedCheckpointValue() {
         // Some sequence number value from previous processRecords call to mock.
@@ -301,6 +335,73 @@ public class ProcessTaskTest {
         assertEquals(expectedLargestPermittedEsqn, newLargestPermittedCheckpointValue);
     }
 
+    @Test
+    public void testPublishesPipelineTraceOfSampledBatches() {
+        final List<PipelineTrace> traces = new ArrayList<>();
+        processTask = new ProcessTask(new ShardInfo(shardId, null, null, null),
+                new StreamConfig(null, maxRecords, idleTimeMillis, callProcessRecordsForEmptyRecordList,
+                        skipCheckpointValidationValue, INITIAL_POSITION_LATEST),
+                mockRecordProcessor,
+                mockCheckpointer,
+                mockDataFetcher,
+                taskBackoffTimeMillis,
+                KinesisClientLibConfiguration.DEFAULT_SKIP_SHARD_SYNC_AT_STARTUP_IF_LEASES_EXIST,
+                getRecordsCache,
+                new PipelineTraceSampler(traces::add, 2));
+        final List<Record> records = generateConsecutiveRecords(
+                3, "-", ByteBuffer.wrap(TEST_DATA), new Date(), new BigInteger(128, new Random()));
+        final long getRecordsEndNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(1);
+        final long getRecordsStartNanos = getRecordsEndNanos - TimeUnit.MILLISECONDS.toNanos(2);
+        when(getRecordsCache.getNextResult()).thenReturn(new ProcessRecordsInput()
+                .withRecords(new ArrayList<>(records))
+                .withGetRecordsTimeNanos(getRecordsStartNanos, getRecordsEndNanos));
+        when(mockCheckpointer.getLastCheckpointValue()).thenReturn(ExtendedSequenceNumber.TRIM_HORIZON);
+        when(mockCheckpointer.takeCheckpointNanos()).thenReturn(42L, 7L);
+
+        for (int i = 0; i < 3; i++) {
+            processTask.call();
+        }
+
+        // The first and third batches are sampled.
+        assertEquals(2, traces.size());
+        final PipelineTrace trace = traces.get(0);
+        assertEquals(shardId, trace.getShardId());
+        assertEquals(records.size(), trace.getRecordCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2), trace.getDurationNanos(PipelineStage.GET_RECORDS));
+        assertTrue(trace.getDurationNanos(PipelineStage.PREFETCH_QUEUE) >= TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(7L, trace.getDurationNanos(PipelineStage.CHECKPOINT));
+        for (PipelineStage stage : PipelineStage.values()) {
+            assertTrue(trace.getDurationNanos(stage) >= 0);
+            assertTrue(trace.getDurationNanos(stage) <= trace.getDurationNanos(PipelineStage.END_TO_END));
+        }
+        ArgumentCaptor<ProcessRecordsInput> priCaptor = ArgumentCaptor.forClass(ProcessRecordsInput.class);
+        verify(mockRecordProcessor, times(3)).processRecords(priCaptor.capture());
+        assertEquals(Long.valueOf(getRecordsStartNanos), priCaptor.getValue().getGetRecordsStartNanos());
+    }
+
+    @Test
+    public void testDoesNotTraceEmptyBatches() {
+        final List<PipelineTrace> traces = new ArrayList<>();
+        processTask = new ProcessTask(new ShardInfo(shardId, null, null, null),
+                new StreamConfig(null, maxRecords, 0L, callProcessRecordsForEmptyRecordList,
+                        skipCheckpointValidationValue, INITIAL_POSITION_LATEST),
+                mockRecordProcessor,
+                mockCheckpointer,
+                mockDataFetcher,
+                taskBackoffTimeMillis,
+                KinesisClientLibConfiguration.DEFAULT_SKIP_SHARD_SYNC_AT_STARTUP_IF_LEASES_EXIST,
+                getRecordsCache,
+                new PipelineTraceSampler(traces::add, 1));
+        when(getRecordsCache.getNextResult()).thenReturn(new ProcessRecordsInput()
+                .withRecords(Collections.emptyList())
+                .withGetRecordsTimeNanos(System.nanoTime(), System.nanoTime()));
+
+        processTask.call();
+
+        verify(mockRecordProcessor).processRecords(any(ProcessRecordsInput.class));
+        assertTrue(traces.isEmpty());
+    }
+
     private void testWithRecord(Record record) {
         testWithRecords(Collections.singletonList(record),
                 ExtendedSequenceNumber.TRIM_HORIZON, ExtendedSequenceNumber.TRIM_HORIZON);
@@ -40,4 +40,14 @@ public class RecordsFetcherFactoryTest {
         assertThat(recordsCache, instanceOf(PrefetchGetRecordsCache.class));
     }
 
+    @Test
+    public void createSharedPoolPrefetchRecordsFetcherTest() {
+        recordsFetcherFactory.setDataFetchingStrategy(DataFetchingStrategy.PREFETCH_CACHED);
+        recordsFetcherFactory.setMaxWorkerByteSize(64 * 1024 * 1024);
+        recordsFetcherFactory.setFetcherThreadPoolSize(2);
+        GetRecordsCache recordsCache = recordsFetcherFactory.createRecordsFetcher(getRecordsRetrievalStrategy, shardId,
+                metricsFactory, 1);
+        assertThat(recordsCache, instanceOf(PrefetchGetRecordsCache.class));
+    }
+
 }
@@ -58,6 +58,7 @@ import org.hamcrest.TypeSafeMatcher;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -810,6 +811,86 @@ public class ShardConsumerTest {
                 AsynchronousGetRecordsRetrievalStrategy.class);
     }
     
+    @Test
+    public void testWakeupWhenTaskCompletes() throws Exception {
+        ShardInfo shardInfo = new ShardInfo("s-0-0", "testToken", null, ExtendedSequenceNumber.TRIM_HORIZON);
+        StreamConfig streamConfig =
+                new StreamConfig(streamProxy,
+                        1,
+                        10,
+                        callProcessRecordsForEmptyRecordList,
+                        skipCheckpointValidationValue, INITIAL_POSITION_LATEST);
+
+        ShardConsumer consumer =
+                new ShardConsumer(shardInfo,
+                        streamConfig,
+                        checkpoint,
+                        processor,
+                        null,
+                        parentShardPollIntervalMillis,
+                        cleanupLeasesOfCompletedShards,
+                        executorService,
+                        metricsFactory,
+                        taskBackoffTimeMillis,
+                        KinesisClientLibConfiguration.DEFAULT_SKIP_SHARD_SYNC_AT_STARTUP_IF_LEASES_EXIST,
+                        config);
+        ShardConsumerWakeupQueue wakeupQueue = new ShardConsumerWakeupQueue();
+        consumer.enableWakeups(wakeupQueue);
+
+        consumer.consumeShard(); // submit BlockOnParentShardTask
+        assertThat(wakeupQueue.poll(5, TimeUnit.SECONDS), is(consumer));
+        assertThat(wakeupQueue.size(), is(equalTo(0)));
+
+        // The task has completed by the time the consumer is woken up, so the consumer moves on right away.
+        consumer.consumeShard(); // submit InitializeTask
+        assertThat(consumer.getCurrentState(), is(equalTo(ConsumerStates.ShardConsumerState.INITIALIZING)));
+        assertThat(wakeupQueue.poll(5, TimeUnit.SECONDS), is(consumer));
+    }
+
+    @Test
+    public void testWakeupWhenCacheHasData() throws Exception {
+        ShardInfo shardInfo = new ShardInfo("s-0-0", "testToken", null, ExtendedSequenceNumber.TRIM_HORIZON);
+        StreamConfig streamConfig =
+                new StreamConfig(streamProxy,
+                        1,
+                        10,
+                        callProcessRecordsForEmptyRecordList,
+                        skipCheckpointValidationValue, INITIAL_POSITION_LATEST);
+        getRecordsCache = mock(GetRecordsCache.class);
+        when(recordsFetcherFactory.createRecordsFetcher(any(GetRecordsRetrievalStrategy.class), anyString(),
+                any(IMetricsFactory.class), anyInt()))
+                .thenReturn(getRecordsCache);
+
+        ShardConsumer consumer =
+                new ShardConsumer(shardInfo,
+                        streamConfig,
+                        checkpoint,
+                        processor,
+                        null,
+                        parentShardPollIntervalMillis,
+                        cleanupLeasesOfCompletedShards,
+                        executorService,
+                        metricsFactory,
+                        taskBackoffTimeMillis,
+                        KinesisClientLibConfiguration.DEFAULT_SKIP_SHARD_SYNC_AT_STARTUP_IF_LEASES_EXIST,
+                        config);
+        ShardConsumerWakeupQueue wakeupQueue = new ShardConsumerWakeupQueue();
+        consumer.enableWakeups(wakeupQueue);
+
+        ArgumentCaptor<Runnable> dataArrivalListener = ArgumentCaptor.forClass(Runnable.class);
+        verify(getRecordsCache).setDataArrivalListener(dataArrivalListener.capture());
+        assertThat(wakeupQueue.size(), is(equalTo(0)));
+
+        // A burst of data arrivals only queues the consumer once.
+        dataArrivalListener.getValue().run();
+        dataArrivalListener.getValue().run();
+        assertThat(wakeupQueue.size(), is(equalTo(1)));
+        assertThat(wakeupQueue.poll(0, TimeUnit.MILLISECONDS), is(consumer));
+
+        dataArrivalListener.getValue().run();
+        assertThat(wakeupQueue.poll(0, TimeUnit.MILLISECONDS), is(consumer));
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testLongRunningTasks() throws InterruptedException {
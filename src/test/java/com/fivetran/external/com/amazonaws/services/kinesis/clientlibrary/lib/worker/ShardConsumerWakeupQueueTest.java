@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardConsumerWakeupQueueTest {
+
+    @Mock
+    private ShardConsumer consumer1;
+    @Mock
+    private ShardConsumer consumer2;
+
+    private ShardConsumerWakeupQueue wakeupQueue;
+
+    @Before
+    public void setup() {
+        wakeupQueue = new ShardConsumerWakeupQueue();
+    }
+
+    @Test
+    public void testConsumersAreReturnedInWakeupOrder() throws Exception {
+        wakeupQueue.wakeup(consumer2);
+        wakeupQueue.wakeup(consumer1);
+
+        assertThat(wakeupQueue.poll(1, TimeUnit.MILLISECONDS), equalTo(consumer2));
+        assertThat(wakeupQueue.poll(1, TimeUnit.MILLISECONDS), equalTo(consumer1));
+        assertThat(wakeupQueue.poll(1, TimeUnit.MILLISECONDS), nullValue());
+    }
+
+    @Test
+    public void testRepeatedWakeupsAreCoalesced() throws Exception {
+        wakeupQueue.wakeup(consumer1);
+        wakeupQueue.wakeup(consumer1);
+        wakeupQueue.wakeup(consumer1);
+
+        assertThat(wakeupQueue.size(), equalTo(1));
+        assertThat(wakeupQueue.poll(1, TimeUnit.MILLISECONDS), equalTo(consumer1));
+        assertThat(wakeupQueue.poll(1, TimeUnit.MILLISECONDS), nullValue());
+    }
+
+    @Test
+    public void testConsumerCanBeWokenAgainAfterPoll() throws Exception {
+        wakeupQueue.wakeup(consumer1);
+        assertThat(wakeupQueue.poll(1, TimeUnit.MILLISECONDS), equalTo(consumer1));
+
+        wakeupQueue.wakeup(consumer1);
+        assertThat(wakeupQueue.poll(1, TimeUnit.MILLISECONDS), equalTo(consumer1));
+    }
+
+    @Test
+    public void testPollWaitsForWakeup() throws Exception {
+        Thread waker = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            wakeupQueue.wakeup(consumer1);
+        });
+        waker.start();
+
+        assertThat(wakeupQueue.poll(10, TimeUnit.SECONDS), equalTo(consumer1));
+        waker.join();
+    }
+}
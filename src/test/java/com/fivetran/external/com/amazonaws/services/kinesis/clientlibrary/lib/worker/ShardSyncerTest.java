@@ -14,15 +14,21 @@
  */
 package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
@@ -1691,6 +1697,142 @@ public class ShardSyncerTest {
         ShardSyncer.assertClosedShardsAreCoveredOrAbsent(shardIdToShardMap, shardIdToChildShardIdsMap, closedShardIds);
     }
 
+    /**
+     * The lineage index holds the same shard and child shard maps as the ones built from the shard list, while the
+     * stream is resharded and its oldest shards are trimmed.
+     */
+    @Test
+    public final void testShardLineageIndexMatchesMapsOfShardList() {
+        SyntheticShardGraph graph = new SyntheticShardGraph(8, 42L);
+        ShardLineageIndex shardLineageIndex = new ShardLineageIndex();
+        for (int i = 0; i < 20; i++) {
+            graph.reshard(25);
+            if (i % 3 == 2) {
+                graph.trimShardsClosedBefore(graph.getReshardCount() - 40);
+            }
+            List<Shard> shards = graph.getShards();
+            shardLineageIndex.update(shards);
+
+            Map<String, Shard> shardIdToShardMap = ShardSyncer.constructShardIdToShardMap(shards);
+            Assert.assertEquals(shardIdToShardMap, shardLineageIndex.getShardIdToShardMap());
+            Assert.assertEquals(ShardSyncer.constructShardIdToChildShardIdsMap(shardIdToShardMap),
+                    shardLineageIndex.getShardIdToChildShardIdsMap());
+            for (Shard shard : shards) {
+                for (String parentShardId : ShardSyncer.getParentShardIds(shard, shardIdToShardMap)) {
+                    Assert.assertTrue(shardLineageIndex.getGeneration(parentShardId)
+                            < shardLineageIndex.getGeneration(shard.getShardId()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test determineNewLeasesToCreate() from a lineage index returns the same leases, in the same order, as from the
+     * shard list.
+     */
+    @Test
+    public final void testDetermineNewLeasesToCreateFromShardLineageIndex() {
+        SyntheticShardGraph graph = new SyntheticShardGraph(8, 7L);
+        graph.reshard(300);
+        List<Shard> shards = graph.getShards();
+        ShardLineageIndex shardLineageIndex = new ShardLineageIndex().update(shards);
+        Random random = new Random(7L);
+
+        for (InitialPositionInStreamExtended initialPosition : Arrays.asList(INITIAL_POSITION_LATEST,
+                INITIAL_POSITION_TRIM_HORIZON, INITIAL_POSITION_AT_TIMESTAMP)) {
+            for (int i = 0; i < 10; i++) {
+                List<KinesisClientLease> currentLeases = new ArrayList<>();
+                for (Shard shard : shards) {
+                    if (random.nextInt(10) == 0) {
+                        currentLeases.add(ShardSyncer.newKCLLease(shard));
+                    }
+                }
+                Assert.assertEquals(ShardSyncer.determineNewLeasesToCreate(shards, currentLeases, initialPosition),
+                        ShardSyncer.determineNewLeasesToCreate(shardLineageIndex, currentLeases, initialPosition,
+                                new HashSet<String>()));
+            }
+        }
+    }
+
+    /**
+     * Test checkAndCreateLeasesForNewShards() with a lineage index and parallel lease writes leaves the lease table
+     * in the same state as without them, at startup and after shards were processed, trimmed and resharded.
+     */
+    @Test
+    public final void testCheckAndCreateLeasesForNewShardsWithShardLineageIndexAndParallelWrites()
+        throws KinesisClientLibIOException, DependencyException, InvalidStateException, ProvisionedThroughputException {
+        LeaseManager<KinesisClientLease> indexedLeaseManager =
+                new KinesisClientLeaseManager("tempTestTableIndexed", ddbClient);
+        indexedLeaseManager.createLeaseTableIfNotExists(1L, 1L);
+        indexedLeaseManager.deleteAll();
+        try {
+            SyntheticShardGraph graph = new SyntheticShardGraph(4, 11L);
+            graph.reshard(60);
+            IKinesisProxy kinesisProxy = mock(IKinesisProxy.class);
+            when(kinesisProxy.getShardList()).thenAnswer(invocation -> graph.getShards());
+            ShardLineageIndex shardLineageIndex = new ShardLineageIndex();
+
+            ShardSyncer.checkAndCreateLeasesForNewShards(kinesisProxy, leaseManager, INITIAL_POSITION_TRIM_HORIZON,
+                    cleanupLeasesOfCompletedShards, false);
+            ShardSyncer.checkAndCreateLeasesForNewShards(kinesisProxy, indexedLeaseManager,
+                    INITIAL_POSITION_TRIM_HORIZON, cleanupLeasesOfCompletedShards, false, shardLineageIndex, 8);
+            assertSameLeases(leaseManager, indexedLeaseManager);
+            Assert.assertEquals(graph.getShards().size(), indexedLeaseManager.listLeases().size());
+
+            long processedReshards = graph.getReshardCount() / 2;
+            processShardsClosedBefore(graph, processedReshards, leaseManager);
+            processShardsClosedBefore(graph, processedReshards, indexedLeaseManager);
+            graph.trimShardsClosedBefore(processedReshards / 2);
+            graph.reshard(20);
+
+            ShardSyncer.checkAndCreateLeasesForNewShards(kinesisProxy, leaseManager, INITIAL_POSITION_TRIM_HORIZON,
+                    cleanupLeasesOfCompletedShards, false);
+            ShardSyncer.checkAndCreateLeasesForNewShards(kinesisProxy, indexedLeaseManager,
+                    INITIAL_POSITION_TRIM_HORIZON, cleanupLeasesOfCompletedShards, false, shardLineageIndex, 8);
+            assertSameLeases(leaseManager, indexedLeaseManager);
+            Assert.assertTrue(indexedLeaseManager.listLeases().size() < graph.getShards().size());
+        } finally {
+            indexedLeaseManager.deleteAll();
+        }
+    }
+
+    /**
+     * Sets the checkpoint of the leases of the shards closed before the reshard to SHARD_END, and the checkpoint of
+     * the leases of their children to their first sequence number.
+     */
+    private void processShardsClosedBefore(SyntheticShardGraph graph,
+            long reshard,
+            LeaseManager<KinesisClientLease> manager)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        for (KinesisClientLease lease : manager.listLeases()) {
+            if (graph.isClosedBefore(lease.getLeaseKey(), reshard)) {
+                lease.setCheckpoint(ExtendedSequenceNumber.SHARD_END);
+                manager.updateLease(lease);
+            } else {
+                for (String parentShardId : lease.getParentShardIds()) {
+                    if (graph.isClosedBefore(parentShardId, reshard)) {
+                        Shard shard = graph.getShard(lease.getLeaseKey());
+                        lease.setCheckpoint(new ExtendedSequenceNumber(
+                                shard.getSequenceNumberRange().getStartingSequenceNumber()));
+                        manager.updateLease(lease);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void assertSameLeases(LeaseManager<KinesisClientLease> expectedLeaseManager,
+            LeaseManager<KinesisClientLease> actualLeaseManager)
+        throws DependencyException, InvalidStateException, ProvisionedThroughputException {
+        Comparator<KinesisClientLease> byLeaseKey = Comparator.comparing(KinesisClientLease::getLeaseKey);
+        List<KinesisClientLease> expectedLeases = expectedLeaseManager.listLeases();
+        List<KinesisClientLease> actualLeases = actualLeaseManager.listLeases();
+        expectedLeases.sort(byLeaseKey);
+        actualLeases.sort(byLeaseKey);
+        Assert.assertEquals(expectedLeases, actualLeases);
+    }
+
     /**
      * Helper method.
      * 
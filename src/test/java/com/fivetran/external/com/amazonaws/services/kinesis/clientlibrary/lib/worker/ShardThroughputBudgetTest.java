@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardThroughputBudgetTest {
+    private static final String SHARD_ID = "shardId-000000000000";
+    private static final long CALL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long BYTES_PER_CALL = ShardThroughputBudget.SHARD_BYTES_PER_SECOND
+            / ShardThroughputBudget.SHARD_CALLS_PER_SECOND;
+
+    private long nanoTime;
+    private ShardThroughputBudget budget;
+
+    @Before
+    public void setup() {
+        nanoTime = 0L;
+        budget = new ShardThroughputBudget(1.0, () -> nanoTime);
+        budget.register(SHARD_ID);
+    }
+
+    @Test
+    public void testCallsArePacedAtShardLimit() {
+        assertEquals(0L, budget.tryAcquireCall(SHARD_ID));
+        assertEquals(CALL_INTERVAL_NANOS, budget.tryAcquireCall(SHARD_ID));
+
+        nanoTime += CALL_INTERVAL_NANOS / 2;
+        assertEquals(CALL_INTERVAL_NANOS / 2, budget.tryAcquireCall(SHARD_ID));
+
+        nanoTime += CALL_INTERVAL_NANOS / 2;
+        assertEquals(0L, budget.tryAcquireCall(SHARD_ID));
+
+        // Calls don't accumulate while the shard isn't called.
+        nanoTime += TimeUnit.SECONDS.toNanos(10);
+        assertEquals(0L, budget.tryAcquireCall(SHARD_ID));
+        assertEquals(CALL_INTERVAL_NANOS, budget.tryAcquireCall(SHARD_ID));
+    }
+
+    @Test
+    public void testBytesAboveLimitAreRepaidBeforeNextCall() {
+        assertEquals(BYTES_PER_CALL, budget.getBytesPerCall());
+        assertEquals(0L, budget.tryAcquireCall(SHARD_ID));
+        budget.recordBytes(SHARD_ID, 3 * ShardThroughputBudget.SHARD_BYTES_PER_SECOND);
+
+        assertEquals(TimeUnit.SECONDS.toNanos(2), budget.tryAcquireCall(SHARD_ID));
+        nanoTime += TimeUnit.SECONDS.toNanos(2);
+        assertEquals(0L, budget.tryAcquireCall(SHARD_ID));
+    }
+
+    @Test
+    public void testThrottledShardSlowsDownThenRecovers() {
+        assertEquals(0L, budget.tryAcquireCall(SHARD_ID));
+        budget.throttled(SHARD_ID, TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(TimeUnit.SECONDS.toNanos(1), budget.tryAcquireCall(SHARD_ID));
+        nanoTime += TimeUnit.SECONDS.toNanos(1);
+        assertEquals(0L, budget.tryAcquireCall(SHARD_ID));
+        // Half the rate after a throttle.
+        assertEquals(2 * CALL_INTERVAL_NANOS, budget.tryAcquireCall(SHARD_ID));
+
+        for (int i = 0; i < 20; i++) {
+            budget.succeeded(SHARD_ID);
+        }
+        assertEquals(CALL_INTERVAL_NANOS, budget.tryAcquireCall(SHARD_ID));
+    }
+
+    @Test
+    public void testReadersOfShardShareItsCalls() {
+        ShardThroughputBudget half = new ShardThroughputBudget(0.5, () -> nanoTime);
+        half.register(SHARD_ID);
+        half.register(SHARD_ID);
+        half.register("shardId-000000000001");
+        assertEquals(0L, half.tryAcquireCall(SHARD_ID));
+        assertEquals(2 * CALL_INTERVAL_NANOS, half.tryAcquireCall(SHARD_ID));
+        assertEquals(0L, half.tryAcquireCall("shardId-000000000001"));
+
+        half.deregister(SHARD_ID);
+        assertEquals(2 * CALL_INTERVAL_NANOS, half.tryAcquireCall(SHARD_ID));
+        half.deregister(SHARD_ID);
+        half.deregister("shardId-000000000001");
+        assertEquals(0, half.getShardCount());
+    }
+
+    @Test
+    public void testCallsOfShareOfLimitsReturnSameBytes() {
+        ShardThroughputBudget half = new ShardThroughputBudget(0.5);
+        assertEquals(BYTES_PER_CALL, half.getBytesPerCall());
+    }
+
+    @Test
+    public void testUnregisteredShardIsNotTracked() {
+        budget.deregister(SHARD_ID);
+        assertEquals(0, budget.getShardCount());
+
+        // A fetch still in flight when its cache shuts down.
+        budget.recordBytes(SHARD_ID, BYTES_PER_CALL);
+        budget.succeeded(SHARD_ID);
+        budget.throttled(SHARD_ID, CALL_INTERVAL_NANOS);
+        assertEquals(0L, budget.tryAcquireCall(SHARD_ID));
+        assertEquals(0, budget.getShardCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShareAboveLimits() {
+        new ShardThroughputBudget(1.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyShare() {
+        new ShardThroughputBudget(0.0);
+    }
+}
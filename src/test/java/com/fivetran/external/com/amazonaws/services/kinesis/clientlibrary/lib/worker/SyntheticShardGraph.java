@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.amazonaws.services.kinesis.model.HashKeyRange;
+import com.amazonaws.services.kinesis.model.Shard;
+
+/**
+ * Helper class to build the shard list of a stream that was resharded many times. Every reshard either splits an
+ * open shard in two or merges two adjacent open shards, and closes the shards it replaces, so the open shards always
+ * cover the whole hash key range. Closed shards can then be trimmed, like Kinesis does once their records expire.
+ * The same seed always gives the same lineage.
+ */
+class SyntheticShardGraph {
+
+    private static final BigInteger FIRST_SEQUENCE_NUMBER =
+            new BigInteger("49590338271490256608559692538361571095921575989136588898");
+    private static final BigInteger SEQUENCE_NUMBERS_PER_RESHARD = BigInteger.valueOf(1000000L);
+
+    private final Random random;
+    private final int targetOpenShardCount;
+    private final Map<String, Shard> shards = new LinkedHashMap<>();
+    private final Map<String, Long> reshardClosingShard = new HashMap<>();
+    // Open shards ordered by hash key range
+    private final List<Shard> openShards = new ArrayList<>();
+    private long reshardCount;
+    private int nextShardNumber;
+
+    /**
+     * @param targetOpenShardCount Number of open shards the stream starts with, and goes back to after every reshard
+     *        that moved it away from it
+     * @param seed Seed of the reshards
+     */
+    SyntheticShardGraph(int targetOpenShardCount, long seed) {
+        this.random = new Random(seed);
+        this.targetOpenShardCount = targetOpenShardCount;
+
+        BigInteger maxHashKey = new BigInteger(ShardObjectHelper.MAX_HASH_KEY);
+        BigInteger width = maxHashKey.add(BigInteger.ONE).divide(BigInteger.valueOf(targetOpenShardCount));
+        for (int i = 0; i < targetOpenShardCount; i++) {
+            BigInteger startingHashKey = width.multiply(BigInteger.valueOf(i));
+            BigInteger endingHashKey = (i == targetOpenShardCount - 1) ? maxHashKey
+                    : startingHashKey.add(width).subtract(BigInteger.ONE);
+            openShards.add(addOpenShard(null, null,
+                    ShardObjectHelper.newHashKeyRange(startingHashKey.toString(), endingHashKey.toString())));
+        }
+    }
+
+    /**
+     * Splits or merges open shards.
+     *
+     * @param count Number of reshards
+     */
+    void reshard(int count) {
+        for (int i = 0; i < count; i++) {
+            reshardCount++;
+            boolean split = (openShards.size() < 2) || (openShards.size() < targetOpenShardCount)
+                    || ((openShards.size() == targetOpenShardCount) && random.nextBoolean());
+            if (split) {
+                split(random.nextInt(openShards.size()));
+            } else {
+                merge(random.nextInt(openShards.size() - 1));
+            }
+        }
+    }
+
+    private void split(int index) {
+        Shard parent = openShards.get(index);
+        BigInteger startingHashKey = new BigInteger(parent.getHashKeyRange().getStartingHashKey());
+        BigInteger endingHashKey = new BigInteger(parent.getHashKeyRange().getEndingHashKey());
+        BigInteger middleHashKey = startingHashKey.add(endingHashKey).shiftRight(1);
+
+        close(parent);
+        Shard child1 = addOpenShard(parent.getShardId(), null,
+                ShardObjectHelper.newHashKeyRange(startingHashKey.toString(), middleHashKey.toString()));
+        Shard child2 = addOpenShard(parent.getShardId(), null,
+                ShardObjectHelper.newHashKeyRange(middleHashKey.add(BigInteger.ONE).toString(),
+                        endingHashKey.toString()));
+        openShards.set(index, child1);
+        openShards.add(index + 1, child2);
+    }
+
+    private void merge(int index) {
+        Shard parent = openShards.get(index);
+        Shard adjacentParent = openShards.get(index + 1);
+
+        close(parent);
+        close(adjacentParent);
+        Shard child = addOpenShard(parent.getShardId(), adjacentParent.getShardId(),
+                ShardObjectHelper.newHashKeyRange(parent.getHashKeyRange().getStartingHashKey(),
+                        adjacentParent.getHashKeyRange().getEndingHashKey()));
+        openShards.set(index, child);
+        openShards.remove(index + 1);
+    }
+
+    private Shard addOpenShard(String parentShardId, String adjacentParentShardId, HashKeyRange hashKeyRange) {
+        String shardId = String.format("shardId-%012d", nextShardNumber++);
+        Shard shard = ShardObjectHelper.newShard(shardId, parentShardId, adjacentParentShardId,
+                ShardObjectHelper.newSequenceNumberRange(sequenceNumber(reshardCount).add(BigInteger.ONE).toString(),
+                        null),
+                hashKeyRange);
+        shards.put(shardId, shard);
+        return shard;
+    }
+
+    private void close(Shard shard) {
+        Shard closedShard = ShardObjectHelper.newShard(shard.getShardId(),
+                shard.getParentShardId(),
+                shard.getAdjacentParentShardId(),
+                ShardObjectHelper.newSequenceNumberRange(shard.getSequenceNumberRange().getStartingSequenceNumber(),
+                        sequenceNumber(reshardCount).toString()),
+                shard.getHashKeyRange());
+        shards.put(shard.getShardId(), closedShard);
+        reshardClosingShard.put(shard.getShardId(), reshardCount);
+    }
+
+    private static BigInteger sequenceNumber(long reshard) {
+        return FIRST_SEQUENCE_NUMBER.add(SEQUENCE_NUMBERS_PER_RESHARD.multiply(BigInteger.valueOf(reshard)));
+    }
+
+    /**
+     * Removes the shards closed before a reshard from the shard list.
+     *
+     * @param reshard Number of the reshard, as counted by {@link #getReshardCount()}
+     */
+    void trimShardsClosedBefore(long reshard) {
+        Iterator<Map.Entry<String, Shard>> iterator = shards.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Long closingReshard = reshardClosingShard.get(iterator.next().getKey());
+            if ((closingReshard != null) && (closingReshard < reshard)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @param shardId Shard id
+     * @param reshard Number of a reshard
+     * @return true if the shard was closed before the reshard
+     */
+    boolean isClosedBefore(String shardId, long reshard) {
+        Long closingReshard = reshardClosingShard.get(shardId);
+        return (closingReshard != null) && (closingReshard < reshard);
+    }
+
+    /**
+     * @return Number of reshards so far
+     */
+    long getReshardCount() {
+        return reshardCount;
+    }
+
+    /**
+     * @param shardId Shard id
+     * @return Latest version of the shard, or null if it was trimmed
+     */
+    Shard getShard(String shardId) {
+        return shards.get(shardId);
+    }
+
+    /**
+     * @return New list of the shards of the stream, oldest first
+     */
+    List<Shard> getShards() {
+        return new ArrayList<>(shards.values());
+    }
+}
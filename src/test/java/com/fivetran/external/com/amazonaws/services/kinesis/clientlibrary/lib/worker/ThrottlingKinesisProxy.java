@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.proxies.IKinesisProxy;
+import com.amazonaws.services.kinesis.model.DescribeStreamResult;
+import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.kinesis.model.PutRecordResult;
+import com.amazonaws.services.kinesis.model.Record;
+import com.amazonaws.services.kinesis.model.Shard;
+
+/**
+ * Simulates the read limits of the shards of a stream: GetRecords calls beyond 5 per second, or made while the bytes
+ * returned by the previous calls exceed 2 MB per second, are throttled. A response holds at most 10 MB. Shards either
+ * always have records behind the tip of the stream, or none at all.
+ *
+ * The time and size of every call are kept, so tests can check how the calls were spread.
+ */
+class ThrottlingKinesisProxy implements IKinesisProxy {
+    private static final long MAX_BYTES_PER_CALL = 10L * 1024 * 1024;
+    private static final long MILLIS_BEHIND_LATEST = 60000L;
+
+    private final int recordBytes;
+    private final boolean hasBacklog;
+    private final ByteBuffer data;
+    private final ConcurrentHashMap<String, ShardLimits> shards = new ConcurrentHashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger throttledCalls = new AtomicInteger();
+    private final AtomicLong bytesReturned = new AtomicLong();
+    private final AtomicInteger callsToThrottle = new AtomicInteger();
+    private final List<Call> callLog = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param recordBytes Size of the data of the records
+     * @param hasBacklog Whether the shards have records to read, or are caught up with an empty stream
+     */
+    ThrottlingKinesisProxy(int recordBytes, boolean hasBacklog) {
+        this.recordBytes = recordBytes;
+        this.hasBacklog = hasBacklog;
+        this.data = ByteBuffer.allocate(recordBytes);
+    }
+
+    int getCalls() {
+        return calls.get();
+    }
+
+    int getThrottledCalls() {
+        return throttledCalls.get();
+    }
+
+    long getBytesReturned() {
+        return bytesReturned.get();
+    }
+
+    /**
+     * @return The calls made so far, in order
+     */
+    List<Call> getCallLog() {
+        synchronized (callLog) {
+            return new ArrayList<>(callLog);
+        }
+    }
+
+    /**
+     * Throttles the next calls, as if another application was reading the shards.
+     */
+    void throttleNextCalls(int count) {
+        callsToThrottle.set(count);
+    }
+
+    @Override
+    public GetRecordsResult get(String shardIterator, int maxRecords) {
+        calls.incrementAndGet();
+        long nowNanos = System.nanoTime();
+        int separator = shardIterator.lastIndexOf(':');
+        String shardId = shardIterator.substring(0, separator);
+        long sequenceNumber = Long.parseLong(shardIterator.substring(separator + 1));
+        ShardLimits limits = shards.computeIfAbsent(shardId, id -> new ShardLimits(nowNanos));
+
+        int recordCount = hasBacklog ? (int) Math.min(maxRecords, MAX_BYTES_PER_CALL / recordBytes) : 0;
+        boolean throttled = callsToThrottle.getAndUpdate(count -> Math.max(0, count - 1)) > 0
+                || !limits.tryCall(nowNanos, (long) recordCount * recordBytes);
+        callLog.add(new Call(nowNanos, maxRecords, throttled));
+        if (throttled) {
+            throttledCalls.incrementAndGet();
+            throw new ProvisionedThroughputExceededException("Rate exceeded for shard " + shardId);
+        }
+        List<Record> records = new ArrayList<>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            records.add(new Record().withSequenceNumber(Long.toString(sequenceNumber + i))
+                    .withPartitionKey("key").withData(data.duplicate()));
+        }
+        bytesReturned.addAndGet((long) recordCount * recordBytes);
+        return new GetRecordsResult().withRecords(records)
+                .withNextShardIterator(shardId + ":" + (sequenceNumber + recordCount))
+                .withMillisBehindLatest(hasBacklog ? MILLIS_BEHIND_LATEST : 0L);
+    }
+
+    @Override
+    public String getIterator(String shardId, String iteratorEnum, String sequenceNumber) {
+        return shardId + ":" + sequenceNumber;
+    }
+
+    @Override
+    public String getIterator(String shardId, String iteratorEnum) {
+        return shardId + ":0";
+    }
+
+    @Override
+    public String getIterator(String shardId, Date timestamp) {
+        return shardId + ":0";
+    }
+
+    @Override
+    public DescribeStreamResult getStreamInfo(String startShardId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<String> getAllShardIds() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Shard> getShardList() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PutRecordResult put(String sequenceNumberForOrdering, String explicitHashKey, String partitionKey,
+            ByteBuffer data) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * A GetRecords call received by the proxy.
+     */
+    static class Call {
+        final long nanoTime;
+        final int maxRecords;
+        final boolean throttled;
+
+        Call(long nanoTime, int maxRecords, boolean throttled) {
+            this.nanoTime = nanoTime;
+            this.maxRecords = maxRecords;
+            this.throttled = throttled;
+        }
+    }
+
+    /**
+     * Limits of a shard, with a burst of one second of calls.
+     */
+    private static class ShardLimits {
+        private double callTokens = ShardThroughputBudget.SHARD_CALLS_PER_SECOND;
+        private double byteBalance = ShardThroughputBudget.SHARD_BYTES_PER_SECOND;
+        private long lastRefillNanos;
+
+        ShardLimits(long nowNanos) {
+            this.lastRefillNanos = nowNanos;
+        }
+
+        synchronized boolean tryCall(long nowNanos, long bytes) {
+            double elapsedSeconds = (double) (nowNanos - lastRefillNanos) / TimeUnit.SECONDS.toNanos(1);
+            lastRefillNanos = nowNanos;
+            callTokens = Math.min(ShardThroughputBudget.SHARD_CALLS_PER_SECOND,
+                    callTokens + elapsedSeconds * ShardThroughputBudget.SHARD_CALLS_PER_SECOND);
+            byteBalance = Math.min(ShardThroughputBudget.SHARD_BYTES_PER_SECOND,
+                    byteBalance + elapsedSeconds * ShardThroughputBudget.SHARD_BYTES_PER_SECOND);
+            if (callTokens < 1.0 || byteBalance < 0) {
+                return false;
+            }
+            callTokens -= 1.0;
+            byteBalance -= bytes;
+            return true;
+        }
+    }
+}
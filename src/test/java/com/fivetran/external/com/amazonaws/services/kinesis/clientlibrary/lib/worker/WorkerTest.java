@@ -338,6 +338,71 @@ public class WorkerTest {
 
     }
 
+    @Test
+    public void testEventDrivenWorkerSkipsStaleAndShutdownConsumers() {
+        final String stageName = "testStageName";
+        IRecordProcessorFactory streamletFactory = SAMPLE_RECORD_PROCESSOR_FACTORY_V2;
+        config.withShardConsumerSchedulingStrategy(ShardConsumerSchedulingStrategy.EVENT_DRIVEN);
+        int maxRecords = 1;
+        int idleTimeInMilliseconds = 100;
+        StreamConfig streamConfig = new StreamConfig(null, maxRecords, idleTimeInMilliseconds,
+                callProcessRecordsForEmptyRecordList, skipCheckpointValidationValue, INITIAL_POSITION_LATEST);
+
+        when(leaseCoordinator.getLeaseManager()).thenReturn(leaseManager);
+        List<ShardInfo> assignments = createShardInfoList(ExtendedSequenceNumber.TRIM_HORIZON,
+                ExtendedSequenceNumber.TRIM_HORIZON);
+        when(leaseCoordinator.getCurrentAssignments()).thenReturn(assignments);
+
+        Worker worker = new Worker(stageName,
+                streamletFactory,
+                config,
+                streamConfig,
+                INITIAL_POSITION_LATEST,
+                parentShardPollIntervalMillis,
+                shardSyncIntervalMillis,
+                cleanupLeasesUponShardCompletion,
+                null,
+                leaseCoordinator,
+                null,
+                nullMetricsFactory,
+                taskBackoffTimeMillis,
+                failoverTimeMillis,
+                KinesisClientLibConfiguration.DEFAULT_SKIP_SHARD_SYNC_AT_STARTUP_IF_LEASES_EXIST,
+                shardPrioritization);
+        Worker workerSpy = spy(worker);
+
+        ShardConsumer liveConsumer = mock(ShardConsumer.class);
+        when(liveConsumer.getShardInfo()).thenReturn(assignments.get(0));
+        // Replaced by liveConsumer, but still on the wakeup queue.
+        ShardConsumer staleConsumer = mock(ShardConsumer.class);
+        when(staleConsumer.getShardInfo()).thenReturn(assignments.get(0));
+        // Shutdown after the pass of the worker loop, before being taken from the wakeup queue.
+        ShardConsumer shutdownConsumer = mock(ShardConsumer.class);
+        when(shutdownConsumer.getShardInfo()).thenReturn(assignments.get(1));
+        when(shutdownConsumer.isShutdown()).thenReturn(false).thenReturn(true);
+
+        doAnswer(invocation -> {
+            ShardConsumerWakeupQueue wakeupQueue = (ShardConsumerWakeupQueue) invocation.getArguments()[0];
+            wakeupQueue.wakeup(staleConsumer);
+            wakeupQueue.wakeup(shutdownConsumer);
+            wakeupQueue.wakeup(liveConsumer);
+            return null;
+        }).when(liveConsumer).enableWakeups(any(ShardConsumerWakeupQueue.class));
+        doReturn(liveConsumer).when(workerSpy).buildConsumer(same(assignments.get(0)),
+                any(IRecordProcessorFactory.class));
+        doReturn(shutdownConsumer).when(workerSpy).buildConsumer(same(assignments.get(1)),
+                any(IRecordProcessorFactory.class));
+
+        workerSpy.runProcessLoop();
+
+        verify(liveConsumer).enableWakeups(any(ShardConsumerWakeupQueue.class));
+        verify(shutdownConsumer).enableWakeups(any(ShardConsumerWakeupQueue.class));
+        // Once by the pass of the worker loop, and once when taken from the wakeup queue.
+        verify(liveConsumer, times(2)).consumeShard();
+        verify(shutdownConsumer, times(1)).consumeShard();
+        verify(staleConsumer, never()).consumeShard();
+    }
+
     private List<ShardInfo> createShardInfoList(ExtendedSequenceNumber... sequenceNumbers) {
         List<ShardInfo> result = new ArrayList<>(sequenceNumbers.length);
         assertThat(sequenceNumbers.length, greaterThanOrEqualTo(1));
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.google.protobuf.ByteString;
+
+public class UserRecordTest {
+
+    private static final byte[] AGGREGATED_RECORD_MAGIC = new byte[] {-13, -119, -102, -62 };
+    private static final BigInteger SMALLEST_HASH_KEY = BigInteger.ZERO;
+    private static final BigInteger LARGEST_HASH_KEY = new BigInteger(StringUtils.repeat("FF", 16), 16);
+    private static final BigInteger MIDDLE_HASH_KEY = LARGEST_HASH_KEY.shiftRight(1);
+    private static final Date ARRIVAL_TIMESTAMP = new Date(1234567890L);
+
+    @Test
+    public void testDeaggregatesAggregatedRecord() throws Exception {
+        Record record = aggregatedRecord("100", aggregatedRecordBuilder("pk1", "pk2")
+                .addRecords(userRecord(0, "a"))
+                .addRecords(userRecord(1, "b"))
+                .addRecords(userRecord(0, "c")));
+
+        List<UserRecord> userRecords = lazilyDeaggregate(Collections.singletonList(record));
+
+        assertThat(userRecords.size(), equalTo(3));
+        for (int i = 0; i < userRecords.size(); i++) {
+            UserRecord userRecord = userRecords.get(i);
+            assertThat(userRecord.isAggregated(), equalTo(true));
+            assertThat(userRecord.getSubSequenceNumber(), equalTo((long) i));
+            assertThat(userRecord.getSequenceNumber(), equalTo("100"));
+            assertThat(userRecord.getApproximateArrivalTimestamp(), equalTo(ARRIVAL_TIMESTAMP));
+            assertThat(userRecord.getData().isReadOnly(), equalTo(true));
+        }
+        assertThat(userRecords.get(1).getPartitionKey(), equalTo("pk2"));
+        assertThat(userRecords.get(2).getData(), equalTo(ByteBuffer.wrap("c".getBytes(StandardCharsets.UTF_8))));
+        assertSameAsDeaggregate(Collections.singletonList(record), SMALLEST_HASH_KEY, LARGEST_HASH_KEY);
+    }
+
+    @Test
+    public void testNonAggregatedRecordsArePassedThrough() throws Exception {
+        Record plain = new Record().withSequenceNumber("1").withPartitionKey("pk")
+                .withData(ByteBuffer.wrap("data".getBytes(StandardCharsets.UTF_8)));
+        Record tooShort = new Record().withSequenceNumber("2").withPartitionKey("pk")
+                .withData(ByteBuffer.wrap(AGGREGATED_RECORD_MAGIC));
+        Record badDigest = aggregatedRecord("3", aggregatedRecordBuilder("pk").addRecords(userRecord(0, "a")));
+        int lastDigestByte = badDigest.getData().limit() - 1;
+        badDigest.getData().put(lastDigestByte, (byte) (badDigest.getData().get(lastDigestByte) ^ 1));
+
+        List<Record> records = Arrays.asList(plain, tooShort, badDigest);
+        List<UserRecord> userRecords = lazilyDeaggregate(records);
+
+        assertThat(userRecords.size(), equalTo(3));
+        for (int i = 0; i < records.size(); i++) {
+            assertThat(userRecords.get(i).isAggregated(), equalTo(false));
+            assertThat(userRecords.get(i).getData(), sameInstance(records.get(i).getData()));
+        }
+        assertSameAsDeaggregate(records, SMALLEST_HASH_KEY, LARGEST_HASH_KEY);
+    }
+
+    @Test
+    public void testInvalidProtobufIsNotAggregated() throws Exception {
+        byte[] garbage = new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
+        Record record = aggregatedRecord("1", garbage);
+        // A user record without its required data field
+        byte[] missingData = Messages.AggregatedRecord.newBuilder().addPartitionKeyTable("pk")
+                .addRecords(Messages.Record.newBuilder().setPartitionKeyIndex(0).buildPartial())
+                .buildPartial().toByteArray();
+        Record incomplete = aggregatedRecord("2", missingData);
+
+        List<UserRecord> userRecords = lazilyDeaggregate(Arrays.asList(record, incomplete));
+
+        assertThat(userRecords.size(), equalTo(2));
+        assertThat(userRecords.get(0).isAggregated(), equalTo(false));
+        assertThat(userRecords.get(1).isAggregated(), equalTo(false));
+        assertSameAsDeaggregate(Arrays.asList(record, incomplete), SMALLEST_HASH_KEY, LARGEST_HASH_KEY);
+    }
+
+    @Test
+    public void testAggregatedRecordWithUserRecordOutOfRangeIsDropped() throws Exception {
+        String inRange = partitionKeyOnSide(true);
+        String outOfRange = partitionKeyOnSide(false);
+        Record mixed = aggregatedRecord("1", aggregatedRecordBuilder(inRange, outOfRange)
+                .addRecords(userRecord(0, "a"))
+                .addRecords(userRecord(1, "b")));
+        Record allInRange = aggregatedRecord("2", aggregatedRecordBuilder(inRange)
+                .addRecords(userRecord(0, "a"))
+                .addRecords(userRecord(0, "b")));
+
+        List<Record> records = Arrays.asList(mixed, allInRange);
+        List<UserRecord> userRecords = lazilyDeaggregate(records, SMALLEST_HASH_KEY, MIDDLE_HASH_KEY);
+
+        assertThat(userRecords.size(), equalTo(2));
+        assertThat(userRecords.get(0).getSequenceNumber(), equalTo("2"));
+        assertSameAsDeaggregate(records, SMALLEST_HASH_KEY, MIDDLE_HASH_KEY);
+        assertSameAsDeaggregate(records, MIDDLE_HASH_KEY.add(BigInteger.ONE), LARGEST_HASH_KEY);
+    }
+
+    @Test
+    public void testExplicitHashKeys() throws Exception {
+        List<String> explicitHashKeys = Arrays.asList("0", "1", MIDDLE_HASH_KEY.toString(),
+                MIDDLE_HASH_KEY.add(BigInteger.ONE).toString(), LARGEST_HASH_KEY.toString(),
+                LARGEST_HASH_KEY.add(BigInteger.ONE).toString(), "0000000000000000000000000000000000000000001", "-1",
+                "+12", "18446744073709551615", "18446744073709551616");
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < explicitHashKeys.size(); i++) {
+            records.add(aggregatedRecord(Integer.toString(i), aggregatedRecordBuilder("pk")
+                    .addExplicitHashKeyTable(explicitHashKeys.get(i))
+                    .addRecords(userRecord(0, "a").toBuilder().setExplicitHashKeyIndex(0))));
+        }
+
+        assertThat(lazilyDeaggregate(records).get(2).getExplicitHashKey(), equalTo(MIDDLE_HASH_KEY.toString()));
+        assertSameAsDeaggregate(records, SMALLEST_HASH_KEY, LARGEST_HASH_KEY);
+        assertSameAsDeaggregate(records, SMALLEST_HASH_KEY, MIDDLE_HASH_KEY);
+        assertSameAsDeaggregate(records, MIDDLE_HASH_KEY, LARGEST_HASH_KEY);
+        assertSameAsDeaggregate(records, BigInteger.ONE, new BigInteger("18446744073709551615"));
+        assertSameAsDeaggregate(records, BigInteger.ONE.negate(), LARGEST_HASH_KEY.add(BigInteger.TEN));
+    }
+
+    @Test
+    public void testInvalidKeyIndexKeepsEarlierUserRecords() throws Exception {
+        Record record = aggregatedRecord("1", aggregatedRecordBuilder("pk")
+                .addRecords(userRecord(0, "a"))
+                .addRecords(userRecord(0, "b"))
+                .addRecords(userRecord(5, "c"))
+                .addRecords(userRecord(0, "d")));
+        Record badExplicitHashKey = aggregatedRecord("2", aggregatedRecordBuilder("pk")
+                .addExplicitHashKeyTable("not a number")
+                .addRecords(userRecord(0, "a"))
+                .addRecords(userRecord(0, "b").toBuilder().setExplicitHashKeyIndex(0)));
+
+        List<Record> records = Arrays.asList(record, badExplicitHashKey);
+        List<UserRecord> userRecords = lazilyDeaggregate(records);
+
+        assertThat(userRecords.size(), equalTo(3));
+        assertSameAsDeaggregate(records, SMALLEST_HASH_KEY, LARGEST_HASH_KEY);
+    }
+
+    @Test
+    public void testRecordDataWithOffsetAndDirectBuffer() throws Exception {
+        byte[] message = aggregatedRecordBuilder("pk1", "pk2")
+                .addRecords(userRecord(0, "first"))
+                .addRecords(userRecord(1, "second"))
+                .build().toByteArray();
+        ByteBuffer aggregated = aggregatedData(message);
+
+        ByteBuffer withOffset = ByteBuffer.allocate(aggregated.remaining() + 10);
+        withOffset.position(7);
+        ByteBuffer slice = withOffset.slice();
+        slice.put(aggregated.duplicate()).flip();
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(aggregated.remaining());
+        direct.put(aggregated.duplicate()).flip();
+
+        List<Record> records = Arrays.asList(
+                new Record().withSequenceNumber("1").withPartitionKey("-").withData(slice),
+                new Record().withSequenceNumber("2").withPartitionKey("-").withData(direct));
+        List<UserRecord> userRecords = lazilyDeaggregate(records);
+
+        assertThat(userRecords.size(), equalTo(4));
+        assertThat(userRecords.get(1).getData(), equalTo(ByteBuffer.wrap("second".getBytes(StandardCharsets.UTF_8))));
+        assertThat(userRecords.get(2).getData(), equalTo(ByteBuffer.wrap("first".getBytes(StandardCharsets.UTF_8))));
+        assertSameAsDeaggregate(records, SMALLEST_HASH_KEY, LARGEST_HASH_KEY);
+    }
+
+    private static void assertSameAsDeaggregate(List<Record> records, BigInteger startingHashKey,
+            BigInteger endingHashKey) {
+        List<UserRecord> lazy = lazilyDeaggregate(records, startingHashKey, endingHashKey);
+        List<UserRecord> expected = UserRecord.deaggregate(rewound(records), startingHashKey, endingHashKey);
+        assertThat(lazy, equalTo(expected));
+        for (int i = 0; i < lazy.size(); i++) {
+            assertThat(lazy.get(i).getExplicitHashKey(), equalTo(expected.get(i).getExplicitHashKey()));
+        }
+    }
+
+    private static List<Record> rewound(List<Record> records) {
+        List<Record> result = new ArrayList<>();
+        for (Record record : records) {
+            // deaggregate moves the position of the data buffers
+            result.add(record.clone().withData(record.getData().duplicate()));
+        }
+        return result;
+    }
+
+    private static List<UserRecord> lazilyDeaggregate(List<Record> records) {
+        return lazilyDeaggregate(records, SMALLEST_HASH_KEY, LARGEST_HASH_KEY);
+    }
+
+    private static List<UserRecord> lazilyDeaggregate(List<Record> records, BigInteger startingHashKey,
+            BigInteger endingHashKey) {
+        List<UserRecord> result = new ArrayList<>();
+        for (UserRecord userRecord : UserRecord.deaggregateLazily(records, startingHashKey, endingHashKey)) {
+            result.add(userRecord);
+        }
+        return result;
+    }
+
+    private static String partitionKeyOnSide(boolean lowerHalf) throws Exception {
+        for (int i = 0; ; i++) {
+            String partitionKey = "pk-" + i;
+            BigInteger hashKey = new BigInteger(1, md5(partitionKey.getBytes(StandardCharsets.UTF_8)));
+            if ((hashKey.compareTo(MIDDLE_HASH_KEY) <= 0) == lowerHalf) {
+                return partitionKey;
+            }
+        }
+    }
+
+    private static Messages.AggregatedRecord.Builder aggregatedRecordBuilder(String... partitionKeys) {
+        return Messages.AggregatedRecord.newBuilder().addAllPartitionKeyTable(Arrays.asList(partitionKeys));
+    }
+
+    private static Messages.Record userRecord(int partitionKeyIndex, String data) {
+        return Messages.Record.newBuilder()
+                .setPartitionKeyIndex(partitionKeyIndex)
+                .setData(ByteString.copyFromUtf8(data))
+                .build();
+    }
+
+    private static Record aggregatedRecord(String sequenceNumber, Messages.AggregatedRecord.Builder builder)
+        throws Exception {
+        return aggregatedRecord(sequenceNumber, builder.build().toByteArray());
+    }
+
+    private static Record aggregatedRecord(String sequenceNumber, byte[] message) throws Exception {
+        return new Record()
+                .withSequenceNumber(sequenceNumber)
+                .withPartitionKey("-")
+                .withApproximateArrivalTimestamp(ARRIVAL_TIMESTAMP)
+                .withData(aggregatedData(message));
+    }
+
+    private static ByteBuffer aggregatedData(byte[] message) throws Exception {
+        ByteBuffer data = ByteBuffer.allocate(AGGREGATED_RECORD_MAGIC.length + message.length + 16);
+        data.put(AGGREGATED_RECORD_MAGIC).put(message).put(md5(message));
+        data.flip();
+        return data;
+    }
+
+    private static byte[] md5(byte[] data) throws Exception {
+        return MessageDigest.getInstance("MD5").digest(data);
+    }
+}
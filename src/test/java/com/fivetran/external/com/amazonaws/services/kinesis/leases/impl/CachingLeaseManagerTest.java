@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.leases.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.types.ExtendedSequenceNumber;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.MetricsHelper;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
+
+public class CachingLeaseManagerTest {
+
+    private static final String TABLE_NAME = CachingLeaseManagerTest.class.getSimpleName();
+    private static final int LEASE_COUNT = 20;
+    private static final int TOTAL_SEGMENTS = 4;
+    private static final long MAX_AGE_MILLIS = 60000L;
+    private static final long LEASE_DURATION_MILLIS = 10000L;
+    private static final String OTHER_WORKER = "otherWorker";
+    private static final String WORKER = "worker";
+
+    private final AmazonDynamoDB ddbClient = DynamoDBEmbedded.create().amazonDynamoDB();
+    private final AtomicLong nowNanos = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+    private KinesisClientLeaseManager leaseManager;
+    private CachingLeaseManager<KinesisClientLease> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        leaseManager = spy(new KinesisClientLeaseManager(TABLE_NAME, ddbClient, true));
+        leaseManager.createLeaseTableIfNotExists(10L, 10L);
+        leaseManager.deleteAll();
+        for (int i = 0; i < LEASE_COUNT; i++) {
+            leaseManager.createLeaseIfNotExists(newLease(shardId(i), OTHER_WORKER));
+        }
+
+        cache = new CachingLeaseManager<>(leaseManager, TOTAL_SEGMENTS, MAX_AGE_MILLIS, nowNanos::get);
+        MetricsHelper.startScope(new NullMetricsFactory());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MetricsHelper.endScope();
+        leaseManager.deleteAll();
+    }
+
+    @Test
+    public void testListLeasesIsServedFromCacheWithinMaxAge() throws Exception {
+        assertThat(cache.listLeases().size(), equalTo(LEASE_COUNT));
+        assertThat(cache.listLeases().size(), equalTo(LEASE_COUNT));
+        verify(leaseManager, times(TOTAL_SEGMENTS)).listLeases(anyInt(), eq(TOTAL_SEGMENTS));
+
+        advanceMillis(MAX_AGE_MILLIS + 1);
+        assertThat(cache.listLeases().size(), equalTo(LEASE_COUNT));
+        verify(leaseManager, times(2 * TOTAL_SEGMENTS)).listLeases(anyInt(), eq(TOTAL_SEGMENTS));
+    }
+
+    @Test
+    public void testRefreshNextSegmentReadsOneSegment() throws Exception {
+        cache.refreshNextSegment();
+        verify(leaseManager, times(TOTAL_SEGMENTS)).listLeases(anyInt(), eq(TOTAL_SEGMENTS));
+
+        cache.refreshNextSegment();
+        verify(leaseManager, times(2)).listLeases(0, TOTAL_SEGMENTS);
+        verify(leaseManager, times(TOTAL_SEGMENTS + 1)).listLeases(anyInt(), eq(TOTAL_SEGMENTS));
+    }
+
+    @Test
+    public void testSegmentRefreshesPickUpChangesMadeByOtherWorkers() throws Exception {
+        cache.listLeases();
+        KinesisClientLease renewed = leaseManager.getLease(shardId(0));
+        leaseManager.renewLease(renewed);
+        leaseManager.deleteLease(leaseManager.getLease(shardId(1)));
+        KinesisClientLease created = newLease(shardId(LEASE_COUNT), null);
+        leaseManager.createLeaseIfNotExists(created);
+
+        for (int i = 0; i < TOTAL_SEGMENTS; i++) {
+            advanceMillis(1);
+            cache.refreshNextSegment();
+        }
+
+        Map<String, KinesisClientLease> leases = listLeasesByKey();
+        assertThat(leases.size(), equalTo(LEASE_COUNT));
+        assertThat(leases.get(shardId(0)).getLeaseCounter(), equalTo(renewed.getLeaseCounter()));
+        assertThat(leases.get(shardId(1)), nullValue());
+        assertThat(leases.get(shardId(LEASE_COUNT)).getLastCounterIncrementNanos(), equalTo(0L));
+    }
+
+    @Test
+    public void testWritesAreAppliedToTheCache() throws Exception {
+        KinesisClientLease lease = cache.listLeases().get(0);
+        cache.takeLease(lease, WORKER);
+        KinesisClientLease deleted = cache.listLeases().get(1);
+        cache.deleteLease(deleted);
+
+        Map<String, KinesisClientLease> leases = listLeasesByKey();
+        assertThat(leases.get(lease.getLeaseKey()).getLeaseOwner(), equalTo(WORKER));
+        assertThat(leases.get(lease.getLeaseKey()).getLeaseCounter(), equalTo(lease.getLeaseCounter()));
+        assertThat(leases.get(lease.getLeaseKey()).getLastCounterIncrementNanos(), equalTo(nowNanos.get()));
+        assertThat(leases.get(deleted.getLeaseKey()), nullValue());
+        verify(leaseManager, times(TOTAL_SEGMENTS)).listLeases(anyInt(), eq(TOTAL_SEGMENTS));
+    }
+
+    @Test
+    public void testLeaseTakerTakesLeasesExpiredInTheCache() throws Exception {
+        LeaseTaker<KinesisClientLease> taker = new LeaseTaker<>(cache, WORKER, LEASE_DURATION_MILLIS);
+        cache.listLeases();
+
+        //
+        // Keep one lease alive, the other ones are only expired once their segment was read again
+        //
+        advanceMillis(LEASE_DURATION_MILLIS + 1);
+        leaseManager.renewLease(leaseManager.getLease(shardId(0)));
+        for (int i = 0; i < TOTAL_SEGMENTS; i++) {
+            cache.refreshNextSegment();
+        }
+
+        Map<String, KinesisClientLease> takenLeases = taker.takeLeases();
+        assertThat(takenLeases.size(), equalTo(LEASE_COUNT / 2));
+        assertThat(takenLeases.containsKey(shardId(0)), equalTo(false));
+    }
+
+    private Map<String, KinesisClientLease> listLeasesByKey() throws Exception {
+        List<KinesisClientLease> leases = cache.listLeases();
+        Map<String, KinesisClientLease> leasesByKey = new HashMap<>();
+        for (KinesisClientLease lease : leases) {
+            leasesByKey.put(lease.getLeaseKey(), lease);
+        }
+        return leasesByKey;
+    }
+
+    private void advanceMillis(long millis) {
+        nowNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static String shardId(int i) {
+        return String.format("shardId-%012d", i);
+    }
+
+    private static KinesisClientLease newLease(String leaseKey, String leaseOwner) {
+        return new KinesisClientLeaseBuilder()
+                .withLeaseKey(leaseKey)
+                .withLeaseOwner(leaseOwner)
+                .withCheckpoint(ExtendedSequenceNumber.TRIM_HORIZON)
+                .build();
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ *  Copyright 2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Amazon Software License (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://aws.amazon.com/asl/
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package com.fivetran.external.com.amazonaws.services.kinesis.metrics.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+import com.fivetran.external.com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
+import com.google.common.collect.ImmutableSet;
+
+public class StripedMetricsFactoryTest {
+
+    private static final long BUFFER_TIME_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final Set<String> ALL_DIMENSIONS = ImmutableSet.of(IMetricsScope.METRICS_DIMENSIONS_ALL);
+
+    private final List<MetricDatum> published = new ArrayList<MetricDatum>();
+    private final ICWMetricsPublisher<CWMetricKey> publisher = dataToPublish -> {
+        synchronized (published) {
+            for (MetricDatumWithKey<CWMetricKey> datumWithKey : dataToPublish) {
+                published.add(datumWithKey.datum);
+            }
+        }
+    };
+    private StripedMetricsFactory factory;
+
+    @After
+    public void tearDown() {
+        if (factory != null) {
+            factory.shutdown();
+        }
+    }
+
+    private List<MetricDatum> publish() {
+        factory.publish();
+        synchronized (published) {
+            List<MetricDatum> result = new ArrayList<MetricDatum>(published);
+            published.clear();
+            return result;
+        }
+    }
+
+    @Test
+    public void testAccumulatesScopesOfManyThreads() throws Exception {
+        factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, MetricsLevel.DETAILED, ALL_DIMENSIONS,
+                false);
+        int threads = 8;
+        int scopesPerThread = 1000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                String shardId = "shard-" + (t % 2);
+                futures.add(executorService.submit(() -> {
+                    for (int i = 1; i <= scopesPerThread; i++) {
+                        IMetricsScope scope = factory.createMetrics();
+                        scope.addData("Records", i, StandardUnit.Count);
+                        scope.addData("Records", 1, StandardUnit.Count);
+                        scope.addDimension("ShardId", shardId);
+                        scope.end();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        List<MetricDatum> data = publish();
+        Assert.assertEquals(2, data.size());
+        for (MetricDatum datum : data) {
+            MetricDatum expected = TestHelper.constructDatum("Records", StandardUnit.Count, scopesPerThread, 1,
+                    (threads / 2) * (scopesPerThread * (scopesPerThread + 1) / 2 + scopesPerThread),
+                    (threads / 2) * scopesPerThread * 2)
+                    .withDimensions(datum.getDimensions());
+            Assert.assertEquals(expected, datum);
+            Assert.assertEquals(1, datum.getDimensions().size());
+        }
+
+        // Only the data added since the last publication is published.
+        Assert.assertTrue(publish().isEmpty());
+    }
+
+    @Test
+    public void testPublishesMetricsRegisteredWhilePublishing() throws Exception {
+        factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, MetricsLevel.DETAILED, ALL_DIMENSIONS,
+                false);
+        int threads = 4;
+        int scopesPerThread = 2000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        long sampleCount = 0;
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                String prefix = "Metric-" + t + "-";
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < scopesPerThread; i++) {
+                        IMetricsScope scope = factory.createMetrics();
+                        scope.addData(prefix + i, 1, StandardUnit.Count);
+                        scope.end();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                while (!future.isDone()) {
+                    for (MetricDatum datum : publish()) {
+                        sampleCount += datum.getStatisticValues().getSampleCount().longValue();
+                    }
+                }
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        for (MetricDatum datum : publish()) {
+            sampleCount += datum.getStatisticValues().getSampleCount().longValue();
+        }
+
+        Assert.assertEquals(threads * scopesPerThread, sampleCount);
+    }
+
+    @Test
+    public void testAppliesDimensionsToDataAddedBeforeThem() {
+        factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, MetricsLevel.DETAILED, ALL_DIMENSIONS,
+                false);
+        MetricHandle handle = factory.registerMetric("Time", StandardUnit.Milliseconds);
+        for (String shardId : new String[] { "shard-1", "shard-0" }) {
+            StripedMetricsScope scope = (StripedMetricsScope) factory.createMetrics();
+            scope.addData(handle, 5, MetricsLevel.SUMMARY);
+            scope.addDimension("ShardId", shardId);
+            scope.addDimension("Operation", "ProcessTask");
+            scope.end();
+        }
+
+        List<MetricDatum> data = publish();
+        Assert.assertEquals(2, data.size());
+        for (MetricDatum datum : data) {
+            String shardId = datum.getDimensions().get(1).getValue();
+            Assert.assertEquals(TestHelper.constructDatum("Time", StandardUnit.Milliseconds, 5, 5, 5, 1)
+                    .withDimensions(TestHelper.constructDimension("Operation", "ProcessTask"),
+                            TestHelper.constructDimension("ShardId", shardId)),
+                    datum);
+        }
+    }
+
+    @Test
+    public void testDropsDataBelowMetricsLevelAndDisabledDimensions() {
+        factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, MetricsLevel.SUMMARY,
+                ImmutableSet.of("Operation"), false);
+        for (String shardId : new String[] { "shard-0", "shard-1" }) {
+            IMetricsScope scope = factory.createMetrics();
+            scope.addDimension("Operation", "ProcessTask");
+            scope.addDimension("ShardId", shardId);
+            scope.addData("Summary", 1, StandardUnit.Count, MetricsLevel.SUMMARY);
+            scope.addData("Detailed", 1, StandardUnit.Count, MetricsLevel.DETAILED);
+            scope.addData("Default", 1, StandardUnit.Count);
+            scope.end();
+        }
+
+        List<MetricDatum> data = publish();
+        Assert.assertEquals(1, data.size());
+        Assert.assertEquals(TestHelper.constructDatum("Summary", StandardUnit.Count, 1, 1, 2, 2)
+                .withDimensions(TestHelper.constructDimension("Operation", "ProcessTask")), data.get(0));
+    }
+
+    @Test
+    public void testPublishesLatencyHistograms() {
+        factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, MetricsLevel.DETAILED, ALL_DIMENSIONS,
+                true);
+        IMetricsScope scope = factory.createMetrics();
+        for (int i = 0; i < 1000; i++) {
+            scope.addData("Time", i % 10, StandardUnit.Milliseconds);
+        }
+        scope.addData("Time", 1000, StandardUnit.Milliseconds);
+        scope.addData("Records", 3, StandardUnit.Count);
+        scope.end();
+
+        Map<String, MetricDatum> data = new HashMap<String, MetricDatum>();
+        for (MetricDatum datum : publish()) {
+            data.put(datum.getMetricName(), datum);
+        }
+        Assert.assertEquals(TestHelper.constructDatum("Records", StandardUnit.Count, 3, 3, 3, 1)
+                .withDimensions(new ArrayList<Dimension>()),
+                data.get("Records"));
+
+        MetricDatum time = data.get("Time");
+        Assert.assertNull(time.getStatisticValues());
+        Assert.assertEquals(time.getValues().size(), time.getCounts().size());
+        double count = 0.0;
+        Map<Double, Double> counts = new HashMap<Double, Double>();
+        for (int i = 0; i < time.getValues().size(); i++) {
+            count += time.getCounts().get(i);
+            counts.put(time.getValues().get(i), time.getCounts().get(i));
+        }
+        Assert.assertEquals(1001.0, count, 0.0);
+        // Values below 16 are exact, larger ones are within 1/8 of their value.
+        Assert.assertEquals(100.0, counts.get(9.0), 0.0);
+        Assert.assertEquals(1, counts.keySet().stream().filter(v -> v > 900 && v < 1100).count());
+    }
+
+    @Test
+    public void testForgetsIdleDimensions() {
+        factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, MetricsLevel.DETAILED, ALL_DIMENSIONS,
+                false);
+        IMetricsScope scope = factory.createMetrics();
+        scope.addDimension("ShardId", "shard-0");
+        scope.addData("Records", 1, StandardUnit.Count);
+        scope.end();
+        Assert.assertEquals(1, publish().size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(publish().isEmpty());
+        }
+
+        scope = factory.createMetrics();
+        scope.addDimension("ShardId", "shard-0");
+        scope.addData("Records", 2, StandardUnit.Count);
+        scope.end();
+        Assert.assertEquals(TestHelper.constructDatum("Records", StandardUnit.Count, 2, 2, 2, 1)
+                .withDimensions(TestHelper.constructDimension("ShardId", "shard-0")), publish().get(0));
+    }
+
+    @Test
+    public void testPublishesAtShutdown() {
+        factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, MetricsLevel.DETAILED, ALL_DIMENSIONS,
+                false);
+        IMetricsScope scope = factory.createMetrics();
+        scope.addData("Records", 1, StandardUnit.Count);
+        scope.end();
+        factory.shutdown();
+        factory = null;
+        Assert.assertEquals(1, published.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddDataAfterEnd() {
+        factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, MetricsLevel.DETAILED, ALL_DIMENSIONS,
+                false);
+        IMetricsScope scope = factory.createMetrics();
+        scope.end();
+        scope.addData("Records", 1, StandardUnit.Count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMetricWithDifferentUnit() {
+        factory = new StripedMetricsFactory(publisher, BUFFER_TIME_MILLIS, MetricsLevel.DETAILED, ALL_DIMENSIONS,
+                false);
+        factory.registerMetric("Records", StandardUnit.Count);
+        factory.createMetrics().addData("Records", 1, StandardUnit.Bytes);
+    }
+}
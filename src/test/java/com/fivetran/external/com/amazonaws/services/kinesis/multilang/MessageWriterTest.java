@@ -14,10 +14,15 @@
  */
 package com.fivetran.external.com.amazonaws.services.kinesis.multilang;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -32,7 +37,9 @@ import org.mockito.Mockito;
 
 import com.fivetran.external.com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
 import com.amazonaws.services.kinesis.model.Record;
+import com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages.InitializeMessage;
 import com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages.Message;
+import com.fivetran.external.com.amazonaws.services.kinesis.multilang.messages.ShutdownMessage;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -148,6 +155,81 @@ public class MessageWriterTest {
 
     }
 
+    @Test
+    public void writeInitializeMessageOfferingBinaryFramingTest() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        messageWriter = new MessageWriter().initialize(output, shardId, new ObjectMapper(),
+                Executors.newCachedThreadPool());
+
+        messageWriter.writeInitializeMessage(new InitializationInput().withShardId(shardId)).get();
+        messageWriter.writeInitializeMessage(new InitializationInput().withShardId(shardId), MessageFraming.BINARY)
+                .get();
+
+        String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split(System.lineSeparator());
+        Assert.assertEquals(2, lines.length);
+        Assert.assertFalse(lines[0].contains("framing"));
+        InitializeMessage message = (InitializeMessage) new ObjectMapper().readValue(lines[1], Message.class);
+        Assert.assertEquals("binary", message.getFraming());
+    }
+
+    @Test
+    public void writeProcessRecordsMessageBinaryFramingTest() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        messageWriter = new MessageWriter().initialize(output, shardId, new ObjectMapper(),
+                Executors.newCachedThreadPool());
+        messageWriter.useBinaryFraming();
+        List<Record> records = new ArrayList<>();
+        records.add(new Record().withData(ByteBuffer.wrap("kitten".getBytes()).asReadOnlyBuffer())
+                .withPartitionKey("some cats").withSequenceNumber("357234807854789057805")
+                .withApproximateArrivalTimestamp(new Date(1234L)));
+        records.add(new Record());
+
+        Assert.assertTrue(messageWriter.writeProcessRecordsMessage(
+                new ProcessRecordsInput().withRecords(records).withMillisBehindLatest(42L)).get());
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+        Assert.assertEquals(1 + 8 + 4, input.readInt());
+        Assert.assertEquals(BinaryFrameWriter.PROCESS_RECORDS_FRAME, input.readByte());
+        Assert.assertEquals(42L, input.readLong());
+        Assert.assertEquals(2, input.readInt());
+
+        int frameLength = input.readInt();
+        Assert.assertEquals(BinaryFrameWriter.RECORD_FRAME, input.readByte());
+        Assert.assertEquals("some cats", readString(input));
+        Assert.assertEquals("357234807854789057805", readString(input));
+        Assert.assertEquals(BinaryFrameWriter.NO_VALUE, input.readLong());
+        Assert.assertEquals(1234L, input.readLong());
+        byte[] data = new byte[frameLength - (1 + 2 + 9 + 2 + 21 + 8 + 8)];
+        input.readFully(data);
+        Assert.assertEquals("kitten", new String(data, StandardCharsets.UTF_8));
+
+        Assert.assertEquals(1 + 2 + 2 + 8 + 8, input.readInt());
+        Assert.assertEquals(BinaryFrameWriter.RECORD_FRAME, input.readByte());
+        Assert.assertEquals("", readString(input));
+        Assert.assertEquals("", readString(input));
+        Assert.assertEquals(BinaryFrameWriter.NO_VALUE, input.readLong());
+        Assert.assertEquals(BinaryFrameWriter.NO_VALUE, input.readLong());
+        Assert.assertEquals(-1, input.read());
+    }
+
+    @Test
+    public void writeShutdownMessageBinaryFramingTest() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        messageWriter = new MessageWriter().initialize(output, shardId, new ObjectMapper(),
+                Executors.newCachedThreadPool());
+        messageWriter.useBinaryFraming();
+
+        Assert.assertTrue(messageWriter.writeShutdownMessage(ShutdownReason.TERMINATE).get());
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+        byte[] json = new byte[input.readInt() - 1];
+        Assert.assertEquals(BinaryFrameWriter.JSON_FRAME, input.readByte());
+        input.readFully(json);
+        ShutdownMessage message = (ShutdownMessage) new ObjectMapper().readValue(json, Message.class);
+        Assert.assertEquals(ShutdownReason.TERMINATE.toString(), message.getReason());
+        Assert.assertEquals(-1, input.read());
+    }
+
     @Test
     public void closeWriterTest() throws IOException {
         Assert.assertTrue(this.messageWriter.isOpen());
@@ -162,4 +244,10 @@ public class MessageWriterTest {
             // This should happen.
         }
     }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
 }
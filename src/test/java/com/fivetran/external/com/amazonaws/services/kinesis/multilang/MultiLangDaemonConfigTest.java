@@ -84,6 +84,19 @@ public class MultiLangDaemonConfigTest {
         assertNotNull(deamonConfig.getRecordProcessorFactory());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void messageFramingValidation() throws IOException {
+        String properties = "executableName = randomEXE \n" + "applicationName = testApp \n"
+                + "streamName = fakeStream \n" + "AWSCredentialsProvider = DefaultAWSCredentialsProviderChain\n"
+                + "messageFraming = protobuf";
+        ClassLoader classLoader = Mockito.mock(ClassLoader.class);
+
+        Mockito.doReturn(new ByteArrayInputStream(properties.getBytes())).when(classLoader)
+                .getResourceAsStream(FILENAME);
+
+        new MultiLangDaemonConfig(FILENAME, classLoader, buildMockConfigurator());
+    }
+
     @Test
     public void propertyValidation() {
         String propertiesNoExecutableName = "applicationName = testApp \n" + "streamName = fakeStream \n"
@@ -57,6 +57,7 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -109,6 +110,33 @@ public class MultiLangProtocolTest {
         assertThat(protocol.initialize(), equalTo(true));
     }
 
+    @Test
+    public void initializeWithAcceptedBinaryFramingTest() {
+        protocol = new MultiLangProtocolForTesting(messageReader, messageWriter,
+                new InitializationInput().withShardId(shardId), configuration, MessageFraming.BINARY);
+        StatusMessage statusMessage = new StatusMessage("initialize");
+        statusMessage.setFraming("binary");
+        when(messageWriter.writeInitializeMessage(any(InitializationInput.class), eq(MessageFraming.BINARY)))
+                .thenReturn(buildFuture(true));
+        when(messageReader.getNextMessageFromSTDOUT()).thenReturn(buildFuture(statusMessage, Message.class));
+
+        assertThat(protocol.initialize(), equalTo(true));
+        verify(messageWriter).useBinaryFraming();
+    }
+
+    @Test
+    public void initializeWithDeclinedBinaryFramingTest() {
+        protocol = new MultiLangProtocolForTesting(messageReader, messageWriter,
+                new InitializationInput().withShardId(shardId), configuration, MessageFraming.BINARY);
+        when(messageWriter.writeInitializeMessage(any(InitializationInput.class), eq(MessageFraming.BINARY)))
+                .thenReturn(buildFuture(true));
+        when(messageReader.getNextMessageFromSTDOUT())
+                .thenReturn(buildFuture(new StatusMessage("initialize"), Message.class));
+
+        assertThat(protocol.initialize(), equalTo(true));
+        verify(messageWriter, never()).useBinaryFraming();
+    }
+
     @Test
     public void processRecordsTest() throws InterruptedException, ExecutionException {
         when(messageWriter.writeProcessRecordsMessage(any(ProcessRecordsInput.class))).thenReturn(buildFuture(true));
@@ -241,6 +269,14 @@ public class MultiLangProtocolTest {
             super(messageReader, messageWriter, initializationInput, configuration);
         }
 
+        MultiLangProtocolForTesting(final MessageReader messageReader,
+                                  final MessageWriter messageWriter,
+                                  final InitializationInput initializationInput,
+                                  final KinesisClientLibConfiguration configuration,
+                                  final MessageFraming messageFraming) {
+            super(messageReader, messageWriter, initializationInput, configuration, messageFraming);
+        }
+
         @Override
         protected void haltJvm(final int exitStatus) {
             throw new NullPointerException();